@@ -10,7 +10,7 @@ import uk.ac.ebi.mydas.model.DasSequence;
 public class FastaParser {
 	private Scanner scanner;
 	private Map<String,DasSequence> sequences;
-	private String currentSequence=null;
+	private StringBuilder currentSequence=null;
 	private String currentHeader=null;
 	private String fileName;
 
@@ -26,7 +26,7 @@ public class FastaParser {
 				processLine( scanner.nextLine() );
 			}
 			String id=currentHeader.split(" ")[0];
-			sequences.put(id,new DasSequence(id, currentSequence, 1, fileName, currentHeader));
+			sequences.put(id,new DasSequence(id, currentSequence.toString(), 1, fileName, currentHeader));
 		} finally {
 			//ensure the underlying stream is always closed
 			scanner.close();
@@ -36,12 +36,12 @@ public class FastaParser {
 		if (aLine.startsWith(">")){
 			if (currentSequence!=null){
 				String id=currentHeader.split(" ")[0];
-				sequences.put(id,new DasSequence(id, currentSequence, 1, fileName, currentHeader));
+				sequences.put(id,new DasSequence(id, currentSequence.toString(), 1, fileName, currentHeader));
 			}
 			currentHeader=aLine.substring(1).trim();
-			currentSequence="";
+			currentSequence=new StringBuilder();
 		}else 
-			currentSequence+=aLine.trim();
+			currentSequence.append(aLine.trim());
 			
 	}
 	public Map<String,DasSequence> parse() throws Exception{
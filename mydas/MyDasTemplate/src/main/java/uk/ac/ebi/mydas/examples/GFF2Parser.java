@@ -1,11 +1,24 @@
 package uk.ac.ebi.mydas.examples;
 
+import java.io.BufferedReader;
 import java.io.FileInputStream;
-import java.io.FileNotFoundException;
 import java.io.InputStream;
-import java.util.Scanner;
-import java.util.Collection;
+import java.io.InputStreamReader;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
 import uk.ac.ebi.mydas.model.DasAnnotatedSegment;
 import uk.ac.ebi.mydas.model.DasFeature;
 import uk.ac.ebi.mydas.model.DasFeatureOrientation;
@@ -13,138 +26,215 @@ import uk.ac.ebi.mydas.model.DasMethod;
 import uk.ac.ebi.mydas.model.DasPhase;
 import uk.ac.ebi.mydas.model.DasType;
 
+/**
+ * Parses a GFF 2 file into segments of features.
+ * <p/>
+ * The lines are read in chunks, which are parsed by a pool of threads and merged back in
+ * the order of the file, so the result does not depend on the number of threads. Segments
+ * and types are looked up in hash maps, and the bounds of a segment grow as its features
+ * are added, so the time taken is proportional to the number of lines.
+ */
 public class GFF2Parser {
-	private Scanner scanner;
-	private ArrayList<DasAnnotatedSegment> segments;
-	private ArrayList<DasType> types;
+	/**
+	 * Number of lines parsed at a time by a thread.
+	 */
+	private static final int CHUNK_LINES = 8192;
+	/**
+	 * Size of the buffer the file is read with.
+	 */
+	private static final int BUFFER_SIZE = 1 << 20;
+
+	private final BufferedReader reader;
+	private final int threads;
+	/**
+	 * Segments being built, in the order they appear in the file.
+	 */
+	private final Map<String, SegmentBuilder> segments = new LinkedHashMap<String, SegmentBuilder>();
+	/**
+	 * List of the types used in the file, in the order they appear.
+	 */
+	private final ArrayList<DasType> types = new ArrayList<DasType>();
+	private final Set<String> typeIds = new HashSet<String>();
+	/**
+	 * Types and methods shared by the features, by id. Filled concurrently by the threads parsing the chunks.
+	 */
+	private final ConcurrentHashMap<String, DasType> typesById = new ConcurrentHashMap<String, DasType>();
+	private final ConcurrentHashMap<String, DasMethod> methodsById = new ConcurrentHashMap<String, DasMethod>();
 	private String version,date;
 	private int featureid=1;
 
+	/**
+	 * Parses the file with as many threads as there are processors.
+	 * @param gffdoc the GFF file, closed once parsed.
+	 */
 	public GFF2Parser(InputStream gffdoc){
-		scanner= new Scanner(gffdoc);
-		segments= new ArrayList<DasAnnotatedSegment>();
-		types= new ArrayList<DasType>();
+		this(gffdoc, Runtime.getRuntime().availableProcessors());
 	}
-	private final void processLineByLine() throws Exception{
+
+	/**
+	 * @param gffdoc the GFF file, closed once parsed.
+	 * @param threads the number of threads parsing the lines; with 1 the file is parsed by the calling thread.
+	 */
+	public GFF2Parser(InputStream gffdoc, int threads){
+		this.reader = new BufferedReader(new InputStreamReader(gffdoc), BUFFER_SIZE);
+		this.threads = Math.max(threads, 1);
+	}
+
+	private void processLineByLine() throws Exception{
+		ExecutorService executor = (threads > 1) ? Executors.newFixedThreadPool(threads) : null;
+		LinkedList<Future<Chunk>> pending = new LinkedList<Future<Chunk>>();
 		try {
-			//first use a Scanner to get each line
-			while ( scanner.hasNextLine() ){
-				processLine( scanner.nextLine() );
+			List<String> lines = new ArrayList<String>(CHUNK_LINES);
+			int firstFeatureId = featureid;
+			String line;
+			while ((line = reader.readLine()) != null) {
+				if (line.startsWith("##")) {
+					if (!processComment(line.substring(2)))
+						continue;
+				} else if (line.length() == 0 || line.charAt(0) == '#') {
+					continue;
+				} else {
+					featureid++;
+				}
+				// sequence regions go with the features, so that segments are created in the order of the file
+				lines.add(line);
+				if (lines.size() == CHUNK_LINES) {
+					submit(new Chunk(lines, firstFeatureId), executor, pending);
+					lines = new ArrayList<String>(CHUNK_LINES);
+					firstFeatureId = featureid;
+				}
 			}
+			submit(new Chunk(lines, firstFeatureId), executor, pending);
+			while (!pending.isEmpty())
+				merge(pending.removeFirst());
 		} finally {
 			//ensure the underlying stream is always closed
-			scanner.close();
+			reader.close();
+			if (executor != null)
+				executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Parses the chunk, on the executor if there is one.  At most two chunks per thread are kept
+	 * waiting, the oldest being merged first, which also bounds the memory used by the lines read ahead.
+	 */
+	private void submit(Chunk chunk, ExecutorService executor, LinkedList<Future<Chunk>> pending) throws Exception{
+		if (executor == null) {
+			merge(chunk.call());
+			return;
 		}
+		pending.add(executor.submit(chunk));
+		if (pending.size() > 2 * threads)
+			merge(pending.removeFirst());
 	}
-	private void processLine(String aLine) throws Exception{
-		if (aLine.startsWith("##"))
-			processComment(aLine.substring(2));
-		else 
-			processFeature(aLine);
-			
+
+	private void merge(Future<Chunk> future) throws Exception{
+		try {
+			merge(future.get());
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof Exception)
+				throw (Exception) e.getCause();
+			throw e;
+		}
 	}
-	private void processComment(String aComment) throws Exception{
+
+	private void merge(Chunk chunk){
+		for (SegmentBuilder part: chunk.segments.values()) {
+			SegmentBuilder segment = segments.get(part.id);
+			if (segment == null) {
+				segments.put(part.id, part);
+			} else {
+				segment.include(part.start, part.stop);
+				segment.features.addAll(part.features);
+			}
+		}
+		for (DasType type: chunk.newTypes)
+			if (typeIds.add(type.getId()))
+				types.add(type);
+	}
+
+	/**
+	 * @return true if the comment is a sequence-region, to be processed with the features.
+	 */
+	private boolean processComment(String aComment){
 		if (aComment.startsWith("gff-version"))
 			version=aComment.substring(12);
 		else if (aComment.startsWith("date"))
 			date=aComment.substring(5);
 		else if (aComment.startsWith("sequence-region"))
-			processSequenceRegion(aComment.substring(16).trim());
-	}
-	private void processSequenceRegion(String sequenceRegion) throws Exception{
-		String[] parts = sequenceRegion.split(" ");
-		if (parts.length!=3)
-			throw new Exception("Parsing Error: a sequence-region doesn't have the right number of fields ["+sequenceRegion+"]");
-		segments.add(new DasAnnotatedSegment(parts[0],new Integer(parts[1]),new Integer(parts[2]),"FromFile",parts[0], new ArrayList<DasFeature>()));
-	}
-	private void processFeature(String afeature) throws Exception{
-		String[] parts = afeature.split("\t");
-		if (parts.length<8)
-			throw new Exception("Parsing Error: A feature doesn't have the right number of fields ["+afeature+"]");
-		Double score=null;
-		if (!parts[5].equals(".")){
-			try{
-				score =Double.parseDouble(parts[5]);
-			}catch (NumberFormatException nfe){
-				throw new Exception("Parsing Error: the feature "+parts[2]+" has a bad score field ["+parts[6]+"]",nfe );
-			}
-		}
-		
-		DasFeatureOrientation orientation=null;
-		if (parts[6].equals("+"))
-			orientation= DasFeatureOrientation.ORIENTATION_SENSE_STRAND;
-		else if (parts[6].equals("-"))
-			orientation= DasFeatureOrientation.ORIENTATION_ANTISENSE_STRAND;
-		else if (parts[6].equals("."))
-			orientation= DasFeatureOrientation.ORIENTATION_NOT_APPLICABLE;
-		else
-			throw new Exception("Parsing Error: the feature "+parts[2]+" has a bad orientation field ["+parts[6]+"]" );
-
-		DasPhase phase=null;
-		if (parts[7].equals("0"))
-			phase= DasPhase.PHASE_READING_FRAME_0;
-		else if (parts[7].equals("1"))
-			phase= DasPhase.PHASE_READING_FRAME_1;
-		else if (parts[7].equals("2"))
-			phase= DasPhase.PHASE_READING_FRAME_2;
-		else if (parts[7].equals("."))
-			phase= DasPhase.PHASE_NOT_APPLICABLE;
-		else
-			throw new Exception("Parsing Error: the feature "+parts[2]+" has a bad orientation field ["+parts[7]+"]" );
-		
-		DasFeature feature=new DasFeature("GFF_feature_"+(featureid++),null,this.getType(parts[2]),new DasMethod(parts[1],parts[1],null),Integer.parseInt(parts[3]),Integer.parseInt(parts[4]),score,orientation,phase,null,null,null,null,null);
-		boolean added=false;
-		for (DasAnnotatedSegment segment:segments){
-			if (segment.getSegmentId().equals(parts[0])){
-				segment.getFeatures().add(feature);
-				
-				if (feature.getStartCoordinate()<segment.getStartCoordinate()){
-					DasAnnotatedSegment newSegment = new DasAnnotatedSegment(segment.getSegmentId(),feature.getStartCoordinate(),segment.getStopCoordinate(),segment.getVersion(),segment.getSegmentLabel(), segment.getFeatures());
-					segments.add(newSegment);
-					segments.remove(segment);
-					segment=newSegment;
-				}
-				if (feature.getStopCoordinate()>segment.getStopCoordinate()){
-					DasAnnotatedSegment newSegment = new DasAnnotatedSegment(segment.getSegmentId(),segment.getStartCoordinate(),feature.getStopCoordinate(),segment.getVersion(),segment.getSegmentLabel(), segment.getFeatures());
-					segments.add(newSegment);
-					segments.remove(segment);
-					segment=newSegment;
-				}
-					
-				
-				added=true;
-				break;
-			}
+			return true;
+		return false;
+	}
+
+	private DasType getType(String type){
+		DasType dasType = typesById.get(type);
+		if (dasType == null) {
+			DasType newtype = new DasType(type,null,null,null);
+			dasType = typesById.putIfAbsent(type, newtype);
+			if (dasType == null)
+				dasType = newtype;
 		}
-		if(!added){
-			ArrayList<DasFeature> features=new ArrayList<DasFeature>();
-			features.add(feature);
-			segments.add(new DasAnnotatedSegment(parts[0],new Integer(parts[3]),new Integer(parts[4]),"FromFile",parts[0], features));
+		return dasType;
+	}
+
+	private DasMethod getMethod(String method) throws Exception{
+		DasMethod dasMethod = methodsById.get(method);
+		if (dasMethod == null) {
+			DasMethod newMethod = new DasMethod(method,method,null);
+			dasMethod = methodsById.putIfAbsent(method, newMethod);
+			if (dasMethod == null)
+				dasMethod = newMethod;
 		}
+		return dasMethod;
 	}
-	private DasType getType(String type){
-		for(DasType t: types)
-			if (t.getId().equals(type))
-				return t;
-		DasType newtype= new DasType(type,null,null,null);
-		types.add(newtype);
-		return newtype;
+
+	/**
+	 * Splits the line on tabs, faster than String.split as it does not go through a regular
+	 * expression.  The last field holds the rest of the line.
+	 * @return the number of fields found.
+	 */
+	private static int split(String line, String[] fields){
+		int count = 0;
+		int from = 0;
+		while (count < fields.length - 1) {
+			int tab = line.indexOf('\t', from);
+			if (tab < 0)
+				break;
+			fields[count++] = line.substring(from, tab);
+			from = tab + 1;
+		}
+		fields[count++] = line.substring(from);
+		return count;
 	}
 
 	public Collection<DasAnnotatedSegment> parse() throws Exception{
 		this.processLineByLine();
-		return this.segments;
+		ArrayList<DasAnnotatedSegment> parsed = new ArrayList<DasAnnotatedSegment>(segments.size());
+		for (SegmentBuilder segment: segments.values())
+			parsed.add(new DasAnnotatedSegment(segment.id,segment.start,segment.stop,"FromFile",segment.id, segment.features));
+		segments.clear();
+		return parsed;
 	}
-	
+
+	/**
+	 * Parses a GFF file and reports the time taken.
+	 * @param a the path of the file, and optionally the number of threads.
+	 */
 	public static void main(String[] a){
+		if (a.length < 1) {
+			System.err.println("Usage: GFF2Parser <gff file> [threads]");
+			return;
+		}
 		try {
-			GFF2Parser parser = new GFF2Parser((new FileInputStream("/Users/4ndr01d3/Documents/EBI/MyDasTemplate/src/main/webapp/CHROMOSOME_MtDNA.gff")));
-			parser.parse();
-		} catch (FileNotFoundException e) {
-			//  Auto-generated catch block
-			e.printStackTrace();
+			long start = System.currentTimeMillis();
+			GFF2Parser parser = (a.length > 1)
+					? new GFF2Parser(new FileInputStream(a[0]), Integer.parseInt(a[1]))
+					: new GFF2Parser(new FileInputStream(a[0]));
+			Collection<DasAnnotatedSegment> segments = parser.parse();
+			System.out.println("Parsed " + (parser.featureid - 1) + " features on " + segments.size() + " segments in "
+					+ (System.currentTimeMillis() - start) + " ms");
 		} catch (Exception e) {
-			//  Auto-generated catch block
 			e.printStackTrace();
 		}
 	}
@@ -158,4 +248,117 @@ public class GFF2Parser {
 		return date;
 	}
 
+	/**
+	 * A segment whose bounds grow as features are added to it.
+	 */
+	private static class SegmentBuilder {
+		private final String id;
+		private int start;
+		private int stop;
+		private final ArrayList<DasFeature> features = new ArrayList<DasFeature>();
+
+		private SegmentBuilder(String id, int start, int stop){
+			this.id = id;
+			this.start = start;
+			this.stop = stop;
+		}
+
+		private void include(int start, int stop){
+			if (start < this.start)
+				this.start = start;
+			if (stop > this.stop)
+				this.stop = stop;
+		}
+	}
+
+	/**
+	 * A run of lines of the file, parsed into the features of each segment it mentions.
+	 */
+	private class Chunk implements Callable<Chunk> {
+		private final List<String> lines;
+		private int nextFeatureId;
+		private final Map<String, SegmentBuilder> segments = new LinkedHashMap<String, SegmentBuilder>();
+		/**
+		 * Types used in the chunk, in the order they appear.
+		 */
+		private final List<DasType> newTypes = new ArrayList<DasType>();
+		private final Set<String> typeIds = new HashSet<String>();
+
+		private Chunk(List<String> lines, int firstFeatureId){
+			this.lines = lines;
+			this.nextFeatureId = firstFeatureId;
+		}
+
+		public Chunk call() throws Exception{
+			String[] parts = new String[9];
+			for (String line: lines) {
+				if (line.startsWith("##"))
+					processSequenceRegion(line.substring(17).trim());
+				else
+					processFeature(line, parts);
+			}
+			return this;
+		}
+
+		private void processSequenceRegion(String sequenceRegion) throws Exception{
+			String[] parts = sequenceRegion.split(" ");
+			if (parts.length!=3)
+				throw new Exception("Parsing Error: a sequence-region doesn't have the right number of fields ["+sequenceRegion+"]");
+			getSegment(parts[0], Integer.parseInt(parts[1]), Integer.parseInt(parts[2]));
+		}
+
+		private void processFeature(String afeature, String[] parts) throws Exception{
+			if (split(afeature, parts)<8)
+				throw new Exception("Parsing Error: A feature doesn't have the right number of fields ["+afeature+"]");
+			Double score=null;
+			if (!parts[5].equals(".")){
+				try{
+					score =Double.parseDouble(parts[5]);
+				}catch (NumberFormatException nfe){
+					throw new Exception("Parsing Error: the feature "+parts[2]+" has a bad score field ["+parts[5]+"]",nfe );
+				}
+			}
+
+			DasFeatureOrientation orientation;
+			if (parts[6].equals("+"))
+				orientation= DasFeatureOrientation.ORIENTATION_SENSE_STRAND;
+			else if (parts[6].equals("-"))
+				orientation= DasFeatureOrientation.ORIENTATION_ANTISENSE_STRAND;
+			else if (parts[6].equals("."))
+				orientation= DasFeatureOrientation.ORIENTATION_NOT_APPLICABLE;
+			else
+				throw new Exception("Parsing Error: the feature "+parts[2]+" has a bad orientation field ["+parts[6]+"]" );
+
+			DasPhase phase;
+			if (parts[7].equals("0"))
+				phase= DasPhase.PHASE_READING_FRAME_0;
+			else if (parts[7].equals("1"))
+				phase= DasPhase.PHASE_READING_FRAME_1;
+			else if (parts[7].equals("2"))
+				phase= DasPhase.PHASE_READING_FRAME_2;
+			else if (parts[7].equals("."))
+				phase= DasPhase.PHASE_NOT_APPLICABLE;
+			else
+				throw new Exception("Parsing Error: the feature "+parts[2]+" has a bad phase field ["+parts[7]+"]" );
+
+			int start = Integer.parseInt(parts[3]);
+			int stop = Integer.parseInt(parts[4]);
+			DasType type = getType(parts[2]);
+			if (typeIds.add(type.getId()))
+				newTypes.add(type);
+			DasFeature feature=new DasFeature("GFF_feature_"+(nextFeatureId++),null,type,getMethod(parts[1]),start,stop,score,orientation,phase,null,null,null,null,null);
+			getSegment(parts[0], start, stop).features.add(feature);
+		}
+
+		private SegmentBuilder getSegment(String id, int start, int stop){
+			SegmentBuilder segment = segments.get(id);
+			if (segment == null) {
+				segment = new SegmentBuilder(id, start, stop);
+				segments.put(id, segment);
+			} else {
+				segment.include(start, stop);
+			}
+			return segment;
+		}
+	}
 }
@@ -0,0 +1,103 @@
+package uk.ac.ebi.mydas.examples;
+
+import java.io.ByteArrayInputStream;
+import java.util.Collection;
+import java.util.Iterator;
+
+import uk.ac.ebi.mydas.model.DasAnnotatedSegment;
+import uk.ac.ebi.mydas.model.DasFeature;
+
+/**
+ * Times {@link GFF2Parser} on generated GFF files of growing size, with one thread and with
+ * one thread per processor, checking first that both give the same segments and features.
+ * The time per line should stay about the same as the files grow.
+ * <p/>
+ * Not run as part of the tests; run it with
+ * <pre>mvn test-compile exec:java -Dexec.classpathScope=test
+ *     -Dexec.mainClass=uk.ac.ebi.mydas.examples.GFF2ParserBenchmark [-Dexec.args="maxLines segments"]</pre>
+ */
+public class GFF2ParserBenchmark {
+
+	private static final String[] TYPES = {"gene", "mRNA", "exon", "CDS", "five_prime_UTR", "three_prime_UTR", "intron", "repeat_region"};
+
+	public static void main(String[] args) throws Exception{
+		int maxLines = (args.length > 0) ? Integer.parseInt(args[0]) : 1000000;
+		int segments = (args.length > 1) ? Integer.parseInt(args[1]) : 1000;
+		int threads = Runtime.getRuntime().availableProcessors();
+
+		byte[] sample = generate(Math.min(maxLines, 100000), segments);
+		Collection<DasAnnotatedSegment> expected = new GFF2Parser(new ByteArrayInputStream(sample), 1).parse();
+		Collection<DasAnnotatedSegment> actual = new GFF2Parser(new ByteArrayInputStream(sample), threads).parse();
+		compare(expected, actual);
+		System.out.println("Identical segments with 1 and " + threads + " threads");
+
+		for (int lines = maxLines / 8; lines <= maxLines; lines *= 2) {
+			byte[] gff = generate(lines, segments);
+			long single = time(gff, 1);
+			long parallel = time(gff, threads);
+			System.out.println(lines + " lines: 1 thread " + single + " ms (" + (single * 1000000L / lines) + " ns/line), "
+					+ threads + " threads " + parallel + " ms (" + (parallel * 1000000L / lines) + " ns/line)");
+		}
+	}
+
+	private static long time(byte[] gff, int threads) throws Exception{
+		System.gc();
+		long start = System.currentTimeMillis();
+		new GFF2Parser(new ByteArrayInputStream(gff), threads).parse();
+		return System.currentTimeMillis() - start;
+	}
+
+	/**
+	 * Writes a GFF file whose features are spread over the segments in turn, as in a file
+	 * that is not sorted by segment.
+	 */
+	private static byte[] generate(int lines, int segments) throws Exception{
+		StringBuilder gff = new StringBuilder(lines * 64);
+		gff.append("##gff-version 2\n##date 2012-01-01\n");
+		gff.append("##sequence-region chr0 1 1000\n");
+		for (int i = 0; i < lines; i++) {
+			int start = 1 + (i / segments) * 50;
+			gff.append("chr").append(i % segments).append('\t')
+					.append((i % 3 == 0) ? "curated" : "predicted").append('\t')
+					.append(TYPES[i % TYPES.length]).append('\t')
+					.append(start).append('\t').append(start + 10 + i % 500).append('\t')
+					.append((i % 2 == 0) ? "." : Double.toString(i / 7.0)).append('\t')
+					.append("+-.".charAt(i % 3)).append('\t')
+					.append("012.".charAt(i % 4)).append('\t')
+					.append("Sequence \"F").append(i).append("\"\n");
+		}
+		return gff.toString().getBytes("ASCII");
+	}
+
+	private static void compare(Collection<DasAnnotatedSegment> expected, Collection<DasAnnotatedSegment> actual){
+		if (expected.size() != actual.size())
+			throw new IllegalStateException("Different number of segments");
+		Iterator<DasAnnotatedSegment> others = actual.iterator();
+		for (DasAnnotatedSegment segment: expected) {
+			DasAnnotatedSegment other = others.next();
+			if (!segment.getSegmentId().equals(other.getSegmentId())
+					|| !segment.getStartCoordinate().equals(other.getStartCoordinate())
+					|| !segment.getStopCoordinate().equals(other.getStopCoordinate())
+					|| segment.getFeatures().size() != other.getFeatures().size())
+				throw new IllegalStateException("Segment " + segment.getSegmentId() + " differs");
+			Iterator<DasFeature> otherFeatures = other.getFeatures().iterator();
+			for (DasFeature feature: segment.getFeatures())
+				if (!same(feature, otherFeatures.next()))
+					throw new IllegalStateException("Feature " + feature.getFeatureId() + " differs");
+		}
+	}
+
+	/**
+	 * Compares the fields set by the parser (DasFeature.equals fails on features without a score).
+	 */
+	private static boolean same(DasFeature feature, DasFeature other){
+		return feature.getFeatureId().equals(other.getFeatureId())
+				&& feature.getStartCoordinate() == other.getStartCoordinate()
+				&& feature.getStopCoordinate() == other.getStopCoordinate()
+				&& feature.getType().equals(other.getType())
+				&& feature.getMethod().equals(other.getMethod())
+				&& (feature.getScore() == null ? other.getScore() == null : feature.getScore().equals(other.getScore()))
+				&& feature.getOrientation() == other.getOrientation()
+				&& feature.getPhase() == other.getPhase();
+	}
+}
@@ -27,7 +27,7 @@ import org.apache.log4j.Logger;
 import uk.ac.ebi.mydas.configuration.Mydasserver.Datasources.Datasource.Version.Capability;
 import uk.ac.ebi.mydas.controller.MydasServlet;
 import uk.ac.ebi.mydas.datasource.AnnotationDataSource;
-import uk.ac.ebi.mydas.exceptions.ConfigurationException;
+import uk.ac.ebi.mydas.datasource.TileCachingAnnotationDataSource;
 import uk.ac.ebi.mydas.exceptions.DataSourceException;
 
 import java.net.MalformedURLException;
@@ -253,6 +253,7 @@ public class DataSourceConfiguration {
             ClassLoader classLoader = Thread.currentThread().getContextClassLoader();
             dataSource = (AnnotationDataSource) (classLoader.loadClass(className)).newInstance();
             if (dataSource != null) {
+                dataSource = TileCachingAnnotationDataSource.decorate(dataSource, getDataSourceProperties());
                 datasourceOK = true;
             }
         } catch (ClassNotFoundException e) {
@@ -284,19 +285,37 @@ public class DataSourceConfiguration {
             throw new DataSourceException("An attempt has been made to access an AnnotationDataSource that has not been successfully loaded.");
         }
         if (this.datasourceOK == null) {
-            /* dynamic data source */
-            loadDataSource();
-            try {
-                MydasServlet.getDataSourceManager().initializeDataSource(this);
-            } catch (ConfigurationException e) {
-                DataSourceException dataSourceException =
-                        new DataSourceException("Could not initialize dynamic data source", e);
-                throw dataSourceException;
-            }
+            /* dynamic data source, initialised on first use or reused from the pool */
+            MydasServlet.getDataSourceManager().acquireDataSource(this);
         }
         return dataSource;
     }
 
+    /**
+     * Used by the DataSourceManager to hand an already initialised instance
+     * to a matched dynamic data source configuration.
+     *
+     * @param dataSource an initialised data source.
+     */
+    public void attachDataSource(AnnotationDataSource dataSource) {
+        this.dataSource = dataSource;
+        this.datasourceOK = true;
+    }
+
+    /**
+     * Used by the DataSourceManager to take back the instance held by a matched
+     * dynamic data source configuration. After this call the configuration no
+     * longer holds a data source.
+     *
+     * @return the data source held by this configuration, or null if there is none.
+     */
+    public AnnotationDataSource detachDataSource() {
+        AnnotationDataSource detached = this.dataSource;
+        this.dataSource = null;
+        this.datasourceOK = false;
+        return detached;
+    }
+
     /**
      * The matcher obtained from the pattern configured for the (dynamic) data
      * source matched against the actual dsn name provided by the user.
@@ -422,13 +441,14 @@ public class DataSourceConfiguration {
     }
 
     /**
-     * Destroy the dynamic data source instantiated by this object,
-     * if applicable. This object should not be used after a call to
-     * this method.
+     * Release the dynamic data source instantiated by this object,
+     * if applicable. Depending on the pool settings of the data source
+     * the instance is either kept for reuse by later requests or destroyed.
+     * This object should not be used after a call to this method.
      */
     public void destroy() {
-        if (isMatchedDynamic() && isOK()) {
-            MydasServlet.getDataSourceManager().destroyDataSource(this);
+        if (isMatchedDynamic() && Boolean.TRUE.equals(datasourceOK) && dataSource != null) {
+            MydasServlet.getDataSourceManager().releaseDataSource(this);
         }
     }
 }
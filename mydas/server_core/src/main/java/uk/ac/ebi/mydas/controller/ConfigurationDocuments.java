@@ -0,0 +1,374 @@
+/*
+ * Copyright 2007 Philip Jones, EMBL-European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *
+ * For further details of the mydas project, including source code,
+ * downloads and documentation, please see:
+ *
+ * http://code.google.com/p/mydas/
+ *
+ */
+
+package uk.ac.ebi.mydas.controller;
+
+import org.xmlpull.v1.XmlPullParserException;
+import org.xmlpull.v1.XmlPullParserFactory;
+import org.xmlpull.v1.XmlSerializer;
+import uk.ac.ebi.mydas.configuration.DataSourceConfiguration;
+import uk.ac.ebi.mydas.configuration.Mydasserver.Datasources.Datasource;
+import uk.ac.ebi.mydas.configuration.Mydasserver.Datasources.Datasource.Version;
+import uk.ac.ebi.mydas.configuration.Mydasserver.Datasources.Datasource.Version.Capability;
+import uk.ac.ebi.mydas.configuration.Mydasserver.Datasources.Datasource.Version.Coordinates;
+import uk.ac.ebi.mydas.configuration.PropertyType;
+import uk.ac.ebi.mydas.configuration.ServerConfiguration;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * The DASDSN and SOURCES documents, including the SOURCES document of each data source.
+ * They only depend on the configuration, so they are rendered once, when the
+ * DataSourceManager is initialised, and kept both plain and gzipped.
+ * <p/>
+ * Matched dynamic data sources are not known in advance; their SOURCES document is
+ * rendered on request with {@link #renderSource(DataSourceConfiguration)}.
+ */
+public class ConfigurationDocuments {
+
+    private static final String DAS_XML_NAMESPACE = null;
+    private static final String INDENTATION_PROPERTY = "http://xmlpull.org/v1/doc/properties.html#serializer-indentation";
+    private static final String INDENTATION_PROPERTY_VALUE = "  ";
+
+    private final ServerConfiguration serverConfiguration;
+
+    private final XmlPullParserFactory pullParserFactory;
+
+    /**
+     * False if the global parameter xml_indentation is set to false.
+     */
+    private final boolean indented;
+
+    /**
+     * The DASDSN document, null if there is no data source.
+     */
+    private final Document dsnDocument;
+
+    /**
+     * The SOURCES document listing all the data sources, null if there is no data source.
+     */
+    private final Document sourcesDocument;
+
+    /**
+     * The SOURCES document of each data source, by dsn.
+     */
+    private final Map<String, Document> sourceDocuments = new HashMap<String, Document>();
+
+    /**
+     * Renders all the documents for the given configuration.  The data sources must
+     * have been initialised, as only those that are OK are reported.
+     *
+     * @param serverConfiguration the loaded configuration.
+     * @throws XmlPullParserException if the XML cannot be generated.
+     * @throws IOException            if the XML cannot be generated.
+     */
+    ConfigurationDocuments(ServerConfiguration serverConfiguration) throws XmlPullParserException, IOException {
+        this.serverConfiguration = serverConfiguration;
+        this.indented = DasCommandManager.isIndented(serverConfiguration);
+        this.pullParserFactory = XmlPullParserFactory.newInstance(System.getProperty(XmlPullParserFactory.PROPERTY_NAME), null);
+        this.pullParserFactory.setNamespaceAware(true);
+
+        List<String> dsns = serverConfiguration.getDsnNames();
+        if (dsns == null || dsns.size() == 0) {
+            dsnDocument = null;
+            sourcesDocument = null;
+        } else {
+            dsnDocument = renderDsn(dsns);
+            sourcesDocument = renderSources(dsns);
+            for (String dsn : dsns) {
+                sourceDocuments.put(dsn, renderSource(serverConfiguration.getDataSourceConfig(dsn)));
+            }
+        }
+    }
+
+    /**
+     * @return the DASDSN document, null if there is no data source.
+     */
+    public Document getDsnDocument() {
+        return dsnDocument;
+    }
+
+    /**
+     * @return the SOURCES document listing all the data sources, null if there is no data source.
+     */
+    public Document getSourcesDocument() {
+        return sourcesDocument;
+    }
+
+    /**
+     * @param dsn the name of a configured data source.
+     * @return the SOURCES document of the data source, null if it was not rendered in advance
+     *         (e.g. a matched dynamic data source).
+     */
+    public Document getSourceDocument(String dsn) {
+        return sourceDocuments.get(dsn);
+    }
+
+    private Document renderDsn(List<String> dsns) throws XmlPullParserException, IOException {
+        Buffer buffer = new Buffer();
+        XmlSerializer serializer = buffer.newSerializer();
+        serializer.startDocument(null, false);
+        serializer.text("\n");
+        if (serverConfiguration.getGlobalConfiguration().getDsnXSLT() != null) {
+            serializer.processingInstruction(serverConfiguration.getGlobalConfiguration().getDsnXSLT());
+            serializer.text("\n");
+        }
+        serializer.docdecl(" DASDSN SYSTEM \"http://www.biodas.org/dtd/dasdsn.dtd\"");
+        serializer.text("\n");
+        serializer.startTag(DAS_XML_NAMESPACE, "DASDSN");
+        for (String dsn : dsns) {
+            DataSourceConfiguration dsnConfig = serverConfiguration.getDataSourceConfig(dsn);
+            serializer.startTag(DAS_XML_NAMESPACE, "DSN");
+            serializer.startTag(DAS_XML_NAMESPACE, "SOURCE");
+            serializer.attribute(DAS_XML_NAMESPACE, "id", dsnConfig.getId());
+
+            // Optional version attribute.
+            if (dsnConfig.getVersion() != null && dsnConfig.getVersion().length() > 0) {
+                serializer.attribute(DAS_XML_NAMESPACE, "version", dsnConfig.getVersion());
+            }
+
+            // If a name has been set, this is used for the element text.  Otherwise, the id is used.
+            if (dsnConfig.getName() != null && dsnConfig.getName().length() > 0) {
+                serializer.text(dsnConfig.getName());
+            } else {
+                serializer.text(dsnConfig.getId());
+            }
+            serializer.endTag(DAS_XML_NAMESPACE, "SOURCE");
+            serializer.startTag(DAS_XML_NAMESPACE, "MAPMASTER");
+            serializer.text(dsnConfig.getMapmaster());
+            serializer.endTag(DAS_XML_NAMESPACE, "MAPMASTER");
+
+            // Optional description element.
+            if (dsnConfig.getDescription() != null && dsnConfig.getDescription().length() > 0) {
+                serializer.startTag(DAS_XML_NAMESPACE, "DESCRIPTION");
+                serializer.text(dsnConfig.getDescription());
+                serializer.endTag(DAS_XML_NAMESPACE, "DESCRIPTION");
+            }
+            serializer.endTag(DAS_XML_NAMESPACE, "DSN");
+        }
+        serializer.endTag(DAS_XML_NAMESPACE, "DASDSN");
+        return buffer.toDocument(serializer, null);
+    }
+
+    private Document renderSources(List<String> dsns) throws XmlPullParserException, IOException {
+        Buffer buffer = new Buffer();
+        XmlSerializer serializer = startSources(buffer);
+        List<String> versionsadded = new ArrayList<String>();
+        for (String dsn : dsns) {
+            if (!versionsadded.contains(dsn)) {
+                versionsadded.addAll(serializeSource(serializer, serverConfiguration.getDataSourceConfig(dsn)));
+            }
+        }
+        serializer.endTag(DAS_XML_NAMESPACE, "SOURCES");
+        return buffer.toDocument(serializer, null);
+    }
+
+    /**
+     * Renders the SOURCES document of a single data source.
+     *
+     * @param dataSourceConfig the data source configuration.
+     * @return the document, reporting the capabilities of the data source.
+     * @throws XmlPullParserException if the XML cannot be generated.
+     * @throws IOException            if the XML cannot be generated.
+     */
+    public Document renderSource(DataSourceConfiguration dataSourceConfig) throws XmlPullParserException, IOException {
+        Buffer buffer = new Buffer();
+        XmlSerializer serializer = startSources(buffer);
+        serializeSource(serializer, dataSourceConfig);
+        serializer.endTag(DAS_XML_NAMESPACE, "SOURCES");
+        return buffer.toDocument(serializer, dataSourceConfig.getCapabilities());
+    }
+
+    private XmlSerializer startSources(Buffer buffer) throws XmlPullParserException, IOException {
+        XmlSerializer serializer = buffer.newSerializer();
+        serializer.startDocument(null, false);
+        serializer.text("\n");
+        if (serverConfiguration.getGlobalConfiguration().getSourcesXSLT() != null) {
+            serializer.processingInstruction(serverConfiguration.getGlobalConfiguration().getSourcesXSLT());
+            serializer.text("\n");
+        }
+        serializer.startTag(DAS_XML_NAMESPACE, "SOURCES");
+        return serializer;
+    }
+
+    private List<String> serializeSource(XmlSerializer serializer, DataSourceConfiguration dataSourceConfig) throws IOException {
+        if (dataSourceConfig == null) return new ArrayList<String>(0);
+
+        Datasource dsnConfig2 = dataSourceConfig.getConfig();
+
+        serializer.startTag(DAS_XML_NAMESPACE, "SOURCE");
+        serializer.attribute(DAS_XML_NAMESPACE, "uri", dsnConfig2.getUri());
+        if (dsnConfig2.getDocHref() != null && dsnConfig2.getDocHref().length() > 0) {
+            serializer.attribute(DAS_XML_NAMESPACE, "doc_href", dsnConfig2.getDocHref());
+        }
+        serializer.attribute(DAS_XML_NAMESPACE, "title", dsnConfig2.getTitle());
+        serializer.attribute(DAS_XML_NAMESPACE, "description", dsnConfig2.getDescription());
+
+        serializer.startTag(DAS_XML_NAMESPACE, "MAINTAINER");
+        serializer.attribute(DAS_XML_NAMESPACE, "email", dsnConfig2.getMaintainer().getEmail());
+        serializer.endTag(DAS_XML_NAMESPACE, "MAINTAINER");
+
+        if (dsnConfig2.getPattern() != null) {
+            serializer.startTag(DAS_XML_NAMESPACE, "PATTERN");
+            serializer.text(dsnConfig2.getPattern());
+            serializer.endTag(DAS_XML_NAMESPACE, "PATTERN");
+        }
+
+        List<String> versionsadded = new ArrayList<String>();
+        for (Version version : dsnConfig2.getVersion()) {
+            versionsadded.add(version.getUri());
+            serializer.startTag(DAS_XML_NAMESPACE, "VERSION");
+            serializer.attribute(DAS_XML_NAMESPACE, "uri", version.getUri());
+            serializer.attribute(DAS_XML_NAMESPACE, "created", version.getCreated().toString());
+            for (Coordinates coordinates : version.getCoordinates()) {
+                serializer.startTag(DAS_XML_NAMESPACE, "COORDINATES");
+                serializer.attribute(DAS_XML_NAMESPACE, "uri", coordinates.getUri());
+                serializer.attribute(DAS_XML_NAMESPACE, "source", coordinates.getSource());
+                serializer.attribute(DAS_XML_NAMESPACE, "authority", coordinates.getAuthority());
+                if ((coordinates.getTaxid() != null) && (coordinates.getTaxid().length() > 0))
+                    serializer.attribute(DAS_XML_NAMESPACE, "taxid", coordinates.getTaxid());
+                if ((coordinates.getVersion() != null) && (coordinates.getVersion().length() > 0))
+                    serializer.attribute(DAS_XML_NAMESPACE, "version", coordinates.getVersion());
+                serializer.attribute(DAS_XML_NAMESPACE, "test_range", coordinates.getTestRange());
+                serializer.text(coordinates.getValue());
+                serializer.endTag(DAS_XML_NAMESPACE, "COORDINATES");
+            }
+            for (Capability capability : version.getCapability()) {
+                serializer.startTag(DAS_XML_NAMESPACE, "CAPABILITY");
+                serializer.attribute(DAS_XML_NAMESPACE, "type", capability.getType());
+                if ((capability.getQueryUri() != null) && (capability.getQueryUri().length() > 0))
+                    serializer.attribute(DAS_XML_NAMESPACE, "query_uri", capability.getQueryUri());
+                serializer.endTag(DAS_XML_NAMESPACE, "CAPABILITY");
+            }
+            //1.6.1 Properties come from version and are not allowed in data sources (not out of the version anyway)
+            //1.61. Only properties with visibility true will be reported in source command response
+            for (PropertyType pt : version.getProperty()) {
+                if (pt.isVisibility()) {
+                    serializer.startTag(DAS_XML_NAMESPACE, "PROPERTY");
+                    serializer.attribute(DAS_XML_NAMESPACE, "name", pt.getKey());
+                    serializer.attribute(DAS_XML_NAMESPACE, "value", pt.getValue());
+                    serializer.endTag(DAS_XML_NAMESPACE, "PROPERTY");
+                }
+            }
+            serializer.endTag(DAS_XML_NAMESPACE, "VERSION");
+        }
+
+        serializer.endTag(DAS_XML_NAMESPACE, "SOURCE");
+        return versionsadded;
+    }
+
+    /**
+     * In memory target of the serializer.
+     */
+    private class Buffer {
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private final Writer writer = new OutputStreamWriter(bytes, DasCommandManager.ENCODE);
+
+        private Buffer() throws IOException {
+        }
+
+        private XmlSerializer newSerializer() throws XmlPullParserException, IOException {
+            XmlSerializer serializer = pullParserFactory.newSerializer();
+            serializer.setOutput(writer);
+            if (indented) {
+                serializer.setProperty(INDENTATION_PROPERTY, INDENTATION_PROPERTY_VALUE);
+            }
+            return serializer;
+        }
+
+        private Document toDocument(XmlSerializer serializer, String capabilities) throws IOException {
+            serializer.flush();
+            writer.close();
+            return new Document(bytes.toByteArray(), capabilities);
+        }
+    }
+
+    /**
+     * A rendered document, with its ETag.
+     */
+    public static class Document {
+        private final byte[] plain;
+        private final byte[] gzipped;
+        private final String etag;
+        private final String capabilities;
+
+        private Document(byte[] plain, String capabilities) throws IOException {
+            this.plain = plain;
+            this.capabilities = capabilities;
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream(plain.length / 4 + 64);
+            GZIPOutputStream zipStream = new GZIPOutputStream(compressed);
+            zipStream.write(plain);
+            zipStream.close();
+            this.gzipped = compressed.toByteArray();
+            this.etag = digest(plain);
+        }
+
+        /**
+         * @param gzipped true for the gzipped document.
+         * @return the document bytes, UTF-8 encoded.
+         */
+        public byte[] getBytes(boolean gzipped) {
+            return gzipped ? this.gzipped : this.plain;
+        }
+
+        /**
+         * @param gzipped true for the gzipped document.
+         * @return the ETag of the plain or gzipped document.
+         */
+        public String getEtag(boolean gzipped) {
+            return "\"" + etag + (gzipped ? "-gzip" : "") + "\"";
+        }
+
+        /**
+         * @return the capabilities to report in the X-DAS-Capabilities header,
+         *         null for the server wide documents.
+         */
+        public String getCapabilities() {
+            return capabilities;
+        }
+
+        private static String digest(byte[] bytes) {
+            try {
+                StringBuilder hex = new StringBuilder();
+                for (byte b : MessageDigest.getInstance("MD5").digest(bytes)) {
+                    hex.append(Integer.toHexString((b & 0xff) | 0x100).substring(1));
+                }
+                return hex.toString();
+            } catch (NoSuchAlgorithmException e) {
+                // MD5 is available on every Java platform, but just in case.
+                return Integer.toHexString(Arrays.hashCode(bytes));
+            }
+        }
+    }
+}
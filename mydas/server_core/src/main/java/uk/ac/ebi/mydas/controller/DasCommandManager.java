@@ -5,11 +5,8 @@ import org.xmlpull.v1.XmlPullParserException;
 import org.xmlpull.v1.XmlPullParserFactory;
 import org.xmlpull.v1.XmlSerializer;
 import uk.ac.ebi.mydas.configuration.DataSourceConfiguration;
-import uk.ac.ebi.mydas.configuration.Mydasserver.Datasources.Datasource;
-import uk.ac.ebi.mydas.configuration.Mydasserver.Datasources.Datasource.Version;
-import uk.ac.ebi.mydas.configuration.Mydasserver.Datasources.Datasource.Version.Capability;
-import uk.ac.ebi.mydas.configuration.Mydasserver.Datasources.Datasource.Version.Coordinates;
 import uk.ac.ebi.mydas.configuration.PropertyType;
+import uk.ac.ebi.mydas.configuration.ServerConfiguration;
 import uk.ac.ebi.mydas.datasource.*;
 import uk.ac.ebi.mydas.exceptions.*;
 import uk.ac.ebi.mydas.extendedmodel.DasEntryPointE;
@@ -19,6 +16,8 @@ import uk.ac.ebi.mydas.model.*;
 import uk.ac.ebi.mydas.model.alignment.DasAlignment;
 import uk.ac.ebi.mydas.model.structure.DasStructure;
 import uk.ac.ebi.mydas.search.Indexer;
+import uk.ac.ebi.mydas.search.IndexerJobs;
+import uk.ac.ebi.mydas.search.IndexingProgress;
 import uk.ac.ebi.mydas.search.Searcher;
 import uk.ac.ebi.mydas.writeback.MyDasParser;
 
@@ -28,6 +27,10 @@ import java.io.*;
 import java.net.URL;
 import java.net.URLDecoder;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.zip.GZIPOutputStream;
@@ -49,6 +52,12 @@ public class DasCommandManager {
     private static final String INDENTATION_PROPERTY = "http://xmlpull.org/v1/doc/properties.html#serializer-indentation";
     private static final String INDENTATION_PROPERTY_VALUE = "  ";
 
+    /**
+     * Global parameter that can be set to false to write the XML documents without indentation,
+     * which makes the responses smaller and quicker to write.
+     */
+    static final String XML_INDENTATION_PARAMETER = "xml_indentation";
+
     public static final int MERGE_TYPE_AND = 1;
     public static final int MERGE_TYPE_OR = 2;
     /**
@@ -124,62 +133,7 @@ public class DasCommandManager {
             } else {
                 // At least one dsn is OK.
                 //DSN is a server command, just report the default capabilities
-                writeHeader(request, response, XDasStatus.STATUS_200_OK, true, null);
-                // Build the XML.
-                XmlSerializer serializer;
-                serializer = PULL_PARSER_FACTORY.newSerializer();
-                BufferedWriter out = null;
-                try {
-                    out = getResponseWriter(request, response);
-                    serializer.setOutput(out);
-                    serializer.setProperty(INDENTATION_PROPERTY, INDENTATION_PROPERTY_VALUE);
-                    serializer.startDocument(null, false);
-                    serializer.text("\n");
-                    if (DATA_SOURCE_MANAGER.getServerConfiguration().getGlobalConfiguration().getDsnXSLT() != null) {
-                        serializer.processingInstruction(DATA_SOURCE_MANAGER.getServerConfiguration().getGlobalConfiguration().getDsnXSLT());
-                        serializer.text("\n");
-                    }
-                    serializer.docdecl(" DASDSN SYSTEM \"http://www.biodas.org/dtd/dasdsn.dtd\"");
-                    serializer.text("\n");
-                    serializer.startTag(DAS_XML_NAMESPACE, "DASDSN");
-                    for (String dsn : dsns) {
-                        DataSourceConfiguration dsnConfig = DATA_SOURCE_MANAGER.getServerConfiguration().getDataSourceConfig(dsn);
-                        serializer.startTag(DAS_XML_NAMESPACE, "DSN");
-                        serializer.startTag(DAS_XML_NAMESPACE, "SOURCE");
-                        serializer.attribute(DAS_XML_NAMESPACE, "id", dsnConfig.getId());
-
-                        // Optional version attribute.
-                        if (dsnConfig.getVersion() != null && dsnConfig.getVersion().length() > 0) {
-                            serializer.attribute(DAS_XML_NAMESPACE, "version", dsnConfig.getVersion());
-                        }
-
-                        // If a name has been set, this is used for the element text.  Otherwise, the id is used.
-                        if (dsnConfig.getName() != null && dsnConfig.getName().length() > 0) {
-                            serializer.text(dsnConfig.getName());
-                        } else {
-                            serializer.text(dsnConfig.getId());
-                        }
-                        serializer.endTag(DAS_XML_NAMESPACE, "SOURCE");
-                        serializer.startTag(DAS_XML_NAMESPACE, "MAPMASTER");
-                        serializer.text(dsnConfig.getMapmaster());
-                        serializer.endTag(DAS_XML_NAMESPACE, "MAPMASTER");
-
-                        // Optional description element.
-                        if (dsnConfig.getDescription() != null && dsnConfig.getDescription().length() > 0) {
-                            serializer.startTag(DAS_XML_NAMESPACE, "DESCRIPTION");
-                            serializer.text(dsnConfig.getDescription());
-                            serializer.endTag(DAS_XML_NAMESPACE, "DESCRIPTION");
-                        }
-                        serializer.endTag(DAS_XML_NAMESPACE, "DSN");
-                        dsnConfig.destroy(); // not actually needed because data source is not loaded
-                    }
-                    serializer.endTag(DAS_XML_NAMESPACE, "DASDSN");
-                    serializer.flush();
-                } finally {
-                    if (out != null) {
-                        out.close();
-                    }
-                }
+                sendDocument(request, response, DATA_SOURCE_MANAGER.getConfigurationDocuments().getDsnDocument());
             }
         } else {
             // If fallen through to here, then the dsn command is not recognised
@@ -202,12 +156,12 @@ public class DasCommandManager {
                 writeHeader(request, response, XDasStatus.STATUS_200_OK, true, dsnConfig.getCapabilities());
                 // Build the XML.
                 XmlSerializer serializer;
-                serializer = PULL_PARSER_FACTORY.newSerializer();
+                serializer = new DasXmlWriter();
                 BufferedWriter out = null;
                 try {
                     out = getResponseWriter(request, response);
                     serializer.setOutput(out);
-                    serializer.setProperty(INDENTATION_PROPERTY, INDENTATION_PROPERTY_VALUE);
+                    setIndentation(serializer);
                     serializer.startDocument(null, false);
                     serializer.text("\n");
                     if (DATA_SOURCE_MANAGER.getServerConfiguration().getGlobalConfiguration().getDnaXSLT() != null) {
@@ -259,8 +213,8 @@ public class DasCommandManager {
      * @throws BadCommandArgumentsException if the arguments to the command are not recognised.
      * @throws BadReferenceObjectException  if the segments to the command are not recognised.
      */
-    private Collection<SequenceReporter> getSequences(DataSourceConfiguration dsnConfig, String queryString, boolean unknownSegmentsHandled) throws DataSourceException, BadCommandArgumentsException, BadReferenceObjectException, CoordinateErrorException {
-        ReferenceDataSource refDsn = (ReferenceDataSource) dsnConfig.getDataSource();
+    private Collection<SequenceReporter> getSequences(final DataSourceConfiguration dsnConfig, String queryString, boolean unknownSegmentsHandled) throws DataSourceException, BadCommandArgumentsException, BadReferenceObjectException, CoordinateErrorException {
+        final ReferenceDataSource refDsn = (ReferenceDataSource) dsnConfig.getDataSource();
         if (refDsn == null) {
             throw new DataSourceException("An attempt has been made to retrieve a sequenceString from datasource " + dsnConfig.getId() + " however the DataSource object is null.");
         }
@@ -271,56 +225,36 @@ public class DasCommandManager {
         }
         // Split on the ; (delineates separate references in the query string)
         String[] referenceStrings = queryString.split(";");
+        List<SegmentQuery> segmentQueries = new ArrayList<SegmentQuery>(referenceStrings.length);
         for (String referenceString : referenceStrings) {
             Matcher referenceStringMatcher = SEGMENT_RANGE_PATTERN.matcher(referenceString);
             if (referenceStringMatcher.find()) {
-                SegmentQuery segmentQuery = new SegmentQuery(referenceStringMatcher);
-                DasSequence sequence;
-                try {
-                    if (segmentQuery.getStartCoordinate() == null) {
-                        // Request for a complete sequenceString
-                        sequence = refDsn.getSequence(segmentQuery.getSegmentId());
-                    } else {
-                        // Getting a restricted sequenceString - and the data source will handle the restriction.
-                        if (refDsn instanceof RangeHandlingReferenceDataSource) {
-                            sequence = ((RangeHandlingReferenceDataSource) refDsn).getSequence(
-                                    segmentQuery.getSegmentId(),
-                                    segmentQuery.getStartCoordinate(),
-                                    segmentQuery.getStopCoordinate()
-                            );
-                        } else {
-                            sequence = refDsn.getSequence(segmentQuery.getSegmentId());
-                        }
-                    }
-
-                    //If segment query start < sequence start or  query stop > sequence stop an ERRORSEGMENT should be reported (since 1.6.1)
-                    if ((segmentQuery.getStartCoordinate() != null) && (segmentQuery.getStopCoordinate() != null)) {
-                        boolean error = false;
-                        if ((segmentQuery.getStartCoordinate() != null) && (segmentQuery.getStopCoordinate() != null)) {
-                            if ((segmentQuery.getStartCoordinate() <= 0) || (segmentQuery.getStopCoordinate() <= 0)) {
-                                //0 or negative values in range are not allowed: ERROR
-                                error = true;
-                            } else if (segmentQuery.getStartCoordinate() > segmentQuery.getStopCoordinate()) {
-                                //start cannot be greater that stop: ERROR
-                                error = true;
-                            } else if (((sequence.getStartCoordinate() <= segmentQuery.getStartCoordinate()) &&
-                                    (segmentQuery.getStartCoordinate() <= sequence.getStopCoordinate()))
-                                    && (sequence.getStartCoordinate() <= segmentQuery.getStopCoordinate())) {
-                                //start is completely bounded, stop is greater or equal to real init: OK
-                                error = false;
-                            } else {
-                                error = true;
-                            }
-                        }
-                        if (error) {
-                            if (logger.isDebugEnabled()) {
-                                logger.debug("SEGMENT START & STOP OUT OF BOUNDS: " +
-                                        "query(" + segmentQuery.getStartCoordinate() + ", " + segmentQuery.getStopCoordinate() + ") " +
-                                        "vs bounds(" + sequence.getStartCoordinate() + ", " + sequence.getStopCoordinate() + ")");
-                            }
-                            throw new BadReferenceObjectException(segmentQuery.getSegmentId(), "start and stop out of segment bounds", new IndexOutOfBoundsException("start and stop out of segment bounds"));
+                segmentQueries.add(new SegmentQuery(referenceStringMatcher));
+            }
+            // MyDas is being made less fussy about parameters that it does not recognise as new
+            // DAS features are added, e.g. to DAS 1.53E, hence any parameters that do not match are just ignored.
+        }
+        List<Future<DasSequence>> futures = null;
+        if (segmentQueries.size() > 1) {
+            ExecutorService executor = DATA_SOURCE_MANAGER.getSegmentExecutors().getExecutor(dsnConfig);
+            if (executor != null) {
+                futures = new ArrayList<Future<DasSequence>>(segmentQueries.size());
+                for (final SegmentQuery segmentQuery : segmentQueries) {
+                    futures.add(executor.submit(new Callable<DasSequence>() {
+                        public DasSequence call() throws Exception {
+                            return getSequence(dsnConfig, refDsn, segmentQuery);
                         }
-                    }
+                    }));
+                }
+            }
+        }
+        int index = 0;
+        try {
+            for (SegmentQuery segmentQuery : segmentQueries) {
+                try {
+                    DasSequence sequence = (futures == null)
+                            ? getSequence(dsnConfig, refDsn, segmentQuery)
+                            : getSegmentResult(futures.get(index));
                     sequenceCollection.add(new FoundSequenceReporter(sequence, segmentQuery));
                 } catch (BadReferenceObjectException broe) {
                     if (unknownSegmentsHandled) { //Sequences are handled only by reference servers, so report an ERRORSEGEMENT
@@ -335,9 +269,10 @@ public class DasCommandManager {
                         throw cee;
                     }
                 }
+                index++;
             }
-            // MyDas is being made less fussy about parameters that it does not recognise as new
-            // DAS features are added, e.g. to DAS 1.53E, hence any parameters that do not match are just ignored.
+        } finally {
+            cancel(futures);
         }
         if (sequenceCollection.size() == 0) {
             // The query string did not include any segment references.
@@ -346,6 +281,93 @@ public class DasCommandManager {
         return sequenceCollection;
     }
 
+    /**
+     * Returns the sequence of a single segment, as requested by getSequences, sharing the call to the data
+     * source with identical concurrent requests if the data source allows it.
+     *
+     * @param dsnConfig    the data source configuration.
+     * @param refDsn       the reference data source.
+     * @param segmentQuery the requested segment.
+     * @return the sequence.
+     * @throws DataSourceException         to capture any error returned from the data source.
+     * @throws BadReferenceObjectException if the segment does not exist or the coordinates are out of its bounds.
+     * @throws CoordinateErrorException    if the coordinates are not valid for the segment.
+     */
+    private DasSequence getSequence(DataSourceConfiguration dsnConfig, final ReferenceDataSource refDsn, final SegmentQuery segmentQuery)
+            throws DataSourceException, BadReferenceObjectException, CoordinateErrorException {
+        if (!RequestCoalescer.isEnabled(dsnConfig)) {
+            return fetchSequence(refDsn, segmentQuery);
+        }
+        String call = "sequence|" + segmentQuery.getSegmentId() + ':' + segmentQuery.getStartCoordinate() + ','
+                + segmentQuery.getStopCoordinate();
+        return getSegmentResult(DATA_SOURCE_MANAGER.getRequestCoalescer().execute(
+                RequestCoalescer.getKey(dsnConfig, call), new Callable<DasSequence>() {
+            public DasSequence call() throws Exception {
+                return fetchSequence(refDsn, segmentQuery);
+            }
+        }));
+    }
+
+    /**
+     * Queries the reference data source for the sequence of a single segment, as requested by getSequences.
+     *
+     * @param refDsn       the reference data source.
+     * @param segmentQuery the requested segment.
+     * @return the sequence.
+     * @throws DataSourceException         to capture any error returned from the data source.
+     * @throws BadReferenceObjectException if the segment does not exist or the coordinates are out of its bounds.
+     * @throws CoordinateErrorException    if the coordinates are not valid for the segment.
+     */
+    private DasSequence fetchSequence(ReferenceDataSource refDsn, SegmentQuery segmentQuery)
+            throws DataSourceException, BadReferenceObjectException, CoordinateErrorException {
+        DasSequence sequence;
+        if (segmentQuery.getStartCoordinate() == null) {
+            // Request for a complete sequenceString
+            sequence = refDsn.getSequence(segmentQuery.getSegmentId());
+        } else {
+            // Getting a restricted sequenceString - and the data source will handle the restriction.
+            if (refDsn instanceof RangeHandlingReferenceDataSource) {
+                sequence = ((RangeHandlingReferenceDataSource) refDsn).getSequence(
+                        segmentQuery.getSegmentId(),
+                        segmentQuery.getStartCoordinate(),
+                        segmentQuery.getStopCoordinate()
+                );
+            } else {
+                sequence = refDsn.getSequence(segmentQuery.getSegmentId());
+            }
+        }
+
+        //If segment query start < sequence start or  query stop > sequence stop an ERRORSEGMENT should be reported (since 1.6.1)
+        if ((segmentQuery.getStartCoordinate() != null) && (segmentQuery.getStopCoordinate() != null)) {
+            boolean error = false;
+            if ((segmentQuery.getStartCoordinate() != null) && (segmentQuery.getStopCoordinate() != null)) {
+                if ((segmentQuery.getStartCoordinate() <= 0) || (segmentQuery.getStopCoordinate() <= 0)) {
+                    //0 or negative values in range are not allowed: ERROR
+                    error = true;
+                } else if (segmentQuery.getStartCoordinate() > segmentQuery.getStopCoordinate()) {
+                    //start cannot be greater that stop: ERROR
+                    error = true;
+                } else if (((sequence.getStartCoordinate() <= segmentQuery.getStartCoordinate()) &&
+                        (segmentQuery.getStartCoordinate() <= sequence.getStopCoordinate()))
+                        && (sequence.getStartCoordinate() <= segmentQuery.getStopCoordinate())) {
+                    //start is completely bounded, stop is greater or equal to real init: OK
+                    error = false;
+                } else {
+                    error = true;
+                }
+            }
+            if (error) {
+                if (logger.isDebugEnabled()) {
+                    logger.debug("SEGMENT START & STOP OUT OF BOUNDS: " +
+                            "query(" + segmentQuery.getStartCoordinate() + ", " + segmentQuery.getStopCoordinate() + ") " +
+                            "vs bounds(" + sequence.getStartCoordinate() + ", " + sequence.getStopCoordinate() + ")");
+                }
+                throw new BadReferenceObjectException(segmentQuery.getSegmentId(), "start and stop out of segment bounds", new IndexOutOfBoundsException("start and stop out of segment bounds"));
+            }
+        }
+        return sequence;
+    }
+
     @SuppressWarnings("unchecked")
     private Collection<DasType> getAllTypes(DataSourceConfiguration dsnConfig) throws DataSourceException {
         Collection<DasType> allTypes = dsnConfig.getDataSource().getTypes();
@@ -386,12 +408,12 @@ public class DasCommandManager {
         writeHeader(request, response, XDasStatus.STATUS_200_OK, true, dsnConfig.getCapabilities());
         // Build the XML.
         XmlSerializer serializer;
-        serializer = PULL_PARSER_FACTORY.newSerializer();
+        serializer = new DasXmlWriter();
         BufferedWriter out = null;
         try {
             out = getResponseWriter(request, response);
             serializer.setOutput(out);
-            serializer.setProperty(INDENTATION_PROPERTY, INDENTATION_PROPERTY_VALUE);
+            setIndentation(serializer);
             serializer.startDocument(null, false);
             serializer.text("\n");
             if (DATA_SOURCE_MANAGER.getServerConfiguration().getGlobalConfiguration().getTypesXSLT() != null) {
@@ -411,7 +433,7 @@ public class DasCommandManager {
             serializer.attribute(DAS_XML_NAMESPACE, "label", "Complete datasource summary");
             // Iterate over the allTypeReport for the TYPE elements.
             for (DasType type : allTypesReport.keySet()) {
-                (new DasTypeE(type)).serialize(DAS_XML_NAMESPACE, serializer, allTypesReport.get(type), false);
+                DasTypeE.serialize(DAS_XML_NAMESPACE, serializer, type, allTypesReport.get(type), false, false, false, false);
             }
             serializer.endTag(DAS_XML_NAMESPACE, "SEGMENT");
             serializer.endTag(DAS_XML_NAMESPACE, "GFF");
@@ -485,12 +507,12 @@ public class DasCommandManager {
         writeHeader(request, response, XDasStatus.STATUS_200_OK, true, dsnConfig.getCapabilities());
         // Build the XML.
         XmlSerializer serializer;
-        serializer = PULL_PARSER_FACTORY.newSerializer();
+        serializer = new DasXmlWriter();
         BufferedWriter out = null;
         try {
             out = getResponseWriter(request, response);
             serializer.setOutput(out);
-            serializer.setProperty(INDENTATION_PROPERTY, INDENTATION_PROPERTY_VALUE);
+            setIndentation(serializer);
             serializer.startDocument(null, false);
             serializer.text("\n");
             if (DATA_SOURCE_MANAGER.getServerConfiguration().getGlobalConfiguration().getTypesXSLT() != null) {
@@ -529,7 +551,7 @@ public class DasCommandManager {
                     // Now for the types.
                     Map<DasType, Integer> typeMap = typesReport.get(featureReporter);
                     for (DasType type : typeMap.keySet()) {
-                        (new DasTypeE(type)).serialize(DAS_XML_NAMESPACE, serializer, typeMap.get(type), false);
+                        DasTypeE.serialize(DAS_XML_NAMESPACE, serializer, type, typeMap.get(type), false, false, false, false);
                     }
                     serializer.endTag(DAS_XML_NAMESPACE, "SEGMENT");
                 }
@@ -709,6 +731,15 @@ public class DasCommandManager {
         }
         filter.setRequestedSegments(requestedSegments);
 
+        // Data sources able to stream their features are read one segment at a time, as the XML is written,
+        // unless the request needs all the features at hand (feature_id merge, rows paging or advanced search).
+        boolean advancedSearch = dsnConfig.getCapabilities().contains("advanced-search") && filter.getAdvanceQuery() != null;
+        if (dsnConfig.getDataSource() instanceof StreamingAnnotationDataSource && !advancedSearch
+                && requestedSegments.size() > 0 && !filter.containsFeatureIds() && filter.getRows() == null) {
+            streamFeatures(request, response, dsnConfig, requestedSegments, filter, categorize);
+            return;
+        }
+
         /************************************************************************\
          * Query the DataSource                                                 *
          ************************************************************************/
@@ -723,10 +754,10 @@ public class DasCommandManager {
         Collection<DasAnnotatedSegment> merged = null;
 
         //If the advanced search is supported and the query attribute is included then the request will be done using it
-        if (dsnConfig.getCapabilities().contains("advanced-search") && filter.getAdvanceQuery() != null) {
+        if (advancedSearch) {
 
             Map<String, PropertyType> properties = DATA_SOURCE_MANAGER.getServerConfiguration().getGlobalConfiguration().getGlobalParameters();
-            Searcher searcher = new Searcher(properties.get("indexerpath").getValue(), dsnConfig.getName());
+            Searcher searcher = new Searcher(DATA_SOURCE_MANAGER.getIndexSearchers(), properties.get("indexerpath").getValue(), dsnConfig.getName());
             try {
                 merged = searcher.search(filter);
             } catch (SearcherException e) {
@@ -742,13 +773,17 @@ public class DasCommandManager {
             // (If neither of these are present, then throw a BadCommandArgumentsException)
 
             if (dsnConfig.getCapabilities().contains("feature-by-id") && filter.containsFeatureIds()) {
-                try {
-                    if (dsnConfig.getCapabilities().contains("rows-for-feature")) {
-                        segmentsByFeatureId = dsnConfig.getDataSource().getFeatures(filter.getFeatureIds(), filter.getMaxbins(), filter.getRows());
-                        filter.setPaginated(true);
-                    } else throw new UnimplementedFeatureException("rows-for-feature capability no declared");
-                } catch (UnimplementedFeatureException ufe) {
-                    segmentsByFeatureId = dsnConfig.getDataSource().getFeatures(filter.getFeatureIds(), filter.getMaxbins());
+                if (RequestCoalescer.isEnabled(dsnConfig)) {
+                    segmentsByFeatureId = getFeaturesByIdCoalesced(dsnConfig, filter);
+                } else {
+                    try {
+                        if (dsnConfig.getCapabilities().contains("rows-for-feature")) {
+                            segmentsByFeatureId = dsnConfig.getDataSource().getFeatures(filter.getFeatureIds(), filter.getMaxbins(), filter.getRows());
+                            filter.setPaginated(true);
+                        } else throw new UnimplementedFeatureException("rows-for-feature capability no declared");
+                    } catch (UnimplementedFeatureException ufe) {
+                        segmentsByFeatureId = dsnConfig.getDataSource().getFeatures(filter.getFeatureIds(), filter.getMaxbins());
+                    }
                 }
             }
 
@@ -763,19 +798,26 @@ public class DasCommandManager {
                 throw new BadCommandArgumentsException("Bad command arguments to the features command: " + queryString);
             Integer totalFeatures = null;
             if (!filter.isPaginated() && filter.getRows() != null && dsnConfig.getCapabilities().contains("rows-for-feature")) {
+                // The rows are counted among the features passing the filter, as they are the ones reported.
                 totalFeatures = 0;
-                Integer included = 0;
                 Collection<DasAnnotatedSegment> paged = new ArrayList<DasAnnotatedSegment>();
                 for (DasAnnotatedSegment segmentAux : merged) {
-                    totalFeatures += segmentAux.getFeatures().size();
-                    if (filter.getRows().getFrom() <= totalFeatures)
-                        if (filter.getRows().getTo() > totalFeatures) {
-                            paged.add(segmentAux);
-                            included += segmentAux.getFeatures().size();
-                        } else {
-                            Collection<DasFeature> featuresAux = ((ArrayList<DasFeature>) segmentAux.getFeatures()).subList(filter.getRows().getFrom() - 1 - included, filter.getRows().getTo() - included);
-                            paged.add(new DasAnnotatedSegment(segmentAux.getSegmentId(), segmentAux.getStartCoordinate(), segmentAux.getStopCoordinate(), segmentAux.getVersion(), segmentAux.getSegmentLabel(), featuresAux, segmentAux.getFeatures().size()));
+                    if (segmentAux instanceof DasUnknownFeatureSegment || segmentAux instanceof ErrorSegment) {
+                        paged.add(segmentAux);
+                        continue;
+                    }
+                    List<DasFeature> passing = new ArrayList<DasFeature>();
+                    for (DasFeature feature : segmentAux.getFeatures()) {
+                        if (filter.featurePasses(feature)) {
+                            passing.add(feature);
                         }
+                    }
+                    int from = Math.max(filter.getRows().getFrom() - 1 - totalFeatures, 0);
+                    int to = Math.min(filter.getRows().getTo() - totalFeatures, passing.size());
+                    totalFeatures += passing.size();
+                    if (from < to) {
+                        paged.add(new DasAnnotatedSegment(segmentAux.getSegmentId(), segmentAux.getStartCoordinate(), segmentAux.getStopCoordinate(), segmentAux.getVersion(), segmentAux.getSegmentLabel(), new ArrayList<DasFeature>(passing.subList(from, to)), passing.size()));
+                    }
                 }
                 filter.setPaginated(true);
                 filter.setTotalFeatures(totalFeatures);
@@ -792,13 +834,13 @@ public class DasCommandManager {
          \************************************************************************/
 
         XmlSerializer serializer;
-        serializer = PULL_PARSER_FACTORY.newSerializer();
+        serializer = new DasXmlWriter();
         BufferedWriter out = null;
         try {
             boolean referenceSource = dsnConfig.getDataSource() instanceof ReferenceDataSource;
             out = getResponseWriter(request, response);
             serializer.setOutput(out);
-            serializer.setProperty(INDENTATION_PROPERTY, INDENTATION_PROPERTY_VALUE);
+            setIndentation(serializer);
             serializer.startDocument(null, false);
             serializer.text("\n");
             if (DATA_SOURCE_MANAGER.getServerConfiguration().getGlobalConfiguration().getFeaturesXSLT() != null) {
@@ -841,6 +883,103 @@ public class DasCommandManager {
         }
     }
 
+    /**
+     * Features command for data sources implementing {@link StreamingAnnotationDataSource}.  The features of each
+     * segment are read from the data source while they are written out, so they are never all held in memory.
+     *
+     * @param request           to allow the writing of the http header
+     * @param response          to which the http header and the XML are written.
+     * @param dsnConfig         holding configuration of the dsn and the data source object itself.
+     * @param requestedSegments the segments to report, in order.
+     * @param filter            type and category restrictions, applied to each feature as it is read.
+     * @param categorize        indicates if the categories will be included in the type of the features.
+     * @throws XmlPullParserException in the event of a problem with writing out the DASGFF XML file.
+     * @throws IOException            during writing of the XML
+     * @throws DataSourceException    to capture any error returned from the data source.
+     */
+    private void streamFeatures(HttpServletRequest request, HttpServletResponse response, DataSourceConfiguration dsnConfig,
+                                List<SegmentQuery> requestedSegments, DasFeatureRequestFilter filter, boolean categorize)
+            throws XmlPullParserException, IOException, DataSourceException {
+        StreamingAnnotationDataSource dataSource = (StreamingAnnotationDataSource) dsnConfig.getDataSource();
+        boolean referenceSource = dataSource instanceof ReferenceDataSource;
+
+        // The first segment is opened before the header is written, so a failing data source can still be reported.
+        SegmentReporter segmentReporter = openFeatureStream(dataSource, requestedSegments.get(0), filter.getMaxbins());
+        XmlSerializer serializer;
+        BufferedWriter out = null;
+        try {
+            writeHeader(request, response, XDasStatus.STATUS_200_OK, true, dsnConfig.getCapabilities());
+            serializer = new DasXmlWriter();
+            out = getResponseWriter(request, response);
+            serializer.setOutput(out);
+            setIndentation(serializer);
+            serializer.startDocument(null, false);
+            serializer.text("\n");
+            if (DATA_SOURCE_MANAGER.getServerConfiguration().getGlobalConfiguration().getFeaturesXSLT() != null) {
+                serializer.processingInstruction(DATA_SOURCE_MANAGER.getServerConfiguration().getGlobalConfiguration().getFeaturesXSLT());
+                serializer.text("\n");
+            }
+            serializer.startTag(DAS_XML_NAMESPACE, "DASGFF");
+            serializer.startTag(DAS_XML_NAMESPACE, "GFF");
+            serializer.attribute(DAS_XML_NAMESPACE, "href", buildRequestHref(request));
+
+            for (int i = 0; i < requestedSegments.size(); i++) {
+                if (i > 0) {
+                    segmentReporter = openFeatureStream(dataSource, requestedSegments.get(i), filter.getMaxbins());
+                }
+                if (segmentReporter instanceof UnknownSegmentReporter) {
+                    ((UnknownSegmentReporter) segmentReporter).serialize(DAS_XML_NAMESPACE, serializer, referenceSource);
+                } else if (segmentReporter instanceof ErrorSegmentReporter) {
+                    ((ErrorSegmentReporter) segmentReporter).serialize(DAS_XML_NAMESPACE, serializer);
+                } else {
+                    ((FoundFeaturesReporter) segmentReporter).serialize(DAS_XML_NAMESPACE, serializer, filter, categorize, false, dsnConfig.isUseFeatureIdForFeatureLabel());
+                }
+                serializer.flush();
+            }
+            serializer.endTag(DAS_XML_NAMESPACE, "GFF");
+            serializer.endTag(DAS_XML_NAMESPACE, "DASGFF");
+
+            serializer.flush();
+        } finally {
+            if (segmentReporter instanceof FoundFeaturesReporter) {
+                ((FoundFeaturesReporter) segmentReporter).close();
+            }
+            if (out != null) {
+                out.close();
+            }
+        }
+    }
+
+    /**
+     * Opens the stream of features of a segment, mapping a missing segment or out of bounds coordinates
+     * to an ERRORSEGMENT (reference servers) or UNKNOWNSEGMENT, as done by getFeatureCollection.
+     *
+     * @param dataSource   the streaming data source.
+     * @param segmentQuery the requested segment.
+     * @param maxbins      the maximum number of bins requested, or null.
+     * @return a FoundFeaturesReporter wrapping the open stream, or the reporter of the error.
+     * @throws DataSourceException to capture any other error returned from the data source.
+     */
+    private SegmentReporter openFeatureStream(StreamingAnnotationDataSource dataSource, SegmentQuery segmentQuery, Integer maxbins)
+            throws DataSourceException {
+        try {
+            DasStreamedSegment streamedSegment = dataSource.getFeatureStream(segmentQuery.getSegmentId(),
+                    segmentQuery.getStartCoordinate(), segmentQuery.getStopCoordinate(), maxbins);
+            if (isOutOfBounds(segmentQuery, streamedSegment)) {
+                streamedSegment.close();
+                throw new BadReferenceObjectException(segmentQuery.getSegmentId(), "start and stop out of segment bounds", new IndexOutOfBoundsException("start and stop out of segment bounds"));
+            }
+            return new FoundFeaturesReporter(streamedSegment, segmentQuery);
+        } catch (BadReferenceObjectException broe) {
+            if (dataSource instanceof ReferenceDataSource) {
+                return new ErrorSegmentReporter(segmentQuery);
+            }
+            return new UnknownSegmentReporter(segmentQuery);
+        } catch (CoordinateErrorException cee) {
+            return new UnknownSegmentReporter(segmentQuery);
+        }
+    }
+
     /**
      * Implements the link command.  This is done using a simple mechanism - the request is parsed and checked for
      * correctness, then the 'field' and 'id' are passed to the DSN that should return a well formed URL.  This method
@@ -914,137 +1053,386 @@ public class DasCommandManager {
      * @throws uk.ac.ebi.mydas.exceptions.BadReferenceObjectException
      *          The requested object does not exist
      */
-    private Collection<DasAnnotatedSegment> getFeatureCollection(DataSourceConfiguration dsnConfig,
+    private Collection<DasAnnotatedSegment> getFeatureCollection(final DataSourceConfiguration dsnConfig,
                                                                  List<SegmentQuery> requestedSegments,
                                                                  boolean unknownSegmentsHandled, DasFeatureRequestFilter filter//,String[] featureIds
     ) throws DataSourceException, BadReferenceObjectException, CoordinateErrorException {
 
         List<DasAnnotatedSegment> segments = new ArrayList<DasAnnotatedSegment>(requestedSegments.size());
-        AnnotationDataSource dataSource = dsnConfig.getDataSource();
+        final AnnotationDataSource dataSource = dsnConfig.getDataSource();
         Integer maxbins = null;
         if (filter != null)
             maxbins = filter.getMaxbins();
-        Integer current = 0;
-        for (SegmentQuery segmentQuery : requestedSegments) {
-            try {
-                DasAnnotatedSegment annotatedSegment;
-
-                Range currentFeatureRange = null;
-                if (filter != null && dsnConfig.getCapabilities().contains("rows-for-feature") && filter.getRows() != null) {
-                    currentFeatureRange = new Range(filter.getRows().getFrom() - current, filter.getRows().getTo() - current);
-                }
-                if (segmentQuery.getStartCoordinate() == null) {
-                    // Easy request - just want all the features on the segment.
-                    try {
-                        if (currentFeatureRange == null)
-                            throw new UnimplementedFeatureException("if is null is because there is not necessity for pagination");
-                        //trying to use the user implementation of its pagination.
-                        annotatedSegment = dataSource.getFeatures(segmentQuery.getSegmentId(), maxbins, currentFeatureRange);
-                        filter.setPaginated(true);
-                    } catch (UnimplementedFeatureException ufe) {
-                        annotatedSegment = dataSource.getFeatures(segmentQuery.getSegmentId(), maxbins);
-                    }
-                } else {
-
-                    // Restricted to coordinates.
-                    if (dataSource instanceof RangeHandlingAnnotationDataSource) {
-                        try {
-                            if (currentFeatureRange == null)
-                                throw new UnimplementedFeatureException("if is null is because there is not necesity for pagination");
-                            //trying to use the user implementation of its pagination.
-                            annotatedSegment = ((RangeHandlingAnnotationDataSource) dataSource).getFeatures(
-                                    segmentQuery.getSegmentId(),
-                                    segmentQuery.getStartCoordinate(),
-                                    segmentQuery.getStopCoordinate(),
-                                    maxbins, currentFeatureRange);
-                            filter.setPaginated(true);
-                        } catch (UnimplementedFeatureException ufe) {
-                            annotatedSegment = ((RangeHandlingAnnotationDataSource) dataSource).getFeatures(
-                                    segmentQuery.getSegmentId(),
-                                    segmentQuery.getStartCoordinate(),
-                                    segmentQuery.getStopCoordinate(),
-                                    maxbins);
+        final Integer bins = maxbins;
+        boolean paginated = filter != null && dsnConfig.getCapabilities().contains("rows-for-feature") && filter.getRows() != null;
+        // Restrictions passed down to the data sources able to apply them.
+        final FeatureFilter featureFilter = (filter != null && dataSource instanceof FilterAwareAnnotationDataSource)
+                ? filter.getFeatureFilter() : null;
+        boolean filtered = featureFilter != null && (paginated || !featureFilter.isEmpty());
+        // Pagination depends on the features of the previous segments, so paginated requests are always serial.
+        List<DasAnnotatedSegment> batch = null;
+        List<Future<DasAnnotatedSegment>> futures = null;
+        if (!paginated && !filtered && dataSource instanceof BatchRangeAnnotationDataSource) {
+            batch = ((BatchRangeAnnotationDataSource) dataSource).getFeatures(requestedSegments, maxbins);
+            if (batch == null || batch.size() != requestedSegments.size()) {
+                throw new DataSourceException("The data source " + dsnConfig.getId() + " returned " + ((batch == null) ? 0 : batch.size())
+                        + " segments for a request of " + requestedSegments.size() + " segments.");
+            }
+        } else if (!paginated && requestedSegments.size() > 1) {
+            ExecutorService executor = DATA_SOURCE_MANAGER.getSegmentExecutors().getExecutor(dsnConfig);
+            if (executor != null) {
+                futures = new ArrayList<Future<DasAnnotatedSegment>>(requestedSegments.size());
+                for (final SegmentQuery segmentQuery : requestedSegments) {
+                    futures.add(executor.submit(new Callable<DasAnnotatedSegment>() {
+                        public DasAnnotatedSegment call() throws Exception {
+                            return getAnnotatedSegment(dsnConfig, dataSource, segmentQuery, bins, null, featureFilter, null);
                         }
-                    } else if (dataSource instanceof RangeHandlingReferenceDataSource) {
-                        try {
-                            if (currentFeatureRange == null)
-                                throw new UnimplementedFeatureException("if is null is because there is not necesity for pagination");
-                            //trying to use the user implementation of its pagination.
-                            annotatedSegment = ((RangeHandlingReferenceDataSource) dataSource).getFeatures(
-                                    segmentQuery.getSegmentId(),
-                                    segmentQuery.getStartCoordinate(),
-                                    segmentQuery.getStopCoordinate(),
-                                    maxbins, currentFeatureRange);
-                            filter.setPaginated(true);
-                        } catch (UnimplementedFeatureException ufe) {
-                            annotatedSegment = ((RangeHandlingReferenceDataSource) dataSource).getFeatures(
-                                    segmentQuery.getSegmentId(),
-                                    segmentQuery.getStartCoordinate(),
-                                    segmentQuery.getStopCoordinate(),
-                                    maxbins);
+                    }));
+                }
+            }
+        }
+        Integer current = 0;
+        int index = 0;
+        try {
+            for (SegmentQuery segmentQuery : requestedSegments) {
+                try {
+                    DasAnnotatedSegment annotatedSegment;
+                    if (batch != null) {
+                        annotatedSegment = getBatchSegment(segmentQuery, batch.get(index));
+                    } else if (futures == null) {
+                        Range currentFeatureRange = null;
+                        if (paginated) {
+                            currentFeatureRange = new Range(filter.getRows().getFrom() - current, filter.getRows().getTo() - current);
                         }
+                        annotatedSegment = getAnnotatedSegment(dsnConfig, dataSource, segmentQuery, maxbins, currentFeatureRange, featureFilter, filter);
                     } else {
-                        try {
-                            if (currentFeatureRange == null)
-                                throw new UnimplementedFeatureException("if is null is because there is not necesity for pagination");
-                            //trying to use the user implementation of its pagination.
-                            annotatedSegment = dataSource.getFeatures(segmentQuery.getSegmentId(), maxbins, currentFeatureRange);
-                            filter.setPaginated(true);
-                        } catch (UnimplementedFeatureException ufe) {
-                            annotatedSegment = dataSource.getFeatures(segmentQuery.getSegmentId(), maxbins);
+                        annotatedSegment = getSegmentResult(futures.get(index));
+                    }
+                    segments.add(annotatedSegment);
+                    current += annotatedSegment.getTotalFeatures();
+//					segmentReporterLists.add(new FoundFeaturesReporter(annotatedSegment, segmentQuery));
+                } catch (BadReferenceObjectException broe) {
+                    if (unknownSegmentsHandled) { //For annotation limits out of bounds should report an UNKNOWNSEGMENT and for reference servers it should be ERRORSEGEMENT (since 1.6.1)
+                        if (dataSource instanceof ReferenceDataSource) { //reference servers are also annotation ones, ask for reference first
+                            segments.add(new ErrorSegment(segmentQuery));
+                        } else {
+                            segments.add(new DasUnknownFeatureSegment(segmentQuery));
                         }
+                    } else {
+                        throw broe;
                     }
-                }
-
-                //If segment query start and stop are completely out of limits an ERRORSEGMENT should be reported (since 1.6.1)
-                boolean error = false;
-                if ((segmentQuery.getStartCoordinate() != null) && (segmentQuery.getStopCoordinate() != null)) {
-                    if ((segmentQuery.getStartCoordinate() <= 0) || (segmentQuery.getStopCoordinate() <= 0)) {
-                        //0 or negative values in range are not allowed: ERROR
-                        error = true;
-                    } else if (segmentQuery.getStartCoordinate() > segmentQuery.getStopCoordinate()) {
-                        //start cannot be greater that stop: ERROR
-                        error = true;
-                    } else if (((annotatedSegment.getStartCoordinate() <= segmentQuery.getStartCoordinate()) &&
-                            (segmentQuery.getStartCoordinate() <= annotatedSegment.getStopCoordinate()))
-                            && (annotatedSegment.getStartCoordinate() <= segmentQuery.getStopCoordinate())) {
-                        //start is completely bounded, stop is greater or equal to real init: OK
-                        error = false;
+                } catch (CoordinateErrorException cee) {
+                    if (unknownSegmentsHandled) {
+                        segments.add(new DasUnknownFeatureSegment(segmentQuery));
                     } else {
-                        error = true;
+                        throw cee;
                     }
                 }
-                if (error) {
-                    if (logger.isDebugEnabled()) {
-                        logger.debug("SEGMENT START & STOP OUT OF BOUNDS: " +
-                                "query(" + segmentQuery.getStartCoordinate() + ", " + segmentQuery.getStopCoordinate() + ") " +
-                                "vs bounds(" + annotatedSegment.getStartCoordinate() + ", " + annotatedSegment.getStopCoordinate() + ")");
+                index++;
+            }
+        } finally {
+            cancel(futures);
+        }
+        return segments;
+    }
+
+    /**
+     * Returns the features with the ids requested in the filter, as the features command does, sharing the
+     * call to the data source with identical concurrent requests.
+     *
+     * @param dsnConfig the data source configuration.
+     * @param filter    the filter holding the feature ids, maxbins and rows requested; marked as paginated
+     *                  if the data source handled the rows.
+     * @return the segments holding the features.
+     * @throws DataSourceException           to capture any error returned from the data source.
+     * @throws UnimplementedFeatureException if the data source does not implement the retrieval of features by id.
+     * @throws BadReferenceObjectException   not thrown by this call, declared by {@link #getSegmentResult(Future)}.
+     * @throws CoordinateErrorException      not thrown by this call, declared by {@link #getSegmentResult(Future)}.
+     */
+    private Collection<DasAnnotatedSegment> getFeaturesByIdCoalesced(DataSourceConfiguration dsnConfig, DasFeatureRequestFilter filter)
+            throws DataSourceException, UnimplementedFeatureException, BadReferenceObjectException, CoordinateErrorException {
+        final AnnotationDataSource dataSource = dsnConfig.getDataSource();
+        final Collection<String> featureIds = filter.getFeatureIds();
+        final Integer maxbins = filter.getMaxbins();
+        final Range rows = filter.getRows();
+        final boolean rowsForFeature = dsnConfig.getCapabilities().contains("rows-for-feature");
+        String call = "features-by-id|" + featureIds + '|' + maxbins + '|'
+                + ((rowsForFeature && rows != null) ? rows.getFrom() + "-" + rows.getTo() : null);
+        Future<CoalescedResult<Collection<DasAnnotatedSegment>>> future = DATA_SOURCE_MANAGER.getRequestCoalescer().execute(
+                RequestCoalescer.getKey(dsnConfig, call), new Callable<CoalescedResult<Collection<DasAnnotatedSegment>>>() {
+            public CoalescedResult<Collection<DasAnnotatedSegment>> call() throws Exception {
+                if (rowsForFeature) {
+                    try {
+                        return new CoalescedResult<Collection<DasAnnotatedSegment>>(dataSource.getFeatures(featureIds, maxbins, rows), true);
+                    } catch (UnimplementedFeatureException ufe) {
+                        // Falls back on the request without rows.
                     }
-                    throw new BadReferenceObjectException(segmentQuery.getSegmentId(), "start and stop out of segment bounds", new IndexOutOfBoundsException("start and stop out of segment bounds"));
                 }
+                try {
+                    return new CoalescedResult<Collection<DasAnnotatedSegment>>(dataSource.getFeatures(featureIds, maxbins), false);
+                } catch (UnimplementedFeatureException ufe) {
+                    // Reported to each request below, a null result standing for the exception.
+                    return new CoalescedResult<Collection<DasAnnotatedSegment>>(null, false);
+                }
+            }
+        });
+        CoalescedResult<Collection<DasAnnotatedSegment>> result = getSegmentResult(future);
+        if (result.result == null) {
+            throw new UnimplementedFeatureException("The data source " + dsnConfig.getId() + " does not implement the retrieval of features by id.");
+        }
+        if (result.paginated) {
+            filter.setPaginated(true);
+        }
+        return result.result;
+    }
 
-                segments.add(annotatedSegment);
-                current += annotatedSegment.getTotalFeatures();
-//				segmentReporterLists.add(new FoundFeaturesReporter(annotatedSegment, segmentQuery));
-            } catch (BadReferenceObjectException broe) {
-                if (unknownSegmentsHandled) { //For annotation limits out of bounds should report an UNKNOWNSEGMENT and for reference servers it should be ERRORSEGEMENT (since 1.6.1)
-                    if (dataSource instanceof ReferenceDataSource) { //reference servers are also annotation ones, ask for reference first
-                        segments.add(new ErrorSegment(segmentQuery));
-                    } else {
-                        segments.add(new DasUnknownFeatureSegment(segmentQuery));
-                    }
-                } else {
-                    throw broe;
+    /**
+     * Returns the features of a single segment, as requested by getFeatureCollection, sharing the call to
+     * the data source with identical concurrent requests if the data source allows it.
+     *
+     * @param dsnConfig           the data source configuration.
+     * @param dataSource          the data source.
+     * @param segmentQuery        the requested segment.
+     * @param maxbins             the number of bins the client can draw, or null.
+     * @param currentFeatureRange the features of the segment to return, null if not paginated.
+     * @param featureFilter       the restrictions to pass to a {@link FilterAwareAnnotationDataSource}, or null.
+     * @param filter              the filter, marked as paginated if the data source handled the range.
+     *                            May be null if currentFeatureRange is null.
+     * @return the annotated segment.
+     * @throws DataSourceException         to capture any error returned from the data source.
+     * @throws BadReferenceObjectException if the segment does not exist or the coordinates are out of its bounds.
+     * @throws CoordinateErrorException    if the coordinates are not valid for the segment.
+     */
+    private DasAnnotatedSegment getAnnotatedSegment(DataSourceConfiguration dsnConfig, final AnnotationDataSource dataSource,
+                                                    final SegmentQuery segmentQuery, final Integer maxbins,
+                                                    final Range currentFeatureRange, final FeatureFilter featureFilter,
+                                                    DasFeatureRequestFilter filter)
+            throws DataSourceException, BadReferenceObjectException, CoordinateErrorException {
+        if (!RequestCoalescer.isEnabled(dsnConfig)) {
+            return fetchAnnotatedSegment(dataSource, segmentQuery, maxbins, currentFeatureRange, featureFilter, filter);
+        }
+        String call = "features|" + segmentQuery.getSegmentId() + ':' + segmentQuery.getStartCoordinate() + ','
+                + segmentQuery.getStopCoordinate() + '|' + maxbins + '|'
+                + ((currentFeatureRange == null) ? null : currentFeatureRange.getFrom() + "-" + currentFeatureRange.getTo())
+                + '|' + RequestCoalescer.getKey(featureFilter);
+        Future<CoalescedResult<DasAnnotatedSegment>> future = DATA_SOURCE_MANAGER.getRequestCoalescer().execute(
+                RequestCoalescer.getKey(dsnConfig, call), new Callable<CoalescedResult<DasAnnotatedSegment>>() {
+            public CoalescedResult<DasAnnotatedSegment> call() throws Exception {
+                // Each request has its own filter, so the pagination is reported through the result.
+                DasFeatureRequestFilter callFilter = new DasFeatureRequestFilter();
+                DasAnnotatedSegment annotatedSegment = fetchAnnotatedSegment(dataSource, segmentQuery, maxbins, currentFeatureRange, featureFilter, callFilter);
+                return new CoalescedResult<DasAnnotatedSegment>(annotatedSegment, callFilter.isPaginated());
+            }
+        });
+        CoalescedResult<DasAnnotatedSegment> result = getSegmentResult(future);
+        if (result.paginated) {
+            filter.setPaginated(true);
+        }
+        return result.result;
+    }
+
+    /**
+     * Queries the data source for the features of a single segment, as requested by getFeatureCollection.
+     *
+     * @param dataSource          the data source.
+     * @param segmentQuery        the requested segment.
+     * @param maxbins             the number of bins the client can draw, or null.
+     * @param currentFeatureRange the features of the segment to return, null if not paginated.
+     * @param featureFilter       the restrictions to pass to a {@link FilterAwareAnnotationDataSource}, or null.
+     * @param filter              the filter, marked as paginated if the data source handled the range.
+     *                            May be null if currentFeatureRange is null.
+     * @return the annotated segment.
+     * @throws DataSourceException         to capture any error returned from the data source.
+     * @throws BadReferenceObjectException if the segment does not exist or the coordinates are out of its bounds.
+     * @throws CoordinateErrorException    if the coordinates are not valid for the segment.
+     */
+    private DasAnnotatedSegment fetchAnnotatedSegment(AnnotationDataSource dataSource, SegmentQuery segmentQuery,
+                                                      Integer maxbins, Range currentFeatureRange, FeatureFilter featureFilter,
+                                                      DasFeatureRequestFilter filter)
+            throws DataSourceException, BadReferenceObjectException, CoordinateErrorException {
+        DasAnnotatedSegment annotatedSegment = null;
+        if (featureFilter != null && (currentFeatureRange != null || !featureFilter.isEmpty())) {
+            try {
+                annotatedSegment = ((FilterAwareAnnotationDataSource) dataSource).getFeatures(segmentQuery.getSegmentId(),
+                        segmentQuery.getStartCoordinate(), segmentQuery.getStopCoordinate(), maxbins, featureFilter, currentFeatureRange);
+                if (currentFeatureRange != null) {
+                    filter.setPaginated(true);
                 }
-            } catch (CoordinateErrorException cee) {
-                if (unknownSegmentsHandled) {
-                    segments.add(new DasUnknownFeatureSegment(segmentQuery));
-                } else {
-                    throw cee;
+            } catch (UnimplementedFeatureException ufe) {
+                // Falls back on the request without the filter.
+            }
+        }
+        if (annotatedSegment != null) {
+            // Already filtered, and paginated if requested, by the data source.
+        } else if (segmentQuery.getStartCoordinate() == null) {
+            // Easy request - just want all the features on the segment.
+            try {
+                if (currentFeatureRange == null)
+                    throw new UnimplementedFeatureException("if is null is because there is not necessity for pagination");
+                //trying to use the user implementation of its pagination.
+                annotatedSegment = dataSource.getFeatures(segmentQuery.getSegmentId(), maxbins, currentFeatureRange);
+                filter.setPaginated(true);
+            } catch (UnimplementedFeatureException ufe) {
+                annotatedSegment = dataSource.getFeatures(segmentQuery.getSegmentId(), maxbins);
+            }
+        } else {
+
+            // Restricted to coordinates.
+            if (dataSource instanceof RangeHandlingAnnotationDataSource) {
+                try {
+                    if (currentFeatureRange == null)
+                        throw new UnimplementedFeatureException("if is null is because there is not necesity for pagination");
+                    //trying to use the user implementation of its pagination.
+                    annotatedSegment = ((RangeHandlingAnnotationDataSource) dataSource).getFeatures(
+                            segmentQuery.getSegmentId(),
+                            segmentQuery.getStartCoordinate(),
+                            segmentQuery.getStopCoordinate(),
+                            maxbins, currentFeatureRange);
+                    filter.setPaginated(true);
+                } catch (UnimplementedFeatureException ufe) {
+                    annotatedSegment = ((RangeHandlingAnnotationDataSource) dataSource).getFeatures(
+                            segmentQuery.getSegmentId(),
+                            segmentQuery.getStartCoordinate(),
+                            segmentQuery.getStopCoordinate(),
+                            maxbins);
+                }
+            } else if (dataSource instanceof RangeHandlingReferenceDataSource) {
+                try {
+                    if (currentFeatureRange == null)
+                        throw new UnimplementedFeatureException("if is null is because there is not necesity for pagination");
+                    //trying to use the user implementation of its pagination.
+                    annotatedSegment = ((RangeHandlingReferenceDataSource) dataSource).getFeatures(
+                            segmentQuery.getSegmentId(),
+                            segmentQuery.getStartCoordinate(),
+                            segmentQuery.getStopCoordinate(),
+                            maxbins, currentFeatureRange);
+                    filter.setPaginated(true);
+                } catch (UnimplementedFeatureException ufe) {
+                    annotatedSegment = ((RangeHandlingReferenceDataSource) dataSource).getFeatures(
+                            segmentQuery.getSegmentId(),
+                            segmentQuery.getStartCoordinate(),
+                            segmentQuery.getStopCoordinate(),
+                            maxbins);
+                }
+            } else {
+                try {
+                    if (currentFeatureRange == null)
+                        throw new UnimplementedFeatureException("if is null is because there is not necesity for pagination");
+                    //trying to use the user implementation of its pagination.
+                    annotatedSegment = dataSource.getFeatures(segmentQuery.getSegmentId(), maxbins, currentFeatureRange);
+                    filter.setPaginated(true);
+                } catch (UnimplementedFeatureException ufe) {
+                    annotatedSegment = dataSource.getFeatures(segmentQuery.getSegmentId(), maxbins);
                 }
             }
         }
-        return segments;
+
+        //If segment query start and stop are completely out of limits an ERRORSEGMENT should be reported (since 1.6.1)
+        if (isOutOfBounds(segmentQuery, annotatedSegment)) {
+            throw new BadReferenceObjectException(segmentQuery.getSegmentId(), "start and stop out of segment bounds", new IndexOutOfBoundsException("start and stop out of segment bounds"));
+        }
+        return annotatedSegment;
+    }
+
+    /**
+     * Checks a segment returned by a {@link BatchRangeAnnotationDataSource} as fetchAnnotatedSegment does.
+     *
+     * @param segmentQuery     the requested segment.
+     * @param annotatedSegment the segment returned for it, null if it does not exist.
+     * @return the annotated segment.
+     * @throws BadReferenceObjectException if the segment does not exist or the coordinates are out of its bounds.
+     */
+    private DasAnnotatedSegment getBatchSegment(SegmentQuery segmentQuery, DasAnnotatedSegment annotatedSegment)
+            throws BadReferenceObjectException {
+        if (annotatedSegment == null) {
+            throw new BadReferenceObjectException(segmentQuery.getSegmentId(), "segment not found");
+        }
+        //If segment query start and stop are completely out of limits an ERRORSEGMENT should be reported (since 1.6.1)
+        if (isOutOfBounds(segmentQuery, annotatedSegment)) {
+            throw new BadReferenceObjectException(segmentQuery.getSegmentId(), "start and stop out of segment bounds", new IndexOutOfBoundsException("start and stop out of segment bounds"));
+        }
+        return annotatedSegment;
+    }
+
+    /**
+     * Waits for a data source call, run on one of the segment thread pools or shared with another
+     * request, and returns its result, rethrowing the exception of the data source if the call failed.
+     *
+     * @param future the pending call.
+     * @return the result returned by the data source.
+     * @throws DataSourceException         if the data source failed, or the request thread was interrupted.
+     * @throws BadReferenceObjectException if the segment does not exist.
+     * @throws CoordinateErrorException    if the coordinates are not valid for the segment.
+     */
+    private <T> T getSegmentResult(Future<T> future)
+            throws DataSourceException, BadReferenceObjectException, CoordinateErrorException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new DataSourceException("Interrupted while waiting for the data source.", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof DataSourceException) {
+                throw (DataSourceException) cause;
+            } else if (cause instanceof BadReferenceObjectException) {
+                throw (BadReferenceObjectException) cause;
+            } else if (cause instanceof CoordinateErrorException) {
+                throw (CoordinateErrorException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new DataSourceException("Exception thrown by the data source.", cause);
+        }
+    }
+
+    /**
+     * Cancels the segment queries that are still pending, e.g. once one of them has failed.
+     *
+     * @param futures the pending segments, may be null.
+     */
+    private void cancel(List<? extends Future<?>> futures) {
+        if (futures != null) {
+            for (Future<?> future : futures) {
+                future.cancel(true);
+            }
+        }
+    }
+
+    /**
+     * Checks the coordinates of a segment query against the bounds of the segment returned by the data source.
+     * Zero or negative coordinates, start greater than stop and a start outside the segment are out of bounds.
+     *
+     * @param segmentQuery the requested segment.
+     * @param segment      the segment returned by the data source.
+     * @return true if an ERRORSEGMENT / UNKNOWNSEGMENT should be reported instead of the segment.
+     */
+    private boolean isOutOfBounds(SegmentQuery segmentQuery, DasSegment segment) {
+        boolean error = false;
+        if ((segmentQuery.getStartCoordinate() != null) && (segmentQuery.getStopCoordinate() != null)) {
+            if ((segmentQuery.getStartCoordinate() <= 0) || (segmentQuery.getStopCoordinate() <= 0)) {
+                //0 or negative values in range are not allowed: ERROR
+                error = true;
+            } else if (segmentQuery.getStartCoordinate() > segmentQuery.getStopCoordinate()) {
+                //start cannot be greater that stop: ERROR
+                error = true;
+            } else if (((segment.getStartCoordinate() <= segmentQuery.getStartCoordinate()) &&
+                    (segmentQuery.getStartCoordinate() <= segment.getStopCoordinate()))
+                    && (segment.getStartCoordinate() <= segmentQuery.getStopCoordinate())) {
+                //start is completely bounded, stop is greater or equal to real init: OK
+                error = false;
+            } else {
+                error = true;
+            }
+        }
+        if (error && logger.isDebugEnabled()) {
+            logger.debug("SEGMENT START & STOP OUT OF BOUNDS: " +
+                    "query(" + segmentQuery.getStartCoordinate() + ", " + segmentQuery.getStopCoordinate() + ") " +
+                    "vs bounds(" + segment.getStartCoordinate() + ", " + segment.getStopCoordinate() + ")");
+        }
+        return error;
     }
 
     private Collection<SegmentReporter> features2reporters(Collection<DasAnnotatedSegment> segments, Collection<SegmentQuery> segmentQueries) {
@@ -1204,6 +1592,33 @@ public class DasCommandManager {
         return requestURL.toString();
     }
 
+    /**
+     * Sets the indentation of the XML documents, unless the global parameter
+     * xml_indentation is set to false.
+     *
+     * @param serializer the serializer about to write a document.
+     */
+    private void setIndentation(XmlSerializer serializer) {
+        if (isIndented(DATA_SOURCE_MANAGER.getServerConfiguration())) {
+            serializer.setProperty(INDENTATION_PROPERTY, INDENTATION_PROPERTY_VALUE);
+        }
+    }
+
+    /**
+     * @param serverConfig the server configuration, may be null.
+     * @return false if the global parameter xml_indentation is set to false, true otherwise.
+     */
+    static boolean isIndented(ServerConfiguration serverConfig) {
+        if (serverConfig != null && serverConfig.getGlobalConfiguration() != null) {
+            Map<String, PropertyType> properties = serverConfig.getGlobalConfiguration().getGlobalParameters();
+            PropertyType indentation = (properties == null) ? null : properties.get(XML_INDENTATION_PARAMETER);
+            if (indentation != null && indentation.getValue() != null && "false".equalsIgnoreCase(indentation.getValue().trim())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     /**
      * Returns a PrintWriter for the response. First checks if the output should / can be
      * gzipped. If so, wraps the OutputStream in a GZIPOutputStream and then returns
@@ -1273,128 +1688,60 @@ public class DasCommandManager {
             logger.error("The source command has been called, but no sources have been initialised successfully.");
         } else {
             // At least one dsn is OK.
+            ConfigurationDocuments documents = DATA_SOURCE_MANAGER.getConfigurationDocuments();
+            ConfigurationDocuments.Document document;
             if (source == null) {
                 //server sources command, just report the default capabilities
-                writeHeader(request, response, XDasStatus.STATUS_200_OK, true, null);
+                document = documents.getSourcesDocument();
             } else {
                 //datasource sources command, report capabilities
-                DataSourceConfiguration dataSourceConfig = DATA_SOURCE_MANAGER.getServerConfiguration().getDataSourceConfig(source);
-                writeHeader(request, response, XDasStatus.STATUS_200_OK, true, dataSourceConfig.getCapabilities());
-                dataSourceConfig.destroy(); // not really needed; data source not loaded
-            }
-            // Build the XML.
-            XmlSerializer serializer;
-            serializer = PULL_PARSER_FACTORY.newSerializer();
-            BufferedWriter out = null;
-            try {
-                out = getResponseWriter(request, response);
-                serializer.setOutput(out);
-                serializer.setProperty(INDENTATION_PROPERTY, INDENTATION_PROPERTY_VALUE);
-                serializer.startDocument(null, false);
-                serializer.text("\n");
-                if (DATA_SOURCE_MANAGER.getServerConfiguration().getGlobalConfiguration().getSourcesXSLT() != null) {
-                    serializer.processingInstruction(DATA_SOURCE_MANAGER.getServerConfiguration().getGlobalConfiguration().getSourcesXSLT());
-                    serializer.text("\n");
-                }
-                serializer.startTag(DAS_XML_NAMESPACE, "SOURCES");
-
-                if(source == null) {
-                    List<String> versionsadded = new ArrayList<String>();
-                    for (String dsn : dsns) {
-                        if (!versionsadded.contains(dsn)) {
-                            DataSourceConfiguration dataSourceConfig = null;
-                            try {
-                                dataSourceConfig = DATA_SOURCE_MANAGER.getServerConfiguration().getDataSourceConfig(dsn);
-                                versionsadded.addAll(serializeSources(serializer, dataSourceConfig));
-                            } finally {
-                                if(dataSourceConfig != null) dataSourceConfig.destroy();
-                            }
-                        }
-                    }
-                } else {
-                    DataSourceConfiguration dataSourceConfig = null;
+                document = documents.getSourceDocument(source);
+                if (document == null) {
+                    // Matched dynamic data source, rendered on request.
+                    DataSourceConfiguration dataSourceConfig = DATA_SOURCE_MANAGER.getServerConfiguration().getDataSourceConfig(source);
                     try {
-                        dataSourceConfig = DATA_SOURCE_MANAGER.getServerConfiguration().getDataSourceConfig(source);
-                        serializeSources(serializer, dataSourceConfig);
+                        document = documents.renderSource(dataSourceConfig);
                     } finally {
-                        if(dataSourceConfig != null) dataSourceConfig.destroy();
+                        dataSourceConfig.destroy(); // not really needed; data source not loaded
                     }
                 }
-
-                serializer.endTag(DAS_XML_NAMESPACE, "SOURCES");
-                serializer.flush();
-            } finally {
-                if (out != null) {
-                    out.close();
-                }
             }
+            sendDocument(request, response, document);
         }
     }
 
-    private List<String> serializeSources(XmlSerializer serializer, DataSourceConfiguration dataSourceConfig) throws XmlPullParserException, IOException {
-        if(dataSourceConfig == null) return new ArrayList<String>(0);
-
-        Datasource dsnConfig2 = dataSourceConfig.getConfig();
-
-        serializer.startTag(DAS_XML_NAMESPACE, "SOURCE");
-        serializer.attribute(DAS_XML_NAMESPACE, "uri", dsnConfig2.getUri());
-        if (dsnConfig2.getDocHref() != null && dsnConfig2.getDocHref().length() > 0) {
-            serializer.attribute(DAS_XML_NAMESPACE, "doc_href", dsnConfig2.getDocHref());
-        }
-        serializer.attribute(DAS_XML_NAMESPACE, "title", dsnConfig2.getTitle());
-        serializer.attribute(DAS_XML_NAMESPACE, "description", dsnConfig2.getDescription());
-
-        serializer.startTag(DAS_XML_NAMESPACE, "MAINTAINER");
-        serializer.attribute(DAS_XML_NAMESPACE, "email", dsnConfig2.getMaintainer().getEmail());
-        serializer.endTag(DAS_XML_NAMESPACE, "MAINTAINER");
-
-        if(dsnConfig2.getPattern() != null) {
-            serializer.startTag(DAS_XML_NAMESPACE, "PATTERN");
-            serializer.text(dsnConfig2.getPattern());
-            serializer.endTag(DAS_XML_NAMESPACE, "PATTERN");
-        }
-
-        List<String> versionsadded = new ArrayList<String>();
-        for (Version version : dsnConfig2.getVersion()) {
-            versionsadded.add(version.getUri());
-            serializer.startTag(DAS_XML_NAMESPACE, "VERSION");
-            serializer.attribute(DAS_XML_NAMESPACE, "uri", version.getUri());
-            serializer.attribute(DAS_XML_NAMESPACE, "created", version.getCreated().toString());
-            for (Coordinates coordinates : version.getCoordinates()) {
-                serializer.startTag(DAS_XML_NAMESPACE, "COORDINATES");
-                serializer.attribute(DAS_XML_NAMESPACE, "uri", coordinates.getUri());
-                serializer.attribute(DAS_XML_NAMESPACE, "source", coordinates.getSource());
-                serializer.attribute(DAS_XML_NAMESPACE, "authority", coordinates.getAuthority());
-                if ((coordinates.getTaxid() != null) && (coordinates.getTaxid().length() > 0))
-                    serializer.attribute(DAS_XML_NAMESPACE, "taxid", coordinates.getTaxid());
-                if ((coordinates.getVersion() != null) && (coordinates.getVersion().length() > 0))
-                    serializer.attribute(DAS_XML_NAMESPACE, "version", coordinates.getVersion());
-                serializer.attribute(DAS_XML_NAMESPACE, "test_range", coordinates.getTestRange());
-                serializer.text(coordinates.getValue());
-                serializer.endTag(DAS_XML_NAMESPACE, "COORDINATES");
-            }
-            for (Capability capability : version.getCapability()) {
-                serializer.startTag(DAS_XML_NAMESPACE, "CAPABILITY");
-                serializer.attribute(DAS_XML_NAMESPACE, "type", capability.getType());
-                if ((capability.getQueryUri() != null) && (capability.getQueryUri().length() > 0))
-                    serializer.attribute(DAS_XML_NAMESPACE, "query_uri", capability.getQueryUri());
-                serializer.endTag(DAS_XML_NAMESPACE, "CAPABILITY");
-            }
-            //1.6.1 Properties come from version and are not allowed in data sources (not out of the version anyway)
-            //1.61. Only properties with visibility true will be reported in source command response
-            for (PropertyType pt : version.getProperty()) {
-                if (pt.isVisibility()) {
-                    serializer.startTag(DAS_XML_NAMESPACE, "PROPERTY");
-                    serializer.attribute(DAS_XML_NAMESPACE, "name", pt.getKey());
-                    serializer.attribute(DAS_XML_NAMESPACE, "value", pt.getValue());
-                    serializer.endTag(DAS_XML_NAMESPACE, "PROPERTY");
+    /**
+     * Sends one of the pre-rendered configuration documents, gzipped if the client accepts it.
+     * The response carries an ETag, and a client that already has the document gets a 304.
+     *
+     * @param request  to check the encodings accepted and If-None-Match.
+     * @param response to which the HTTP header and the document are written.
+     * @param document the document to send.
+     * @throws IOException in the event of an error being thrown when writing out the document.
+     */
+    private void sendDocument(HttpServletRequest request, HttpServletResponse response, ConfigurationDocuments.Document document)
+            throws IOException {
+        boolean gzipped = this.mydasServlet.compressResponse(request);
+        writeHeader(request, response, XDasStatus.STATUS_200_OK, true, document.getCapabilities());
+        String etag = document.getEtag(gzipped);
+        response.setHeader("ETag", etag);
+        String ifNoneMatch = request.getHeader("If-None-Match");
+        if (ifNoneMatch != null) {
+            for (String candidate : ifNoneMatch.split(",")) {
+                if (candidate.trim().equals(etag) || candidate.trim().equals("*")) {
+                    response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+                    return;
                 }
             }
-            serializer.endTag(DAS_XML_NAMESPACE, "VERSION");
         }
-
-        serializer.endTag(DAS_XML_NAMESPACE, "SOURCE");
-        return versionsadded;
+        byte[] body = document.getBytes(gzipped);
+        response.setContentLength(body.length);
+        OutputStream out = response.getOutputStream();
+        try {
+            out.write(body);
+        } finally {
+            out.close();
+        }
     }
 
     /**
@@ -1470,12 +1817,12 @@ public class DasCommandManager {
             writeHeader(request, response, XDasStatus.STATUS_200_OK, true, dsnConfig.getCapabilities());
             //OK, got our entry points, so write out the XML.
             XmlSerializer serializer;
-            serializer = PULL_PARSER_FACTORY.newSerializer();
+            serializer = new DasXmlWriter();
             BufferedWriter out = null;
             try {
                 out = getResponseWriter(request, response);
                 serializer.setOutput(out);
-                serializer.setProperty(INDENTATION_PROPERTY, INDENTATION_PROPERTY_VALUE);
+                setIndentation(serializer);
                 serializer.startDocument(null, false);
                 serializer.text("\n");
                 if (DATA_SOURCE_MANAGER.getServerConfiguration().getGlobalConfiguration().getEntryPointsXSLT() != null) {
@@ -1591,12 +1938,12 @@ public class DasCommandManager {
             writeHeader(request, response, XDasStatus.STATUS_200_OK, true, dsnConfig.getCapabilities());
             // Build the XML.
             XmlSerializer serializer;
-            serializer = PULL_PARSER_FACTORY.newSerializer();
+            serializer = new DasXmlWriter();
             BufferedWriter out = null;
             try {
                 out = getResponseWriter(request, response);
                 serializer.setOutput(out);
-                serializer.setProperty(INDENTATION_PROPERTY, INDENTATION_PROPERTY_VALUE);
+                setIndentation(serializer);
                 serializer.startDocument(null, false);
                 serializer.text("\n");
                 if (DATA_SOURCE_MANAGER.getServerConfiguration().getGlobalConfiguration().getSequenceXSLT() != null) {
@@ -1738,7 +2085,7 @@ public class DasCommandManager {
                 try {
                     out = getResponseWriter(request, response);
                     serializer.setOutput(out);
-                    serializer.setProperty(INDENTATION_PROPERTY, INDENTATION_PROPERTY_VALUE);
+                    setIndentation(serializer);
                     serializer.startDocument(null, false);
                     serializer.text("\n");
                     structure.serialize(DAS_XML_NAMESPACE, serializer);
@@ -1842,7 +2189,7 @@ public class DasCommandManager {
                 try {
                     out = getResponseWriter(request, response);
                     serializer.setOutput(out);
-                    serializer.setProperty(INDENTATION_PROPERTY, INDENTATION_PROPERTY_VALUE);
+                    setIndentation(serializer);
                     serializer.startDocument(null, false);
                     serializer.text("\n");
                     alignment.serialize(DAS_XML_NAMESPACE, serializer);
@@ -1897,6 +2244,7 @@ public class DasCommandManager {
         DasAnnotatedSegment segment = parser.parse2MyDasModel(request.getParameter("_content"));
         try {
             DasAnnotatedSegment segmentRes = ((WritebackDataSource) dataSourceConfig.getDataSource()).create(segment);
+            indexWrittenFeatures(dataSourceConfig, (segmentRes == null) ? segment : segmentRes);
             writeHeader(request, response, XDasStatus.STATUS_200_OK, true, dataSourceConfig.getCapabilities());
             serialize(request, response, dataSourceConfig, segmentRes);
         } catch (DataSourceException e) {
@@ -1929,12 +2277,12 @@ public class DasCommandManager {
             segmentReporterLists.add(new FoundFeaturesReporter(segment));
 
             XmlSerializer serializer;
-            serializer = PULL_PARSER_FACTORY.newSerializer();
+            serializer = new DasXmlWriter();
             BufferedWriter out = null;
             try {
                 out = getResponseWriter(request, response);
                 serializer.setOutput(out);
-                serializer.setProperty(INDENTATION_PROPERTY, INDENTATION_PROPERTY_VALUE);
+                setIndentation(serializer);
                 serializer.startDocument(null, false);
                 serializer.text("\n");
                 if (DATA_SOURCE_MANAGER.getServerConfiguration().getGlobalConfiguration().getFeaturesXSLT() != null) {
@@ -1983,6 +2331,7 @@ public class DasCommandManager {
         }
         try {
             DasAnnotatedSegment segmentRes = ((WritebackDataSource) dataSourceConfig.getDataSource()).delete(segmentid, featureid, parameters2);
+            indexDeletedFeature(dataSourceConfig, featureid);
             writeHeader(request, response, XDasStatus.STATUS_200_OK, true, dataSourceConfig.getCapabilities());
             serialize(request, response, dataSourceConfig, segmentRes);
         } catch (DataSourceException e) {
@@ -2015,6 +2364,7 @@ public class DasCommandManager {
         DasAnnotatedSegment segment = parser.parse2MyDasModel(content);
         try {
             DasAnnotatedSegment segmentRes = ((WritebackDataSource) dataSourceConfig.getDataSource()).update(segment);
+            indexWrittenFeatures(dataSourceConfig, (segmentRes == null) ? segment : segmentRes);
             writeHeader(request, response, XDasStatus.STATUS_200_OK, true, dataSourceConfig.getCapabilities());
             serialize(request, response, dataSourceConfig, segmentRes);
         } catch (DataSourceException e) {
@@ -2031,6 +2381,56 @@ public class DasCommandManager {
 
     }
 
+    /**
+     * Indexes the features created or updated through writeback, if the data source is searchable
+     * and indexed.  The data source has already been changed, so errors are only logged.
+     *
+     * @param dataSourceConfig the writeback data source.
+     * @param segment          the segment holding the features written.
+     */
+    private void indexWrittenFeatures(DataSourceConfiguration dataSourceConfig, DasAnnotatedSegment segment) {
+        String indexerPath = getIndexerPath(dataSourceConfig);
+        if (indexerPath != null && segment != null) {
+            try {
+                DATA_SOURCE_MANAGER.getIndexUpdater().featuresWritten(indexerPath, dataSourceConfig.getName(), segment);
+            } catch (SearcherException e) {
+                logger.error("The features written could not be indexed", e);
+            }
+        }
+    }
+
+    /**
+     * Removes a feature deleted through writeback from the index, if the data source is searchable
+     * and indexed.  The data source has already been changed, so errors are only logged.
+     *
+     * @param dataSourceConfig the writeback data source.
+     * @param featureId        the id of the feature deleted.
+     */
+    private void indexDeletedFeature(DataSourceConfiguration dataSourceConfig, String featureId) {
+        String indexerPath = getIndexerPath(dataSourceConfig);
+        if (indexerPath != null && featureId != null) {
+            try {
+                DATA_SOURCE_MANAGER.getIndexUpdater().featureDeleted(indexerPath, dataSourceConfig.getName(), featureId);
+            } catch (SearcherException e) {
+                logger.error("The feature deleted could not be removed from the index", e);
+            }
+        }
+    }
+
+    /**
+     * @return the directory of the indexes, or null if the data source is not searchable.
+     */
+    private String getIndexerPath(DataSourceConfiguration dataSourceConfig) {
+        if (!dataSourceConfig.getCapabilities().contains("advanced-search")) {
+            return null;
+        }
+        PropertyType indexerPath = DATA_SOURCE_MANAGER.getServerConfiguration().getGlobalConfiguration().getGlobalParameters().get("indexerpath");
+        if (indexerPath == null || indexerPath.getValue() == null || indexerPath.getValue().trim().equals("")) {
+            return null;
+        }
+        return indexerPath.getValue();
+    }
+
     public void writebackHistorical(HttpServletRequest request, HttpServletResponse response, DataSourceConfiguration dataSourceConfig) throws WritebackException {
         String featureId = request.getParameter("feature");
         try {
@@ -2053,11 +2453,12 @@ public class DasCommandManager {
 
 
     /**
-     * Implements the source command.  Only reports sources that have initialized successfully.
+     * Implements the indexer command.  Queues the indexing of the data sources with the
+     * advanced-search capability, which runs in the background, and reports its progress as the
+     * indexer_status command does.
      *
      * @param request  to allow writing of the HTTP header
-     * @param response to which the HTTP header and DASDSN XML are written
-     * @throws XmlPullParserException in the event of an error being thrown when writing out the XML
+     * @param response to which the HTTP header and the progress are written
      * @throws IOException            in the event of an error being thrown when writing out the XML
      * @throws SearcherException      in case the indexes are not crated
      */
@@ -2082,8 +2483,12 @@ public class DasCommandManager {
         }
         String keyphrase = request.getParameter("keyphrase");
         if (properties.get("keyphrase").getValue().equals(keyphrase)) {
-            Indexer indexer = new Indexer(properties.get("indexerpath").getValue(), DATA_SOURCE_MANAGER.getServerConfiguration());
-            indexer.generateIndexes();
+            Indexer indexer = new Indexer(DATA_SOURCE_MANAGER.getIndexSearchers(), properties.get("indexerpath").getValue(), DATA_SOURCE_MANAGER.getServerConfiguration());
+            IndexerJobs indexerJobs = DATA_SOURCE_MANAGER.getIndexerJobs();
+            for (String dsn : indexer.getDsnsToIndex()) {
+                indexerJobs.submit(indexer, dsn);
+            }
+            writeIndexerStatus(request, response, indexerJobs.getProgress());
         } else {
             writeHeader(request, response, XDasStatus.STATUS_500_SERVER_ERROR, false, null);
             logger.error("The indexer keyphrase does not match with the one in the Config file");
@@ -2091,6 +2496,59 @@ public class DasCommandManager {
         }
     }
 
+    /**
+     * Implements the indexer_status command, reporting the progress of the last indexing of each
+     * data source: its state, the segments and features indexed, the features indexed per second
+     * and the estimated number of seconds left (-1 if unknown).
+     *
+     * @param request  to allow writing of the HTTP header
+     * @param response to which the HTTP header and the progress are written
+     * @throws IOException in the event of an error being thrown when writing out the XML
+     */
+    void indexerStatusCommand(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        if (DATA_SOURCE_MANAGER.getServerConfiguration() == null) {
+            writeHeader(request, response, XDasStatus.STATUS_500_SERVER_ERROR, false, null);
+            logger.error("A request has been made to the das server, however initialisation failed - possibly the mydasserverconfig.xml file was not found.");
+            return;
+        }
+        writeIndexerStatus(request, response, DATA_SOURCE_MANAGER.getIndexerJobs().getProgress());
+    }
+
+    private void writeIndexerStatus(HttpServletRequest request, HttpServletResponse response, List<IndexingProgress> jobs) throws IOException {
+        writeHeader(request, response, XDasStatus.STATUS_200_OK, true, null);
+        XmlSerializer serializer = new DasXmlWriter();
+        BufferedWriter out = null;
+        try {
+            out = getResponseWriter(request, response);
+            serializer.setOutput(out);
+            setIndentation(serializer);
+            serializer.startDocument(null, false);
+            serializer.text("\n");
+            serializer.startTag(DAS_XML_NAMESPACE, "INDEXER");
+            for (IndexingProgress job : jobs) {
+                serializer.startTag(DAS_XML_NAMESPACE, "JOB");
+                serializer.attribute(DAS_XML_NAMESPACE, "dsn", job.getDataSourceName());
+                serializer.attribute(DAS_XML_NAMESPACE, "state", job.getState().name());
+                serializer.attribute(DAS_XML_NAMESPACE, "segments", Integer.toString(job.getSegmentsDone()));
+                serializer.attribute(DAS_XML_NAMESPACE, "total_segments", Integer.toString(job.getTotalSegments()));
+                serializer.attribute(DAS_XML_NAMESPACE, "features", Long.toString(job.getFeaturesIndexed()));
+                serializer.attribute(DAS_XML_NAMESPACE, "features_per_second", Long.toString(Math.round(job.getFeaturesPerSecond())));
+                serializer.attribute(DAS_XML_NAMESPACE, "elapsed_seconds", Long.toString(job.getElapsedMillis() / 1000));
+                serializer.attribute(DAS_XML_NAMESPACE, "eta_seconds", Long.toString(job.getEstimatedSecondsLeft()));
+                if (job.getError() != null) {
+                    serializer.text(job.getError());
+                }
+                serializer.endTag(DAS_XML_NAMESPACE, "JOB");
+            }
+            serializer.endTag(DAS_XML_NAMESPACE, "INDEXER");
+            serializer.flush();
+        } finally {
+            if (out != null) {
+                out.close();
+            }
+        }
+    }
+
     private Collection<DasAnnotatedSegment> merge(Collection<DasAnnotatedSegment> a, Collection<DasAnnotatedSegment> b, int type) throws DataSourceException {
         Collection<DasAnnotatedSegment> merged = new ArrayList<DasAnnotatedSegment>();
         switch (type) {
@@ -2157,4 +2615,17 @@ public class DasCommandManager {
                 return true;
         return false;
     }
+
+    /**
+     * Result of a data source call shared between requests, with the pagination it reported.
+     */
+    private static class CoalescedResult<T> {
+        private final T result;
+        private final boolean paginated;
+
+        private CoalescedResult(T result, boolean paginated) {
+            this.result = result;
+            this.paginated = paginated;
+        }
+    }
 }
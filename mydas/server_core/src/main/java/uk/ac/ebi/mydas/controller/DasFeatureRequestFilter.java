@@ -23,12 +23,14 @@
 
 package uk.ac.ebi.mydas.controller;
 
+import uk.ac.ebi.mydas.datasource.FeatureFilter;
 import uk.ac.ebi.mydas.model.DasFeature;
 import uk.ac.ebi.mydas.model.Range;
 
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.LinkedHashSet;
 import java.util.List;
 
 /**
@@ -66,6 +68,11 @@ public class DasFeatureRequestFilter {
     private boolean paginated=false;
     
     private Integer totalFeatures;
+
+    /**
+     * The type, category and feature id restrictions, built on first use.
+     */
+    private FeatureFilter featureFilter;
     
     public Integer getTotalFeatures() {
 		return totalFeatures;
@@ -126,22 +133,25 @@ public class DasFeatureRequestFilter {
 
     void addTypeId (String typeId){
         if (typeId != null){
-            if (typeIds == null) typeIds = new ArrayList<String>();
+            if (typeIds == null) typeIds = new LinkedHashSet<String>();
             typeIds.add (typeId);
+            featureFilter = null;
         }
     }
 
     void addCategoryId (String categoryId){
         if (categoryId != null){
-            if (categoryIds == null) categoryIds = new ArrayList<String>();
+            if (categoryIds == null) categoryIds = new LinkedHashSet<String>();
             categoryIds.add (categoryId);
+            featureFilter = null;
         }
     }
 
     void addFeatureId (String featureId){
         if (featureId != null){
-            if (featureIds == null) featureIds = new ArrayList<String>();
+            if (featureIds == null) featureIds = new LinkedHashSet<String>();
             featureIds.add (featureId);
+            featureFilter = null;
         }
     }
 
@@ -183,6 +193,20 @@ public class DasFeatureRequestFilter {
 			return groupIds;
     }
 
+    /**
+     * Returns the type, category and feature id restrictions of the request, as passed to a
+     * {@link uk.ac.ebi.mydas.datasource.FilterAwareAnnotationDataSource}.
+     * @return the restrictions, never null.
+     */
+    public FeatureFilter getFeatureFilter(){
+        FeatureFilter filter = featureFilter;
+        if (filter == null){
+            filter = new FeatureFilter(typeIds, categoryIds, featureIds);
+            featureFilter = filter;
+        }
+        return filter;
+    }
+
     /**
      * Returns true if the tested DasFeature passes all the filters.
      * Method changed to public in order to be reach it by the serializer of the DasFeatureE
@@ -191,15 +215,7 @@ public class DasFeatureRequestFilter {
      */
     public boolean featurePasses(DasFeature feature){
 
-        if (!(featureIds == null || (feature.getFeatureId() != null && featureIds.contains(feature.getFeatureId())))){
-            return false;
-        }
-
-        if (!(typeIds == null || (feature.getType().getId() != null && typeIds.contains(feature.getType().getId())))){
-            return false;
-        }
-
-        if (!(categoryIds == null || (feature.getType().getCategory() != null && categoryIds.contains(feature.getType().getCategory())))){
+        if (!getFeatureFilter().passes(feature)){
             return false;
         }
 
@@ -0,0 +1,742 @@
+/*
+ * Copyright 2007 Philip Jones, EMBL-European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *
+ * For further details of the mydas project, including source code,
+ * downloads and documentation, please see:
+ *
+ * http://code.google.com/p/mydas/
+ *
+ */
+
+package uk.ac.ebi.mydas.controller;
+
+import org.xmlpull.v1.XmlSerializer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.CharBuffer;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * XmlSerializer written for the DAS documents, used instead of the one of the xmlpull
+ * factory by the commands producing large responses (features, types, dna, sequence
+ * and entry_points).
+ * <p/>
+ * Markup and escaped values are written into a reusable char buffer, which is passed on to
+ * the underlying Writer once full, rather than through many small writes. The characters to
+ * escape are found with lookup tables, and integers and doubles can be written straight into
+ * the buffer with {@link #attribute(String, String, int)}, {@link #text(int)} and
+ * {@link #text(double)}, or with the static helpers of the same name that fall back to the
+ * plain XmlSerializer methods for other serializers.
+ * <p/>
+ * Leaf elements repeated many times in a document, such as the TYPE and METHOD of the
+ * features, can be recorded the first time they are written, between
+ * {@link #startFragment(XmlSerializer)} and {@link #endFragment(XmlSerializer, Object, int)},
+ * and copied as they are afterwards with {@link #fragment(XmlSerializer, Object, int)}.
+ * Fragments are kept by the writer, so they only live as long as the document.
+ * <p/>
+ * The output is the same, byte for byte, as the one of the xpp3 MXSerializer: same XML
+ * declaration, same escaping, " />" for empty elements and, when the indentation property
+ * is set, the same indentation. Namespaces are not supported, as the DAS documents do not
+ * use them.
+ */
+public class DasXmlWriter implements XmlSerializer {
+
+    private static final String INDENTATION_PROPERTY = "http://xmlpull.org/v1/doc/properties.html#serializer-indentation";
+    private static final String LINE_SEPARATOR_PROPERTY = "http://xmlpull.org/v1/doc/properties.html#serializer-line-separator";
+
+    private static final int BUFFER_SIZE = 8192;
+
+    /**
+     * Maximum number of objects whose fragments are kept. Once reached, new fragments are not
+     * recorded any more, which only matters if the beans are not shared between features.
+     */
+    private static final int MAX_FRAGMENT_OWNERS = 512;
+
+    /**
+     * Number of fragments kept per object, e.g. the variants of a TYPE element.
+     */
+    public static final int FRAGMENT_VARIANTS = 8;
+
+    /**
+     * Maximum width of the indentation, as in MXSerializer.
+     */
+    private static final int MAX_INDENT = 65;
+
+    /**
+     * Characters below 128 that need attention in element content: '&amp;', '&lt;', '&gt;'
+     * (after "]]"), ']' and the control characters.
+     */
+    private static final boolean[] TEXT_SPECIAL = new boolean[128];
+
+    /**
+     * Characters below 128 escaped in attribute values: '&amp;', '&lt;', '"' and the
+     * control characters.
+     */
+    private static final boolean[] ATTRIBUTE_SPECIAL = new boolean[128];
+
+    static {
+        for (char ch = 0; ch < 32; ch++) {
+            TEXT_SPECIAL[ch] = true;
+            ATTRIBUTE_SPECIAL[ch] = true;
+        }
+        TEXT_SPECIAL['&'] = TEXT_SPECIAL['<'] = TEXT_SPECIAL['>'] = TEXT_SPECIAL[']'] = true;
+        ATTRIBUTE_SPECIAL['&'] = ATTRIBUTE_SPECIAL['<'] = ATTRIBUTE_SPECIAL['"'] = true;
+    }
+
+    private static final long NEGATIVE_ZERO_BITS = Double.doubleToRawLongBits(-0.0d);
+
+    /**
+     * Integral doubles below this are printed by Double.toString as digits followed by ".0".
+     */
+    private static final double PLAIN_DOUBLE_LIMIT = 1.0E7d;
+
+    private Writer out;
+
+    private final char[] buffer = new char[BUFFER_SIZE];
+    private int position = 0;
+
+    private String[] elementNames = new String[16];
+    private int depth = 0;
+
+    private boolean startTagIncomplete = false;
+    private boolean seenTag = false;
+    private boolean seenBracket = false;
+    private boolean seenBracketBracket = false;
+
+    private String indentation = null;
+    private String lineSeparator = "\n";
+    private char[] indentationBuffer;
+    private boolean doIndent = false;
+
+    /**
+     * Recorded fragments, by the object they describe (compared by identity) and variant.
+     */
+    private final Map<Object, String[]> fragments = new IdentityHashMap<Object, String[]>();
+
+    /**
+     * Start in the buffer of the fragment being recorded, -1 if none is.
+     */
+    private int fragmentStart = -1;
+
+    /**
+     * The part of the fragment being recorded that has already been flushed from the buffer.
+     */
+    private final StringBuilder fragmentFlushed = new StringBuilder();
+
+    public void setFeature(String name, boolean state) throws IllegalArgumentException, IllegalStateException {
+        throw new IllegalStateException("unsupported feature " + name);
+    }
+
+    public boolean getFeature(String name) {
+        return false;
+    }
+
+    public void setProperty(String name, Object value) throws IllegalArgumentException, IllegalStateException {
+        if (INDENTATION_PROPERTY.equals(name)) {
+            indentation = (String) value;
+        } else if (LINE_SEPARATOR_PROPERTY.equals(name)) {
+            lineSeparator = (String) value;
+        } else {
+            throw new IllegalStateException("unsupported property " + name);
+        }
+        boolean writeLineSeparator = lineSeparator != null && lineSeparator.length() > 0;
+        boolean writeIndentation = indentation != null && indentation.length() > 0;
+        doIndent = indentation != null && (writeLineSeparator || writeIndentation);
+        if (doIndent) {
+            StringBuilder indent = new StringBuilder(writeLineSeparator ? lineSeparator : "");
+            if (writeIndentation) {
+                for (int level = 0; level < MAX_INDENT / indentation.length(); level++) {
+                    indent.append(indentation);
+                }
+            }
+            indentationBuffer = indent.toString().toCharArray();
+        }
+        seenTag = false;
+    }
+
+    public Object getProperty(String name) {
+        if (INDENTATION_PROPERTY.equals(name)) {
+            return indentation;
+        } else if (LINE_SEPARATOR_PROPERTY.equals(name)) {
+            return lineSeparator;
+        }
+        return null;
+    }
+
+    public void setOutput(OutputStream os, String encoding) throws IOException {
+        setOutput(new OutputStreamWriter(os, (encoding == null) ? "UTF-8" : encoding));
+    }
+
+    public void setOutput(Writer writer) {
+        this.out = writer;
+        position = 0;
+        depth = 0;
+        startTagIncomplete = seenTag = seenBracket = seenBracketBracket = false;
+        fragments.clear();
+        fragmentStart = -1;
+    }
+
+    public void startDocument(String encoding, Boolean standalone) throws IOException {
+        write("<?xml version=\"1.0\"");
+        if (encoding != null) {
+            write(" encoding=\"");
+            write(encoding);
+            write('"');
+        }
+        if (standalone != null) {
+            write(standalone ? " standalone=\"yes\"" : " standalone=\"no\"");
+        }
+        write("?>");
+    }
+
+    public void endDocument() throws IOException {
+        while (depth > 0) {
+            endTag(null, elementNames[depth]);
+        }
+        flush();
+    }
+
+    public void setPrefix(String prefix, String namespace) {
+        throw new UnsupportedOperationException("namespaces are not supported");
+    }
+
+    public String getPrefix(String namespace, boolean generatePrefix) {
+        if (generatePrefix) {
+            throw new UnsupportedOperationException("namespaces are not supported");
+        }
+        return null;
+    }
+
+    public int getDepth() {
+        return depth;
+    }
+
+    public String getNamespace() {
+        return null;
+    }
+
+    public String getName() {
+        return elementNames[depth];
+    }
+
+    public XmlSerializer startTag(String namespace, String name) throws IOException {
+        checkNamespace(namespace);
+        if (startTagIncomplete) {
+            closeStartTag();
+        }
+        seenBracket = seenBracketBracket = false;
+        if (doIndent && depth > 0 && seenTag) {
+            writeIndent();
+        }
+        seenTag = true;
+        startTagIncomplete = true;
+        depth++;
+        if (depth == elementNames.length) {
+            elementNames = Arrays.copyOf(elementNames, depth * 2);
+        }
+        elementNames[depth] = name;
+        write('<');
+        write(name);
+        return this;
+    }
+
+    public XmlSerializer attribute(String namespace, String name, String value) throws IOException {
+        checkAttribute(namespace);
+        write(' ');
+        write(name);
+        write("=\"");
+        writeAttributeValue(value);
+        write('"');
+        return this;
+    }
+
+    /**
+     * Writes an attribute with an integer value, without creating a String for it.
+     *
+     * @param namespace must be null.
+     * @param name      the name of the attribute.
+     * @param value     the value.
+     * @return this serializer.
+     * @throws IOException if the output cannot be written.
+     */
+    public XmlSerializer attribute(String namespace, String name, int value) throws IOException {
+        checkAttribute(namespace);
+        write(' ');
+        write(name);
+        write("=\"");
+        writeInt(value);
+        write('"');
+        return this;
+    }
+
+    public XmlSerializer endTag(String namespace, String name) throws IOException {
+        checkNamespace(namespace);
+        if (startTagIncomplete) {
+            write(" />");
+            depth--;
+        } else {
+            depth--;
+            if (doIndent && seenTag) {
+                writeIndent();
+            }
+            write("</");
+            write(name);
+            write('>');
+        }
+        startTagIncomplete = false;
+        seenTag = true;
+        return this;
+    }
+
+    public XmlSerializer text(String text) throws IOException {
+        beforeText();
+        writeElementContent(text, 0, text.length());
+        return this;
+    }
+
+    public XmlSerializer text(char[] buf, int start, int len) throws IOException {
+        beforeText();
+        writeElementContent(CharBuffer.wrap(buf, start, len), 0, len);
+        return this;
+    }
+
+    /**
+     * Writes an integer as element content, without creating a String for it.
+     *
+     * @param value the value.
+     * @return this serializer.
+     * @throws IOException if the output cannot be written.
+     */
+    public XmlSerializer text(int value) throws IOException {
+        beforeText();
+        writeInt(value);
+        return this;
+    }
+
+    /**
+     * Writes a double as element content, formatted as by Double.toString.  Integral values
+     * (e.g. most scores) are written without creating a String.
+     *
+     * @param value the value.
+     * @return this serializer.
+     * @throws IOException if the output cannot be written.
+     */
+    public XmlSerializer text(double value) throws IOException {
+        beforeText();
+        if (value == (long) value && Math.abs(value) < PLAIN_DOUBLE_LIMIT
+                && Double.doubleToRawLongBits(value) != NEGATIVE_ZERO_BITS) {
+            writeInt((int) value);
+            write(".0");
+        } else {
+            write(Double.toString(value));
+        }
+        return this;
+    }
+
+    public void cdsect(String text) throws IOException {
+        beforeText();
+        write("<![CDATA[");
+        write(text);
+        write("]]>");
+    }
+
+    public void entityRef(String text) throws IOException {
+        beforeText();
+        write('&');
+        write(text);
+        write(';');
+    }
+
+    public void processingInstruction(String text) throws IOException {
+        beforeText();
+        write("<?");
+        write(text);
+        write("?>");
+    }
+
+    public void comment(String text) throws IOException {
+        beforeText();
+        write("<!--");
+        write(text);
+        write("-->");
+    }
+
+    public void docdecl(String text) throws IOException {
+        beforeText();
+        write("<!DOCTYPE");
+        write(text);
+        write('>');
+    }
+
+    public void ignorableWhitespace(String text) throws IOException {
+        beforeText();
+        write(text);
+    }
+
+    public void flush() throws IOException {
+        if (startTagIncomplete) {
+            closeStartTag();
+        }
+        flushBuffer();
+        out.flush();
+    }
+
+    /**
+     * Writes an attribute with an integer value, straight into the buffer if the serializer
+     * is a DasXmlWriter.
+     *
+     * @param serializer the serializer.
+     * @param namespace  the namespace of the attribute.
+     * @param name       the name of the attribute.
+     * @param value      the value.
+     * @throws IOException if the output cannot be written.
+     */
+    public static void attribute(XmlSerializer serializer, String namespace, String name, int value) throws IOException {
+        if (serializer instanceof DasXmlWriter) {
+            ((DasXmlWriter) serializer).attribute(namespace, name, value);
+        } else {
+            serializer.attribute(namespace, name, Integer.toString(value));
+        }
+    }
+
+    /**
+     * Writes an integer as element content, straight into the buffer if the serializer
+     * is a DasXmlWriter.
+     *
+     * @param serializer the serializer.
+     * @param value      the value.
+     * @throws IOException if the output cannot be written.
+     */
+    public static void text(XmlSerializer serializer, int value) throws IOException {
+        if (serializer instanceof DasXmlWriter) {
+            ((DasXmlWriter) serializer).text(value);
+        } else {
+            serializer.text(Integer.toString(value));
+        }
+    }
+
+    /**
+     * Writes a double as element content, formatted as by Double.toString, straight into the
+     * buffer if the serializer is a DasXmlWriter.
+     *
+     * @param serializer the serializer.
+     * @param value      the value.
+     * @throws IOException if the output cannot be written.
+     */
+    public static void text(XmlSerializer serializer, double value) throws IOException {
+        if (serializer instanceof DasXmlWriter) {
+            ((DasXmlWriter) serializer).text(value);
+        } else {
+            serializer.text(Double.toString(value));
+        }
+    }
+
+    /**
+     * Writes the fragment recorded for the given object and variant, if any, in place of the
+     * element it is the markup of.
+     *
+     * @param serializer the serializer.
+     * @param owner      the object described by the fragment.
+     * @param variant    the variant of the fragment, between 0 and FRAGMENT_VARIANTS - 1.
+     * @return true if the fragment has been written, false if it has to be serialized (i.e.
+     *         it has not been recorded or the serializer is not a DasXmlWriter).
+     * @throws IOException if the output cannot be written.
+     */
+    public static boolean fragment(XmlSerializer serializer, Object owner, int variant) throws IOException {
+        if (!(serializer instanceof DasXmlWriter)) {
+            return false;
+        }
+        DasXmlWriter writer = (DasXmlWriter) serializer;
+        String[] variants = writer.fragments.get(owner);
+        String markup = (variants == null) ? null : variants[variant];
+        if (markup == null) {
+            return false;
+        }
+        writer.beforeFragment();
+        writer.write(markup);
+        writer.seenTag = true;
+        return true;
+    }
+
+    /**
+     * Starts recording a fragment: the next element written, which must be a leaf element
+     * (no child elements), is recorded until {@link #endFragment(XmlSerializer, Object, int)}.
+     * Does nothing if the serializer is not a DasXmlWriter.
+     *
+     * @param serializer the serializer.
+     * @throws IOException if the output cannot be written.
+     */
+    public static void startFragment(XmlSerializer serializer) throws IOException {
+        if (serializer instanceof DasXmlWriter) {
+            DasXmlWriter writer = (DasXmlWriter) serializer;
+            if (writer.fragments.size() < MAX_FRAGMENT_OWNERS) {
+                writer.beforeFragment();
+                writer.fragmentStart = writer.position;
+                writer.fragmentFlushed.setLength(0);
+            }
+        }
+    }
+
+    /**
+     * Stops recording the fragment started by {@link #startFragment(XmlSerializer)} and keeps
+     * it for the given object and variant.  Does nothing if the serializer is not a DasXmlWriter.
+     *
+     * @param serializer the serializer.
+     * @param owner      the object described by the fragment.
+     * @param variant    the variant of the fragment, between 0 and FRAGMENT_VARIANTS - 1.
+     */
+    public static void endFragment(XmlSerializer serializer, Object owner, int variant) {
+        if (serializer instanceof DasXmlWriter) {
+            DasXmlWriter writer = (DasXmlWriter) serializer;
+            if (writer.fragmentStart < 0) {
+                return;
+            }
+            if (writer.startTagIncomplete || writer.seenBracket) {
+                // Not a complete leaf element, or its text ends with part of "]]>": it cannot be copied.
+                writer.fragmentStart = -1;
+                return;
+            }
+            String[] variants = writer.fragments.get(owner);
+            if (variants == null) {
+                variants = new String[FRAGMENT_VARIANTS];
+                writer.fragments.put(owner, variants);
+            }
+            writer.fragmentFlushed.append(writer.buffer, writer.fragmentStart, writer.position - writer.fragmentStart);
+            variants[variant] = writer.fragmentFlushed.toString();
+            writer.fragmentStart = -1;
+        }
+    }
+
+    /**
+     * Does what startTag does before writing an element, so that the indentation is not part
+     * of the fragments.
+     */
+    private void beforeFragment() throws IOException {
+        if (startTagIncomplete) {
+            closeStartTag();
+        }
+        seenBracket = seenBracketBracket = false;
+        if (doIndent && depth > 0 && seenTag) {
+            writeIndent();
+        }
+        seenTag = false;
+    }
+
+    private void checkNamespace(String namespace) {
+        if (namespace != null && namespace.length() > 0) {
+            throw new IllegalArgumentException("namespaces are not supported: " + namespace);
+        }
+    }
+
+    private void checkAttribute(String namespace) {
+        checkNamespace(namespace);
+        if (!startTagIncomplete) {
+            throw new IllegalArgumentException("startTag() must be called before attribute()");
+        }
+    }
+
+    private void beforeText() throws IOException {
+        if (startTagIncomplete) {
+            closeStartTag();
+        }
+        if (doIndent && seenTag) {
+            seenTag = false;
+        }
+    }
+
+    private void closeStartTag() throws IOException {
+        write('>');
+        startTagIncomplete = false;
+    }
+
+    private void writeIndent() throws IOException {
+        int newLine = (lineSeparator == null) ? 0 : lineSeparator.length();
+        int jump = (indentation == null) ? 0 : indentation.length();
+        int maxLevel = (jump == 0) ? 0 : MAX_INDENT / jump;
+        int level = (depth > maxLevel) ? maxLevel : depth;
+        write(indentationBuffer, 0, level * jump + newLine);
+    }
+
+    /**
+     * Escapes '&amp;', '&lt;' and, after "]]", '&gt;'.  The only control characters allowed are
+     * tab, line feed and carriage return, which are written as they are.
+     */
+    private void writeElementContent(CharSequence text, int from, int to) throws IOException {
+        int pos = from;
+        for (int i = from; i < to; i++) {
+            char ch = text.charAt(i);
+            if (ch >= 128 || !TEXT_SPECIAL[ch]) {
+                if (seenBracket) {
+                    seenBracket = seenBracketBracket = false;
+                }
+                continue;
+            }
+            if (ch == ']') {
+                if (seenBracket) {
+                    seenBracketBracket = true;
+                } else {
+                    seenBracket = true;
+                }
+                continue;
+            }
+            String entity = null;
+            if (ch == '&') {
+                entity = "&amp;";
+            } else if (ch == '<') {
+                entity = "&lt;";
+            } else if (ch == '>') {
+                if (seenBracketBracket) {
+                    entity = "&gt;";
+                }
+            } else if (ch != 9 && ch != 10 && ch != 13) {
+                throw new IllegalStateException("character " + Integer.toString(ch) + " is not allowed in output");
+            }
+            if (entity != null) {
+                write(text, pos, i);
+                write(entity);
+                pos = i + 1;
+            }
+            if (seenBracket) {
+                seenBracket = seenBracketBracket = false;
+            }
+        }
+        write(text, pos, to);
+    }
+
+    /**
+     * Escapes '&amp;', '&lt;', '"' and the tab, line feed and carriage return characters, the
+     * other control characters not being allowed.
+     */
+    private void writeAttributeValue(String value) throws IOException {
+        int pos = 0;
+        int length = value.length();
+        for (int i = 0; i < length; i++) {
+            char ch = value.charAt(i);
+            if (ch >= 128 || !ATTRIBUTE_SPECIAL[ch]) {
+                continue;
+            }
+            write(value, pos, i);
+            if (ch == '&') {
+                write("&amp;");
+            } else if (ch == '<') {
+                write("&lt;");
+            } else if (ch == '"') {
+                write("&quot;");
+            } else if (ch == 9 || ch == 10 || ch == 13) {
+                write("&#");
+                writeInt(ch);
+                write(';');
+            } else {
+                throw new IllegalStateException("character " + Integer.toString(ch) + " is not allowed in output");
+            }
+            pos = i + 1;
+        }
+        write(value, pos, length);
+    }
+
+    private void writeInt(int value) throws IOException {
+        if (value == Integer.MIN_VALUE) {
+            write(Integer.toString(value));
+            return;
+        }
+        if (BUFFER_SIZE - position < 11) {
+            flushBuffer();
+        }
+        if (value < 0) {
+            buffer[position++] = '-';
+            value = -value;
+        }
+        int end = position + digits(value);
+        int index = end;
+        do {
+            buffer[--index] = (char) ('0' + value % 10);
+            value /= 10;
+        } while (value != 0);
+        position = end;
+    }
+
+    private static int digits(int value) {
+        int digits = 1;
+        while (value >= 10) {
+            value /= 10;
+            digits++;
+        }
+        return digits;
+    }
+
+    private void write(char ch) throws IOException {
+        if (position == BUFFER_SIZE) {
+            flushBuffer();
+        }
+        buffer[position++] = ch;
+    }
+
+    private void write(String text) throws IOException {
+        write(text, 0, text.length());
+    }
+
+    private void write(CharSequence text, int from, int to) throws IOException {
+        while (from < to) {
+            if (position == BUFFER_SIZE) {
+                flushBuffer();
+            }
+            int count = Math.min(to - from, BUFFER_SIZE - position);
+            if (text instanceof String) {
+                ((String) text).getChars(from, from + count, buffer, position);
+            } else if (text instanceof CharBuffer && ((CharBuffer) text).hasArray()) {
+                CharBuffer chars = (CharBuffer) text;
+                System.arraycopy(chars.array(), chars.arrayOffset() + chars.position() + from, buffer, position, count);
+            } else {
+                for (int i = 0; i < count; i++) {
+                    buffer[position + i] = text.charAt(from + i);
+                }
+            }
+            position += count;
+            from += count;
+        }
+    }
+
+    private void write(char[] chars, int from, int length) throws IOException {
+        if (length > BUFFER_SIZE - position) {
+            flushBuffer();
+            if (length > BUFFER_SIZE) {
+                if (fragmentStart >= 0) {
+                    fragmentFlushed.append(chars, from, length);
+                }
+                out.write(chars, from, length);
+                return;
+            }
+        }
+        System.arraycopy(chars, from, buffer, position, length);
+        position += length;
+    }
+
+    private void flushBuffer() throws IOException {
+        if (fragmentStart >= 0) {
+            fragmentFlushed.append(buffer, fragmentStart, position - fragmentStart);
+            fragmentStart = 0;
+        }
+        if (position > 0) {
+            out.write(buffer, 0, position);
+            position = 0;
+        }
+    }
+}
@@ -24,11 +24,16 @@
 package uk.ac.ebi.mydas.controller;
 
 import org.apache.log4j.Logger;
+import org.xmlpull.v1.XmlPullParserException;
 import uk.ac.ebi.mydas.configuration.ConfigurationManager;
 import uk.ac.ebi.mydas.configuration.DataSourceConfiguration;
 import uk.ac.ebi.mydas.configuration.ServerConfiguration;
+import uk.ac.ebi.mydas.datasource.AnnotationDataSource;
 import uk.ac.ebi.mydas.exceptions.ConfigurationException;
 import uk.ac.ebi.mydas.exceptions.DataSourceException;
+import uk.ac.ebi.mydas.search.IndexSearchers;
+import uk.ac.ebi.mydas.search.IndexUpdater;
+import uk.ac.ebi.mydas.search.IndexerJobs;
 
 import javax.servlet.ServletContext;
 import javax.xml.bind.JAXBException;
@@ -55,6 +60,41 @@ public class DataSourceManager {
     private ServerConfiguration serverConfiguration;
     private ConfigurationManager configManager;
 
+    /**
+     * Initialised instances of dynamic data sources, kept for reuse across requests.
+     */
+    private final DataSourcePool dynamicDataSourcePool = new DataSourcePool();
+
+    /**
+     * Thread pools querying the segments of multi-segment requests concurrently.
+     */
+    private final SegmentExecutors segmentExecutors = new SegmentExecutors();
+
+    /**
+     * Identical data source calls in progress, shared between concurrent requests.
+     */
+    private final RequestCoalescer requestCoalescer = new RequestCoalescer();
+
+    /**
+     * The advanced search indexes, kept open between searches.
+     */
+    private final IndexSearchers indexSearchers = new IndexSearchers();
+
+    /**
+     * Applies the writeback changes to the advanced search indexes.
+     */
+    private final IndexUpdater indexUpdater = new IndexUpdater(indexSearchers);
+
+    /**
+     * The indexing of the data sources running in the background.
+     */
+    private final IndexerJobs indexerJobs = new IndexerJobs(indexUpdater);
+
+    /**
+     * The dsn and sources documents, rendered once the data sources are initialised.
+     */
+    private ConfigurationDocuments configurationDocuments;
+
     protected DataSourceManager(ServletContext servletContext) {
         this.svCon = servletContext;
     }
@@ -62,6 +102,24 @@ public class DataSourceManager {
     public void init(String configurationFileName) throws IOException, ConfigurationException {
         loadConfiguration(configurationFileName);
         initialiseDataSources();
+        renderConfigurationDocuments();
+    }
+
+    /**
+     * Renders the dsn and sources documents, which only depend on the configuration
+     * and on which data sources initialised successfully.
+     *
+     * @throws uk.ac.ebi.mydas.exceptions.ConfigurationException
+     *          if the documents cannot be generated.
+     */
+    private void renderConfigurationDocuments() throws ConfigurationException {
+        try {
+            configurationDocuments = new ConfigurationDocuments(serverConfiguration);
+        } catch (XmlPullParserException e) {
+            throw new ConfigurationException("The dsn and sources documents could not be generated from the configuration.", e);
+        } catch (IOException e) {
+            throw new ConfigurationException("The dsn and sources documents could not be generated from the configuration.", e);
+        }
     }
 
     /**
@@ -141,6 +199,61 @@ public class DataSourceManager {
         }
     }
 
+    /**
+     * Provides the given matched dynamic data source configuration with an initialised
+     * data source, reusing an idle instance for the same dsn if there is one in the pool.
+     * The instance must be given back through {@link #releaseDataSource(DataSourceConfiguration)},
+     * which is done by {@link DataSourceConfiguration#destroy()}.
+     *
+     * @param dsnConfig a matched dynamic data source configuration.
+     * @throws DataSourceException if the data source could not be loaded or initialised,
+     *                             or no instance became available in time.
+     */
+    public void acquireDataSource(DataSourceConfiguration dsnConfig) throws DataSourceException {
+        String key = dsnConfig.getMatcherAgainstDsn().group();
+        AnnotationDataSource pooled = dynamicDataSourcePool.borrow(key, new DataSourcePool.Settings(dsnConfig));
+        if (pooled != null) {
+            dsnConfig.attachDataSource(pooled);
+            return;
+        }
+        boolean initialised = false;
+        try {
+            if (dsnConfig.loadDataSource()) {
+                dsnConfig.getDataSource().init(svCon, serverConfiguration.getGlobalConfiguration().getGlobalParameters(), dsnConfig);
+                initialised = true;
+            }
+        } finally {
+            if (!initialised) {
+                dynamicDataSourcePool.discard(key);
+                AnnotationDataSource failed = dsnConfig.detachDataSource();
+                if (failed != null) {
+                    try {
+                        failed.destroy();
+                    } catch (Exception e) {
+                        LOGGER.error("Exception thrown when destroying the failed dynamic data source " + key, e);
+                    }
+                }
+            }
+        }
+        if (!initialised) {
+            LOGGER.error("Data Source Failed to Load and Initialise: " + dsnConfig.toString());
+            throw new DataSourceException("Could not initialize dynamic data source " + key);
+        }
+    }
+
+    /**
+     * Gives back the data source held by a matched dynamic data source configuration.
+     * The instance goes back to the pool if it has room for it, otherwise it is destroyed.
+     *
+     * @param dsnConfig a matched dynamic data source configuration.
+     */
+    public void releaseDataSource(DataSourceConfiguration dsnConfig) {
+        AnnotationDataSource dataSource = dsnConfig.detachDataSource();
+        if (dataSource != null) {
+            dynamicDataSourcePool.release(dsnConfig.getMatcherAgainstDsn().group(), dataSource, new DataSourcePool.Settings(dsnConfig));
+        }
+    }
+
     /**
      * Calls the destroy method on all of the registered
      * DataSources.
@@ -149,6 +262,10 @@ public class DataSourceManager {
      * on to the rest.
      */
     public void destroy() {
+        dynamicDataSourcePool.close();
+        segmentExecutors.shutdown();
+        indexerJobs.shutdown();
+        indexSearchers.close();
         for (DataSourceConfiguration dataSourceConfiguration : serverConfiguration.getDataSourceConfigs()) {
             destroyDataSource(dataSourceConfiguration);
         }
@@ -167,4 +284,58 @@ public class DataSourceManager {
         return configManager;
     }
 
+    /**
+     * Getter for the pre-rendered dsn and sources documents.
+     *
+     * @return the documents rendered when the configuration was loaded.
+     */
+    public ConfigurationDocuments getConfigurationDocuments() {
+        return configurationDocuments;
+    }
+
+    /**
+     * Getter for the thread pools querying segments concurrently.
+     *
+     * @return the per data source thread pools.
+     */
+    SegmentExecutors getSegmentExecutors() {
+        return segmentExecutors;
+    }
+
+    /**
+     * Getter for the sharing of identical data source calls.
+     *
+     * @return the request coalescer.
+     */
+    RequestCoalescer getRequestCoalescer() {
+        return requestCoalescer;
+    }
+
+    /**
+     * Getter for the open advanced search indexes.
+     *
+     * @return the indexes shared by the searches.
+     */
+    IndexSearchers getIndexSearchers() {
+        return indexSearchers;
+    }
+
+    /**
+     * Getter for the background indexing of the data sources.
+     *
+     * @return the indexer jobs.
+     */
+    IndexerJobs getIndexerJobs() {
+        return indexerJobs;
+    }
+
+    /**
+     * Getter for the incremental updates of the advanced search indexes.
+     *
+     * @return the index updater.
+     */
+    IndexUpdater getIndexUpdater() {
+        return indexUpdater;
+    }
+
 }
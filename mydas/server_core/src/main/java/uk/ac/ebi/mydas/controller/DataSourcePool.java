@@ -0,0 +1,324 @@
+/*
+ * Copyright 2007 Philip Jones, EMBL-European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *
+ * For further details of the mydas project, including source code,
+ * downloads and documentation, please see:
+ *
+ * http://code.google.com/p/mydas/
+ *
+ */
+
+package uk.ac.ebi.mydas.controller;
+
+import org.apache.log4j.Logger;
+import uk.ac.ebi.mydas.configuration.DataSourceConfiguration;
+import uk.ac.ebi.mydas.configuration.PropertyType;
+import uk.ac.ebi.mydas.datasource.AnnotationDataSource;
+import uk.ac.ebi.mydas.exceptions.DataSourceException;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+
+/**
+ * Keyed pool of initialised instances of dynamic (pattern matched) data sources.
+ * <p/>
+ * Instances are keyed by the dsn requested by the user, so an instance is only ever
+ * reused for the dsn it was initialised for. An instance is lent to a single request
+ * at a time; when the request finishes it goes back to the pool rather than being
+ * destroyed, as long as there is room for it.
+ * <p/>
+ * The pool is configured with the following properties of the pattern data source
+ * (all optional):
+ * <ul>
+ * <li><b>pool_max_idle</b>: maximum number of idle instances kept per dsn. Defaults to 0,
+ * i.e. instances are destroyed at the end of each request as before.</li>
+ * <li><b>pool_idle_ttl</b>: milliseconds an idle instance is kept before it is evicted
+ * and destroyed. Defaults to 300000 (5 minutes).</li>
+ * <li><b>pool_max_live</b>: maximum number of instances (idle or in use) per dsn.
+ * 0 or less means no limit, which is the default.</li>
+ * <li><b>pool_max_wait</b>: milliseconds a request waits for an instance when
+ * pool_max_live has been reached. Defaults to 30000.</li>
+ * </ul>
+ */
+class DataSourcePool {
+
+    private static final Logger LOGGER = Logger.getLogger(DataSourcePool.class);
+
+    static final String MAX_IDLE_PROPERTY = "pool_max_idle";
+    static final String IDLE_TTL_PROPERTY = "pool_idle_ttl";
+    static final String MAX_LIVE_PROPERTY = "pool_max_live";
+    static final String MAX_WAIT_PROPERTY = "pool_max_wait";
+
+    private static final long DEFAULT_IDLE_TTL = 300000L;
+    private static final long DEFAULT_MAX_WAIT = 30000L;
+
+    /**
+     * How often the evictor looks for expired idle instances.
+     */
+    private static final long EVICTION_PERIOD = 30000L;
+
+    /**
+     * Idle instances per dsn, most recently returned first.
+     */
+    private final Map<String, LinkedList<PooledDataSource>> idleInstances = new HashMap<String, LinkedList<PooledDataSource>>();
+
+    /**
+     * Number of instances per dsn, idle or in use, including those being initialised.
+     */
+    private final Map<String, Integer> liveCounts = new HashMap<String, Integer>();
+
+    private Timer evictor;
+
+    private boolean closed = false;
+
+    /**
+     * Takes an idle instance for the given dsn. If there is none, a slot for a new
+     * instance is reserved and null is returned; the caller is then expected to
+     * create and initialise the instance and, should that fail, to call
+     * {@link #discard(String)} to give the slot back.
+     *
+     * @param key      the dsn requested by the user.
+     * @param settings the pool settings of the data source.
+     * @return an initialised instance, or null if the caller has to create one.
+     * @throws DataSourceException if the pool has been closed or no instance
+     *                             became available in time.
+     */
+    AnnotationDataSource borrow(String key, Settings settings) throws DataSourceException {
+        List<AnnotationDataSource> expired = new ArrayList<AnnotationDataSource>();
+        try {
+            synchronized (this) {
+                long deadline = System.currentTimeMillis() + settings.maxWait;
+                while (true) {
+                    if (closed) {
+                        throw new DataSourceException("The data source pool has been shut down, " + key + " is not available.");
+                    }
+                    long now = System.currentTimeMillis();
+                    LinkedList<PooledDataSource> idle = idleInstances.get(key);
+                    while (idle != null && !idle.isEmpty()) {
+                        PooledDataSource pooled = idle.removeFirst();
+                        if (pooled.expiresAt > now) {
+                            return pooled.dataSource;
+                        }
+                        decrementLiveCount(key);
+                        expired.add(pooled.dataSource);
+                    }
+                    int live = getLiveCount(key);
+                    if (settings.maxLive <= 0 || live < settings.maxLive) {
+                        liveCounts.put(key, live + 1);
+                        return null;
+                    }
+                    long remaining = deadline - now;
+                    if (remaining <= 0) {
+                        throw new DataSourceException("Timed out waiting for an instance of the data source " + key
+                                + " (" + MAX_LIVE_PROPERTY + " = " + settings.maxLive + ").");
+                    }
+                    try {
+                        wait(remaining);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new DataSourceException("Interrupted while waiting for an instance of the data source " + key, e);
+                    }
+                }
+            }
+        } finally {
+            destroyAll(expired);
+        }
+    }
+
+    /**
+     * Gives back an instance obtained through {@link #borrow(String, Settings)}, or created
+     * after it returned null. The instance is kept for reuse if the pool has room for it,
+     * otherwise it is destroyed.
+     *
+     * @param key        the dsn the instance was initialised for.
+     * @param dataSource the instance.
+     * @param settings   the pool settings of the data source.
+     */
+    void release(String key, AnnotationDataSource dataSource, Settings settings) {
+        synchronized (this) {
+            LinkedList<PooledDataSource> idle = idleInstances.get(key);
+            if (!closed && settings.maxIdle > 0 && (idle == null || idle.size() < settings.maxIdle)) {
+                if (idle == null) {
+                    idle = new LinkedList<PooledDataSource>();
+                    idleInstances.put(key, idle);
+                }
+                idle.addFirst(new PooledDataSource(dataSource, System.currentTimeMillis() + settings.idleTtl));
+                startEvictor();
+                notifyAll();
+                return;
+            }
+            decrementLiveCount(key);
+            notifyAll();
+        }
+        destroy(key, dataSource);
+    }
+
+    /**
+     * Gives back a slot reserved by {@link #borrow(String, Settings)} when the
+     * instance could not be created.
+     *
+     * @param key the dsn requested by the user.
+     */
+    synchronized void discard(String key) {
+        decrementLiveCount(key);
+        notifyAll();
+    }
+
+    /**
+     * Destroys all the idle instances and stops the evictor. Instances in use are
+     * destroyed when they are released.
+     */
+    void close() {
+        List<AnnotationDataSource> idle = new ArrayList<AnnotationDataSource>();
+        synchronized (this) {
+            closed = true;
+            for (LinkedList<PooledDataSource> instances : idleInstances.values()) {
+                for (PooledDataSource pooled : instances) {
+                    idle.add(pooled.dataSource);
+                }
+            }
+            idleInstances.clear();
+            liveCounts.clear();
+            if (evictor != null) {
+                evictor.cancel();
+                evictor = null;
+            }
+            notifyAll();
+        }
+        destroyAll(idle);
+    }
+
+    /**
+     * Destroys the idle instances whose time to live has passed.
+     */
+    void evictExpired() {
+        List<AnnotationDataSource> expired = new ArrayList<AnnotationDataSource>();
+        synchronized (this) {
+            long now = System.currentTimeMillis();
+            for (Iterator<Map.Entry<String, LinkedList<PooledDataSource>>> entries = idleInstances.entrySet().iterator(); entries.hasNext();) {
+                Map.Entry<String, LinkedList<PooledDataSource>> entry = entries.next();
+                for (Iterator<PooledDataSource> instances = entry.getValue().iterator(); instances.hasNext();) {
+                    PooledDataSource pooled = instances.next();
+                    if (pooled.expiresAt <= now) {
+                        instances.remove();
+                        decrementLiveCount(entry.getKey());
+                        expired.add(pooled.dataSource);
+                    }
+                }
+                if (entry.getValue().isEmpty()) {
+                    entries.remove();
+                }
+            }
+            if (!expired.isEmpty()) {
+                notifyAll();
+            }
+        }
+        if (!expired.isEmpty() && LOGGER.isDebugEnabled()) {
+            LOGGER.debug("Evicting " + expired.size() + " idle dynamic data source instance(s)");
+        }
+        destroyAll(expired);
+    }
+
+    private int getLiveCount(String key) {
+        Integer live = liveCounts.get(key);
+        return (live == null) ? 0 : live;
+    }
+
+    private void decrementLiveCount(String key) {
+        int live = getLiveCount(key) - 1;
+        if (live > 0) {
+            liveCounts.put(key, live);
+        } else {
+            liveCounts.remove(key);
+        }
+    }
+
+    private void startEvictor() {
+        if (evictor == null) {
+            evictor = new Timer("mydas-datasource-pool-evictor", true);
+            evictor.schedule(new TimerTask() {
+                public void run() {
+                    evictExpired();
+                }
+            }, EVICTION_PERIOD, EVICTION_PERIOD);
+        }
+    }
+
+    private void destroyAll(List<AnnotationDataSource> dataSources) {
+        for (AnnotationDataSource dataSource : dataSources) {
+            destroy(null, dataSource);
+        }
+    }
+
+    private void destroy(String key, AnnotationDataSource dataSource) {
+        try {
+            dataSource.destroy();
+        } catch (Exception e) {
+            // Carry on, the other instances still have to be destroyed.
+            LOGGER.error("Exception thrown when destroying an instance of the dynamic data source " + ((key == null) ? dataSource.getClass().getName() : key), e);
+        }
+    }
+
+    /**
+     * An idle instance and the time at which it is evicted.
+     */
+    private static class PooledDataSource {
+        private final AnnotationDataSource dataSource;
+        private final long expiresAt;
+
+        private PooledDataSource(AnnotationDataSource dataSource, long expiresAt) {
+            this.dataSource = dataSource;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    /**
+     * Pool settings of a dynamic data source, read from its properties.
+     */
+    static class Settings {
+        final int maxIdle;
+        final long idleTtl;
+        final int maxLive;
+        final long maxWait;
+
+        Settings(DataSourceConfiguration dsnConfig) {
+            Map<String, PropertyType> properties = dsnConfig.getDataSourceProperties();
+            this.maxIdle = (int) getLong(properties, MAX_IDLE_PROPERTY, 0);
+            this.idleTtl = getLong(properties, IDLE_TTL_PROPERTY, DEFAULT_IDLE_TTL);
+            this.maxLive = (int) getLong(properties, MAX_LIVE_PROPERTY, 0);
+            this.maxWait = getLong(properties, MAX_WAIT_PROPERTY, DEFAULT_MAX_WAIT);
+        }
+
+        private static long getLong(Map<String, PropertyType> properties, String key, long defaultValue) {
+            PropertyType property = properties.get(key);
+            if (property == null || property.getValue() == null) {
+                return defaultValue;
+            }
+            try {
+                return Long.parseLong(property.getValue().trim());
+            } catch (NumberFormatException e) {
+                LOGGER.error("The property " + key + " should be a number, found '" + property.getValue() + "'. Using " + defaultValue);
+                return defaultValue;
+            }
+        }
+    }
+}
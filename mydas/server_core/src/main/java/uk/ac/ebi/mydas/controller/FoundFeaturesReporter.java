@@ -26,6 +26,8 @@ package uk.ac.ebi.mydas.controller;
 import uk.ac.ebi.mydas.model.DasAnnotatedSegment;
 import uk.ac.ebi.mydas.model.DasComponentFeature;
 import uk.ac.ebi.mydas.model.DasFeature;
+import uk.ac.ebi.mydas.model.DasSegment;
+import uk.ac.ebi.mydas.model.DasStreamedSegment;
 import uk.ac.ebi.mydas.exceptions.DataSourceException;
 import uk.ac.ebi.mydas.extendedmodel.*;
 
@@ -43,9 +45,17 @@ import org.xmlpull.v1.XmlSerializer;
  *
  * Wraps a DasAnnotatedSegment object with details of the request encapsulated, i.e. the requested
  * start and stop coordinates.
+ *
+ * It can also wrap a DasStreamedSegment, in which case the features are read from the
+ * stream as they are written out.
  */
 public class FoundFeaturesReporter implements SegmentReporter {
 
+	/**
+	 * Number of features written between flushes of the serializer when streaming.
+	 */
+	private static final int STREAM_FLUSH_INTERVAL = 1000;
+
 	private final boolean restricted;
 
 	private Integer requestedStart;
@@ -54,6 +64,12 @@ public class FoundFeaturesReporter implements SegmentReporter {
 
 	private final DasAnnotatedSegment annotatedSegment;
 
+	private final DasStreamedSegment streamedSegment;
+
+	private final DasSegment segment;
+
+	private boolean closed = false;
+
 	FoundFeaturesReporter(DasAnnotatedSegment annotatedSegment, SegmentQuery segmentQuery){
 		this.restricted = segmentQuery.getStartCoordinate() != null;
 		if (restricted){
@@ -61,11 +77,26 @@ public class FoundFeaturesReporter implements SegmentReporter {
 			this.requestedStop = segmentQuery.getStopCoordinate();
 		}
 		this.annotatedSegment = annotatedSegment;
+		this.streamedSegment = null;
+		this.segment = annotatedSegment;
 	}
 
 	FoundFeaturesReporter(DasAnnotatedSegment annotatedSegment){
 		this.restricted = false;
 		this.annotatedSegment = annotatedSegment;
+		this.streamedSegment = null;
+		this.segment = annotatedSegment;
+	}
+
+	FoundFeaturesReporter(DasStreamedSegment streamedSegment, SegmentQuery segmentQuery){
+		this.restricted = segmentQuery.getStartCoordinate() != null;
+		if (restricted){
+			this.requestedStart = segmentQuery.getStartCoordinate();
+			this.requestedStop = segmentQuery.getStopCoordinate();
+		}
+		this.annotatedSegment = null;
+		this.streamedSegment = streamedSegment;
+		this.segment = streamedSegment;
 	}
 
 	Collection<DasFeature> getFeatures() {
@@ -77,34 +108,47 @@ public class FoundFeaturesReporter implements SegmentReporter {
 	public Integer getStart(){
 		return (restricted)
 		? requestedStart
-				: annotatedSegment.getStartCoordinate();
+				: segment.getStartCoordinate();
 	}
 
 	public Integer getStop(){
 		return (restricted)
-		? (requestedStop > annotatedSegment.getStopCoordinate() ? annotatedSegment.getStopCoordinate() : requestedStop)
-				: annotatedSegment.getStopCoordinate();
+		? (requestedStop > segment.getStopCoordinate() ? segment.getStopCoordinate() : requestedStop)
+				: segment.getStopCoordinate();
 	}
 
 	public String getSegmentId(){
-		return annotatedSegment.getSegmentId();
+		return segment.getSegmentId();
 	}
 
 	String getSegmentLabel(){
-		return annotatedSegment.getSegmentLabel();
+		return (streamedSegment != null) ? streamedSegment.getSegmentLabel() : annotatedSegment.getSegmentLabel();
 	}
 
 	String getType(){
-		return annotatedSegment.getType();
+		return (streamedSegment != null) ? null : annotatedSegment.getType();
 	}
 
 	String getVersion(){
-		return annotatedSegment.getVersion();
+		return segment.getVersion();
 	}
 
 	public Integer getTotalFeatures(){
-		return annotatedSegment.getTotalFeatures();
+		return (streamedSegment != null) ? streamedSegment.getTotalFeatures() : annotatedSegment.getTotalFeatures();
+	}
+
+	/**
+	 * Releases the stream of a streamed segment. Does nothing for annotated segments,
+	 * and can safely be called more than once.
+	 * @throws DataSourceException if the data source fails to release the stream.
+	 */
+	void close() throws DataSourceException {
+		if (streamedSegment != null && !closed){
+			closed = true;
+			streamedSegment.close();
+		}
 	}
+
 	/**
 	 * Generates the piece of XML into the XML serializer object to describe a Segment including the found features for it 
 	 * @param DAS_XML_NAMESPACE XML namespace to link with the elements to create
@@ -125,10 +169,10 @@ public class FoundFeaturesReporter implements SegmentReporter {
 		serializer.attribute(DAS_XML_NAMESPACE, "id", this.getSegmentId());
         //start and stop are an optional group
         if ((this.getStart() != null) && (this.getStop() != null)) {
-            serializer.attribute(DAS_XML_NAMESPACE, "start", Integer.toString(this.getStart()));
-            serializer.attribute(DAS_XML_NAMESPACE, "stop", Integer.toString(this.getStop()));
+            DasXmlWriter.attribute(serializer, DAS_XML_NAMESPACE, "start", this.getStart());
+            DasXmlWriter.attribute(serializer, DAS_XML_NAMESPACE, "stop", this.getStop());
         }
-        if (this.getTotalFeatures()!=null)	serializer.attribute(DAS_XML_NAMESPACE, "total", Integer.toString(this.getTotalFeatures()));
+        if (this.getTotalFeatures()!=null)	DasXmlWriter.attribute(serializer, DAS_XML_NAMESPACE, "total", this.getTotalFeatures());
 		
 		if (this.getType() != null && this.getType().length() > 0){
 			serializer.attribute(DAS_XML_NAMESPACE, "type", this.getType());
@@ -140,18 +184,67 @@ public class FoundFeaturesReporter implements SegmentReporter {
 		if (this.getSegmentLabel() != null && this.getSegmentLabel().length() > 0){
 			serializer.attribute(DAS_XML_NAMESPACE, "label", this.getSegmentLabel());
 		}
-		for (DasFeature feature : this.getFeatures()){
-            boolean hasSuperParts=false;
-            boolean hasSubParts=false;
-            if (feature instanceof DasComponentFeature){
-                DasComponentFeature refFeature = (DasComponentFeature)(DasFeature)feature;
-                hasSuperParts=refFeature.hasSuperParts();
-                hasSubParts=refFeature.hasSubParts();
-            }
-			(new DasFeatureE(feature)).serialize(DAS_XML_NAMESPACE, serializer, filter, categorize, isUseFeatureIdForFeatureLabel,feature instanceof DasComponentFeature,hasSuperParts,hasSubParts);
+		if (streamedSegment != null){
+			serializeStream(DAS_XML_NAMESPACE, serializer, filter, categorize, isUseFeatureIdForFeatureLabel);
+		} else {
+			for (DasFeature feature : this.getFeatures()){
+				serializeFeature(DAS_XML_NAMESPACE, serializer, feature, filter, categorize, isUseFeatureIdForFeatureLabel);
+			}
 		}
 		serializer.endTag(DAS_XML_NAMESPACE, "SEGMENT");
 
 	}
 
+	/**
+	 * Reads the features of the streamed segment one at a time, dropping those rejected by the filter
+	 * or out of the requested range, and flushing the serializer regularly so the client receives
+	 * the features as they are read. The stream is closed at the end.
+	 */
+	private void serializeStream(String DAS_XML_NAMESPACE,XmlSerializer serializer,DasFeatureRequestFilter filter,boolean categorize, boolean isUseFeatureIdForFeatureLabel)
+		throws IllegalArgumentException, IllegalStateException, IOException, DataSourceException {
+		try {
+			int written = 0;
+			DasFeature feature;
+			while ((feature = streamedSegment.nextFeature()) != null){
+				if (restricted && !overlapsRequest(feature)){
+					continue;
+				}
+				if (filter != null && !filter.featurePasses(feature)){
+					continue;
+				}
+				serializeFeature(DAS_XML_NAMESPACE, serializer, feature, filter, categorize, isUseFeatureIdForFeatureLabel);
+				if (++written % STREAM_FLUSH_INTERVAL == 0){
+					serializer.flush();
+				}
+			}
+		} finally {
+			close();
+		}
+	}
+
+	/**
+	 * Same criteria as DasAnnotatedSegment.getFeatures(int, int): overlapping features
+	 * and non positional features (start and stop 0) are returned.
+	 */
+	private boolean overlapsRequest(DasFeature feature){
+		int start = feature.getStartCoordinate();
+		int stop = feature.getStopCoordinate();
+		return (start == 0 && stop == 0)
+				|| (requestedStop >= start && requestedStop <= stop)
+				|| (requestedStart >= start && requestedStart <= stop)
+				|| (requestedStart <= start && requestedStop >= stop);
+	}
+
+	private void serializeFeature(String DAS_XML_NAMESPACE,XmlSerializer serializer,DasFeature feature,DasFeatureRequestFilter filter,boolean categorize, boolean isUseFeatureIdForFeatureLabel)
+		throws IllegalArgumentException, IllegalStateException, IOException, DataSourceException {
+		boolean hasSuperParts=false;
+		boolean hasSubParts=false;
+		if (feature instanceof DasComponentFeature){
+			DasComponentFeature refFeature = (DasComponentFeature)(DasFeature)feature;
+			hasSuperParts=refFeature.hasSuperParts();
+			hasSubParts=refFeature.hasSubParts();
+		}
+		DasFeatureE.serialize(DAS_XML_NAMESPACE, serializer, feature, filter, categorize, isUseFeatureIdForFeatureLabel,feature instanceof DasComponentFeature,hasSuperParts,hasSubParts);
+	}
+
 }
@@ -24,10 +24,12 @@
 package uk.ac.ebi.mydas.controller;
 
 import java.io.IOException;
+import java.nio.CharBuffer;
 
 import uk.ac.ebi.mydas.exceptions.CoordinateErrorException;
 import uk.ac.ebi.mydas.exceptions.DataSourceException;
 import uk.ac.ebi.mydas.model.DasSequence;
+import uk.ac.ebi.mydas.model.StreamableSequence;
 
 import org.xmlpull.v1.XmlSerializer;
 
@@ -40,6 +42,11 @@ import org.xmlpull.v1.XmlSerializer;
  */
 class FoundSequenceReporter implements SequenceReporter{
 
+    /**
+     * Number of characters of the sequence passed to the serializer at a time.
+     */
+    private static final int SEQUENCE_CHUNK_SIZE = 8192;
+
     private final boolean restricted;
 
     private int requestedStart;
@@ -66,14 +73,25 @@ class FoundSequenceReporter implements SequenceReporter{
     }
 
     String getSequenceString() throws CoordinateErrorException {
+        return this.getSequence().toString();
+    }
+
+    /**
+     * Returns the requested part of the sequence, without copying it if the sequence is a
+     * {@link StreamableSequence} or a plain DasSequence.  Other subclasses, which may only override
+     * getSequenceString or getRestrictedSequenceString, are read through these methods.
+     */
+    CharSequence getSequence() throws CoordinateErrorException {
+        boolean streamable = sequence instanceof StreamableSequence || sequence.getClass() == DasSequence.class;
         if (restricted) {
-            if (requestedStop > sequence.getStopCoordinate()) {
-                return sequence.getRestrictedSequenceString(requestedStart, sequence.getStopCoordinate());
-            } else {
-                return sequence.getRestrictedSequenceString(requestedStart, requestedStop);
-            }
+            int stop = (requestedStop > sequence.getStopCoordinate()) ? sequence.getStopCoordinate() : requestedStop;
+            return streamable
+                    ? sequence.getRestrictedSequence(requestedStart, stop)
+                    : sequence.getRestrictedSequenceString(requestedStart, stop);
         } else {
-            return sequence.getSequenceString();
+            return streamable
+                    ? sequence.getRestrictedSequence(sequence.getStartCoordinate(), sequence.getStopCoordinate())
+                    : sequence.getSequenceString();
         }
     }
 
@@ -136,19 +154,20 @@ class FoundSequenceReporter implements SequenceReporter{
     	throws java.io.IOException, IllegalArgumentException, IllegalStateException, CoordinateErrorException{
         serializer.startTag(DAS_XML_NAMESPACE, "SEQUENCE");
         serializer.attribute(DAS_XML_NAMESPACE, "id", this.getSegmentName());
-        serializer.attribute(DAS_XML_NAMESPACE, "start", Integer.toString(this.getStart()));
-        serializer.attribute(DAS_XML_NAMESPACE, "stop", Integer.toString(this.getStop()));
+        DasXmlWriter.attribute(serializer, DAS_XML_NAMESPACE, "start", this.getStart());
+        DasXmlWriter.attribute(serializer, DAS_XML_NAMESPACE, "stop", this.getStop());
         serializer.attribute(DAS_XML_NAMESPACE, "version", this.getSequenceVersion());
         if ((!dna) && (this.getSequenceLabel()!=null) && (this.getSequenceLabel().length()>0)) 
         	serializer.attribute(DAS_XML_NAMESPACE, "label", this.getSequenceLabel());
         
 
+        CharSequence sequenceChars = this.getSequence();
         if (dna){
         	serializer.startTag(DAS_XML_NAMESPACE, "DNA");
-        	serializer.attribute(DAS_XML_NAMESPACE, "length", Integer.toString(this.getSequenceString().length()));
+        	DasXmlWriter.attribute(serializer, DAS_XML_NAMESPACE, "length", sequenceChars.length());
         } 
         
-        serializer.text(this.getSequenceString());
+        writeSequence(serializer, sequenceChars);
 
         if (dna){
         	serializer.endTag(DAS_XML_NAMESPACE, "DNA");
@@ -157,4 +176,32 @@ class FoundSequenceReporter implements SequenceReporter{
         
     	
     }
+
+    /**
+     * Writes the sequence SEQUENCE_CHUNK_SIZE characters at a time, so that only one chunk
+     * of it is copied at any time, however long the sequence is.
+     */
+    private void writeSequence(XmlSerializer serializer, CharSequence sequenceChars) throws IOException {
+        int length = sequenceChars.length();
+        if (length == 0) {
+            serializer.text("");
+            return;
+        }
+        char[] chunk = new char[Math.min(length, SEQUENCE_CHUNK_SIZE)];
+        // Read in order, so the chunks are taken from the current position of the buffer.
+        CharBuffer buffer = (sequenceChars instanceof CharBuffer) ? ((CharBuffer) sequenceChars).duplicate() : null;
+        for (int from = 0; from < length; from += chunk.length) {
+            int to = Math.min(from + chunk.length, length);
+            if (sequenceChars instanceof String) {
+                ((String) sequenceChars).getChars(from, to, chunk, 0);
+            } else if (buffer != null) {
+                buffer.get(chunk, 0, to - from);
+            } else {
+                for (int i = from; i < to; i++) {
+                    chunk[i - from] = sequenceChars.charAt(i);
+                }
+            }
+            serializer.text(chunk, 0, to - from);
+        }
+    }
 }
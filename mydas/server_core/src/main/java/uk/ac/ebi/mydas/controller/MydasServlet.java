@@ -92,6 +92,11 @@ public class MydasServlet extends HttpServlet {
 
     private DasCommandManager dasCommands = null;
 
+    /**
+     * Cache of rendered responses for the features, types and entry_points commands.
+     */
+    private ResponseCache responseCache = null;
+
     private static final Pattern REQUEST_URI_PATTERN = Pattern.compile("/das/([^\\s/?]+)/?([^\\s/?]*)$");
 //	private static final Pattern REQUEST_URI_PATTERN = Pattern.compile ("/([^\\s/?]+)/?([^\\s/?]*)$");
 
@@ -161,7 +166,8 @@ public class MydasServlet extends HttpServlet {
         COMMAND_STRUCTURE("structure"),
         COMMAND_SOURCES("sources"),
         COMMAND_HISTORICAL("historical"),
-        COMMAND_INDEXER("indexer");
+        COMMAND_INDEXER("indexer"),
+        COMMAND_INDEXER_STATUS("indexer_status");
 
         private String commandString;
 
@@ -223,6 +229,7 @@ public class MydasServlet extends HttpServlet {
             }
         }
         dasCommands = new DasCommandManager(DATA_SOURCE_MANAGER, this);
+        responseCache = new ResponseCache(DATA_SOURCE_MANAGER.getServerConfiguration().getGlobalConfiguration().getGlobalParameters());
 
         // Initialize XMLPullParserFactory for marshaller.
         if (PULL_PARSER_FACTORY == null) {
@@ -274,6 +281,8 @@ public class MydasServlet extends HttpServlet {
         DataSourceConfiguration dataSourceConfig = DATA_SOURCE_MANAGER.getServerConfiguration().getDataSourceConfig("writeback");
         try {
             dasCommands.writebackCreate(request, response, dataSourceConfig);
+            // The cached responses may no longer reflect the data.
+            responseCache.clear();
         } catch (WritebackException e) {
             logger.error("Writebackexception thrown", e);
             writeHeader(request, response, XDasStatus.STATUS_500_SERVER_ERROR, false, null);
@@ -287,6 +296,8 @@ public class MydasServlet extends HttpServlet {
         DataSourceConfiguration dataSourceConfig = DATA_SOURCE_MANAGER.getServerConfiguration().getDataSourceConfig("writeback");
         try {
             dasCommands.writebackDelete(request, response, dataSourceConfig);
+            // The cached responses may no longer reflect the data.
+            responseCache.clear();
         } catch (WritebackException e) {
             logger.error("WritebackException thrown", e);
             writeHeader(request, response, XDasStatus.STATUS_500_SERVER_ERROR, false, null);
@@ -300,6 +311,8 @@ public class MydasServlet extends HttpServlet {
         DataSourceConfiguration dataSourceConfig = DATA_SOURCE_MANAGER.getServerConfiguration().getDataSourceConfig("writeback");
         try {
             dasCommands.writebackUpdate(request, response, dataSourceConfig);
+            // The cached responses may no longer reflect the data.
+            responseCache.clear();
         } catch (WritebackException e) {
             logger.error("WritebackException thrown", e);
             writeHeader(request, response, XDasStatus.STATUS_500_SERVER_ERROR, false, null);
@@ -369,6 +382,9 @@ public class MydasServlet extends HttpServlet {
                 } else if (Commands.COMMAND_INDEXER.matches(match.group(1))) {
                     // Handle indexer command, in contrast with dsn, indexer can have extra info
                     dasCommands.indexerCommand(request, response);
+                } else if (Commands.COMMAND_INDEXER_STATUS.matches(match.group(1))) {
+                    // Handle indexer_status command, reporting the progress of the indexer command
+                    dasCommands.indexerStatusCommand(request, response);
                 }
 
                 // Not the dsn the source command either the source(explicit), so handle other commands (which are datasource specific)
@@ -398,16 +414,29 @@ public class MydasServlet extends HttpServlet {
                             capabilities = dataSourceConfig.getCapabilities();
                             // Check the datasource is alive.
                             if (dataSourceConfig.isOK()) {
+                                // Features, types and entry points responses can be cached, if configured for the data source.
+                                ResponseCache.Recorder recorder = null;
+                                if (Commands.COMMAND_TYPES.matches(command) || Commands.COMMAND_FEATURES.matches(command)
+                                        || Commands.COMMAND_ENTRY_POINTS.matches(command)) {
+                                    long timeToLive = ResponseCache.getTimeToLive(dataSourceConfig);
+                                    if (timeToLive > 0) {
+                                        String key = ResponseCache.getKey(dsnName, command, queryString, compressResponse(request));
+                                        if (responseCache.sendCached(key, request, response)) {
+                                            return;
+                                        }
+                                        recorder = responseCache.record(key, timeToLive, response);
+                                    }
+                                }
                                 if (Commands.COMMAND_DNA.matches(command)) {
                                     dasCommands.dnaCommand(request, response, dataSourceConfig, queryString);
                                 } else if (Commands.COMMAND_TYPES.matches(command)) {
-                                    dasCommands.typesCommand(request, response, dataSourceConfig, queryString);
+                                    dasCommands.typesCommand(request, (recorder == null) ? response : recorder, dataSourceConfig, queryString);
                                 } else if (Commands.COMMAND_STYLESHEET.matches(command)) {
                                     dasCommands.stylesheetCommand(request, response, dataSourceConfig, queryString);
                                 } else if (Commands.COMMAND_FEATURES.matches(command)) {
-                                    dasCommands.featuresCommand(request, response, dataSourceConfig, queryString);
+                                    dasCommands.featuresCommand(request, (recorder == null) ? response : recorder, dataSourceConfig, queryString);
                                 } else if (Commands.COMMAND_ENTRY_POINTS.matches(command)) {
-                                    dasCommands.entryPointsCommand(request, response, dataSourceConfig, queryString);
+                                    dasCommands.entryPointsCommand(request, (recorder == null) ? response : recorder, dataSourceConfig, queryString);
                                 } else if (Commands.COMMAND_SEQUENCE.matches(command)) {
                                     dasCommands.sequenceCommand(request, response, dataSourceConfig, queryString);
                                 } else if (Commands.COMMAND_STRUCTURE.matches(command)) { //for the command structure DAS1.6
@@ -421,6 +450,9 @@ public class MydasServlet extends HttpServlet {
                                 } else {
                                     dasCommands.otherCommand(request, response, dataSourceConfig, command, queryString);
                                 }
+                                if (recorder != null) {
+                                    recorder.store();
+                                }
                             } else {
                                 throw new BadDataSourceException("The datasource was not correctly initialised.");
                             }
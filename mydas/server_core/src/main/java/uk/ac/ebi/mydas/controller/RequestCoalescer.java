@@ -0,0 +1,157 @@
+/*
+ * Copyright 2007 Philip Jones, EMBL-European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *
+ * For further details of the mydas project, including source code,
+ * downloads and documentation, please see:
+ *
+ * http://code.google.com/p/mydas/
+ *
+ */
+
+package uk.ac.ebi.mydas.controller;
+
+import org.apache.log4j.Logger;
+import uk.ac.ebi.mydas.configuration.DataSourceConfiguration;
+import uk.ac.ebi.mydas.configuration.PropertyType;
+import uk.ac.ebi.mydas.datasource.FeatureFilter;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Shares a single data source call between concurrent requests asking for exactly the
+ * same thing, e.g. many clients requesting the features of a popular region at once.
+ * <p/>
+ * The first request runs the call, in its own thread; identical requests arriving while
+ * it is running wait for it and get the same result, or the same exception. Nothing is
+ * kept once the call has completed, so this is not a cache: a request arriving later
+ * calls the data source again.
+ * <p/>
+ * As the waiting requests share the objects returned, this is only done for data sources
+ * setting the property <b>coalesce_requests</b> to true, whose results do not depend on
+ * anything but the arguments of the call and are not modified once returned.
+ */
+class RequestCoalescer {
+
+    private static final Logger LOGGER = Logger.getLogger(RequestCoalescer.class);
+
+    static final String COALESCE_PROPERTY = "coalesce_requests";
+
+    /**
+     * Calls in progress, by key.
+     */
+    private final ConcurrentMap<String, FutureTask<?>> inFlight = new ConcurrentHashMap<String, FutureTask<?>>();
+
+    private final AtomicLong coalesced = new AtomicLong();
+
+    /**
+     * @param dsnConfig the data source configuration.
+     * @return true if the calls to the data source are to be shared.
+     */
+    static boolean isEnabled(DataSourceConfiguration dsnConfig) {
+        PropertyType property = dsnConfig.getDataSourceProperties().get(COALESCE_PROPERTY);
+        return property != null && property.getValue() != null && Boolean.parseBoolean(property.getValue().trim());
+    }
+
+    /**
+     * Builds the key identifying a call, prefixed by the dsn so that calls to different data
+     * sources (or different instances of a dynamic data source) are never shared.
+     *
+     * @param dsnConfig the data source configuration.
+     * @param call      the name of the call and its arguments.
+     * @return the key.
+     */
+    static String getKey(DataSourceConfiguration dsnConfig, String call) {
+        String dsn = dsnConfig.isMatchedDynamic() ? dsnConfig.getMatcherAgainstDsn().group() : dsnConfig.getId();
+        return dsn + '|' + call;
+    }
+
+    /**
+     * Writes the restrictions of a filter as part of a key.  The ids are sorted, so the order in
+     * which they were requested does not matter, and the separators they contain are escaped.
+     *
+     * @param featureFilter the restrictions, or null.
+     * @return the restrictions as a String, equal for two filters if and only if the filters are equal.
+     */
+    static String getKey(FeatureFilter featureFilter) {
+        if (featureFilter == null) {
+            return "null";
+        }
+        StringBuilder key = new StringBuilder();
+        appendIds(key.append("type="), featureFilter.getTypeIds());
+        appendIds(key.append(";category="), featureFilter.getCategoryIds());
+        appendIds(key.append(";feature_id="), featureFilter.getFeatureIds());
+        return key.toString();
+    }
+
+    private static void appendIds(StringBuilder key, Collection<String> ids) {
+        if (ids == null) {
+            // Not restricted, which an empty list of ids cannot be confused with.
+            key.append('*');
+            return;
+        }
+        List<String> sorted = new ArrayList<String>(ids);
+        Collections.sort(sorted);
+        key.append('[');
+        for (String id : sorted) {
+            for (int i = 0; i < id.length(); i++) {
+                char c = id.charAt(i);
+                if (c == '\\' || c == ',' || c == ']' || c == ';' || c == '|') {
+                    key.append('\\');
+                }
+                key.append(c);
+            }
+            key.append(',');
+        }
+        key.append(']');
+    }
+
+    /**
+     * Runs the call, unless an identical one is already running, in which case that one is
+     * waited for instead.
+     *
+     * @param key      the key identifying the call, see {@link #getKey(DataSourceConfiguration, String)}.
+     * @param callable the call.
+     * @return the completed call, or the one in progress.  Its get method returns the result or
+     *         throws the exception of the call.
+     */
+    @SuppressWarnings("unchecked")
+    <T> Future<T> execute(String key, Callable<T> callable) {
+        FutureTask<T> task = new FutureTask<T>(callable);
+        FutureTask<?> running = inFlight.putIfAbsent(key, task);
+        if (running != null) {
+            long count = coalesced.incrementAndGet();
+            if (LOGGER.isDebugEnabled()) {
+                LOGGER.debug("Waiting for the call in progress " + key + " (" + count + " calls shared so far)");
+            }
+            return (Future<T>) running;
+        }
+        try {
+            task.run();
+        } finally {
+            inFlight.remove(key, task);
+        }
+        return task;
+    }
+}
@@ -0,0 +1,394 @@
+/*
+ * Copyright 2007 Philip Jones, EMBL-European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *
+ * For further details of the mydas project, including source code,
+ * downloads and documentation, please see:
+ *
+ * http://code.google.com/p/mydas/
+ *
+ */
+
+package uk.ac.ebi.mydas.controller;
+
+import org.apache.log4j.Logger;
+import uk.ac.ebi.mydas.configuration.DataSourceConfiguration;
+import uk.ac.ebi.mydas.configuration.PropertyType;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Cache of rendered responses for the features, types and entry_points commands.
+ * <p/>
+ * Responses are keyed by dsn, command, content encoding and query string, and stored as
+ * the bytes sent to the client (gzipped if the client accepted it), so a hit is answered
+ * without going to the data source nor serializing the XML again. Each response carries an
+ * ETag, and a request whose If-None-Match matches a cached response gets a 304.
+ * <p/>
+ * The cache is disabled unless a data source sets the property <b>response_cache_ttl</b>,
+ * the number of milliseconds its responses are kept. The global property
+ * <b>response_cache_max_bytes</b> sets the total size of the cache (32 MB by default);
+ * the least recently used responses are evicted first.
+ * <p/>
+ * The query string is only normalised by collapsing repeated slashes, as done by the
+ * servlet: the documents echo the request in their href attribute, so requests differing
+ * in any other way do not share a response.
+ */
+class ResponseCache {
+
+    private static final Logger LOGGER = Logger.getLogger(ResponseCache.class);
+
+    static final String TTL_PROPERTY = "response_cache_ttl";
+    static final String MAX_BYTES_PROPERTY = "response_cache_max_bytes";
+
+    private static final long DEFAULT_MAX_BYTES = 32L * 1024L * 1024L;
+
+    private static final String HEADER_ETAG = "ETag";
+    private static final String HEADER_IF_NONE_MATCH = "If-None-Match";
+
+    private final long maxBytes;
+
+    /**
+     * A single response larger than this is not cached, so it cannot flush the whole cache.
+     */
+    private final long maxEntryBytes;
+
+    private long currentBytes = 0;
+
+    /**
+     * Cached responses in access order, least recently used first.
+     */
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+
+    ResponseCache(Map<String, PropertyType> globalParameters) {
+        this.maxBytes = getLong(globalParameters, MAX_BYTES_PROPERTY, DEFAULT_MAX_BYTES);
+        this.maxEntryBytes = maxBytes / 4;
+    }
+
+    /**
+     * Returns the number of milliseconds the responses of the given data source are cached.
+     *
+     * @param dsnConfig the data source configuration.
+     * @return the time to live, 0 or less if its responses are not cached.
+     */
+    static long getTimeToLive(DataSourceConfiguration dsnConfig) {
+        return getLong(dsnConfig.getDataSourceProperties(), TTL_PROPERTY, 0);
+    }
+
+    /**
+     * Builds the key of a response.
+     *
+     * @param dsnName     the dsn as requested.
+     * @param command     the command.
+     * @param queryString the query string, as already cleaned up by the servlet.
+     * @param gzipped     true if the response is gzipped for this client.
+     * @return the key.
+     */
+    static String getKey(String dsnName, String command, String queryString, boolean gzipped) {
+        StringBuilder key = new StringBuilder(dsnName);
+        key.append('/').append(command).append(gzipped ? "|gzip|" : "|identity|");
+        if (queryString != null) {
+            key.append(queryString.replaceAll("/{2,}", "/"));
+        }
+        return key.toString();
+    }
+
+    /**
+     * Answers the request from the cache, if possible: either with a 304 if the client already
+     * has the cached response, or with the cached bytes.
+     *
+     * @param key      the key of the response.
+     * @param request  the request, checked for If-None-Match.
+     * @param response the response to write to.
+     * @return true if the request has been answered, false if the response is not cached.
+     * @throws IOException if the response cannot be written.
+     */
+    boolean sendCached(String key, HttpServletRequest request, HttpServletResponse response) throws IOException {
+        Entry entry = get(key);
+        if (entry == null) {
+            return false;
+        }
+        for (String[] header : entry.headers) {
+            response.setHeader(header[0], header[1]);
+        }
+        if (entry.contentType != null) {
+            response.setContentType(entry.contentType);
+        }
+        response.setHeader(HEADER_ETAG, entry.etag);
+        if (matches(request.getHeader(HEADER_IF_NONE_MATCH), entry.etag)) {
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return true;
+        }
+        response.setContentLength(entry.body.length);
+        OutputStream out = response.getOutputStream();
+        try {
+            out.write(entry.body);
+        } finally {
+            out.close();
+        }
+        return true;
+    }
+
+    /**
+     * Wraps the response so that what the command writes is sent to the client and
+     * recorded at the same time.  Call {@link Recorder#store()} once the command has
+     * completed successfully to cache the response.
+     *
+     * @param key        the key of the response.
+     * @param timeToLive milliseconds the response is to be kept.
+     * @param response   the response to wrap.
+     * @return the wrapper, to be passed to the command.
+     */
+    Recorder record(String key, long timeToLive, HttpServletResponse response) {
+        return new Recorder(key, timeToLive, response);
+    }
+
+    /**
+     * Empties the cache, e.g. after the data have been modified through writeback.
+     */
+    synchronized void clear() {
+        entries.clear();
+        currentBytes = 0;
+    }
+
+    private synchronized Entry get(String key) {
+        Entry entry = entries.get(key);
+        if (entry != null && entry.expiresAt <= System.currentTimeMillis()) {
+            entries.remove(key);
+            currentBytes -= entry.body.length;
+            return null;
+        }
+        return entry;
+    }
+
+    private synchronized void put(String key, Entry entry) {
+        Entry previous = entries.put(key, entry);
+        if (previous != null) {
+            currentBytes -= previous.body.length;
+        }
+        currentBytes += entry.body.length;
+        for (Iterator<Entry> eldest = entries.values().iterator(); currentBytes > maxBytes && eldest.hasNext();) {
+            currentBytes -= eldest.next().body.length;
+            eldest.remove();
+        }
+    }
+
+    private static boolean matches(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        for (String candidate : ifNoneMatch.split(",")) {
+            candidate = candidate.trim();
+            if (candidate.equals("*") || candidate.equals(etag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static long getLong(Map<String, PropertyType> properties, String key, long defaultValue) {
+        PropertyType property = (properties == null) ? null : properties.get(key);
+        if (property == null || property.getValue() == null) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(property.getValue().trim());
+        } catch (NumberFormatException e) {
+            LOGGER.error("The property " + key + " should be a number, found '" + property.getValue() + "'. Using " + defaultValue);
+            return defaultValue;
+        }
+    }
+
+    /**
+     * A cached response.
+     */
+    private static class Entry {
+        private final byte[] body;
+        private final List<String[]> headers;
+        private final String contentType;
+        private final String etag;
+        private final long expiresAt;
+
+        private Entry(byte[] body, List<String[]> headers, String contentType, String etag, long expiresAt) {
+            this.body = body;
+            this.headers = headers;
+            this.contentType = contentType;
+            this.etag = etag;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    /**
+     * Response wrapper sending everything through to the client while keeping a copy
+     * of the headers and of the body.
+     */
+    class Recorder extends HttpServletResponseWrapper {
+        private final String key;
+        private final long timeToLive;
+        private final String etag;
+        private final List<String[]> headers = new ArrayList<String[]>();
+        private String contentType;
+        private int status = HttpServletResponse.SC_OK;
+        private ByteArrayOutputStream copy = new ByteArrayOutputStream();
+        private ServletOutputStream outputStream;
+        private PrintWriter writer;
+
+        private Recorder(String key, long timeToLive, HttpServletResponse response) {
+            super(response);
+            this.key = key;
+            this.timeToLive = timeToLive;
+            this.etag = "\"" + Integer.toHexString(key.hashCode()) + "-" + Long.toHexString(System.currentTimeMillis()) + "\"";
+            response.setHeader(HEADER_ETAG, etag);
+        }
+
+        /**
+         * Caches the recorded response, unless it is not a successful one or it is too large.
+         */
+        void store() {
+            if (writer != null) {
+                writer.flush();
+            }
+            if (status != HttpServletResponse.SC_OK || copy == null || timeToLive <= 0) {
+                return;
+            }
+            put(key, new Entry(copy.toByteArray(), headers, contentType, etag, System.currentTimeMillis() + timeToLive));
+            if (LOGGER.isDebugEnabled()) {
+                LOGGER.debug("Cached response for " + key);
+            }
+        }
+
+        @Override
+        public void setHeader(String name, String value) {
+            super.setHeader(name, value);
+            for (Iterator<String[]> iterator = headers.iterator(); iterator.hasNext();) {
+                if (iterator.next()[0].equalsIgnoreCase(name)) {
+                    iterator.remove();
+                }
+            }
+            headers.add(new String[]{name, value});
+        }
+
+        @Override
+        public void addHeader(String name, String value) {
+            super.addHeader(name, value);
+            headers.add(new String[]{name, value});
+        }
+
+        @Override
+        public void setContentType(String type) {
+            super.setContentType(type);
+            this.contentType = type;
+        }
+
+        @Override
+        public void setStatus(int sc) {
+            super.setStatus(sc);
+            this.status = sc;
+        }
+
+        @Override
+        public void sendError(int sc) throws IOException {
+            this.status = sc;
+            super.sendError(sc);
+        }
+
+        @Override
+        public void sendError(int sc, String msg) throws IOException {
+            this.status = sc;
+            super.sendError(sc, msg);
+        }
+
+        @Override
+        public void sendRedirect(String location) throws IOException {
+            this.status = HttpServletResponse.SC_MOVED_TEMPORARILY;
+            super.sendRedirect(location);
+        }
+
+        @Override
+        public ServletOutputStream getOutputStream() throws IOException {
+            if (outputStream == null) {
+                final ServletOutputStream target = super.getOutputStream();
+                outputStream = new ServletOutputStream() {
+                    @Override
+                    public void write(int b) throws IOException {
+                        target.write(b);
+                        if (copy != null) {
+                            copy.write(b);
+                            checkSize();
+                        }
+                    }
+
+                    @Override
+                    public void write(byte[] b, int off, int len) throws IOException {
+                        target.write(b, off, len);
+                        if (copy != null) {
+                            copy.write(b, off, len);
+                            checkSize();
+                        }
+                    }
+
+                    @Override
+                    public void flush() throws IOException {
+                        target.flush();
+                    }
+
+                    @Override
+                    public void close() throws IOException {
+                        target.close();
+                    }
+                };
+            }
+            return outputStream;
+        }
+
+        @Override
+        public PrintWriter getWriter() throws IOException {
+            if (writer == null) {
+                writer = new PrintWriter(new OutputStreamWriter(getOutputStream(), getCharacterEncoding()));
+            }
+            return writer;
+        }
+
+        @Override
+        public void flushBuffer() throws IOException {
+            if (writer != null) {
+                writer.flush();
+            }
+            super.flushBuffer();
+        }
+
+        /**
+         * Stops recording a response that is too large to be cached.
+         */
+        private void checkSize() {
+            if (copy.size() > maxEntryBytes) {
+                copy = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright 2007 Philip Jones, EMBL-European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *
+ * For further details of the mydas project, including source code,
+ * downloads and documentation, please see:
+ *
+ * http://code.google.com/p/mydas/
+ *
+ */
+
+package uk.ac.ebi.mydas.controller;
+
+import org.apache.log4j.Logger;
+import uk.ac.ebi.mydas.configuration.DataSourceConfiguration;
+import uk.ac.ebi.mydas.configuration.PropertyType;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Bounded thread pools, one per data source, used to query the segments of a
+ * multi-segment request (features, types, dna, sequence) concurrently.
+ * <p/>
+ * A data source opts in with the property <b>segment_parallelism</b>, the maximum number
+ * of its segments queried at the same time, across all requests. It defaults to 1, i.e.
+ * the segments are queried one after the other in the request thread, as before.
+ * Only set it for data sources that can be called from several threads at once.
+ * <p/>
+ * The property is ignored for dynamic (pattern matched) data sources: their instances come
+ * from the {@link DataSourcePool}, which lends an instance to a single request at a time,
+ * so their segments are always queried one after the other.
+ */
+class SegmentExecutors {
+
+    private static final Logger LOGGER = Logger.getLogger(SegmentExecutors.class);
+
+    static final String PARALLELISM_PROPERTY = "segment_parallelism";
+
+    /**
+     * Idle threads are stopped after this many seconds.
+     */
+    private static final long KEEP_ALIVE_SECONDS = 60L;
+
+    private final Map<String, ExecutorService> executors = new HashMap<String, ExecutorService>();
+
+    /**
+     * The dynamic data sources already warned about, so the warning is logged once.
+     */
+    private final Set<String> ignoredDynamic = new HashSet<String>();
+
+    private boolean shutdown = false;
+
+    /**
+     * Returns the pool of the given data source.
+     *
+     * @param dsnConfig the data source configuration.
+     * @return the pool, or null if the segments of the data source are to be queried serially.
+     */
+    synchronized ExecutorService getExecutor(DataSourceConfiguration dsnConfig) {
+        int parallelism = getParallelism(dsnConfig);
+        if (parallelism <= 1 || shutdown) {
+            return null;
+        }
+        if (dsnConfig.isMatchedDynamic()) {
+            if (ignoredDynamic.add(dsnConfig.getId())) {
+                LOGGER.warn("The property " + PARALLELISM_PROPERTY + " is ignored for the dynamic data source "
+                        + dsnConfig.getId() + ", its pooled instances are lent to one request at a time");
+            }
+            return null;
+        }
+        final String key = dsnConfig.getId();
+        ExecutorService executor = executors.get(key);
+        if (executor == null) {
+            ThreadPoolExecutor pool = new ThreadPoolExecutor(parallelism, parallelism,
+                    KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                    new ThreadFactory() {
+                        private final AtomicInteger count = new AtomicInteger();
+
+                        public Thread newThread(Runnable runnable) {
+                            Thread thread = new Thread(runnable, "mydas-segments-" + key + "-" + count.incrementAndGet());
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    });
+            pool.allowCoreThreadTimeOut(true);
+            executors.put(key, pool);
+            executor = pool;
+        }
+        return executor;
+    }
+
+    /**
+     * Stops all the pools. Segments already queued are still queried.
+     */
+    void shutdown() {
+        List<ExecutorService> pools;
+        synchronized (this) {
+            shutdown = true;
+            pools = new ArrayList<ExecutorService>(executors.values());
+            executors.clear();
+        }
+        for (ExecutorService pool : pools) {
+            pool.shutdown();
+        }
+    }
+
+    private static int getParallelism(DataSourceConfiguration dsnConfig) {
+        Map<String, PropertyType> properties = dsnConfig.getDataSourceProperties();
+        PropertyType property = (properties == null) ? null : properties.get(PARALLELISM_PROPERTY);
+        if (property == null || property.getValue() == null) {
+            return 1;
+        }
+        try {
+            return Integer.parseInt(property.getValue().trim());
+        } catch (NumberFormatException e) {
+            LOGGER.error("The property " + PARALLELISM_PROPERTY + " should be a number, found '" + property.getValue() + "'. Using 1");
+            return 1;
+        }
+    }
+}
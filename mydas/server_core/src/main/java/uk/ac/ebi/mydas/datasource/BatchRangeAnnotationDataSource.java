@@ -0,0 +1,61 @@
+/*
+ * Copyright 2007 Philip Jones, EMBL-European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *
+ * For further details of the mydas project, including source code,
+ * downloads and documentation, please see:
+ *
+ * http://code.google.com/p/mydas/
+ *
+ */
+
+package uk.ac.ebi.mydas.datasource;
+
+import uk.ac.ebi.mydas.controller.SegmentQuery;
+import uk.ac.ebi.mydas.exceptions.DataSourceException;
+import uk.ac.ebi.mydas.model.DasAnnotatedSegment;
+
+import java.util.List;
+
+/**
+ * If you implement this interface, the features and types commands will ask for all the
+ * segments of a request in a single call, instead of calling getFeatures once per segment.
+ *
+ * This is useful if your data source can answer many segments in one round trip, e.g. with
+ * a single SQL query using IN (...) or UNION.  As with {@link RangeHandlingAnnotationDataSource},
+ * it is the responsibility of your data source to restrict the features to the requested
+ * coordinates.
+ *
+ * Requests paginated with rows are still answered one segment at a time with the
+ * getFeatures methods of {@link RangeHandlingAnnotationDataSource}, which therefore
+ * must be implemented as well.
+ */
+public interface BatchRangeAnnotationDataSource extends RangeHandlingAnnotationDataSource {
+
+    /**
+     * Returns the annotated segments for all the segments of a request.
+     * @param segments the requested segments, each one with its id and, if only part of the
+     * segment is requested, its start and stop coordinates.
+     * @param maxbins the maximum number of bins the client is able to draw, or null.
+     * @return a List with one entry per requested segment, in the same order as the segments.
+     * Return null in place of a segment that does not exist in this data source; it is
+     * reported as an unknown segment, as if getFeatures had thrown a BadReferenceObjectException.
+     * Segments whose requested coordinates fall outside their bounds are detected and
+     * reported by the servlet, so just return the segment with its real bounds.
+     * @throws DataSourceException to wrap any exception that may be generated by your
+     * data source, such as SQLExceptions or IOExceptions.  The whole request fails.
+     */
+    public List<DasAnnotatedSegment> getFeatures(List<SegmentQuery> segments, Integer maxbins) throws DataSourceException;
+}
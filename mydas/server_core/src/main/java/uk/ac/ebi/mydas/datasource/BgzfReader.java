@@ -0,0 +1,243 @@
+/*
+ * Copyright 2007 Philip Jones, EMBL-European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *
+ * For further details of the mydas project, including source code,
+ * downloads and documentation, please see:
+ *
+ * http://code.google.com/p/mydas/
+ *
+ */
+
+
+package uk.ac.ebi.mydas.datasource;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Reads a BGZF (blocked gzip) file, as written by bgzip and samtools, at any virtual offset.
+ * <p/>
+ * A BGZF file is a series of gzip members of at most 64 KB each, and a virtual offset is the
+ * offset of a member in the file in its upper 48 bits and the offset within the member once
+ * inflated in its lower 16 bits.  The blocks are read with positional reads on the channel, so
+ * any number of readers can share the same channel; a reader itself must be used by a single
+ * thread at a time.
+ */
+final class BgzfReader {
+
+    private static final int MAX_BLOCK_SIZE = 64 * 1024;
+
+    private static final int BLOCK_HEADER_SIZE = 18;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final FileChannel channel;
+
+    private final Inflater inflater = new Inflater(true);
+
+    private final ByteBuffer compressed = ByteBuffer.allocate(MAX_BLOCK_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+
+    private final byte[] block = new byte[MAX_BLOCK_SIZE];
+
+    /**
+     * Offset in the file of the current block, -1 if none has been read.
+     */
+    private long blockAddress = -1;
+
+    /**
+     * Offset in the file of the block following the current one.
+     */
+    private long nextBlockAddress = 0;
+
+    private int blockLength = 0;
+
+    private int blockOffset = 0;
+
+    private byte[] line = new byte[256];
+
+    BgzfReader(FileChannel channel) {
+        this.channel = channel;
+    }
+
+    /**
+     * Moves to the given virtual offset.  The block is only inflated again if it is not the current one.
+     */
+    void seek(long virtualOffset) throws IOException {
+        long address = virtualOffset >>> 16;
+        int offset = (int) (virtualOffset & 0xffff);
+        if (address != blockAddress) {
+            readBlock(address);
+        }
+        if (offset > blockLength) {
+            throw new IOException("Invalid virtual offset " + virtualOffset + ", the block only holds " + blockLength + " bytes");
+        }
+        blockOffset = offset;
+    }
+
+    /**
+     * @return the virtual offset of the next byte to be read.
+     */
+    long getVirtualOffset() {
+        if (blockAddress < 0) {
+            return 0;
+        }
+        if (blockOffset == blockLength) {
+            // The next byte is the first one of the next block.
+            return nextBlockAddress << 16;
+        }
+        return (blockAddress << 16) | blockOffset;
+    }
+
+    /**
+     * Reads bytes sequentially.
+     *
+     * @return the number of bytes read, -1 at the end of the file.
+     */
+    int read(byte[] buffer, int off, int len) throws IOException {
+        if (!fillBlock()) {
+            return -1;
+        }
+        int count = Math.min(len, blockLength - blockOffset);
+        System.arraycopy(block, blockOffset, buffer, off, count);
+        blockOffset += count;
+        return count;
+    }
+
+    /**
+     * Reads a line of UTF-8 text, without its line break.
+     *
+     * @return the line, or null at the end of the file.
+     */
+    String readLine() throws IOException {
+        int length = 0;
+        boolean read = false;
+        while (fillBlock()) {
+            read = true;
+            int start = blockOffset;
+            int end = start;
+            while (end < blockLength && block[end] != '\n') {
+                end++;
+            }
+            int count = end - start;
+            if (length + count > line.length) {
+                byte[] larger = new byte[Math.max(line.length * 2, length + count)];
+                System.arraycopy(line, 0, larger, 0, length);
+                line = larger;
+            }
+            System.arraycopy(block, start, line, length, count);
+            length += count;
+            if (end < blockLength) {
+                blockOffset = end + 1;
+                return toString(line, length);
+            }
+            blockOffset = blockLength;
+        }
+        return read ? toString(line, length) : null;
+    }
+
+    private static String toString(byte[] bytes, int length) {
+        if (length > 0 && bytes[length - 1] == '\r') {
+            length--;
+        }
+        return new String(bytes, 0, length, UTF_8);
+    }
+
+    /**
+     * Makes sure there is something left to read in the current block, moving to the next
+     * non-empty block if needed.
+     *
+     * @return false at the end of the file.
+     */
+    private boolean fillBlock() throws IOException {
+        if (blockAddress < 0) {
+            readBlock(0);
+        }
+        while (blockOffset == blockLength) {
+            if (nextBlockAddress >= channel.size()) {
+                return false;
+            }
+            readBlock(nextBlockAddress);
+        }
+        return true;
+    }
+
+    private void readBlock(long address) throws IOException {
+        compressed.clear();
+        while (compressed.hasRemaining()) {
+            int count = channel.read(compressed, address + compressed.position());
+            if (count < 0) {
+                break;
+            }
+        }
+        compressed.flip();
+        if (compressed.remaining() < BLOCK_HEADER_SIZE
+                || (compressed.get(0) & 0xff) != 31 || (compressed.get(1) & 0xff) != 139
+                || (compressed.get(3) & 4) == 0) {
+            throw new IOException("Invalid BGZF block at offset " + address);
+        }
+        int extraLength = readShort(compressed, 10);
+        int blockSize = -1;
+        for (int subfield = 12; subfield + 4 <= 12 + extraLength; subfield += 4 + readShort(compressed, subfield + 2)) {
+            if (compressed.get(subfield) == 'B' && compressed.get(subfield + 1) == 'C') {
+                blockSize = readShort(compressed, subfield + 4) + 1;
+                break;
+            }
+        }
+        if (blockSize < 0 || blockSize > compressed.limit()) {
+            throw new IOException("Invalid BGZF block at offset " + address + ", the file is not bgzipped or is truncated");
+        }
+        int dataOffset = 12 + extraLength;
+        int dataLength = blockSize - dataOffset - 8;
+        int inflatedSize = compressed.getInt(blockSize - 4);
+        inflater.reset();
+        inflater.setInput(compressed.array(), dataOffset, dataLength);
+        int inflated = 0;
+        try {
+            while (inflated < inflatedSize && inflated < MAX_BLOCK_SIZE) {
+                int count = inflater.inflate(block, inflated, MAX_BLOCK_SIZE - inflated);
+                if (count == 0) {
+                    break;
+                }
+                inflated += count;
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt BGZF block at offset " + address + ": " + e.getMessage());
+        }
+        if (inflated != inflatedSize) {
+            throw new IOException("Corrupt BGZF block at offset " + address + ": " + inflated + " bytes inflated instead of " + inflatedSize);
+        }
+        blockLength = inflated;
+        blockAddress = address;
+        nextBlockAddress = address + blockSize;
+        blockOffset = 0;
+    }
+
+    private static int readShort(ByteBuffer buffer, int index) {
+        return (buffer.get(index) & 0xff) | ((buffer.get(index + 1) & 0xff) << 8);
+    }
+
+    /**
+     * Releases the inflater.  The channel is not closed, as it may be shared.
+     */
+    void close() {
+        inflater.end();
+    }
+}
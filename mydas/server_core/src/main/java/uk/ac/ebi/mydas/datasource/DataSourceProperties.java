@@ -0,0 +1,72 @@
+/*
+ * Copyright 2007 Philip Jones, EMBL-European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *
+ * For further details of the mydas project, including source code,
+ * downloads and documentation, please see:
+ *
+ * http://code.google.com/p/mydas/
+ *
+ */
+
+
+package uk.ac.ebi.mydas.datasource;
+
+import uk.ac.ebi.mydas.configuration.PropertyType;
+
+import javax.servlet.ServletContext;
+import java.io.File;
+import java.util.Map;
+
+/**
+ * Reads the properties of the file based data sources from their configuration.
+ */
+final class DataSourceProperties {
+
+    private DataSourceProperties() {
+    }
+
+    /**
+     * @param properties the properties of the data source, may be null.
+     * @param key        the name of the property.
+     * @return the trimmed value of the property, null if it is missing or blank.
+     */
+    static String getProperty(Map<String, PropertyType> properties, String key) {
+        PropertyType property = (properties == null) ? null : properties.get(key);
+        if (property == null || property.getValue() == null || property.getValue().trim().length() == 0) {
+            return null;
+        }
+        return property.getValue().trim();
+    }
+
+    /**
+     * Resolves a path given in a property: a relative path is a path in the web application,
+     * when there is one.
+     *
+     * @param servletContext the context of the web application, may be null.
+     * @param path           the path.
+     * @return the file.
+     */
+    static File getFile(ServletContext servletContext, String path) {
+        File file = new File(path);
+        if (!file.isAbsolute() && servletContext != null) {
+            String realPath = servletContext.getRealPath(path);
+            if (realPath != null) {
+                file = new File(realPath);
+            }
+        }
+        return file;
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright 2007 Philip Jones, EMBL-European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *
+ * For further details of the mydas project, including source code,
+ * downloads and documentation, please see:
+ *
+ * http://code.google.com/p/mydas/
+ *
+ */
+
+
+package uk.ac.ebi.mydas.datasource;
+
+import uk.ac.ebi.mydas.model.DasFeature;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * The type, category and feature_id restrictions of a features request, as passed to a
+ * {@link FilterAwareAnnotationDataSource}.
+ * <p/>
+ * Each restriction is either null, if the request does not include it, or a Set of the requested
+ * ids; a feature passes if its type id, its type category and its id are in the corresponding Sets.
+ */
+public final class FeatureFilter {
+
+    private final Set<String> typeIds;
+    private final Set<String> categoryIds;
+    private final Set<String> featureIds;
+
+    /**
+     * @param typeIds     the requested type ids, or null if not restricted by type.
+     * @param categoryIds the requested categories, or null if not restricted by category.
+     * @param featureIds  the requested feature ids, or null if not restricted by feature id.
+     */
+    public FeatureFilter(Collection<String> typeIds, Collection<String> categoryIds, Collection<String> featureIds) {
+        this.typeIds = toSet(typeIds);
+        this.categoryIds = toSet(categoryIds);
+        this.featureIds = toSet(featureIds);
+    }
+
+    /**
+     * @return the requested type ids, or null if any type is accepted.
+     */
+    public Set<String> getTypeIds() {
+        return typeIds;
+    }
+
+    /**
+     * @return the requested categories, or null if any category is accepted.
+     */
+    public Set<String> getCategoryIds() {
+        return categoryIds;
+    }
+
+    /**
+     * @return the requested feature ids, or null if any feature is accepted.
+     */
+    public Set<String> getFeatureIds() {
+        return featureIds;
+    }
+
+    /**
+     * @return true if the request is not restricted by type, category nor feature id.
+     */
+    public boolean isEmpty() {
+        return typeIds == null && categoryIds == null && featureIds == null;
+    }
+
+    /**
+     * Returns true if the feature passes all the restrictions.
+     *
+     * @param feature being the DasFeature under test.
+     * @return a boolean - true if the DasFeature passes the filter, false otherwise
+     */
+    public boolean passes(DasFeature feature) {
+        if (featureIds != null && (feature.getFeatureId() == null || !featureIds.contains(feature.getFeatureId()))) {
+            return false;
+        }
+        if (typeIds != null && (feature.getType().getId() == null || !typeIds.contains(feature.getType().getId()))) {
+            return false;
+        }
+        if (categoryIds != null && (feature.getType().getCategory() == null || !categoryIds.contains(feature.getType().getCategory()))) {
+            return false;
+        }
+        return true;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        FeatureFilter that = (FeatureFilter) o;
+
+        if (typeIds != null ? !typeIds.equals(that.typeIds) : that.typeIds != null) return false;
+        if (categoryIds != null ? !categoryIds.equals(that.categoryIds) : that.categoryIds != null) return false;
+        if (featureIds != null ? !featureIds.equals(that.featureIds) : that.featureIds != null) return false;
+
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        int result = typeIds != null ? typeIds.hashCode() : 0;
+        result = 31 * result + (categoryIds != null ? categoryIds.hashCode() : 0);
+        result = 31 * result + (featureIds != null ? featureIds.hashCode() : 0);
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "type=" + typeIds + ";category=" + categoryIds + ";feature_id=" + featureIds;
+    }
+
+    private static Set<String> toSet(Collection<String> ids) {
+        if (ids == null) {
+            return null;
+        }
+        return Collections.unmodifiableSet(new LinkedHashSet<String>(ids));
+    }
+}
@@ -0,0 +1,580 @@
+/*
+ * Copyright 2007 Philip Jones, EMBL-European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *
+ * For further details of the mydas project, including source code,
+ * downloads and documentation, please see:
+ *
+ * http://code.google.com/p/mydas/
+ *
+ */
+
+
+package uk.ac.ebi.mydas.datasource;
+
+import uk.ac.ebi.mydas.exceptions.DataSourceException;
+import uk.ac.ebi.mydas.model.DasFeature;
+import uk.ac.ebi.mydas.model.DasFeatureOrientation;
+import uk.ac.ebi.mydas.model.DasMethod;
+import uk.ac.ebi.mydas.model.DasPhase;
+import uk.ac.ebi.mydas.model.DasTarget;
+import uk.ac.ebi.mydas.model.DasType;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A feature store file, as written by {@link FeatureStoreWriter}, mapped in memory.
+ * <p/>
+ * The file starts with a header of {@link #HEADER_SIZE} bytes giving the number of features
+ * and the offsets of the tables, followed by the features, sorted by segment and start, in
+ * blocks of at most {@link #BLOCK_FEATURES} features of a single segment.  After the blocks come:
+ * <ul>
+ * <li>the block table: the offset, size, number of features and first start of each block;</li>
+ * <li>the dictionary: the strings of the types and methods, then the types (with the number of
+ * features of each) and the methods, as indexes in the strings;</li>
+ * <li>the segment table: the name, coordinates, number of features and blocks of each segment,
+ * plus a linear index giving, for each window of 2^{@link #WINDOW_SHIFT} bases, the first block
+ * holding a feature that overlaps the window;</li>
+ * <li>the feature id index: an open addressing hash table of longs, each holding a fingerprint
+ * of the id hash in its upper {@link #FINGERPRINT_BITS} bits and the position of the feature
+ * plus one in the lower ones.</li>
+ * </ul>
+ * Inside a block, each feature is its length, the difference between its start and the start
+ * of the previous one, its length on the segment, its id, type, method, a set of flags and the
+ * optional fields the flags announce.  Numbers are variable length, strings are UTF-8.
+ * <p/>
+ * Only the tables are read in the heap, about 30 bytes per block of features; the features are
+ * decoded from the mapped file when requested.  Instances are thread-safe.
+ */
+final class FeatureStore {
+
+    static final int MAGIC = 0x4d444653;
+
+    static final int FORMAT_VERSION = 1;
+
+    static final int HEADER_SIZE = 64;
+
+    static final int BLOCK_FEATURES = 128;
+
+    static final int WINDOW_SHIFT = 14;
+
+    static final int FINGERPRINT_BITS = 24;
+
+    static final int ORDINAL_BITS = 64 - FINGERPRINT_BITS;
+
+    static final long ORDINAL_MASK = (1L << ORDINAL_BITS) - 1;
+
+    static final int FLAG_ORIENTATION_MASK = 0x3;
+    static final int FLAG_PHASE_SHIFT = 2;
+    static final int FLAG_PHASE_MASK = 0x3 << FLAG_PHASE_SHIFT;
+    static final int FLAG_SCORE = 1 << 4;
+    static final int FLAG_LABEL = 1 << 5;
+    static final int FLAG_LABEL_IS_ID = 1 << 6;
+    static final int FLAG_NOTES = 1 << 7;
+    static final int FLAG_LINKS = 1 << 8;
+    static final int FLAG_TARGETS = 1 << 9;
+    static final int FLAG_PARENTS = 1 << 10;
+    static final int FLAG_PARTS = 1 << 11;
+
+    static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * The blocks are mapped in regions of at most this size, and so are the slots of the id index.
+     */
+    private static final long MAX_REGION_SIZE = 1L << 30;
+
+    private static final int SLOTS_PER_REGION = (int) (MAX_REGION_SIZE / 8);
+
+    private final long featureCount;
+
+    private final long[] blockOffsets;
+    private final int[] blockCounts;
+    private final int[] blockFirstStarts;
+    private final long[] blockFirstOrdinals;
+    private final int[] blockSegments;
+    private final int[] blockRegions;
+
+    private final ByteBuffer[] regions;
+    private final long[] regionStarts;
+
+    private final ByteBuffer[] slotRegions;
+    private final long slotCount;
+
+    private final DasType[] types;
+    private final long[] typeCounts;
+    private final DasMethod[] methods;
+
+    private final List<Segment> segments;
+    private final Map<String, Segment> segmentsByName;
+
+    /**
+     * Maps a feature store file.  The file can be closed once this returns.
+     */
+    FeatureStore(File file, FileChannel channel) throws IOException, DataSourceException {
+        long fileSize = channel.size();
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        readFully(channel, header, 0);
+        header.flip();
+        if (header.getInt() != MAGIC) {
+            throw new DataSourceException("The file " + file + " is not a feature store");
+        }
+        int version = header.getInt();
+        if (version != FORMAT_VERSION) {
+            throw new DataSourceException("The feature store " + file + " has version " + version + ", only version "
+                    + FORMAT_VERSION + " can be read");
+        }
+        featureCount = header.getLong();
+        int blockCount = header.getInt();
+        int windowShift = header.getInt();
+        long blockTableOffset = header.getLong();
+        long dictionaryOffset = header.getLong();
+        long segmentTableOffset = header.getLong();
+        long idIndexOffset = header.getLong();
+        slotCount = header.getLong();
+        if (windowShift != WINDOW_SHIFT || idIndexOffset + slotCount * 8 > fileSize) {
+            throw new DataSourceException("The feature store " + file + " is truncated or corrupted");
+        }
+
+        DataInputStream in = open(channel, blockTableOffset);
+        blockOffsets = new long[blockCount];
+        blockCounts = new int[blockCount];
+        blockFirstStarts = new int[blockCount];
+        blockFirstOrdinals = new long[blockCount];
+        blockSegments = new int[blockCount];
+        blockRegions = new int[blockCount];
+        int[] blockSizes = new int[blockCount];
+        long ordinal = 0;
+        for (int b = 0; b < blockCount; b++) {
+            blockOffsets[b] = in.readLong();
+            blockSizes[b] = in.readInt();
+            blockCounts[b] = in.readInt();
+            blockFirstStarts[b] = in.readInt();
+            blockFirstOrdinals[b] = ordinal;
+            ordinal += blockCounts[b];
+        }
+
+        in = open(channel, dictionaryOffset);
+        String[] strings = new String[in.readInt()];
+        for (int i = 0; i < strings.length; i++) {
+            strings[i] = in.readUTF();
+        }
+        types = new DasType[in.readInt()];
+        typeCounts = new long[types.length];
+        for (int i = 0; i < types.length; i++) {
+            types[i] = new DasType(get(strings, in.readInt()), get(strings, in.readInt()), get(strings, in.readInt()),
+                    get(strings, in.readInt()));
+            typeCounts[i] = in.readLong();
+        }
+        methods = new DasMethod[in.readInt()];
+        for (int i = 0; i < methods.length; i++) {
+            methods[i] = new DasMethod(get(strings, in.readInt()), get(strings, in.readInt()), get(strings, in.readInt()));
+        }
+
+        in = open(channel, segmentTableOffset);
+        int segmentCount = in.readInt();
+        segments = new ArrayList<Segment>(segmentCount);
+        segmentsByName = new HashMap<String, Segment>(segmentCount * 2);
+        for (int s = 0; s < segmentCount; s++) {
+            Segment segment = new Segment(in.readUTF(), in.readInt(), in.readInt(), in.readLong(), in.readInt(), in.readInt());
+            segment.windows = new int[in.readInt()];
+            for (int w = 0; w < segment.windows.length; w++) {
+                segment.windows[w] = in.readInt();
+            }
+            for (int b = segment.firstBlock; b < segment.firstBlock + segment.blockCount; b++) {
+                blockSegments[b] = s;
+            }
+            segments.add(segment);
+            segmentsByName.put(segment.name, segment);
+        }
+
+        // Consecutive blocks are mapped together, in regions of at most MAX_REGION_SIZE.
+        List<ByteBuffer> mapped = new ArrayList<ByteBuffer>();
+        List<Long> starts = new ArrayList<Long>();
+        int first = 0;
+        while (first < blockCount) {
+            int last = first;
+            while (last + 1 < blockCount && blockOffsets[last + 1] + blockSizes[last + 1] - blockOffsets[first] <= MAX_REGION_SIZE) {
+                last++;
+            }
+            long size = blockOffsets[last] + blockSizes[last] - blockOffsets[first];
+            mapped.add(channel.map(FileChannel.MapMode.READ_ONLY, blockOffsets[first], size));
+            starts.add(blockOffsets[first]);
+            for (int b = first; b <= last; b++) {
+                blockRegions[b] = mapped.size() - 1;
+            }
+            first = last + 1;
+        }
+        regions = mapped.toArray(new ByteBuffer[mapped.size()]);
+        regionStarts = new long[starts.size()];
+        for (int i = 0; i < regionStarts.length; i++) {
+            regionStarts[i] = starts.get(i);
+        }
+
+        slotRegions = new ByteBuffer[(int) ((slotCount + SLOTS_PER_REGION - 1) / SLOTS_PER_REGION)];
+        for (int i = 0; i < slotRegions.length; i++) {
+            long slots = Math.min(SLOTS_PER_REGION, slotCount - (long) i * SLOTS_PER_REGION);
+            slotRegions[i] = channel.map(FileChannel.MapMode.READ_ONLY, idIndexOffset + (long) i * SLOTS_PER_REGION * 8, slots * 8);
+        }
+    }
+
+    long getFeatureCount() {
+        return featureCount;
+    }
+
+    List<Segment> getSegments() {
+        return Collections.unmodifiableList(segments);
+    }
+
+    Segment getSegment(String name) {
+        return segmentsByName.get(name);
+    }
+
+    /**
+     * @return the types, with the number of features of each, in the order of the file.
+     */
+    Map<DasType, Long> getTypeCounts() {
+        Map<DasType, Long> counts = new LinkedHashMap<DasType, Long>(types.length * 2);
+        for (int i = 0; i < types.length; i++) {
+            Long previous = counts.get(types[i]);
+            counts.put(types[i], (previous == null) ? typeCounts[i] : previous + typeCounts[i]);
+        }
+        return counts;
+    }
+
+    /**
+     * Returns the features of a segment overlapping a region, in the order of their start.
+     *
+     * @param segment the segment.
+     * @param start   the start of the region.
+     * @param stop    the end of the region, inclusive.
+     * @return the features.
+     */
+    List<DasFeature> getFeatures(Segment segment, int start, int stop) throws DataSourceException {
+        List<DasFeature> features = new ArrayList<DasFeature>();
+        int window = Math.max(start, 0) >> WINDOW_SHIFT;
+        if (segment.blockCount == 0 || stop < start || window >= segment.windows.length) {
+            return features;
+        }
+        Record record = new Record();
+        for (int b = segment.firstBlock + segment.windows[window]; b < segment.firstBlock + segment.blockCount; b++) {
+            if (blockFirstStarts[b] > stop) {
+                break;
+            }
+            ByteBuffer block = getBlock(b);
+            record.start = blockFirstStarts[b];
+            for (int i = 0; i < blockCounts[b]; i++) {
+                readCoordinates(block, record);
+                if (record.start > stop) {
+                    return features;
+                }
+                if (record.end >= start) {
+                    features.add(readFeature(block, record));
+                }
+                block.position(record.next);
+            }
+        }
+        return features;
+    }
+
+    /**
+     * Looks features up by id.
+     *
+     * @return the features with this id, with their segment, empty if there is none.
+     */
+    List<Located> getFeatures(String featureId) throws DataSourceException {
+        List<Located> found = new ArrayList<Located>(1);
+        if (slotCount == 0) {
+            return found;
+        }
+        long hash = hash(featureId);
+        long fingerprint = hash >>> ORDINAL_BITS;
+        Record record = new Record();
+        for (long slot = hash & (slotCount - 1); ; slot = (slot + 1) & (slotCount - 1)) {
+            long value = slotRegions[(int) (slot / SLOTS_PER_REGION)].getLong((int) (slot % SLOTS_PER_REGION) * 8);
+            if (value == 0) {
+                return found;
+            }
+            if ((value >>> ORDINAL_BITS) != fingerprint) {
+                continue;
+            }
+            long ordinal = (value & ORDINAL_MASK) - 1;
+            int b = findBlock(ordinal);
+            ByteBuffer block = getBlock(b);
+            record.start = blockFirstStarts[b];
+            for (long i = blockFirstOrdinals[b]; i < ordinal; i++) {
+                readCoordinates(block, record);
+                block.position(record.next);
+            }
+            readCoordinates(block, record);
+            if (readString(block).equals(featureId)) {
+                block.position(record.idPosition);
+                found.add(new Located(segments.get(blockSegments[b]), readFeature(block, record)));
+            }
+        }
+    }
+
+    private int findBlock(long ordinal) {
+        int low = 0;
+        int high = blockFirstOrdinals.length - 1;
+        while (low < high) {
+            int middle = (low + high + 1) >>> 1;
+            if (blockFirstOrdinals[middle] <= ordinal) {
+                low = middle;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return low;
+    }
+
+    private ByteBuffer getBlock(int b) {
+        ByteBuffer block = regions[blockRegions[b]].duplicate();
+        block.position((int) (blockOffsets[b] - regionStarts[blockRegions[b]]));
+        return block;
+    }
+
+    /**
+     * Reads the length and coordinates of the next feature of a block, the start of the
+     * previous one being in the record.
+     */
+    private static void readCoordinates(ByteBuffer block, Record record) {
+        int length = readVarInt(block);
+        record.next = block.position() + length;
+        record.start += readVarInt(block);
+        record.end = record.start + unzigzag(readVarInt(block));
+        record.idPosition = block.position();
+    }
+
+    private DasFeature readFeature(ByteBuffer block, Record record) throws DataSourceException {
+        String id = readString(block);
+        DasType type = types[readVarInt(block)];
+        DasMethod method = methods[readVarInt(block)];
+        int flags = readVarInt(block);
+        Double score = ((flags & FLAG_SCORE) != 0) ? block.getDouble() : null;
+        String label = null;
+        if ((flags & FLAG_LABEL_IS_ID) != 0) {
+            label = id;
+        } else if ((flags & FLAG_LABEL) != 0) {
+            label = readString(block);
+        }
+        List<String> notes = ((flags & FLAG_NOTES) != 0) ? readStrings(block) : null;
+        Map<URL, String> links = null;
+        if ((flags & FLAG_LINKS) != 0) {
+            int count = readVarInt(block);
+            links = new LinkedHashMap<URL, String>(count * 2);
+            for (int i = 0; i < count; i++) {
+                String url = readString(block);
+                try {
+                    links.put(new URL(url), readString(block));
+                } catch (MalformedURLException e) {
+                    throw new DataSourceException("Invalid link " + url + " for the feature " + id, e);
+                }
+            }
+        }
+        List<DasTarget> targets = null;
+        if ((flags & FLAG_TARGETS) != 0) {
+            int count = readVarInt(block);
+            targets = new ArrayList<DasTarget>(count);
+            for (int i = 0; i < count; i++) {
+                targets.add(new DasTarget(readString(block), unzigzag(readVarInt(block)), unzigzag(readVarInt(block)), readString(block)));
+            }
+        }
+        List<String> parents = ((flags & FLAG_PARENTS) != 0) ? readStrings(block) : null;
+        List<String> parts = ((flags & FLAG_PARTS) != 0) ? readStrings(block) : null;
+        return new DasFeature(id, label, type, method, record.start, record.end, score,
+                ORIENTATIONS[flags & FLAG_ORIENTATION_MASK], PHASES[(flags & FLAG_PHASE_MASK) >> FLAG_PHASE_SHIFT],
+                notes, links, targets, parents, parts);
+    }
+
+    static final DasFeatureOrientation[] ORIENTATIONS = {
+            DasFeatureOrientation.ORIENTATION_NOT_APPLICABLE,
+            DasFeatureOrientation.ORIENTATION_SENSE_STRAND,
+            DasFeatureOrientation.ORIENTATION_ANTISENSE_STRAND,
+            DasFeatureOrientation.ORIENTATION_NOT_APPLICABLE
+    };
+
+    static final DasPhase[] PHASES = {
+            DasPhase.PHASE_NOT_APPLICABLE,
+            DasPhase.PHASE_READING_FRAME_0,
+            DasPhase.PHASE_READING_FRAME_1,
+            DasPhase.PHASE_READING_FRAME_2
+    };
+
+    /**
+     * Hash of a feature id, the same on every platform: FNV-1a over the characters, then mixed
+     * so that both the lower bits (the slot) and the upper ones (the fingerprint) are spread.
+     */
+    static long hash(String id) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < id.length(); i++) {
+            hash ^= id.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+    static int readVarInt(ByteBuffer buffer) {
+        int value = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = buffer.get();
+            value |= (b & 0x7f) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+    }
+
+    static int unzigzag(int value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    /**
+     * Reads a string written by {@link FeatureStoreWriter}: its length in bytes plus one, 0 for null, then its bytes.
+     */
+    static String readString(ByteBuffer buffer) {
+        int length = readVarInt(buffer) - 1;
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, UTF_8);
+    }
+
+    private static List<String> readStrings(ByteBuffer buffer) {
+        int count = readVarInt(buffer);
+        List<String> strings = new ArrayList<String>(count);
+        for (int i = 0; i < count; i++) {
+            strings.add(readString(buffer));
+        }
+        return strings;
+    }
+
+    private static String get(String[] strings, int index) {
+        return (index < 0) ? null : strings[index];
+    }
+
+    private static DataInputStream open(FileChannel channel, long position) throws IOException {
+        return new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel.position(position)), 64 * 1024));
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of file");
+            }
+        }
+    }
+
+    /**
+     * Opens and maps a feature store file.
+     */
+    static FeatureStore open(File file) throws IOException, DataSourceException {
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        try {
+            return new FeatureStore(file, randomAccessFile.getChannel());
+        } finally {
+            randomAccessFile.close();
+        }
+    }
+
+    /**
+     * A segment of the store.
+     */
+    static final class Segment {
+        private final String name;
+        private final int start;
+        private final int stop;
+        private final long featureCount;
+        private final int firstBlock;
+        private final int blockCount;
+        private int[] windows;
+
+        private Segment(String name, int start, int stop, long featureCount, int firstBlock, int blockCount) {
+            this.name = name;
+            this.start = start;
+            this.stop = stop;
+            this.featureCount = featureCount;
+            this.firstBlock = firstBlock;
+            this.blockCount = blockCount;
+        }
+
+        String getName() {
+            return name;
+        }
+
+        int getStart() {
+            return start;
+        }
+
+        int getStop() {
+            return stop;
+        }
+
+        long getFeatureCount() {
+            return featureCount;
+        }
+    }
+
+    /**
+     * A feature found by id, with its segment.
+     */
+    static final class Located {
+        private final Segment segment;
+        private final DasFeature feature;
+
+        private Located(Segment segment, DasFeature feature) {
+            this.segment = segment;
+            this.feature = feature;
+        }
+
+        Segment getSegment() {
+            return segment;
+        }
+
+        DasFeature getFeature() {
+            return feature;
+        }
+    }
+
+    /**
+     * Position and coordinates of the feature being decoded.
+     */
+    private static final class Record {
+        private int start;
+        private int end;
+        private int next;
+        private int idPosition;
+    }
+}
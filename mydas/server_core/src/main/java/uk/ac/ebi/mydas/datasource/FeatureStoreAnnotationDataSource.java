@@ -0,0 +1,212 @@
+/*
+ * Copyright 2007 Philip Jones, EMBL-European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *
+ * For further details of the mydas project, including source code,
+ * downloads and documentation, please see:
+ *
+ * http://code.google.com/p/mydas/
+ *
+ */
+
+
+package uk.ac.ebi.mydas.datasource;
+
+import org.apache.log4j.Logger;
+import uk.ac.ebi.mydas.configuration.DataSourceConfiguration;
+import uk.ac.ebi.mydas.configuration.PropertyType;
+import uk.ac.ebi.mydas.exceptions.BadReferenceObjectException;
+import uk.ac.ebi.mydas.exceptions.CoordinateErrorException;
+import uk.ac.ebi.mydas.exceptions.DataSourceException;
+import uk.ac.ebi.mydas.exceptions.UnimplementedFeatureException;
+import uk.ac.ebi.mydas.extendedmodel.DasUnknownFeatureSegment;
+import uk.ac.ebi.mydas.model.DasAnnotatedSegment;
+import uk.ac.ebi.mydas.model.DasEntryPoint;
+import uk.ac.ebi.mydas.model.DasFeature;
+import uk.ac.ebi.mydas.model.DasRestrictedAnnotatedSegment;
+import uk.ac.ebi.mydas.model.DasType;
+import uk.ac.ebi.mydas.model.Range;
+
+import javax.servlet.ServletContext;
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Annotation data source serving a feature store file, a compact binary file of features
+ * written by {@link FeatureStoreWriter} (e.g. with {@link FeatureStoreBuilder} from a GFF file).
+ * <p/>
+ * The file is memory-mapped and only the blocks of features overlapping the requested region
+ * are decoded, through a linear index of each segment held in memory.  Features are also found
+ * by id through a hash index stored in the file, so the heap used does not grow with the number
+ * of features, only with the number of blocks of 128 features.
+ * <p/>
+ * The data source is configured with the following properties in MydasServerConfig.xml:
+ * <ul>
+ * <li><b>feature_store_file</b>: the feature store, either an absolute path or a path in the web
+ * application.</li>
+ * <li><b>feature_store_version</b>: optional, the version of the annotated sequences. Defaults
+ * to the name of the file.</li>
+ * </ul>
+ */
+public class FeatureStoreAnnotationDataSource implements RangeHandlingAnnotationDataSource {
+
+    private static final Logger LOGGER = Logger.getLogger(FeatureStoreAnnotationDataSource.class);
+
+    public static final String FILE_PROPERTY = "feature_store_file";
+    public static final String VERSION_PROPERTY = "feature_store_version";
+
+    private FeatureStore store;
+
+    private String version;
+
+    private Map<DasType, Long> typeCounts;
+
+    public void init(ServletContext servletContext, Map<String, PropertyType> globalParameters, DataSourceConfiguration dataSourceConfig)
+            throws DataSourceException {
+        Map<String, PropertyType> properties = dataSourceConfig.getDataSourceProperties();
+        String path = DataSourceProperties.getProperty(properties, FILE_PROPERTY);
+        if (path == null) {
+            throw new DataSourceException("The property " + FILE_PROPERTY + " is missing from the configuration of "
+                    + dataSourceConfig.getName());
+        }
+        File file = DataSourceProperties.getFile(servletContext, path);
+        String versionProperty = DataSourceProperties.getProperty(properties, VERSION_PROPERTY);
+        version = (versionProperty == null) ? file.getName() : versionProperty;
+        try {
+            store = FeatureStore.open(file);
+        } catch (IOException e) {
+            throw new DataSourceException("The feature store " + file + " cannot be read", e);
+        }
+        typeCounts = store.getTypeCounts();
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug("Serving " + store.getFeatureCount() + " features on " + store.getSegments().size()
+                    + " segments from " + file);
+        }
+    }
+
+    /**
+     * Releases the store.  The mapped file is unmapped by the garbage collector once no request uses it.
+     */
+    public void destroy() {
+        store = null;
+    }
+
+    public DasAnnotatedSegment getFeatures(String segmentId, Integer maxbins) throws BadReferenceObjectException, DataSourceException {
+        FeatureStore.Segment segment = getSegment(segmentId);
+        return new DasAnnotatedSegment(segmentId, segment.getStart(), segment.getStop(), version, null,
+                getStore().getFeatures(segment, segment.getStart(), segment.getStop()));
+    }
+
+    public DasAnnotatedSegment getFeatures(String segmentId, Integer maxbins, Range rows)
+            throws BadReferenceObjectException, DataSourceException, UnimplementedFeatureException {
+        throw new UnimplementedFeatureException("Rows are handled by the servlet");
+    }
+
+    public DasAnnotatedSegment getFeatures(String segmentId, int start, int stop, Integer maxbins)
+            throws BadReferenceObjectException, CoordinateErrorException, DataSourceException {
+        FeatureStore.Segment segment = getSegment(segmentId);
+        if (start > stop || start > segment.getStop() || stop < segment.getStart()) {
+            throw new CoordinateErrorException(segmentId, start, stop);
+        }
+        int end = Math.min(stop, segment.getStop());
+        return new DasRestrictedAnnotatedSegment(segmentId, start, end, version, null, getStore().getFeatures(segment, start, end));
+    }
+
+    public DasAnnotatedSegment getFeatures(String segmentId, int start, int stop, Integer maxbins, Range rows)
+            throws BadReferenceObjectException, CoordinateErrorException, DataSourceException, UnimplementedFeatureException {
+        throw new UnimplementedFeatureException("Rows are handled by the servlet");
+    }
+
+    public Collection<DasAnnotatedSegment> getFeatures(Collection<String> featureIdCollection, Integer maxbins)
+            throws UnimplementedFeatureException, DataSourceException {
+        FeatureStore featureStore = getStore();
+        Collection<DasAnnotatedSegment> segments = new ArrayList<DasAnnotatedSegment>(featureIdCollection.size());
+        for (String featureId : featureIdCollection) {
+            List<FeatureStore.Located> found = featureStore.getFeatures(featureId);
+            if (found.isEmpty()) {
+                segments.add(new DasUnknownFeatureSegment(featureId));
+            }
+            for (FeatureStore.Located located : found) {
+                FeatureStore.Segment segment = located.getSegment();
+                segments.add(new DasAnnotatedSegment(segment.getName(), segment.getStart(), segment.getStop(), version, null,
+                        new ArrayList<DasFeature>(Collections.singletonList(located.getFeature()))));
+            }
+        }
+        return segments;
+    }
+
+    public Collection<DasAnnotatedSegment> getFeatures(Collection<String> featureIdCollection, Integer maxbins, Range rows)
+            throws UnimplementedFeatureException, DataSourceException {
+        throw new UnimplementedFeatureException("Rows are handled by the servlet");
+    }
+
+    public Collection<DasType> getTypes() throws DataSourceException {
+        return new ArrayList<DasType>(typeCounts.keySet());
+    }
+
+    /**
+     * @return the number of features of the type, counted when the store was written.
+     */
+    public Integer getTotalCountForType(DasType type) throws DataSourceException {
+        Long count = typeCounts.get(type);
+        return (count == null) ? 0 : (int) Math.min(count, Integer.MAX_VALUE);
+    }
+
+    public URL getLinkURL(String field, String id) throws UnimplementedFeatureException, DataSourceException {
+        throw new UnimplementedFeatureException("No links are provided by this data source");
+    }
+
+    public Collection<DasEntryPoint> getEntryPoints(Integer start, Integer stop) throws UnimplementedFeatureException, DataSourceException {
+        List<FeatureStore.Segment> segments = getStore().getSegments();
+        int first = (start == null) ? 1 : Math.max(start, 1);
+        int last = (stop == null) ? segments.size() : Math.min(stop, segments.size());
+        List<DasEntryPoint> entryPoints = new ArrayList<DasEntryPoint>(Math.max(last - first + 1, 0));
+        for (int i = first; i <= last; i++) {
+            FeatureStore.Segment segment = segments.get(i - 1);
+            entryPoints.add(new DasEntryPoint(segment.getName(), segment.getStart(), segment.getStop(), null, version, null, null, false));
+        }
+        return entryPoints;
+    }
+
+    public String getEntryPointVersion() throws UnimplementedFeatureException, DataSourceException {
+        return version;
+    }
+
+    public int getTotalEntryPoints() throws UnimplementedFeatureException, DataSourceException {
+        return getStore().getSegments().size();
+    }
+
+    private FeatureStore getStore() throws DataSourceException {
+        FeatureStore featureStore = store;
+        if (featureStore == null) {
+            throw new DataSourceException("The feature store has been closed");
+        }
+        return featureStore;
+    }
+
+    private FeatureStore.Segment getSegment(String segmentId) throws BadReferenceObjectException, DataSourceException {
+        FeatureStore.Segment segment = getStore().getSegment(segmentId);
+        if (segment == null) {
+            throw new BadReferenceObjectException(segmentId, "The segment is not in the feature store");
+        }
+        return segment;
+    }
+}
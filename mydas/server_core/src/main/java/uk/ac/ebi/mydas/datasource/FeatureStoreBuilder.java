@@ -0,0 +1,272 @@
+/*
+ * Copyright 2007 Philip Jones, EMBL-European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *
+ * For further details of the mydas project, including source code,
+ * downloads and documentation, please see:
+ *
+ * http://code.google.com/p/mydas/
+ *
+ */
+
+
+package uk.ac.ebi.mydas.datasource;
+
+import uk.ac.ebi.mydas.exceptions.DataSourceException;
+import uk.ac.ebi.mydas.model.DasFeature;
+import uk.ac.ebi.mydas.model.DasMethod;
+import uk.ac.ebi.mydas.model.DasType;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Command line tool converting a GFF file, or a file in the format read by the
+ * SeparatedByPipesParser of the template project, to a feature store served by
+ * {@link FeatureStoreAnnotationDataSource}:
+ * <pre>
+ * java -cp mydas.jar:log4j.jar uk.ac.ebi.mydas.datasource.FeatureStoreBuilder gff features.gff features.mdfs
+ * java -cp mydas.jar:log4j.jar uk.ac.ebi.mydas.datasource.FeatureStoreBuilder pipes genes.txt genes.mdfs
+ * </pre>
+ * Input files ending with .gz are read through gzip.
+ * <p/>
+ * GFF files are read line by line, so files of any size can be converted.  The type and source
+ * columns give the type and method of the features, the ID, Name and Parent attributes their id,
+ * label and parents, and the other attributes are kept as notes; features without an ID are
+ * numbered after their line.  The ##sequence-region lines give the coordinates of the segments.
+ * <p/>
+ * Each line of a pipes file holds a segment, gene, transcript and exon, each with an id, start and
+ * stop, as in <code>x|segment|gene|start|stop|transcript|start|stop|exon|start|stop</code>.  Genes,
+ * transcripts and exons are stored as features linked by their parents and parts, with the types
+ * and method used by the SeparatedByPipesParser; as the lines are grouped in memory, this format
+ * is meant for small files.
+ */
+public final class FeatureStoreBuilder {
+
+    static final String FORMAT_GFF = "gff";
+    static final String FORMAT_PIPES = "pipes";
+
+    private static final String GENERATED_ID_PREFIX = "GFF_feature_";
+
+    private FeatureStoreBuilder() {
+    }
+
+    public static void main(String[] args) {
+        if (args.length != 3 || !(args[0].equals(FORMAT_GFF) || args[0].equals(FORMAT_PIPES))) {
+            System.err.println("Usage: FeatureStoreBuilder gff|pipes <input file> <feature store>");
+            System.exit(2);
+        }
+        try {
+            long started = System.currentTimeMillis();
+            long count = convert(args[0], new File(args[1]), new File(args[2]));
+            System.out.println("Stored " + count + " features in " + args[2] + " in "
+                    + (System.currentTimeMillis() - started) + " ms");
+        } catch (Exception e) {
+            System.err.println("The conversion failed: " + e.getMessage());
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Converts a file.
+     *
+     * @param format the format of the input, gff or pipes.
+     * @param input  the input file.
+     * @param output the feature store to write.
+     * @return the number of features stored.
+     * @throws IOException         if a file cannot be read or written.
+     * @throws DataSourceException if the input is not valid.
+     */
+    public static long convert(String format, File input, File output) throws IOException, DataSourceException {
+        InputStream in = new FileInputStream(input);
+        try {
+            if (input.getName().endsWith(".gz")) {
+                in = new GZIPInputStream(in, 64 * 1024);
+            }
+            BufferedReader reader = new BufferedReader(new InputStreamReader(in, FeatureStore.UTF_8), 64 * 1024);
+            FeatureStoreWriter writer = new FeatureStoreWriter(output);
+            try {
+                long count = format.equals(FORMAT_PIPES) ? convertPipes(reader, writer) : convertGff(reader, writer);
+                writer.close();
+                return count;
+            } finally {
+                writer.discard();
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Adds the features of a GFF file to a store.
+     *
+     * @return the number of features added.
+     */
+    static long convertGff(BufferedReader reader, FeatureStoreWriter writer) throws IOException, DataSourceException {
+        Map<String, DasType> types = new LinkedHashMap<String, DasType>();
+        Map<String, DasMethod> methods = new LinkedHashMap<String, DasMethod>();
+        long count = 0;
+        long lineNumber = 0;
+        String line;
+        while ((line = reader.readLine()) != null) {
+            lineNumber++;
+            if (line.startsWith("##FASTA")) {
+                break;
+            }
+            if (line.startsWith("##sequence-region")) {
+                String[] region = line.substring(17).trim().split("\\s+");
+                if (region.length == 3) {
+                    writer.setSegment(region[0], parseInt(region[1], lineNumber), parseInt(region[2], lineNumber));
+                }
+                continue;
+            }
+            if (line.length() == 0 || line.charAt(0) == '#') {
+                continue;
+            }
+            String[] fields = line.split("\t");
+            if (fields.length < 8) {
+                throw new DataSourceException("Line " + lineNumber + " has " + fields.length + " columns instead of 8 or 9: " + line);
+            }
+            DasType type = types.get(fields[2]);
+            if (type == null) {
+                type = new DasType(fields[2], null, null, fields[2]);
+                types.put(fields[2], type);
+            }
+            DasMethod method = methods.get(fields[1]);
+            if (method == null) {
+                method = new DasMethod(fields[1], fields[1], null);
+                methods.put(fields[1], method);
+            }
+            Double score = null;
+            if (!GffAttributes.isMissing(fields[5])) {
+                try {
+                    score = Double.valueOf(fields[5]);
+                } catch (NumberFormatException e) {
+                    throw new DataSourceException("Invalid score on line " + lineNumber + ": " + fields[5], e);
+                }
+            }
+            GffAttributes attributes = GffAttributes.parse((fields.length > 8) ? fields[8] : null);
+            String id = attributes.getId();
+            if (id == null || id.length() == 0) {
+                id = GENERATED_ID_PREFIX + lineNumber;
+            }
+            writer.add(fields[0], new DasFeature(id, attributes.getLabel(), type, method,
+                    parseInt(fields[3], lineNumber), parseInt(fields[4], lineNumber), score,
+                    GffAttributes.getOrientation(fields[6]), GffAttributes.getPhase(fields[7]),
+                    attributes.getNotes(), null, null, attributes.getParents(), null));
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Adds the genes, transcripts and exons of a pipes file to a store.
+     *
+     * @return the number of features added.
+     */
+    static long convertPipes(BufferedReader reader, FeatureStoreWriter writer) throws IOException, DataSourceException {
+        DasType geneType = new DasType("Gene", null, "SO:0000704", "Gene");
+        DasType transcriptType = new DasType("Transcript", null, "SO:0000673", "Transcript");
+        DasType exonType = new DasType("Exon", null, "SO:0000147", "Exon");
+        DasMethod method = new DasMethod("not_recorded", "not_recorded", "ECO:0000037");
+
+        Map<String, PipesFeature> genes = new LinkedHashMap<String, PipesFeature>();
+        Map<String, PipesFeature> transcripts = new LinkedHashMap<String, PipesFeature>();
+        Map<String, PipesFeature> exons = new LinkedHashMap<String, PipesFeature>();
+        long lineNumber = 0;
+        String line;
+        while ((line = reader.readLine()) != null) {
+            lineNumber++;
+            if (line.trim().length() == 0) {
+                continue;
+            }
+            String[] parts = line.split("\\|");
+            if (parts.length < 11) {
+                throw new DataSourceException("Line " + lineNumber + " doesn't have the right number of fields: " + line);
+            }
+            PipesFeature gene = get(genes, parts[2], parts[2], parts[1], parts[3], parts[4], null, lineNumber);
+            PipesFeature transcript = get(transcripts, parts[5], parts[5], parts[1], parts[6], parts[7], gene, lineNumber);
+            // As in the parser, an exon shared by several transcripts is a feature of each of them.
+            get(exons, parts[5] + '|' + parts[8], parts[8], parts[1], parts[9], parts[10], transcript, lineNumber);
+        }
+        long count = 0;
+        count += writePipes(writer, genes, geneType, method);
+        count += writePipes(writer, transcripts, transcriptType, method);
+        count += writePipes(writer, exons, exonType, method);
+        return count;
+    }
+
+    private static PipesFeature get(Map<String, PipesFeature> features, String key, String id, String segment,
+                                    String start, String stop, PipesFeature parent, long lineNumber) throws DataSourceException {
+        PipesFeature feature = features.get(key);
+        if (feature == null) {
+            feature = new PipesFeature(id, segment, parseInt(start, lineNumber), parseInt(stop, lineNumber), parent);
+            features.put(key, feature);
+            if (parent != null) {
+                parent.parts.add(id);
+            }
+        }
+        return feature;
+    }
+
+    private static long writePipes(FeatureStoreWriter writer, Map<String, PipesFeature> features, DasType type, DasMethod method)
+            throws IOException, DataSourceException {
+        for (PipesFeature feature : features.values()) {
+            List<String> parents = (feature.parent == null) ? null : Collections.singletonList(feature.parent.id);
+            writer.add(feature.segment, new DasFeature(feature.id, feature.id, type, method, feature.start, feature.stop,
+                    null, null, null, null, null, null, parents, feature.parts.isEmpty() ? null : feature.parts));
+        }
+        return features.size();
+    }
+
+    private static int parseInt(String value, long lineNumber) throws DataSourceException {
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            throw new DataSourceException("Invalid coordinate on line " + lineNumber + ": " + value, e);
+        }
+    }
+
+    /**
+     * A gene, transcript or exon of a pipes file.
+     */
+    private static final class PipesFeature {
+        private final String id;
+        private final String segment;
+        private final int start;
+        private final int stop;
+        private final PipesFeature parent;
+        private final List<String> parts = new ArrayList<String>();
+
+        private PipesFeature(String id, String segment, int start, int stop, PipesFeature parent) {
+            this.id = id;
+            this.segment = segment;
+            this.start = start;
+            this.stop = stop;
+            this.parent = parent;
+        }
+    }
+}
@@ -0,0 +1,811 @@
+/*
+ * Copyright 2007 Philip Jones, EMBL-European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *
+ * For further details of the mydas project, including source code,
+ * downloads and documentation, please see:
+ *
+ * http://code.google.com/p/mydas/
+ *
+ */
+
+
+package uk.ac.ebi.mydas.datasource;
+
+import org.apache.log4j.Logger;
+import uk.ac.ebi.mydas.model.DasFeature;
+import uk.ac.ebi.mydas.model.DasFeatureOrientation;
+import uk.ac.ebi.mydas.model.DasMethod;
+import uk.ac.ebi.mydas.model.DasPhase;
+import uk.ac.ebi.mydas.model.DasTarget;
+import uk.ac.ebi.mydas.model.DasType;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes a feature store file, to be served by {@link FeatureStoreAnnotationDataSource}.
+ * <p/>
+ * Features may be added in any order: they are encoded to a temporary file next to the store
+ * as they are added, and sorted by segment and start when the writer is closed.  Only 16 bytes
+ * per feature are held in memory while sorting, and at most 32 while the feature id index is
+ * built; features added already sorted are copied in a single sequential pass.
+ * <p/>
+ * The types and methods are stored once, in the dictionary of the file, and the features refer
+ * to them by index.  See {@link FeatureStore} for the layout of the file.
+ */
+public class FeatureStoreWriter {
+
+    private static final Logger LOGGER = Logger.getLogger(FeatureStoreWriter.class);
+
+    private static final int BUFFER_SIZE = 1024 * 1024;
+
+    private final File file;
+
+    private final File tempFile;
+
+    private DataOutputStream temp;
+
+    private long tempSize = 0;
+
+    private final Map<String, SegmentEntry> segments = new LinkedHashMap<String, SegmentEntry>();
+
+    private final Map<String, Integer> stringIndexes = new HashMap<String, Integer>();
+    private final List<String> strings = new ArrayList<String>();
+
+    private final Map<DasType, Integer> typeIndexes = new HashMap<DasType, Integer>();
+    private final List<DasType> types = new ArrayList<DasType>();
+    private long[] typeCounts = new long[16];
+
+    private final Map<List<String>, Integer> methodIndexes = new HashMap<List<String>, Integer>();
+    private final List<DasMethod> methods = new ArrayList<DasMethod>();
+
+    /**
+     * For each feature, its segment in the upper 32 bits and its start in the lower ones, so
+     * that sorting the keys sorts the features.  Replaced by the hash of the id once written.
+     */
+    private long[] keys = new long[1024];
+
+    /**
+     * For each feature, its offset in the temporary file.
+     */
+    private long[] offsets = new long[1024];
+
+    private int count = 0;
+
+    private final Encoder encoder = new Encoder();
+
+    /**
+     * Starts writing a feature store.
+     *
+     * @param file the file to write.  It is only replaced when the writer is closed.
+     * @throws IOException if the temporary file cannot be created.
+     */
+    public FeatureStoreWriter(File file) throws IOException {
+        this.file = file;
+        File directory = file.getAbsoluteFile().getParentFile();
+        this.tempFile = File.createTempFile(file.getName() + "-", ".tmp", directory);
+        this.temp = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile), BUFFER_SIZE));
+    }
+
+    /**
+     * Declares a segment, with its coordinates.  Segments without features are listed as entry
+     * points, and the coordinates of a segment are extended to its features if they go beyond.
+     * Without this call, a segment starts at 1 and ends with its last feature.
+     */
+    public void setSegment(String segmentId, int start, int stop) {
+        SegmentEntry segment = getSegment(segmentId);
+        segment.start = start;
+        segment.stop = stop;
+        segment.bounded = true;
+    }
+
+    /**
+     * Adds a feature.
+     *
+     * @param segmentId the segment the feature is on.
+     * @param feature   the feature.  Groups, and the subparts of DasComponentFeatures, are not
+     *                  stored; the parents and parts of the feature are.
+     * @throws IOException if the feature cannot be written to the temporary file.
+     */
+    public void add(String segmentId, DasFeature feature) throws IOException {
+        if (temp == null) {
+            throw new IllegalStateException("The feature store has been closed");
+        }
+        if (count == Integer.MAX_VALUE - 8) {
+            throw new IOException("Too many features for a single feature store");
+        }
+        SegmentEntry segment = getSegment(segmentId);
+        int start = feature.getStartCoordinate();
+        int end = feature.getStopCoordinate();
+
+        Encoder record = encoder;
+        record.reset();
+        record.writeVarInt(zigzag(start));
+        record.writeVarInt(zigzag(end - start));
+        encodeFeature(feature, record);
+
+        if (count == keys.length) {
+            keys = Arrays.copyOf(keys, keys.length * 2);
+            offsets = Arrays.copyOf(offsets, offsets.length * 2);
+        }
+        keys[count] = ((long) segment.ordinal << 32) | ((start ^ 0x80000000L) & 0xffffffffL);
+        offsets[count] = tempSize;
+        count++;
+        int lengthSize = writeVarInt(temp, record.length);
+        temp.write(record.bytes, 0, record.length);
+        tempSize += lengthSize + record.length;
+    }
+
+    /**
+     * Encodes everything but the coordinates of a feature, starting with its id.
+     */
+    private void encodeFeature(DasFeature feature, Encoder record) throws IOException {
+        String id = feature.getFeatureId();
+        record.writeString(id);
+        int type = getType(feature.getType());
+        typeCounts[type]++;
+        record.writeVarInt(type);
+        record.writeVarInt(getMethod(feature.getMethod()));
+
+        int flags = 0;
+        if (feature.getOrientation() == DasFeatureOrientation.ORIENTATION_SENSE_STRAND) {
+            flags |= 1;
+        } else if (feature.getOrientation() == DasFeatureOrientation.ORIENTATION_ANTISENSE_STRAND) {
+            flags |= 2;
+        }
+        if (feature.getPhase() == DasPhase.PHASE_READING_FRAME_0) {
+            flags |= 1 << FeatureStore.FLAG_PHASE_SHIFT;
+        } else if (feature.getPhase() == DasPhase.PHASE_READING_FRAME_1) {
+            flags |= 2 << FeatureStore.FLAG_PHASE_SHIFT;
+        } else if (feature.getPhase() == DasPhase.PHASE_READING_FRAME_2) {
+            flags |= 3 << FeatureStore.FLAG_PHASE_SHIFT;
+        }
+        String label = feature.getFeatureLabel();
+        Map<URL, String> links = feature.getLinks();
+        Collection<DasTarget> targets = feature.getTargets();
+        flags |= (feature.getScore() != null) ? FeatureStore.FLAG_SCORE : 0;
+        if (label != null) {
+            flags |= label.equals(id) ? FeatureStore.FLAG_LABEL_IS_ID : FeatureStore.FLAG_LABEL;
+        }
+        flags |= isEmpty(feature.getNotes()) ? 0 : FeatureStore.FLAG_NOTES;
+        flags |= (links == null || links.isEmpty()) ? 0 : FeatureStore.FLAG_LINKS;
+        flags |= isEmpty(targets) ? 0 : FeatureStore.FLAG_TARGETS;
+        flags |= isEmpty(feature.getParents()) ? 0 : FeatureStore.FLAG_PARENTS;
+        flags |= isEmpty(feature.getParts()) ? 0 : FeatureStore.FLAG_PARTS;
+        record.writeVarInt(flags);
+
+        if ((flags & FeatureStore.FLAG_SCORE) != 0) {
+            record.writeDouble(feature.getScore());
+        }
+        if ((flags & FeatureStore.FLAG_LABEL) != 0) {
+            record.writeString(label);
+        }
+        if ((flags & FeatureStore.FLAG_NOTES) != 0) {
+            record.writeStrings(feature.getNotes());
+        }
+        if ((flags & FeatureStore.FLAG_LINKS) != 0) {
+            record.writeVarInt(links.size());
+            for (Map.Entry<URL, String> link : links.entrySet()) {
+                record.writeString(link.getKey().toString());
+                record.writeString(link.getValue());
+            }
+        }
+        if ((flags & FeatureStore.FLAG_TARGETS) != 0) {
+            record.writeVarInt(targets.size());
+            for (DasTarget target : targets) {
+                record.writeString(target.getTargetId());
+                record.writeVarInt(zigzag(target.getStartCoordinate()));
+                record.writeVarInt(zigzag(target.getStopCoordinate()));
+                record.writeString(target.getTargetName());
+            }
+        }
+        if ((flags & FeatureStore.FLAG_PARENTS) != 0) {
+            record.writeStrings(feature.getParents());
+        }
+        if ((flags & FeatureStore.FLAG_PARTS) != 0) {
+            record.writeStrings(feature.getParts());
+        }
+    }
+
+    /**
+     * Sorts the features and writes the store.  The store is written to another temporary file
+     * next to it, then renamed over it, so that a store being served is not truncated and a
+     * failed write leaves the previous store in place.  The temporary files are deleted.
+     *
+     * @throws IOException if the store cannot be written.
+     */
+    public void close() throws IOException {
+        if (temp == null) {
+            return;
+        }
+        temp.close();
+        temp = null;
+        try {
+            sort(0, count - 1);
+            writeStore();
+        } finally {
+            if (!tempFile.delete()) {
+                LOGGER.warn("The temporary file " + tempFile + " could not be deleted");
+            }
+        }
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug("Wrote " + count + " features on " + segments.size() + " segments to " + file);
+        }
+    }
+
+    /**
+     * Gives up writing the store, e.g. after an error in the input, and deletes the temporary file.
+     */
+    public void discard() {
+        if (temp == null) {
+            return;
+        }
+        try {
+            temp.close();
+        } catch (IOException e) {
+            LOGGER.warn("Exception thrown when closing the temporary file " + tempFile, e);
+        }
+        temp = null;
+        if (!tempFile.delete()) {
+            LOGGER.warn("The temporary file " + tempFile + " could not be deleted");
+        }
+    }
+
+    private void writeStore() throws IOException {
+        File storeFile = File.createTempFile(file.getName() + "-new", ".tmp", file.getAbsoluteFile().getParentFile());
+        boolean replaced = false;
+        try {
+            writeStore(storeFile);
+            if ((file.exists() && !file.delete()) || !storeFile.renameTo(file)) {
+                throw new IOException("The feature store " + file + " cannot be replaced");
+            }
+            replaced = true;
+        } finally {
+            if (!replaced && !storeFile.delete()) {
+                LOGGER.warn("The temporary file " + storeFile + " could not be deleted");
+            }
+        }
+    }
+
+    private void writeStore(File storeFile) throws IOException {
+        CountingOutputStream counter = new CountingOutputStream(new BufferedOutputStream(new FileOutputStream(storeFile), BUFFER_SIZE));
+        DataOutputStream out = new DataOutputStream(counter);
+        FileInputStream tempIn = new FileInputStream(tempFile);
+        List<SegmentEntry> segmentList = new ArrayList<SegmentEntry>(segments.values());
+        BlockTable blocks = new BlockTable();
+        try {
+            out.write(new byte[FeatureStore.HEADER_SIZE]);
+            TempReader reader = new TempReader(tempIn.getChannel());
+            Encoder header = new Encoder();
+            SegmentEntry segment = null;
+            int prevStart = 0;
+            for (int i = 0; i < count; i++) {
+                ByteBuffer record = reader.read(offsets[i]);
+                int recordEnd = record.position() + reader.length;
+                int start = FeatureStore.unzigzag(FeatureStore.readVarInt(record));
+                int end = start + FeatureStore.unzigzag(FeatureStore.readVarInt(record));
+                int restPosition = record.position();
+                String id = FeatureStore.readString(record);
+
+                SegmentEntry featureSegment = segmentList.get((int) (keys[i] >>> 32));
+                if (featureSegment != segment || blocks.currentCount == FeatureStore.BLOCK_FEATURES) {
+                    blocks.finish(counter.count);
+                    if (featureSegment != segment) {
+                        segment = featureSegment;
+                        segment.firstBlock = blocks.size;
+                    }
+                }
+                if (blocks.currentCount == 0) {
+                    blocks.start(counter.count, start);
+                    prevStart = start;
+                }
+                header.reset();
+                header.writeVarInt(start - prevStart);
+                header.writeVarInt(zigzag(end - start));
+                writeVarInt(out, header.length + recordEnd - restPosition);
+                out.write(header.bytes, 0, header.length);
+                out.write(record.array(), record.arrayOffset() + restPosition, recordEnd - restPosition);
+                prevStart = start;
+                blocks.currentCount++;
+
+                segment.add(start, end, blocks.size - segment.firstBlock);
+                keys[i] = FeatureStore.hash(id);
+            }
+            blocks.finish(counter.count);
+            offsets = null;
+
+            long blockTableOffset = counter.count;
+            for (int b = 0; b < blocks.size; b++) {
+                out.writeLong(blocks.offsets[b]);
+                out.writeInt(blocks.sizes[b]);
+                out.writeInt(blocks.counts[b]);
+                out.writeInt(blocks.firstStarts[b]);
+            }
+
+            long dictionaryOffset = counter.count;
+            out.writeInt(strings.size());
+            for (String string : strings) {
+                out.writeUTF(string);
+            }
+            out.writeInt(types.size());
+            for (int t = 0; t < types.size(); t++) {
+                DasType type = types.get(t);
+                out.writeInt(getString(type.getId()));
+                out.writeInt(getString(type.getCategory()));
+                out.writeInt(getString(type.getCvId()));
+                out.writeInt(getString(type.getLabel()));
+                out.writeLong(typeCounts[t]);
+            }
+            out.writeInt(methods.size());
+            for (DasMethod method : methods) {
+                out.writeInt(getString(method.getId()));
+                out.writeInt(getString(method.getLabel()));
+                out.writeInt(getString(method.getCvId()));
+            }
+
+            long segmentTableOffset = counter.count;
+            out.writeInt(segmentList.size());
+            for (SegmentEntry entry : segmentList) {
+                int[] windows = entry.getWindows();
+                out.writeUTF(entry.name);
+                out.writeInt(entry.getStart());
+                out.writeInt(entry.getStop());
+                out.writeLong(entry.featureCount);
+                out.writeInt(entry.firstBlock);
+                out.writeInt((entry.featureCount == 0) ? 0 : entry.lastBlock + 1);
+                out.writeInt(windows.length);
+                for (int window : windows) {
+                    out.writeInt(window);
+                }
+            }
+
+            long idIndexOffset = counter.count;
+            long[] slots = buildIdIndex();
+            for (long slot : slots) {
+                out.writeLong(slot);
+            }
+            out.close();
+
+            ByteBuffer fileHeader = ByteBuffer.allocate(FeatureStore.HEADER_SIZE);
+            fileHeader.putInt(FeatureStore.MAGIC).putInt(FeatureStore.FORMAT_VERSION).putLong(count)
+                    .putInt(blocks.size).putInt(FeatureStore.WINDOW_SHIFT)
+                    .putLong(blockTableOffset).putLong(dictionaryOffset).putLong(segmentTableOffset)
+                    .putLong(idIndexOffset).putLong(slots.length);
+            RandomAccessFile store = new RandomAccessFile(storeFile, "rw");
+            try {
+                store.seek(0);
+                store.write(fileHeader.array());
+            } finally {
+                store.close();
+            }
+        } finally {
+            out.close();
+            tempIn.close();
+        }
+    }
+
+    /**
+     * Builds the open addressing table of the feature ids, from their hashes in keys.
+     */
+    private long[] buildIdIndex() {
+        if (count == 0) {
+            return new long[0];
+        }
+        // At most two thirds of the slots are used, so that looking up an unknown id stays short.
+        int slotCount = Integer.highestOneBit((int) Math.max(count * 3L / 2, 8)) * 2;
+        long[] slots = new long[slotCount];
+        for (int i = 0; i < count; i++) {
+            long hash = keys[i];
+            int slot = (int) (hash & (slotCount - 1));
+            while (slots[slot] != 0) {
+                slot = (slot + 1) & (slotCount - 1);
+            }
+            slots[slot] = ((hash >>> FeatureStore.ORDINAL_BITS) << FeatureStore.ORDINAL_BITS) | (i + 1L);
+        }
+        keys = null;
+        return slots;
+    }
+
+    private SegmentEntry getSegment(String segmentId) {
+        SegmentEntry segment = segments.get(segmentId);
+        if (segment == null) {
+            segment = new SegmentEntry(segmentId, segments.size());
+            segments.put(segmentId, segment);
+        }
+        return segment;
+    }
+
+    private int getType(DasType type) {
+        Integer index = typeIndexes.get(type);
+        if (index == null) {
+            index = types.size();
+            typeIndexes.put(type, index);
+            types.add(type);
+            if (index == typeCounts.length) {
+                typeCounts = Arrays.copyOf(typeCounts, typeCounts.length * 2);
+            }
+            getString(type.getId());
+            getString(type.getCategory());
+            getString(type.getCvId());
+            getString(type.getLabel());
+        }
+        return index;
+    }
+
+    private int getMethod(DasMethod method) {
+        List<String> key = Arrays.asList(method.getId(), method.getLabel(), method.getCvId());
+        Integer index = methodIndexes.get(key);
+        if (index == null) {
+            index = methods.size();
+            methodIndexes.put(key, index);
+            methods.add(method);
+            getString(method.getId());
+            getString(method.getLabel());
+            getString(method.getCvId());
+        }
+        return index;
+    }
+
+    private int getString(String string) {
+        if (string == null) {
+            return -1;
+        }
+        Integer index = stringIndexes.get(string);
+        if (index == null) {
+            index = strings.size();
+            stringIndexes.put(string, index);
+            strings.add(string);
+        }
+        return index;
+    }
+
+    /**
+     * Sorts the keys, and the offsets with them, by key then offset, so that features with
+     * the same start stay in the order they were added.
+     */
+    private void sort(int low, int high) {
+        while (high - low > 16) {
+            int middle = (low + high) >>> 1;
+            if (compare(middle, low) < 0) {
+                swap(middle, low);
+            }
+            if (compare(high, low) < 0) {
+                swap(high, low);
+            }
+            if (compare(high, middle) < 0) {
+                swap(high, middle);
+            }
+            long pivotKey = keys[middle];
+            long pivotOffset = offsets[middle];
+            int i = low;
+            int j = high;
+            while (i <= j) {
+                while (compare(keys[i], offsets[i], pivotKey, pivotOffset) < 0) {
+                    i++;
+                }
+                while (compare(keys[j], offsets[j], pivotKey, pivotOffset) > 0) {
+                    j--;
+                }
+                if (i <= j) {
+                    swap(i++, j--);
+                }
+            }
+            // Recurse into the smaller part, loop on the larger one.
+            if (j - low < high - i) {
+                sort(low, j);
+                low = i;
+            } else {
+                sort(i, high);
+                high = j;
+            }
+        }
+        for (int i = low + 1; i <= high; i++) {
+            for (int j = i; j > low && compare(j, j - 1) < 0; j--) {
+                swap(j, j - 1);
+            }
+        }
+    }
+
+    private int compare(int i, int j) {
+        return compare(keys[i], offsets[i], keys[j], offsets[j]);
+    }
+
+    private static int compare(long key1, long offset1, long key2, long offset2) {
+        if (key1 != key2) {
+            return (key1 < key2) ? -1 : 1;
+        }
+        return (offset1 < offset2) ? -1 : ((offset1 == offset2) ? 0 : 1);
+    }
+
+    private void swap(int i, int j) {
+        long key = keys[i];
+        keys[i] = keys[j];
+        keys[j] = key;
+        long offset = offsets[i];
+        offsets[i] = offsets[j];
+        offsets[j] = offset;
+    }
+
+    private static boolean isEmpty(Collection<?> collection) {
+        return collection == null || collection.isEmpty();
+    }
+
+    static int zigzag(int value) {
+        return (value << 1) ^ (value >> 31);
+    }
+
+    /**
+     * @return the number of bytes written.
+     */
+    private static int writeVarInt(OutputStream out, int value) throws IOException {
+        int size = 1;
+        while ((value & ~0x7f) != 0) {
+            out.write((value & 0x7f) | 0x80);
+            value >>>= 7;
+            size++;
+        }
+        out.write(value);
+        return size;
+    }
+
+    /**
+     * A segment being written.
+     */
+    private static final class SegmentEntry {
+        private final String name;
+        private final int ordinal;
+        private boolean bounded = false;
+        private int start;
+        private int stop;
+        private long featureCount = 0;
+        private int minStart = Integer.MAX_VALUE;
+        private int maxEnd = Integer.MIN_VALUE;
+        private int firstBlock = 0;
+        private int lastBlock = 0;
+        private int[] windows = new int[0];
+
+        private SegmentEntry(String name, int ordinal) {
+            this.name = name;
+            this.ordinal = ordinal;
+        }
+
+        /**
+         * Records a feature, in the block given relative to the first block of the segment.
+         */
+        private void add(int start, int end, int block) {
+            featureCount++;
+            lastBlock = block;
+            minStart = Math.min(minStart, start);
+            end = Math.max(end, start);
+            maxEnd = Math.max(maxEnd, end);
+            int last = Math.max(end, 0) >> FeatureStore.WINDOW_SHIFT;
+            if (last >= windows.length) {
+                int previousLength = windows.length;
+                windows = Arrays.copyOf(windows, Math.max(last + 1, previousLength * 2));
+                Arrays.fill(windows, previousLength, windows.length, -1);
+            }
+            for (int w = Math.max(start, 0) >> FeatureStore.WINDOW_SHIFT; w <= last; w++) {
+                if (windows[w] < 0) {
+                    windows[w] = block;
+                }
+            }
+        }
+
+        /**
+         * @return the linear index, each window without features pointing to the next one with features.
+         */
+        private int[] getWindows() {
+            if (featureCount == 0) {
+                return new int[0];
+            }
+            int[] filled = Arrays.copyOf(windows, (Math.max(maxEnd, 0) >> FeatureStore.WINDOW_SHIFT) + 1);
+            for (int w = filled.length - 2; w >= 0; w--) {
+                if (filled[w] < 0) {
+                    filled[w] = filled[w + 1];
+                }
+            }
+            return filled;
+        }
+
+        private int getStart() {
+            int first = bounded ? start : 1;
+            return (featureCount == 0) ? first : Math.min(first, minStart);
+        }
+
+        private int getStop() {
+            int last = bounded ? stop : getStart();
+            return (featureCount == 0) ? last : Math.max(last, maxEnd);
+        }
+    }
+
+    /**
+     * The blocks written so far.
+     */
+    private static final class BlockTable {
+        private int size = 0;
+        private long[] offsets = new long[64];
+        private int[] sizes = new int[64];
+        private int[] counts = new int[64];
+        private int[] firstStarts = new int[64];
+        private int currentCount = 0;
+
+        private void start(long offset, int firstStart) {
+            if (size == offsets.length) {
+                offsets = Arrays.copyOf(offsets, size * 2);
+                sizes = Arrays.copyOf(sizes, size * 2);
+                counts = Arrays.copyOf(counts, size * 2);
+                firstStarts = Arrays.copyOf(firstStarts, size * 2);
+            }
+            offsets[size] = offset;
+            firstStarts[size] = firstStart;
+        }
+
+        /**
+         * Ends the current block, if any.
+         */
+        private void finish(long offset) {
+            if (currentCount > 0) {
+                sizes[size] = (int) (offset - offsets[size]);
+                counts[size] = currentCount;
+                size++;
+                currentCount = 0;
+            }
+        }
+    }
+
+    /**
+     * Reads the records of the temporary file through a window, so that features added in order
+     * are read sequentially.
+     */
+    private static final class TempReader {
+        private final FileChannel channel;
+        private ByteBuffer window = ByteBuffer.allocate(BUFFER_SIZE);
+        private long windowStart = 0;
+        private int windowLength = 0;
+        private int length;
+
+        private TempReader(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        /**
+         * @return the window, positioned after the length of the record, whose length is set in {@link #length}.
+         */
+        private ByteBuffer read(long offset) throws IOException {
+            ensure(offset, 5);
+            length = FeatureStore.readVarInt(window);
+            int lengthSize = (int) (window.position() - (offset - windowStart));
+            ensure(offset, lengthSize + length);
+            window.position((int) (offset - windowStart) + lengthSize);
+            return window;
+        }
+
+        private void ensure(long offset, int size) throws IOException {
+            if (offset < windowStart || offset + size > windowStart + windowLength) {
+                if (size > window.capacity()) {
+                    window = ByteBuffer.allocate(size);
+                }
+                window.clear();
+                while (window.hasRemaining()) {
+                    if (channel.read(window, offset + window.position()) < 0) {
+                        break;
+                    }
+                }
+                windowStart = offset;
+                windowLength = window.position();
+                window.limit(windowLength);
+            }
+            window.position((int) (offset - windowStart));
+        }
+    }
+
+    /**
+     * Counts the bytes written, as offsets in the store.
+     */
+    private static final class CountingOutputStream extends FilterOutputStream {
+        private long count = 0;
+
+        private CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+
+    /**
+     * Growable buffer a feature is encoded into.
+     */
+    private static final class Encoder {
+        private byte[] bytes = new byte[256];
+        private int length = 0;
+
+        private void reset() {
+            length = 0;
+        }
+
+        private void ensure(int size) {
+            if (length + size > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, length + size));
+            }
+        }
+
+        private void writeVarInt(int value) {
+            ensure(5);
+            while ((value & ~0x7f) != 0) {
+                bytes[length++] = (byte) ((value & 0x7f) | 0x80);
+                value >>>= 7;
+            }
+            bytes[length++] = (byte) value;
+        }
+
+        private void writeDouble(double value) {
+            ensure(8);
+            long bits = Double.doubleToLongBits(value);
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                bytes[length++] = (byte) (bits >>> shift);
+            }
+        }
+
+        /**
+         * Writes a string as its length in bytes plus one, 0 for null, then its UTF-8 bytes.
+         */
+        private void writeString(String value) {
+            if (value == null) {
+                writeVarInt(0);
+                return;
+            }
+            byte[] encoded = value.getBytes(FeatureStore.UTF_8);
+            writeVarInt(encoded.length + 1);
+            ensure(encoded.length);
+            System.arraycopy(encoded, 0, bytes, length, encoded.length);
+            length += encoded.length;
+        }
+
+        private void writeStrings(Collection<String> values) {
+            writeVarInt(values.size());
+            for (String value : values) {
+                writeString(value);
+            }
+        }
+    }
+}
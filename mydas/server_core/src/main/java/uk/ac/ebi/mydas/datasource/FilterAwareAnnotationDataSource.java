@@ -0,0 +1,75 @@
+/*
+ * Copyright 2007 Philip Jones, EMBL-European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *
+ * For further details of the mydas project, including source code,
+ * downloads and documentation, please see:
+ *
+ * http://code.google.com/p/mydas/
+ *
+ */
+
+
+package uk.ac.ebi.mydas.datasource;
+
+import uk.ac.ebi.mydas.exceptions.BadReferenceObjectException;
+import uk.ac.ebi.mydas.exceptions.CoordinateErrorException;
+import uk.ac.ebi.mydas.exceptions.DataSourceException;
+import uk.ac.ebi.mydas.exceptions.UnimplementedFeatureException;
+import uk.ac.ebi.mydas.model.DasAnnotatedSegment;
+import uk.ac.ebi.mydas.model.Range;
+
+/**
+ * If you implement this interface, the features command will pass the type, category and
+ * feature_id restrictions of the request to your data source, so that only the matching features
+ * are fetched (e.g. in the WHERE clause of an SQL query), rather than all the features of the
+ * segment being fetched and then filtered by the servlet.
+ * <p/>
+ * It is used for the requests on segments that have such restrictions or a rows range; the other
+ * requests go through the getFeatures methods of {@link AnnotationDataSource} (or
+ * {@link RangeHandlingAnnotationDataSource}), which therefore must be implemented as well.
+ * The servlet still checks each feature returned against the filter.
+ */
+public interface FilterAwareAnnotationDataSource extends AnnotationDataSource {
+
+    /**
+     * Returns the features of the segment that pass the filter, restricted to a range of coordinates and
+     * to a range of rows if requested.
+     * <p/>
+     * The rows are counted among the features passing the filter, and the total number of these features
+     * must be set on the returned segment (see {@link DasAnnotatedSegment#setTotalFeatures(Integer)}),
+     * so that the following segments of the request are paginated correctly.
+     *
+     * @param segmentId being the reference of the segment requested in the DAS request (not including
+     *                  start and stop coordinates)
+     * @param start     being the requested start coordinate, or null if the whole segment is requested.
+     * @param stop      being the requested stop coordinate, or null if the whole segment is requested.
+     * @param maxbins   the maximum number of bins the client is able to draw, or null.
+     * @param filter    the restrictions of the request, never null.
+     * @param rows      the range of the features passing the filter to return, numbered from 1, or null
+     *                  to return all of them.
+     * @return A DasAnnotatedSegment object holding the features that pass the filter.
+     * @throws BadReferenceObjectException should be thrown if the segment requested does not
+     *                                     exist in this data source.
+     * @throws CoordinateErrorException    should be thrown if the requested coordinates
+     *                                     fall outside the bounds of the requested segment.
+     * @throws DataSourceException         to wrap any other types of exception that may be
+     *                                     generated by your data source, such as SQLExceptions or IOExceptions.
+     * @throws UnimplementedFeatureException if this request cannot be filtered by the data source, in which case
+     *                                     the servlet falls back on the other getFeatures methods.
+     */
+    public DasAnnotatedSegment getFeatures(String segmentId, Integer start, Integer stop, Integer maxbins, FeatureFilter filter, Range rows)
+            throws BadReferenceObjectException, CoordinateErrorException, DataSourceException, UnimplementedFeatureException;
+}
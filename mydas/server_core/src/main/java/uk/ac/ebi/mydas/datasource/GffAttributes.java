@@ -0,0 +1,185 @@
+/*
+ * Copyright 2007 Philip Jones, EMBL-European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *
+ * For further details of the mydas project, including source code,
+ * downloads and documentation, please see:
+ *
+ * http://code.google.com/p/mydas/
+ *
+ */
+
+
+package uk.ac.ebi.mydas.datasource;
+
+import uk.ac.ebi.mydas.model.DasFeatureOrientation;
+import uk.ac.ebi.mydas.model.DasPhase;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The attributes column of a GFF line, as read by the file based data sources.
+ * <p/>
+ * Both the GFF3 (<code>key=value;key=value</code>) and the GFF2 / GTF
+ * (<code>key "value"; key value</code>) syntaxes are read.  The ID, Name and Parent
+ * attributes give the id, label and parents of the feature, the other ones are kept
+ * as <code>key=value</code> notes.
+ */
+final class GffAttributes {
+
+    private String id;
+
+    private String label;
+
+    private List<String> parents;
+
+    private List<String> notes;
+
+    private GffAttributes() {
+    }
+
+    /**
+     * Parses the attributes column.
+     *
+     * @param column the column, may be null.
+     * @return the attributes, empty if the column is null or missing.
+     */
+    static GffAttributes parse(String column) {
+        GffAttributes attributes = new GffAttributes();
+        if (column == null || isMissing(column)) {
+            return attributes;
+        }
+        for (String attribute : column.split(";")) {
+            attribute = attribute.trim();
+            if (attribute.length() == 0) {
+                continue;
+            }
+            int separator = attribute.indexOf('=');
+            if (separator < 0) {
+                separator = attribute.indexOf(' ');
+            }
+            String key = (separator < 0) ? attribute : attribute.substring(0, separator).trim();
+            String value = (separator < 0) ? "" : unescape(unquote(attribute.substring(separator + 1).trim()));
+            if (key.equals("ID")) {
+                attributes.id = value;
+            } else if (key.equals("Name")) {
+                attributes.label = value;
+            } else if (key.equals("Parent")) {
+                if (attributes.parents == null) {
+                    attributes.parents = new ArrayList<String>();
+                }
+                for (String parent : value.split(",")) {
+                    attributes.parents.add(parent);
+                }
+            } else {
+                if (attributes.notes == null) {
+                    attributes.notes = new ArrayList<String>();
+                }
+                attributes.notes.add(key + "=" + value);
+            }
+        }
+        return attributes;
+    }
+
+    /**
+     * @return the ID attribute, or null.
+     */
+    String getId() {
+        return id;
+    }
+
+    /**
+     * @return the Name attribute, or null.
+     */
+    String getLabel() {
+        return label;
+    }
+
+    /**
+     * @return the ids of the Parent attribute, or null.
+     */
+    List<String> getParents() {
+        return parents;
+    }
+
+    /**
+     * @return the other attributes, or null.
+     */
+    List<String> getNotes() {
+        return notes;
+    }
+
+    static DasFeatureOrientation getOrientation(String strand) {
+        if (strand.equals("+")) {
+            return DasFeatureOrientation.ORIENTATION_SENSE_STRAND;
+        }
+        if (strand.equals("-")) {
+            return DasFeatureOrientation.ORIENTATION_ANTISENSE_STRAND;
+        }
+        return DasFeatureOrientation.ORIENTATION_NOT_APPLICABLE;
+    }
+
+    static DasPhase getPhase(String phase) {
+        if (phase.equals("0")) {
+            return DasPhase.PHASE_READING_FRAME_0;
+        }
+        if (phase.equals("1")) {
+            return DasPhase.PHASE_READING_FRAME_1;
+        }
+        if (phase.equals("2")) {
+            return DasPhase.PHASE_READING_FRAME_2;
+        }
+        return DasPhase.PHASE_NOT_APPLICABLE;
+    }
+
+    /**
+     * @return true if a column is empty or holds the '.' placeholder.
+     */
+    static boolean isMissing(String field) {
+        return field.length() == 0 || field.equals(".");
+    }
+
+    private static String unquote(String value) {
+        if (value.length() >= 2 && value.charAt(0) == '"' && value.charAt(value.length() - 1) == '"') {
+            return value.substring(1, value.length() - 1);
+        }
+        return value;
+    }
+
+    /**
+     * Decodes the %XX escapes of GFF3 attribute values.
+     */
+    private static String unescape(String value) {
+        if (value.indexOf('%') < 0) {
+            return value;
+        }
+        StringBuilder unescaped = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '%' && i + 2 < value.length()) {
+                try {
+                    unescaped.append((char) Integer.parseInt(value.substring(i + 1, i + 3), 16));
+                    i += 2;
+                    continue;
+                } catch (NumberFormatException e) {
+                    // Not an escape, kept as it is.
+                }
+            }
+            unescaped.append(c);
+        }
+        return unescaped.toString();
+    }
+}
@@ -0,0 +1,788 @@
+/*
+ * Copyright 2007 Philip Jones, EMBL-European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *
+ * For further details of the mydas project, including source code,
+ * downloads and documentation, please see:
+ *
+ * http://code.google.com/p/mydas/
+ *
+ */
+
+
+package uk.ac.ebi.mydas.datasource;
+
+import org.apache.log4j.Logger;
+import uk.ac.ebi.mydas.configuration.DataSourceConfiguration;
+import uk.ac.ebi.mydas.configuration.PropertyType;
+import uk.ac.ebi.mydas.exceptions.BadReferenceObjectException;
+import uk.ac.ebi.mydas.exceptions.CoordinateErrorException;
+import uk.ac.ebi.mydas.exceptions.DataSourceException;
+import uk.ac.ebi.mydas.exceptions.UnimplementedFeatureException;
+import uk.ac.ebi.mydas.extendedmodel.DasUnknownFeatureSegment;
+import uk.ac.ebi.mydas.model.DasAnnotatedSegment;
+import uk.ac.ebi.mydas.model.DasEntryPoint;
+import uk.ac.ebi.mydas.model.DasFeature;
+import uk.ac.ebi.mydas.model.DasRestrictedAnnotatedSegment;
+import uk.ac.ebi.mydas.model.DasRestrictedSequence;
+import uk.ac.ebi.mydas.model.DasSequence;
+import uk.ac.ebi.mydas.model.DasType;
+import uk.ac.ebi.mydas.model.PackedDasSequence;
+import uk.ac.ebi.mydas.model.Range;
+import uk.ac.ebi.mydas.model.StreamableSequence;
+
+import javax.servlet.ServletContext;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reference data source serving the sequences of a FASTA file, such as a whole genome,
+ * without loading them in memory.
+ * <p/>
+ * The file is read through a samtools-compatible <code>.fai</code> index giving, for each
+ * sequence, its length, the offset of its first base and the number of bases and bytes per line.
+ * The index is built, and saved next to the FASTA file, the first time the data source is
+ * initialised without one (or with one older than the FASTA file); from then on the data source
+ * starts in constant time. The sequences are memory-mapped when first requested and the bytes
+ * of a requested range are located by skipping the line breaks, so only the requested bases are
+ * read from the file and the sequence is written out to the client from the mapped file.
+ * <p/>
+ * The data source is configured with the following properties in MydasServerConfig.xml:
+ * <ul>
+ * <li><b>fasta_file</b>: the FASTA file, either an absolute path or a path in the web
+ * application.</li>
+ * <li><b>fasta_index_file</b>: optional, the index. Defaults to the FASTA file with the
+ * .fai extension appended.</li>
+ * <li><b>fasta_version</b>: optional, the version of the sequences. Defaults to the name of
+ * the FASTA file.</li>
+ * <li><b>fasta_in_memory</b>: optional, false by default. If true, each sequence is read from
+ * the mapped file once, when first requested, and then kept in memory as a
+ * {@link PackedDasSequence}, at 2 bits per base rather than the byte per base the mapped file
+ * takes in the page cache.  Sequences that do not pack (e.g. proteins) are kept as Strings.</li>
+ * </ul>
+ * As in samtools, all the lines of a sequence must have the same length, except the last
+ * one, and sequences are identified by the first word of their header. The data source
+ * serves no features, it is meant to be the reference server of annotation data sources.
+ */
+public class IndexedFastaReferenceDataSource implements RangeHandlingReferenceDataSource {
+
+    private static final Logger LOGGER = Logger.getLogger(IndexedFastaReferenceDataSource.class);
+
+    public static final String FASTA_FILE_PROPERTY = "fasta_file";
+    public static final String INDEX_FILE_PROPERTY = "fasta_index_file";
+    public static final String VERSION_PROPERTY = "fasta_version";
+    public static final String IN_MEMORY_PROPERTY = "fasta_in_memory";
+
+    static final String INDEX_SUFFIX = ".fai";
+
+    /**
+     * Small sequences (e.g. unplaced scaffolds) are mapped together with the ones following
+     * them in the file, in regions of at least this size, rather than in one mapping each.
+     */
+    private static final long MIN_REGION_SIZE = 64L * 1024L * 1024L;
+
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+    private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+
+    private RandomAccessFile fastaFile;
+
+    private FileChannel channel;
+
+    private long fileSize;
+
+    private String version;
+
+    private boolean inMemory;
+
+    /**
+     * The sequences, in the order of the index.
+     */
+    private List<FastaIndexEntry> entries;
+
+    private Map<String, FastaIndexEntry> entriesByName;
+
+    public void init(ServletContext servletContext, Map<String, PropertyType> globalParameters, DataSourceConfiguration dataSourceConfig)
+            throws DataSourceException {
+        Map<String, PropertyType> properties = dataSourceConfig.getDataSourceProperties();
+        String fastaPath = DataSourceProperties.getProperty(properties, FASTA_FILE_PROPERTY);
+        if (fastaPath == null) {
+            throw new DataSourceException("The property " + FASTA_FILE_PROPERTY + " is missing from the configuration of "
+                    + dataSourceConfig.getName());
+        }
+        File fasta = DataSourceProperties.getFile(servletContext, fastaPath);
+        String indexPath = DataSourceProperties.getProperty(properties, INDEX_FILE_PROPERTY);
+        File index = (indexPath == null)
+                ? new File(fasta.getPath() + INDEX_SUFFIX)
+                : DataSourceProperties.getFile(servletContext, indexPath);
+        String versionProperty = DataSourceProperties.getProperty(properties, VERSION_PROPERTY);
+        version = (versionProperty == null) ? fasta.getName() : versionProperty;
+        inMemory = Boolean.parseBoolean(DataSourceProperties.getProperty(properties, IN_MEMORY_PROPERTY));
+
+        try {
+            fastaFile = new RandomAccessFile(fasta, "r");
+        } catch (FileNotFoundException e) {
+            throw new DataSourceException("The FASTA file " + fasta + " cannot be opened", e);
+        }
+        try {
+            channel = fastaFile.getChannel();
+            fileSize = channel.size();
+            List<FastaIndexEntry> indexEntries;
+            if (index.isFile() && index.lastModified() >= fasta.lastModified()) {
+                indexEntries = readIndex(index);
+            } else {
+                LOGGER.info("Indexing the FASTA file " + fasta);
+                indexEntries = buildIndex(fasta);
+                writeIndex(index, indexEntries);
+            }
+            setEntries(indexEntries, index);
+        } catch (IOException e) {
+            destroy();
+            throw new DataSourceException("The FASTA file " + fasta + " cannot be indexed", e);
+        } catch (DataSourceException e) {
+            destroy();
+            throw e;
+        }
+    }
+
+    /**
+     * Closes the FASTA file.  The sequences already mapped in memory are released by the
+     * garbage collector once they are no longer referenced.
+     */
+    public void destroy() {
+        synchronized (this) {
+            channel = null;
+        }
+        if (fastaFile != null) {
+            try {
+                fastaFile.close();
+            } catch (IOException e) {
+                LOGGER.error("Exception thrown when closing the FASTA file", e);
+            }
+            fastaFile = null;
+        }
+    }
+
+    public DasSequence getSequence(String segmentId) throws BadReferenceObjectException, DataSourceException {
+        FastaIndexEntry entry = getEntry(segmentId);
+        if (inMemory) {
+            return getLoadedSequence(entry);
+        }
+        return new MappedSequence(segmentId, version, getView(entry, 0, entry.length));
+    }
+
+    public DasRestrictedSequence getSequence(String segmentId, int start, int stop)
+            throws CoordinateErrorException, BadReferenceObjectException, DataSourceException {
+        FastaIndexEntry entry = getEntry(segmentId);
+        int end = checkCoordinates(entry, start, stop);
+        if (inMemory) {
+            return new MappedRestrictedSequence(segmentId, start, version, getLoadedSequence(entry).getRestrictedSequence(start, end));
+        }
+        return new MappedRestrictedSequence(segmentId, start, version, getView(entry, start - 1, end - start + 1));
+    }
+
+    public DasAnnotatedSegment getFeatures(String segmentId, Integer maxbins) throws BadReferenceObjectException, DataSourceException {
+        FastaIndexEntry entry = getEntry(segmentId);
+        return new DasAnnotatedSegment(segmentId, 1, entry.length, version, null, new ArrayList<DasFeature>());
+    }
+
+    public DasAnnotatedSegment getFeatures(String segmentId, Integer maxbins, Range rows)
+            throws BadReferenceObjectException, DataSourceException, UnimplementedFeatureException {
+        return getFeatures(segmentId, maxbins);
+    }
+
+    public DasRestrictedAnnotatedSegment getFeatures(String segmentId, int start, int stop, Integer maxbins)
+            throws CoordinateErrorException, BadReferenceObjectException, DataSourceException {
+        FastaIndexEntry entry = getEntry(segmentId);
+        int end = checkCoordinates(entry, start, stop);
+        return new DasRestrictedAnnotatedSegment(segmentId, start, end, version, null, new ArrayList<DasFeature>());
+    }
+
+    public DasRestrictedAnnotatedSegment getFeatures(String segmentId, int start, int stop, Integer maxbins, Range rows)
+            throws CoordinateErrorException, BadReferenceObjectException, DataSourceException, UnimplementedFeatureException {
+        return getFeatures(segmentId, start, stop, maxbins);
+    }
+
+    public Collection<DasAnnotatedSegment> getFeatures(Collection<String> featureIdCollection, Integer maxbins)
+            throws UnimplementedFeatureException, DataSourceException {
+        Collection<DasAnnotatedSegment> segments = new ArrayList<DasAnnotatedSegment>();
+        for (String featureId : featureIdCollection) {
+            segments.add(new DasUnknownFeatureSegment(featureId));
+        }
+        return segments;
+    }
+
+    public Collection<DasAnnotatedSegment> getFeatures(Collection<String> featureIdCollection, Integer maxbins, Range rows)
+            throws UnimplementedFeatureException, DataSourceException {
+        return getFeatures(featureIdCollection, maxbins);
+    }
+
+    public Collection<DasType> getTypes() throws DataSourceException {
+        return new ArrayList<DasType>();
+    }
+
+    public Integer getTotalCountForType(DasType type) throws DataSourceException {
+        return 0;
+    }
+
+    public URL getLinkURL(String field, String id) throws UnimplementedFeatureException, DataSourceException {
+        throw new UnimplementedFeatureException("No links are provided by this data source");
+    }
+
+    public Collection<DasEntryPoint> getEntryPoints(Integer start, Integer stop) throws UnimplementedFeatureException, DataSourceException {
+        int first = (start == null) ? 1 : Math.max(start, 1);
+        int last = (stop == null) ? entries.size() : Math.min(stop, entries.size());
+        List<DasEntryPoint> entryPoints = new ArrayList<DasEntryPoint>(Math.max(last - first + 1, 0));
+        for (int i = first; i <= last; i++) {
+            FastaIndexEntry entry = entries.get(i - 1);
+            entryPoints.add(new DasEntryPoint(entry.name, 1, entry.length, null, version, null, null, false));
+        }
+        return entryPoints;
+    }
+
+    public String getEntryPointVersion() throws UnimplementedFeatureException, DataSourceException {
+        return version;
+    }
+
+    public int getTotalEntryPoints() throws UnimplementedFeatureException, DataSourceException {
+        return entries.size();
+    }
+
+    private FastaIndexEntry getEntry(String segmentId) throws BadReferenceObjectException {
+        FastaIndexEntry entry = entriesByName.get(segmentId);
+        if (entry == null) {
+            throw new BadReferenceObjectException(segmentId, "The sequence is not in the FASTA file");
+        }
+        return entry;
+    }
+
+    /**
+     * Checks the requested coordinates against the sequence.  As for the other data sources,
+     * a stop beyond the end of the sequence is not an error.
+     *
+     * @return the stop coordinate, within the sequence.
+     */
+    private static int checkCoordinates(FastaIndexEntry entry, int start, int stop) throws CoordinateErrorException {
+        if (start < 1 || start > entry.length || start > stop) {
+            throw new CoordinateErrorException(entry.name, start, stop);
+        }
+        return Math.min(stop, entry.length);
+    }
+
+    /**
+     * Returns a view of part of a sequence, mapping the sequence in memory if it has not been yet.
+     */
+    private MappedSequenceView getView(FastaIndexEntry entry, int from, int length) throws DataSourceException {
+        MappedRegion region = entry.region;
+        if (region == null) {
+            region = map(entry);
+        }
+        return new MappedSequenceView(region.buffer, (int) (entry.offset - region.start),
+                entry.lineBases, entry.lineWidth, from, length);
+    }
+
+    /**
+     * Returns the sequence held in memory, reading it from the file the first time.
+     */
+    private DasSequence getLoadedSequence(FastaIndexEntry entry) throws DataSourceException {
+        DasSequence loaded = entry.loaded;
+        if (loaded == null) {
+            synchronized (entry) {
+                loaded = entry.loaded;
+                if (loaded == null) {
+                    loaded = PackedDasSequence.create(entry.name, getView(entry, 0, entry.length), 1, version, null, DasSequence.TYPE_DNA);
+                    entry.loaded = loaded;
+                }
+            }
+        }
+        return loaded;
+    }
+
+    /**
+     * Maps the region of the file holding the given sequence.  The region is at least
+     * MIN_REGION_SIZE long, and is shared with the following sequences lying within it.
+     */
+    private synchronized MappedRegion map(FastaIndexEntry entry) throws DataSourceException {
+        if (entry.region != null) {
+            return entry.region;
+        }
+        if (channel == null) {
+            throw new DataSourceException("The FASTA file has been closed, " + entry.name + " cannot be read");
+        }
+        long size = Math.max(entry.getSpan(), Math.min(MIN_REGION_SIZE, fileSize - entry.offset));
+        if (size > Integer.MAX_VALUE) {
+            throw new DataSourceException("The sequence " + entry.name + " is too long to be mapped in memory");
+        }
+        MappedRegion region;
+        try {
+            region = new MappedRegion(channel.map(FileChannel.MapMode.READ_ONLY, entry.offset, size), entry.offset);
+        } catch (IOException e) {
+            throw new DataSourceException("The sequence " + entry.name + " cannot be mapped in memory", e);
+        }
+        for (int i = entry.position; i < entries.size(); i++) {
+            FastaIndexEntry next = entries.get(i);
+            if (next.offset < region.start || next.offset + next.getSpan() > region.start + size) {
+                break;
+            }
+            if (next.region == null) {
+                next.region = region;
+            }
+        }
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug("Mapped " + size + " bytes of the FASTA file from " + entry.name);
+        }
+        return region;
+    }
+
+    private void setEntries(List<FastaIndexEntry> indexEntries, File index) throws DataSourceException {
+        entries = new ArrayList<FastaIndexEntry>(indexEntries.size());
+        entriesByName = new HashMap<String, FastaIndexEntry>(indexEntries.size() * 2);
+        for (FastaIndexEntry entry : indexEntries) {
+            if (entry.length == 0) {
+                LOGGER.warn("The sequence " + entry.name + " is empty, it will not be served");
+                continue;
+            }
+            if (entry.offset + entry.getSpan() > fileSize) {
+                throw new DataSourceException("The index " + index + " does not match the FASTA file, delete it to have it built again");
+            }
+            entry.position = entries.size();
+            entries.add(entry);
+            entriesByName.put(entry.name, entry);
+        }
+    }
+
+    /**
+     * Reads a .fai index: one line per sequence with its name, length, offset, bases per line
+     * and bytes per line, separated by tabs.
+     */
+    static List<FastaIndexEntry> readIndex(File index) throws IOException, DataSourceException {
+        List<FastaIndexEntry> indexEntries = new ArrayList<FastaIndexEntry>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(index), ISO_8859_1));
+        try {
+            String line;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                if (line.length() == 0) {
+                    continue;
+                }
+                String[] fields = line.split("\t");
+                try {
+                    if (fields.length < 5) {
+                        throw new NumberFormatException("5 fields expected");
+                    }
+                    indexEntries.add(new FastaIndexEntry(fields[0], Long.parseLong(fields[1]), Long.parseLong(fields[2]),
+                            Integer.parseInt(fields[3]), Integer.parseInt(fields[4])));
+                } catch (NumberFormatException e) {
+                    throw new DataSourceException("Invalid line " + lineNumber + " in the index " + index + ": " + line, e);
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        return indexEntries;
+    }
+
+    /**
+     * Indexes a FASTA file, reading it once.
+     */
+    static List<FastaIndexEntry> buildIndex(File fasta) throws IOException, DataSourceException {
+        IndexBuilder builder = new IndexBuilder(fasta);
+        InputStream in = new FileInputStream(fasta);
+        try {
+            byte[] buffer = new byte[READ_BUFFER_SIZE];
+            int count;
+            while ((count = in.read(buffer)) != -1) {
+                builder.add(buffer, count);
+            }
+        } finally {
+            in.close();
+        }
+        return builder.finish();
+    }
+
+    /**
+     * Saves the index.  The index is written to a temporary file first, so that a data source
+     * being initialised at the same time never reads a partial index.  Failing to save the index
+     * is not fatal, the FASTA file is just indexed again next time.
+     */
+    static void writeIndex(File index, List<FastaIndexEntry> indexEntries) {
+        File temporary = null;
+        try {
+            temporary = File.createTempFile(index.getName() + "-new", ".tmp", index.getAbsoluteFile().getParentFile());
+            Writer writer = new OutputStreamWriter(new FileOutputStream(temporary), ISO_8859_1);
+            try {
+                for (FastaIndexEntry entry : indexEntries) {
+                    writer.write(entry.name + '\t' + entry.length + '\t' + entry.offset + '\t' + entry.lineBases + '\t' + entry.lineWidth + '\n');
+                }
+            } finally {
+                writer.close();
+            }
+            if ((index.exists() && !index.delete()) || !temporary.renameTo(index)) {
+                throw new IOException("The index cannot be replaced");
+            }
+        } catch (IOException e) {
+            LOGGER.warn("The index " + index + " cannot be written, the FASTA file will be indexed again next time", e);
+            if (temporary != null) {
+                temporary.delete();
+            }
+        }
+    }
+
+    /**
+     * A sequence of the FASTA file, as described by its line in the index.
+     */
+    static final class FastaIndexEntry {
+        private final String name;
+        private final int length;
+        private final long offset;
+        private final int lineBases;
+        private final int lineWidth;
+
+        /**
+         * Position of the sequence among the served ones.
+         */
+        private int position;
+
+        private volatile MappedRegion region;
+
+        /**
+         * The sequence, once loaded in memory if the data source is configured to.
+         */
+        private volatile DasSequence loaded;
+
+        FastaIndexEntry(String name, long length, long offset, int lineBases, int lineWidth) throws DataSourceException {
+            if (length < 0 || length > Integer.MAX_VALUE || offset < 0
+                    || (length > 0 && (lineBases <= 0 || lineWidth < lineBases))) {
+                throw new DataSourceException("Invalid index for the sequence " + name + ": length " + length + ", offset "
+                        + offset + ", " + lineBases + " bases and " + lineWidth + " bytes per line");
+            }
+            this.name = name;
+            this.length = (int) length;
+            this.offset = offset;
+            this.lineBases = lineBases;
+            this.lineWidth = lineWidth;
+        }
+
+        /**
+         * @return the number of bytes from the first base to the last one, line breaks included.
+         */
+        long getSpan() {
+            if (length == 0) {
+                return 0;
+            }
+            return (long) ((length - 1) / lineBases) * lineWidth + (length - 1) % lineBases + 1;
+        }
+    }
+
+    /**
+     * Reads a FASTA file byte by byte, working out the index entry of each sequence.
+     */
+    private static final class IndexBuilder {
+        private static final int BEFORE_FIRST_HEADER = 0;
+        private static final int HEADER_NAME = 1;
+        private static final int HEADER_DESCRIPTION = 2;
+        private static final int SEQUENCE = 3;
+
+        private final File fasta;
+        private final List<FastaIndexEntry> indexEntries = new ArrayList<FastaIndexEntry>();
+        private final Map<String, FastaIndexEntry> indexedNames = new HashMap<String, FastaIndexEntry>();
+
+        private int state = BEFORE_FIRST_HEADER;
+        private long position = 0;
+        private final StringBuilder name = new StringBuilder();
+
+        private long sequenceOffset;
+        private long sequenceLength;
+        private int sequenceLines;
+        private int lineBases;
+        private int lineWidth;
+
+        /**
+         * Set once a shorter line has been read: any other line of bases is an error.
+         */
+        private boolean lastLineRead;
+
+        private int currentBases;
+        private int currentWidth;
+
+        private IndexBuilder(File fasta) {
+            this.fasta = fasta;
+        }
+
+        private void add(byte[] buffer, int count) throws DataSourceException {
+            for (int i = 0; i < count; i++, position++) {
+                byte b = buffer[i];
+                switch (state) {
+                    case HEADER_NAME:
+                        if (b == '\n') {
+                            startSequence(position + 1);
+                        } else if (b == ' ' || b == '\t' || b == '\r') {
+                            state = HEADER_DESCRIPTION;
+                        } else {
+                            name.append((char) (b & 0xff));
+                        }
+                        break;
+                    case HEADER_DESCRIPTION:
+                        if (b == '\n') {
+                            startSequence(position + 1);
+                        }
+                        break;
+                    default:
+                        if (b == '>' && currentWidth == 0) {
+                            endSequence();
+                            name.setLength(0);
+                            state = HEADER_NAME;
+                        } else if (b == '\n') {
+                            currentWidth++;
+                            endLine(true);
+                        } else {
+                            currentWidth++;
+                            if (b != '\r') {
+                                currentBases++;
+                            }
+                        }
+                }
+            }
+        }
+
+        private List<FastaIndexEntry> finish() throws DataSourceException {
+            if (state == HEADER_NAME || state == HEADER_DESCRIPTION) {
+                startSequence(position);
+            } else if (currentWidth > 0) {
+                endLine(false);
+            }
+            endSequence();
+            if (indexEntries.isEmpty()) {
+                throw new DataSourceException("No sequence found in the FASTA file " + fasta);
+            }
+            return indexEntries;
+        }
+
+        private void startSequence(long offset) throws DataSourceException {
+            if (name.length() == 0) {
+                throw new DataSourceException("A sequence has no name in the FASTA file " + fasta + " at byte " + offset);
+            }
+            state = SEQUENCE;
+            sequenceOffset = offset;
+            sequenceLength = 0;
+            sequenceLines = 0;
+            lineBases = 0;
+            lineWidth = 0;
+            lastLineRead = false;
+            currentBases = 0;
+            currentWidth = 0;
+        }
+
+        /**
+         * @param terminated false for a last line not followed by a line break, which is
+         * shorter in bytes than the others.
+         */
+        private void endLine(boolean terminated) throws DataSourceException {
+            if (currentBases == 0) {
+                // Blank lines are only allowed at the end of a sequence.
+                if (sequenceLines > 0) {
+                    lastLineRead = true;
+                }
+            } else {
+                if (state == BEFORE_FIRST_HEADER) {
+                    throw new DataSourceException("The file " + fasta + " is not a FASTA file: it does not start with a header");
+                }
+                if (sequenceLines == 0) {
+                    lineBases = currentBases;
+                    lineWidth = terminated ? currentWidth : currentBases + 1;
+                } else if (lastLineRead || currentBases > lineBases
+                        || (terminated && currentWidth - currentBases != lineWidth - lineBases)) {
+                    throw new DataSourceException("The lines of the sequence " + name + " in the FASTA file " + fasta
+                            + " are not all of the same length, the file cannot be indexed");
+                } else if (currentBases < lineBases) {
+                    lastLineRead = true;
+                }
+                sequenceLength += currentBases;
+                sequenceLines++;
+            }
+            currentBases = 0;
+            currentWidth = 0;
+        }
+
+        private void endSequence() throws DataSourceException {
+            if (state != SEQUENCE) {
+                return;
+            }
+            String sequenceName = name.toString();
+            if (indexedNames.containsKey(sequenceName)) {
+                throw new DataSourceException("The sequence " + sequenceName + " is found twice in the FASTA file " + fasta);
+            }
+            if (sequenceLength > Integer.MAX_VALUE) {
+                throw new DataSourceException("The sequence " + sequenceName + " in the FASTA file " + fasta + " is too long");
+            }
+            FastaIndexEntry entry = new FastaIndexEntry(sequenceName, sequenceLength, sequenceOffset, lineBases, lineWidth);
+            indexEntries.add(entry);
+            indexedNames.put(sequenceName, entry);
+        }
+    }
+
+    /**
+     * A region of the FASTA file mapped in memory.
+     */
+    private static final class MappedRegion {
+        private final ByteBuffer buffer;
+
+        /**
+         * Offset of the region in the file.
+         */
+        private final long start;
+
+        private MappedRegion(ByteBuffer buffer, long start) {
+            this.buffer = buffer;
+            this.start = start;
+        }
+    }
+
+    /**
+     * Part of a sequence, read from the mapped file as it is accessed.  Only absolute gets
+     * are made on the shared buffer, so views can be read by several threads at a time.
+     */
+    private static final class MappedSequenceView implements CharSequence {
+        private final ByteBuffer buffer;
+
+        /**
+         * Position of the first base of the sequence in the buffer.
+         */
+        private final int base;
+
+        private final int lineBases;
+        private final int lineWidth;
+
+        /**
+         * Index of the first character of the view in the sequence, from 0.
+         */
+        private final int from;
+
+        private final int length;
+
+        private MappedSequenceView(ByteBuffer buffer, int base, int lineBases, int lineWidth, int from, int length) {
+            this.buffer = buffer;
+            this.base = base;
+            this.lineBases = lineBases;
+            this.lineWidth = lineWidth;
+            this.from = from;
+            this.length = length;
+        }
+
+        public int length() {
+            return length;
+        }
+
+        public char charAt(int index) {
+            if (index < 0 || index >= length) {
+                throw new IndexOutOfBoundsException("Index " + index + ", length " + length);
+            }
+            int i = from + index;
+            return (char) (buffer.get(base + (i / lineBases) * lineWidth + i % lineBases) & 0xff);
+        }
+
+        public CharSequence subSequence(int start, int end) {
+            if (start < 0 || end > length || start > end) {
+                throw new IndexOutOfBoundsException("Start " + start + ", end " + end + ", length " + length);
+            }
+            return new MappedSequenceView(buffer, base, lineBases, lineWidth, from + start, end - start);
+        }
+
+        /**
+         * Copies the view one line at a time.
+         */
+        @Override
+        public String toString() {
+            byte[] bytes = new byte[length];
+            ByteBuffer source = buffer.duplicate();
+            int copied = 0;
+            int i = from;
+            while (copied < length) {
+                int column = i % lineBases;
+                int count = Math.min(lineBases - column, length - copied);
+                source.position(base + (i / lineBases) * lineWidth + column);
+                source.get(bytes, copied, count);
+                copied += count;
+                i += count;
+            }
+            return new String(bytes, ISO_8859_1);
+        }
+    }
+
+    /**
+     * A whole sequence of the FASTA file.
+     */
+    @SuppressWarnings("serial")
+    private static final class MappedSequence extends DasSequence implements StreamableSequence {
+        private final MappedSequenceView sequence;
+
+        private MappedSequence(String segmentId, String version, MappedSequenceView sequence) throws DataSourceException {
+            super(segmentId, 1, sequence.length(), version, null);
+            this.sequence = sequence;
+        }
+
+        @Override
+        public CharSequence getRestrictedSequence(int requestedStart, int requestedStop) throws CoordinateErrorException {
+            if (requestedStart < startCoordinate || requestedStop > stopCoordinate || requestedStart > requestedStop + 1) {
+                throw new CoordinateErrorException(segmentId, requestedStart, requestedStop);
+            }
+            return sequence.subSequence(requestedStart - startCoordinate, requestedStop - startCoordinate + 1);
+        }
+    }
+
+    /**
+     * The requested part of a sequence of the FASTA file, read from the mapped file or from the
+     * sequence loaded in memory.
+     */
+    @SuppressWarnings("serial")
+    private static final class MappedRestrictedSequence extends DasRestrictedSequence implements StreamableSequence {
+        private final CharSequence sequence;
+
+        private MappedRestrictedSequence(String segmentId, int start, String version, CharSequence sequence)
+                throws DataSourceException {
+            super(segmentId, start, sequence.length(), version, null);
+            this.sequence = sequence;
+        }
+
+        @Override
+        public String getRestrictedSequenceString(int requestedStart, int requestedStop) {
+            return sequence.toString();
+        }
+
+        @Override
+        public CharSequence getRestrictedSequence(int requestedStart, int requestedStop) {
+            return sequence;
+        }
+    }
+}
@@ -0,0 +1,339 @@
+/*
+ * Copyright 2007 Philip Jones, EMBL-European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *
+ * For further details of the mydas project, including source code,
+ * downloads and documentation, please see:
+ *
+ * http://code.google.com/p/mydas/
+ *
+ */
+
+
+package uk.ac.ebi.mydas.datasource;
+
+import org.apache.log4j.Logger;
+import uk.ac.ebi.mydas.exceptions.BadReferenceObjectException;
+import uk.ac.ebi.mydas.exceptions.CoordinateErrorException;
+import uk.ac.ebi.mydas.exceptions.DataSourceException;
+import uk.ac.ebi.mydas.exceptions.UnimplementedFeatureException;
+import uk.ac.ebi.mydas.extendedmodel.DasUnknownFeatureSegment;
+import uk.ac.ebi.mydas.model.DasAnnotatedSegment;
+import uk.ac.ebi.mydas.model.DasEntryPoint;
+import uk.ac.ebi.mydas.model.DasFeature;
+import uk.ac.ebi.mydas.model.DasRestrictedAnnotatedSegment;
+import uk.ac.ebi.mydas.model.DasType;
+import uk.ac.ebi.mydas.model.Range;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Base class for annotation data sources holding all their features in memory, e.g. parsed from a file.
+ * <p/>
+ * The implementation loads its segments in {@link #init}, and hands them over to {@link #index(Collection)}.
+ * All the commands are then answered from indexes built once:
+ * <ul>
+ * <li>the segments by id, for the features of a segment;</li>
+ * <li>the features by id, for the feature_id requests;</li>
+ * <li>the number of features of each type, for the types command;</li>
+ * <li>the features of each segment by coordinates, for the requests restricted to a range, through
+ * {@link DasAnnotatedSegment#getFeatures(int, int)}.</li>
+ * </ul>
+ * Pagination (the rows-for-feature capability) is handled as well, counting the features in the order
+ * of the segment, or of the feature_id requests.  The type, category and feature_id restrictions of the
+ * requests are applied before the rows are counted, see {@link FilterAwareAnnotationDataSource}.
+ * <p/>
+ * The segments must not be modified once indexed: to change them, index a new Collection of segments,
+ * which replaces the previous indexes at once, so that requests in progress are not affected.
+ * The entry points are the indexed segments, in order; getLinkURL is not implemented.
+ */
+public abstract class IndexedInMemoryAnnotationDataSource implements RangeHandlingAnnotationDataSource, FilterAwareAnnotationDataSource {
+
+    private static final Logger LOGGER = Logger.getLogger(IndexedInMemoryAnnotationDataSource.class);
+
+    private volatile Index index = new Index();
+
+    /**
+     * Indexes the segments of the data source, replacing the segments indexed before if any.
+     *
+     * @param segments the segments, each holding its features, in the order of the entry points.
+     * @throws DataSourceException if two segments have the same id.
+     */
+    protected void index(Collection<DasAnnotatedSegment> segments) throws DataSourceException {
+        Index newIndex = new Index();
+        for (DasAnnotatedSegment segment : segments) {
+            if (newIndex.segments.put(segment.getSegmentId(), segment) != null) {
+                throw new DataSourceException("The segment " + segment.getSegmentId() + " is loaded twice");
+            }
+            Collection<DasFeature> features = segment.getFeatures();
+            if (features == null) {
+                continue;
+            }
+            for (DasFeature feature : features) {
+                Located located = new Located(segment, feature);
+                Located sameId = newIndex.features.put(feature.getFeatureId(), located);
+                if (sameId != null) {
+                    // Keeps the features sharing an id in the order they were loaded.
+                    newIndex.features.put(feature.getFeatureId(), sameId);
+                    sameId.last.next = located;
+                    sameId.last = located;
+                }
+                DasType type = feature.getType();
+                newIndex.types.add(type);
+                Integer count = newIndex.typeCounts.get(type.getId());
+                newIndex.typeCounts.put(type.getId(), (count == null) ? 1 : count + 1);
+            }
+            segment.indexFeatures();
+        }
+        index = newIndex;
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug("Indexed " + newIndex.features.size() + " feature ids on " + newIndex.segments.size() + " segments");
+        }
+    }
+
+    /**
+     * @return the indexed segments, in order.
+     */
+    protected Collection<DasAnnotatedSegment> getSegments() {
+        return Collections.unmodifiableCollection(index.segments.values());
+    }
+
+    /**
+     * Releases the indexed segments.
+     */
+    public void destroy() {
+        index = new Index();
+    }
+
+    public DasAnnotatedSegment getFeatures(String segmentId, Integer maxbins) throws BadReferenceObjectException, DataSourceException {
+        return getSegment(segmentId);
+    }
+
+    public DasAnnotatedSegment getFeatures(String segmentId, Integer maxbins, Range rows)
+            throws BadReferenceObjectException, DataSourceException, UnimplementedFeatureException {
+        DasAnnotatedSegment segment = getSegment(segmentId);
+        List<DasFeature> features = toList(segment.getFeatures());
+        DasAnnotatedSegment page = new DasAnnotatedSegment(segmentId, segment.getStartCoordinate(), segment.getStopCoordinate(),
+                segment.getVersion(), segment.getSegmentLabel(), getPage(features, rows));
+        page.setTotalFeatures(features.size());
+        return page;
+    }
+
+    public DasAnnotatedSegment getFeatures(String segmentId, int start, int stop, Integer maxbins)
+            throws BadReferenceObjectException, CoordinateErrorException, DataSourceException {
+        DasAnnotatedSegment segment = getSegment(segmentId);
+        int end = getEnd(segment, start, stop);
+        return new DasRestrictedAnnotatedSegment(segmentId, start, end, segment.getVersion(), segment.getSegmentLabel(),
+                segment.getFeatures(start, end));
+    }
+
+    public DasAnnotatedSegment getFeatures(String segmentId, int start, int stop, Integer maxbins, Range rows)
+            throws BadReferenceObjectException, CoordinateErrorException, DataSourceException, UnimplementedFeatureException {
+        DasAnnotatedSegment segment = getSegment(segmentId);
+        int end = getEnd(segment, start, stop);
+        List<DasFeature> features = toList(segment.getFeatures(start, end));
+        DasAnnotatedSegment page = new DasRestrictedAnnotatedSegment(segmentId, start, end, segment.getVersion(),
+                segment.getSegmentLabel(), getPage(features, rows));
+        page.setTotalFeatures(features.size());
+        return page;
+    }
+
+    public DasAnnotatedSegment getFeatures(String segmentId, Integer start, Integer stop, Integer maxbins, FeatureFilter filter, Range rows)
+            throws BadReferenceObjectException, CoordinateErrorException, DataSourceException, UnimplementedFeatureException {
+        DasAnnotatedSegment segment = getSegment(segmentId);
+        Collection<DasFeature> features;
+        int end = 0;
+        if (start == null || stop == null) {
+            features = segment.getFeatures();
+        } else {
+            end = getEnd(segment, start, stop);
+            features = segment.getFeatures(start, end);
+        }
+        List<DasFeature> passing = new ArrayList<DasFeature>();
+        if (features != null) {
+            for (DasFeature feature : features) {
+                if (filter.passes(feature)) {
+                    passing.add(feature);
+                }
+            }
+        }
+        Collection<DasFeature> page = (rows == null) ? passing : getPage(passing, rows);
+        DasAnnotatedSegment filtered = (start == null || stop == null)
+                ? new DasAnnotatedSegment(segmentId, segment.getStartCoordinate(), segment.getStopCoordinate(), segment.getVersion(),
+                        segment.getSegmentLabel(), page)
+                : new DasRestrictedAnnotatedSegment(segmentId, start, end, segment.getVersion(), segment.getSegmentLabel(), page);
+        filtered.setTotalFeatures(passing.size());
+        return filtered;
+    }
+
+    /**
+     * Returns a segment for each feature found, holding only that feature, and a DasUnknownFeatureSegment
+     * for each id not found.
+     */
+    public Collection<DasAnnotatedSegment> getFeatures(Collection<String> featureIdCollection, Integer maxbins)
+            throws UnimplementedFeatureException, DataSourceException {
+        return findFeatures(featureIdCollection, null);
+    }
+
+    /**
+     * As {@link #getFeatures(Collection, Integer)}, counting the features found in the order of the ids
+     * for the pagination.  The ids not found are always reported.
+     */
+    public Collection<DasAnnotatedSegment> getFeatures(Collection<String> featureIdCollection, Integer maxbins, Range rows)
+            throws UnimplementedFeatureException, DataSourceException {
+        return findFeatures(featureIdCollection, rows);
+    }
+
+    /**
+     * @return the types of the features, in the order they were first found.
+     */
+    public Collection<DasType> getTypes() throws DataSourceException {
+        return new ArrayList<DasType>(index.types);
+    }
+
+    /**
+     * @return the number of features with the id of the type, counted when the features were indexed.
+     */
+    public Integer getTotalCountForType(DasType type) throws DataSourceException {
+        Integer count = index.typeCounts.get(type.getId());
+        return (count == null) ? 0 : count;
+    }
+
+    public URL getLinkURL(String field, String id) throws UnimplementedFeatureException, DataSourceException {
+        throw new UnimplementedFeatureException("No links are provided by this data source");
+    }
+
+    public Collection<DasEntryPoint> getEntryPoints(Integer start, Integer stop) throws UnimplementedFeatureException, DataSourceException {
+        List<DasAnnotatedSegment> segments = new ArrayList<DasAnnotatedSegment>(index.segments.values());
+        int first = (start == null) ? 1 : Math.max(start, 1);
+        int last = (stop == null) ? segments.size() : Math.min(stop, segments.size());
+        List<DasEntryPoint> entryPoints = new ArrayList<DasEntryPoint>(Math.max(last - first + 1, 0));
+        for (int i = first; i <= last; i++) {
+            DasAnnotatedSegment segment = segments.get(i - 1);
+            entryPoints.add(new DasEntryPoint(segment.getSegmentId(), segment.getStartCoordinate(), segment.getStopCoordinate(),
+                    null, segment.getVersion(), null, segment.getSegmentLabel(), false));
+        }
+        return entryPoints;
+    }
+
+    /**
+     * @return the version of the first segment.
+     */
+    public String getEntryPointVersion() throws UnimplementedFeatureException, DataSourceException {
+        Collection<DasAnnotatedSegment> segments = index.segments.values();
+        if (segments.isEmpty()) {
+            throw new UnimplementedFeatureException("No segments have been loaded");
+        }
+        return segments.iterator().next().getVersion();
+    }
+
+    public int getTotalEntryPoints() throws UnimplementedFeatureException, DataSourceException {
+        return index.segments.size();
+    }
+
+    private Collection<DasAnnotatedSegment> findFeatures(Collection<String> featureIdCollection, Range rows) throws DataSourceException {
+        Map<String, Located> features = index.features;
+        Collection<DasAnnotatedSegment> segments = new ArrayList<DasAnnotatedSegment>(featureIdCollection.size());
+        int row = 0;
+        for (String featureId : featureIdCollection) {
+            Located located = features.get(featureId);
+            if (located == null) {
+                segments.add(new DasUnknownFeatureSegment(featureId));
+            }
+            for (; located != null; located = located.next) {
+                row++;
+                if (rows != null && (row < rows.getFrom() || row > rows.getTo())) {
+                    continue;
+                }
+                DasAnnotatedSegment segment = located.segment;
+                segments.add(new DasAnnotatedSegment(segment.getSegmentId(), segment.getStartCoordinate(), segment.getStopCoordinate(),
+                        segment.getVersion(), segment.getSegmentLabel(), new ArrayList<DasFeature>(Collections.singletonList(located.feature))));
+            }
+        }
+        return segments;
+    }
+
+    private DasAnnotatedSegment getSegment(String segmentId) throws BadReferenceObjectException {
+        DasAnnotatedSegment segment = index.segments.get(segmentId);
+        if (segment == null) {
+            throw new BadReferenceObjectException(segmentId, "The segment is not in this data source");
+        }
+        return segment;
+    }
+
+    /**
+     * @return the end of the requested range, within the segment.
+     * @throws CoordinateErrorException if the range is empty or does not overlap the segment.
+     */
+    private static int getEnd(DasAnnotatedSegment segment, int start, int stop) throws CoordinateErrorException {
+        if (start > stop || start > segment.getStopCoordinate() || stop < segment.getStartCoordinate()) {
+            throw new CoordinateErrorException(segment.getSegmentId(), start, stop);
+        }
+        return Math.min(stop, segment.getStopCoordinate());
+    }
+
+    private static List<DasFeature> toList(Collection<DasFeature> features) {
+        if (features == null) {
+            return Collections.emptyList();
+        }
+        return (features instanceof List) ? (List<DasFeature>) features : new ArrayList<DasFeature>(features);
+    }
+
+    /**
+     * @return the features in the rows, numbered from 1.
+     */
+    private static Collection<DasFeature> getPage(List<DasFeature> features, Range rows) {
+        int from = Math.max(rows.getFrom(), 1) - 1;
+        int to = Math.min(rows.getTo(), features.size());
+        if (from >= to) {
+            return new ArrayList<DasFeature>();
+        }
+        return new ArrayList<DasFeature>(features.subList(from, to));
+    }
+
+    /**
+     * The indexes of a set of segments, replaced all at once.
+     */
+    private static final class Index {
+        private final Map<String, DasAnnotatedSegment> segments = new LinkedHashMap<String, DasAnnotatedSegment>();
+        private final Map<String, Located> features = new HashMap<String, Located>();
+        private final Set<DasType> types = new LinkedHashSet<DasType>();
+        private final Map<String, Integer> typeCounts = new HashMap<String, Integer>();
+    }
+
+    /**
+     * A feature with its segment, and the next feature with the same id if any.
+     */
+    private static final class Located {
+        private final DasAnnotatedSegment segment;
+        private final DasFeature feature;
+        private Located next;
+        private Located last = this;
+
+        private Located(DasAnnotatedSegment segment, DasFeature feature) {
+            this.segment = segment;
+            this.feature = feature;
+        }
+    }
+}
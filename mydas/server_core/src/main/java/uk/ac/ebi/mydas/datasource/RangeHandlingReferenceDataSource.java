@@ -55,6 +55,11 @@ public interface RangeHandlingReferenceDataSource extends ReferenceDataSource{
      *
      * This may be more efficient if your data source serves massive segments that you are able to efficiently
      * query by coordinates.
+     *
+     * The sequence does not have to be held in memory: the servlet reads a
+     * {@link uk.ac.ebi.mydas.model.StreamableSequence} through
+     * {@link uk.ac.ebi.mydas.model.DasSequence#getRestrictedSequence(int, int)} and writes it out in chunks, so a
+     * DasSequence subclass reading it on demand (e.g. from a file) keeps long sequences off the heap.
      * @param segmentId being the id of the requested segment. (e.g. the accession).
      * @param start being the requested start coordinate of the segment
      * @param stop being the requested stop coordinate of the segment
@@ -41,6 +41,11 @@ public interface ReferenceDataSource extends AnnotationDataSource{
 
     /**
      * Returns a DasSequence object that describes the sequence for the requested segment id. (e.g. accession)
+     *
+     * The sequence does not have to be held in memory: the servlet reads a
+     * {@link uk.ac.ebi.mydas.model.StreamableSequence} through
+     * {@link DasSequence#getRestrictedSequence(int, int)} and writes it out in chunks, so a
+     * DasSequence subclass reading it on demand (e.g. from a file) keeps long sequences off the heap.
      * @param segmentId being the name / accession of the sequence being requested.
      * @return a DasSequence object, holding the sequenceString, version and start / end coordinates of the sequence.
      * @throws DataSourceException to encapsulate any exceptions thrown by the datasource
@@ -0,0 +1,69 @@
+/*
+ * Copyright 2007 Philip Jones, EMBL-European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *
+ * For further details of the mydas project, including source code,
+ * downloads and documentation, please see:
+ *
+ * http://code.google.com/p/mydas/
+ *
+ */
+
+package uk.ac.ebi.mydas.datasource;
+
+import uk.ac.ebi.mydas.exceptions.BadReferenceObjectException;
+import uk.ac.ebi.mydas.exceptions.CoordinateErrorException;
+import uk.ac.ebi.mydas.exceptions.DataSourceException;
+import uk.ac.ebi.mydas.model.DasStreamedSegment;
+
+/**
+ * If you implement this interface, the features command will read the features of each
+ * requested segment one at a time and write them out as they are read, instead of
+ * holding all of them in memory first.
+ *
+ * This is useful if your segments have very many features (e.g. whole chromosomes).  The
+ * servlet still applies the type / category filters and, for requests with coordinates,
+ * drops the features that do not overlap the requested range, so you may return
+ * more features than needed.
+ *
+ * Requests that cannot be answered in a single pass (feature_id, rows or advanced search
+ * queries) are still answered with the getFeatures methods of {@link AnnotationDataSource}
+ * (or {@link RangeHandlingAnnotationDataSource}), which therefore must be implemented as well.
+ * Sequence assemblies (DasComponentFeature) are not supported in streamed segments.
+ */
+public interface StreamingAnnotationDataSource extends AnnotationDataSource {
+
+    /**
+     * Opens the features of a segment for reading.
+     *
+     * Any problem with the segment itself must be reported by this method, before any
+     * feature is read, so that the servlet can report an UNKNOWNSEGMENT / ERRORSEGMENT instead.
+     * @param segmentId being the reference of the segment requested in the DAS request (not including
+     * start and stop coordinates)
+     * @param start being the requested start coordinate, or null if the whole segment is requested.
+     * @param stop being the requested stop coordinate, or null if the whole segment is requested.
+     * @param maxbins the maximum number of bins the client is able to draw, or null.
+     * @return a DasStreamedSegment describing the segment, from which the features are read.
+     * It will be closed by the servlet.
+     * @throws BadReferenceObjectException should be thrown if the segment requested does not
+     * exist in this data source.
+     * @throws CoordinateErrorException should be thrown if the requested coordinates
+     * fall outside the bounds of the requested segment.
+     * @throws DataSourceException to wrap any other types of exception that may be
+     * generated by your data source, such as SQLExceptions or IOExceptions.
+     */
+    public DasStreamedSegment getFeatureStream(String segmentId, Integer start, Integer stop, Integer maxbins)
+            throws BadReferenceObjectException, CoordinateErrorException, DataSourceException;
+}
@@ -0,0 +1,724 @@
+/*
+ * Copyright 2007 Philip Jones, EMBL-European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *
+ * For further details of the mydas project, including source code,
+ * downloads and documentation, please see:
+ *
+ * http://code.google.com/p/mydas/
+ *
+ */
+
+
+package uk.ac.ebi.mydas.datasource;
+
+import org.apache.log4j.Logger;
+import uk.ac.ebi.mydas.configuration.DataSourceConfiguration;
+import uk.ac.ebi.mydas.configuration.PropertyType;
+import uk.ac.ebi.mydas.exceptions.BadReferenceObjectException;
+import uk.ac.ebi.mydas.exceptions.CoordinateErrorException;
+import uk.ac.ebi.mydas.exceptions.DataSourceException;
+import uk.ac.ebi.mydas.exceptions.UnimplementedFeatureException;
+import uk.ac.ebi.mydas.model.DasAnnotatedSegment;
+import uk.ac.ebi.mydas.model.DasEntryPoint;
+import uk.ac.ebi.mydas.model.DasFeature;
+import uk.ac.ebi.mydas.model.DasFeatureOrientation;
+import uk.ac.ebi.mydas.model.DasMethod;
+import uk.ac.ebi.mydas.model.DasPhase;
+import uk.ac.ebi.mydas.model.DasRestrictedAnnotatedSegment;
+import uk.ac.ebi.mydas.model.DasStreamedSegment;
+import uk.ac.ebi.mydas.model.DasType;
+import uk.ac.ebi.mydas.model.Range;
+
+import javax.servlet.ServletContext;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.net.URL;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Annotation data source serving the features of a bgzipped GFF, BED or VCF file indexed
+ * with tabix, without loading the file in memory.
+ * <p/>
+ * For each request, the tabix (.tbi) or CSI (.csi) index gives the blocks of the file that may
+ * hold features overlapping the requested region; only these blocks are read and inflated, and
+ * their lines are turned into DasFeature objects one at a time, as the features are written out
+ * to the client.  The file is prepared with the usual htslib tools, e.g.
+ * <code>bgzip features.gff &amp;&amp; tabix -p gff features.gff.gz</code>.
+ * <p/>
+ * The data source is configured with the following properties in MydasServerConfig.xml:
+ * <ul>
+ * <li><b>tabix_file</b>: the bgzipped file, either an absolute path or a path in the web
+ * application.</li>
+ * <li><b>tabix_index_file</b>: optional, the index. Defaults to the file with the .tbi
+ * extension appended, or the .csi one if only that exists.</li>
+ * <li><b>tabix_format</b>: optional, <i>gff</i>, <i>bed</i> or <i>vcf</i>. Defaults to the
+ * preset the index was built with (vcf for -p vcf, bed for 0-based files, gff otherwise).</li>
+ * <li><b>tabix_type_column</b>, <b>tabix_method_column</b>, <b>tabix_score_column</b>:
+ * optional, the column (from 1) holding the type, method and score of the features, overriding
+ * the ones of the format.</li>
+ * <li><b>tabix_type</b>, <b>tabix_method</b>: optional, the type and method of all the
+ * features, when they are not read from a column.  Default to <i>region</i> for BED files and
+ * <i>sequence_variant</i> for VCF files, and to the name of the file for the method.</li>
+ * <li><b>tabix_types</b>: optional, comma separated list of the types returned by the types
+ * command when the type is read from a column, as the file is not read to find them.</li>
+ * <li><b>tabix_sequence_lengths</b>: optional, a file giving the length of the sequences in
+ * its first two columns, such as a chrom.sizes or .fai file.  The lengths are otherwise read
+ * from the ##contig (VCF) and ##sequence-region (GFF) headers, if any; failing that, the length
+ * of a sequence is the end of the last index bin holding features.</li>
+ * <li><b>tabix_version</b>: optional, the version of the annotated sequences. Defaults to the
+ * name of the file.</li>
+ * </ul>
+ * GFF features keep their ID and Name attributes as id and label, and their Parent attribute
+ * as parents; the other attributes are reported as notes.  Features without an id get one made
+ * of the sequence name and the position of their line in the file, which does not change as
+ * long as the file is not rebuilt.  Features cannot be retrieved by id.
+ */
+public class TabixAnnotationDataSource implements RangeHandlingAnnotationDataSource, StreamingAnnotationDataSource {
+
+    private static final Logger LOGGER = Logger.getLogger(TabixAnnotationDataSource.class);
+
+    public static final String FILE_PROPERTY = "tabix_file";
+    public static final String INDEX_FILE_PROPERTY = "tabix_index_file";
+    public static final String FORMAT_PROPERTY = "tabix_format";
+    public static final String TYPE_COLUMN_PROPERTY = "tabix_type_column";
+    public static final String TYPE_PROPERTY = "tabix_type";
+    public static final String TYPES_PROPERTY = "tabix_types";
+    public static final String METHOD_COLUMN_PROPERTY = "tabix_method_column";
+    public static final String METHOD_PROPERTY = "tabix_method";
+    public static final String SCORE_COLUMN_PROPERTY = "tabix_score_column";
+    public static final String SEQUENCE_LENGTHS_PROPERTY = "tabix_sequence_lengths";
+    public static final String VERSION_PROPERTY = "tabix_version";
+
+    static final String FORMAT_GFF = "gff";
+    static final String FORMAT_BED = "bed";
+    static final String FORMAT_VCF = "vcf";
+
+    private static final String DEFAULT_BED_TYPE = "region";
+    private static final String DEFAULT_VCF_TYPE = "sequence_variant";
+
+    private static final Pattern VCF_CONTIG = Pattern.compile("^##contig=<(?:.*,)?ID=([^,>]+)(?:.*,)?length=(\\d+)");
+    private static final Pattern VCF_CONTIG_LENGTH_FIRST = Pattern.compile("^##contig=<(?:.*,)?length=(\\d+)(?:.*,)?ID=([^,>]+)");
+    private static final Pattern GFF_SEQUENCE_REGION = Pattern.compile("^##sequence-region\\s+(\\S+)\\s+(\\d+)\\s+(\\d+)");
+
+    private RandomAccessFile file;
+
+    private FileChannel channel;
+
+    private TabixIndex index;
+
+    private String version;
+
+    private String format;
+
+    private boolean zeroBased;
+
+    /**
+     * Columns of the type, method and score, from 0, or -1 if not read from the file.
+     */
+    private int typeColumn;
+    private int methodColumn;
+    private int scoreColumn;
+
+    private DasType fixedType;
+    private DasMethod fixedMethod;
+
+    private Collection<DasType> types;
+
+    /**
+     * Lengths of the sequences, when known.
+     */
+    private final Map<String, Integer> lengths = new LinkedHashMap<String, Integer>();
+
+    private final ConcurrentMap<String, DasType> typeCache = new ConcurrentHashMap<String, DasType>();
+    private final ConcurrentMap<String, DasMethod> methodCache = new ConcurrentHashMap<String, DasMethod>();
+
+    public void init(ServletContext servletContext, Map<String, PropertyType> globalParameters, DataSourceConfiguration dataSourceConfig)
+            throws DataSourceException {
+        Map<String, PropertyType> properties = dataSourceConfig.getDataSourceProperties();
+        String path = DataSourceProperties.getProperty(properties, FILE_PROPERTY);
+        if (path == null) {
+            throw new DataSourceException("The property " + FILE_PROPERTY + " is missing from the configuration of "
+                    + dataSourceConfig.getName());
+        }
+        File dataFile = DataSourceProperties.getFile(servletContext, path);
+        String indexPath = DataSourceProperties.getProperty(properties, INDEX_FILE_PROPERTY);
+        File indexFile;
+        if (indexPath != null) {
+            indexFile = DataSourceProperties.getFile(servletContext, indexPath);
+        } else {
+            indexFile = new File(dataFile.getPath() + ".tbi");
+            File csi = new File(dataFile.getPath() + ".csi");
+            if (!indexFile.isFile() && csi.isFile()) {
+                indexFile = csi;
+            }
+        }
+        String versionProperty = DataSourceProperties.getProperty(properties, VERSION_PROPERTY);
+        version = (versionProperty == null) ? dataFile.getName() : versionProperty;
+
+        try {
+            index = TabixIndex.read(indexFile);
+        } catch (IOException e) {
+            throw new DataSourceException("The index " + indexFile + " cannot be read", e);
+        }
+        zeroBased = (index.getFormat() & TabixIndex.FORMAT_ZERO_BASED) != 0;
+        format = DataSourceProperties.getProperty(properties, FORMAT_PROPERTY);
+        if (format == null) {
+            if ((index.getFormat() & 0xffff) == TabixIndex.FORMAT_VCF) {
+                format = FORMAT_VCF;
+            } else {
+                format = zeroBased ? FORMAT_BED : FORMAT_GFF;
+            }
+        } else {
+            format = format.toLowerCase();
+            if (!format.equals(FORMAT_GFF) && !format.equals(FORMAT_BED) && !format.equals(FORMAT_VCF)) {
+                throw new DataSourceException("The property " + FORMAT_PROPERTY + " should be gff, bed or vcf, found '" + format + "'");
+            }
+        }
+        configureColumns(properties, dataFile.getName());
+
+        try {
+            file = new RandomAccessFile(dataFile, "r");
+        } catch (FileNotFoundException e) {
+            throw new DataSourceException("The file " + dataFile + " cannot be opened", e);
+        }
+        channel = file.getChannel();
+        try {
+            readHeaderLengths();
+            String lengthsPath = DataSourceProperties.getProperty(properties, SEQUENCE_LENGTHS_PROPERTY);
+            if (lengthsPath != null) {
+                readLengths(DataSourceProperties.getFile(servletContext, lengthsPath));
+            }
+        } catch (IOException e) {
+            destroy();
+            throw new DataSourceException("The sequence lengths of " + dataFile + " cannot be read", e);
+        } catch (DataSourceException e) {
+            destroy();
+            throw e;
+        }
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug("Serving " + format + " file " + dataFile + " with " + index.getNames().size() + " indexed sequences");
+        }
+    }
+
+    /**
+     * Sets where the type, method and score of the features come from, from the format and
+     * the properties.
+     */
+    private void configureColumns(Map<String, PropertyType> properties, String fileName) throws DataSourceException {
+        if (format.equals(FORMAT_GFF)) {
+            typeColumn = 2;
+            methodColumn = 1;
+            scoreColumn = 5;
+        } else if (format.equals(FORMAT_BED)) {
+            typeColumn = -1;
+            methodColumn = -1;
+            scoreColumn = 4;
+        } else {
+            typeColumn = -1;
+            methodColumn = -1;
+            scoreColumn = 5;
+        }
+        typeColumn = getColumn(properties, TYPE_COLUMN_PROPERTY, typeColumn);
+        methodColumn = getColumn(properties, METHOD_COLUMN_PROPERTY, methodColumn);
+        scoreColumn = getColumn(properties, SCORE_COLUMN_PROPERTY, scoreColumn);
+
+        String type = DataSourceProperties.getProperty(properties, TYPE_PROPERTY);
+        if (type != null) {
+            typeColumn = (DataSourceProperties.getProperty(properties, TYPE_COLUMN_PROPERTY) == null) ? -1 : typeColumn;
+        } else {
+            type = format.equals(FORMAT_VCF) ? DEFAULT_VCF_TYPE : DEFAULT_BED_TYPE;
+        }
+        String method = DataSourceProperties.getProperty(properties, METHOD_PROPERTY);
+        if (method != null) {
+            methodColumn = (DataSourceProperties.getProperty(properties, METHOD_COLUMN_PROPERTY) == null) ? -1 : methodColumn;
+        } else {
+            method = fileName;
+        }
+        fixedType = new DasType(type, null, null, type);
+        fixedMethod = new DasMethod(method, method, null);
+
+        types = new ArrayList<DasType>();
+        if (typeColumn < 0) {
+            types.add(fixedType);
+        } else {
+            String typeList = DataSourceProperties.getProperty(properties, TYPES_PROPERTY);
+            if (typeList != null) {
+                for (String listed : typeList.split(",")) {
+                    if (listed.trim().length() > 0) {
+                        types.add(getType(listed.trim()));
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Closes the file.  Streams still open fail on their next read.
+     */
+    public void destroy() {
+        synchronized (this) {
+            channel = null;
+        }
+        if (file != null) {
+            try {
+                file.close();
+            } catch (IOException e) {
+                LOGGER.error("Exception thrown when closing the tabix file", e);
+            }
+            file = null;
+        }
+    }
+
+    public DasStreamedSegment getFeatureStream(String segmentId, Integer start, Integer stop, Integer maxbins)
+            throws BadReferenceObjectException, CoordinateErrorException, DataSourceException {
+        Integer length = getLength(segmentId);
+        if (start == null || stop == null) {
+            return new TabixStreamedSegment(segmentId, version, 1, length);
+        }
+        Integer knownLength = lengths.get(segmentId);
+        if (start < 1 || start > stop || (knownLength != null && start > knownLength)) {
+            throw new CoordinateErrorException(segmentId, start, stop);
+        }
+        return new TabixStreamedSegment(segmentId, version, start, (knownLength == null) ? stop : Math.min(stop, knownLength));
+    }
+
+    public DasAnnotatedSegment getFeatures(String segmentId, Integer maxbins) throws BadReferenceObjectException, DataSourceException {
+        TabixStreamedSegment segment;
+        try {
+            segment = (TabixStreamedSegment) getFeatureStream(segmentId, null, null, maxbins);
+        } catch (CoordinateErrorException e) {
+            throw new DataSourceException("Coordinates error on a request for the whole segment " + segmentId, e);
+        }
+        return new DasAnnotatedSegment(segmentId, segment.getStartCoordinate(), segment.getStopCoordinate(), version, null,
+                segment.readAll());
+    }
+
+    public DasAnnotatedSegment getFeatures(String segmentId, Integer maxbins, Range rows)
+            throws BadReferenceObjectException, DataSourceException, UnimplementedFeatureException {
+        throw new UnimplementedFeatureException("The features of a tabix file are not counted in advance, rows are handled by the servlet");
+    }
+
+    public DasAnnotatedSegment getFeatures(String segmentId, int start, int stop, Integer maxbins)
+            throws BadReferenceObjectException, CoordinateErrorException, DataSourceException {
+        TabixStreamedSegment segment = (TabixStreamedSegment) getFeatureStream(segmentId, start, stop, maxbins);
+        return new DasRestrictedAnnotatedSegment(segmentId, segment.getStartCoordinate(), segment.getStopCoordinate(), version, null,
+                segment.readAll());
+    }
+
+    public DasAnnotatedSegment getFeatures(String segmentId, int start, int stop, Integer maxbins, Range rows)
+            throws BadReferenceObjectException, CoordinateErrorException, DataSourceException, UnimplementedFeatureException {
+        throw new UnimplementedFeatureException("The features of a tabix file are not counted in advance, rows are handled by the servlet");
+    }
+
+    public Collection<DasAnnotatedSegment> getFeatures(Collection<String> featureIdCollection, Integer maxbins)
+            throws UnimplementedFeatureException, DataSourceException {
+        throw new UnimplementedFeatureException("Features cannot be retrieved by id from a tabix file");
+    }
+
+    public Collection<DasAnnotatedSegment> getFeatures(Collection<String> featureIdCollection, Integer maxbins, Range rows)
+            throws UnimplementedFeatureException, DataSourceException {
+        throw new UnimplementedFeatureException("Features cannot be retrieved by id from a tabix file");
+    }
+
+    public Collection<DasType> getTypes() throws DataSourceException {
+        return new ArrayList<DasType>(types);
+    }
+
+    /**
+     * @return null, the features of each type are not counted.
+     */
+    public Integer getTotalCountForType(DasType type) throws DataSourceException {
+        return null;
+    }
+
+    public URL getLinkURL(String field, String id) throws UnimplementedFeatureException, DataSourceException {
+        throw new UnimplementedFeatureException("No links are provided by this data source");
+    }
+
+    public Collection<DasEntryPoint> getEntryPoints(Integer start, Integer stop) throws UnimplementedFeatureException, DataSourceException {
+        List<String> names = index.getNames();
+        int first = (start == null) ? 1 : Math.max(start, 1);
+        int last = (stop == null) ? names.size() : Math.min(stop, names.size());
+        List<DasEntryPoint> entryPoints = new ArrayList<DasEntryPoint>(Math.max(last - first + 1, 0));
+        for (int i = first; i <= last; i++) {
+            String name = names.get(i - 1);
+            Integer length = lengths.get(name);
+            entryPoints.add(new DasEntryPoint(name, 1, (length == null) ? index.getMaxEnd(name) : length, null, version, null, null, false));
+        }
+        return entryPoints;
+    }
+
+    public String getEntryPointVersion() throws UnimplementedFeatureException, DataSourceException {
+        return version;
+    }
+
+    public int getTotalEntryPoints() throws UnimplementedFeatureException, DataSourceException {
+        return index.getNames().size();
+    }
+
+    /**
+     * Returns the length of a sequence, or the upper bound given by the index if it is not known.
+     *
+     * @throws BadReferenceObjectException if the sequence is neither indexed nor of known length.
+     */
+    private int getLength(String segmentId) throws BadReferenceObjectException {
+        Integer length = lengths.get(segmentId);
+        if (length != null) {
+            return length;
+        }
+        if (!index.contains(segmentId)) {
+            throw new BadReferenceObjectException(segmentId, "The sequence is not in the tabix file");
+        }
+        return Math.max(index.getMaxEnd(segmentId), 1);
+    }
+
+    /**
+     * Reads the sequence lengths given in the header of the file.
+     */
+    private void readHeaderLengths() throws IOException, DataSourceException {
+        BgzfReader reader = new BgzfReader(channel);
+        try {
+            String line;
+            int lineNumber = 0;
+            char meta = index.getMeta();
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                if (lineNumber > index.getSkip() && (line.length() == 0 || line.charAt(0) != meta)) {
+                    break;
+                }
+                Matcher matcher = VCF_CONTIG.matcher(line);
+                if (matcher.find()) {
+                    putLength(matcher.group(1), matcher.group(2));
+                    continue;
+                }
+                matcher = VCF_CONTIG_LENGTH_FIRST.matcher(line);
+                if (matcher.find()) {
+                    putLength(matcher.group(2), matcher.group(1));
+                    continue;
+                }
+                matcher = GFF_SEQUENCE_REGION.matcher(line);
+                if (matcher.find()) {
+                    putLength(matcher.group(1), matcher.group(3));
+                }
+            }
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Reads the sequence lengths from a file holding a sequence name and a length on each
+     * line, separated by white space.
+     */
+    private void readLengths(File lengthsFile) throws IOException, DataSourceException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(lengthsFile), "UTF-8"));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.trim().split("\\s+");
+                if (fields.length >= 2 && fields[0].length() > 0 && fields[0].charAt(0) != '#') {
+                    putLength(fields[0], fields[1]);
+                }
+            }
+        } finally {
+            reader.close();
+        }
+    }
+
+    private void putLength(String name, String length) throws DataSourceException {
+        try {
+            lengths.put(name, Integer.valueOf(length));
+        } catch (NumberFormatException e) {
+            throw new DataSourceException("Invalid length for the sequence " + name + ": " + length, e);
+        }
+    }
+
+    private DasType getType(String id) {
+        DasType type = typeCache.get(id);
+        if (type == null) {
+            type = new DasType(id, null, null, id);
+            DasType previous = typeCache.putIfAbsent(id, type);
+            if (previous != null) {
+                type = previous;
+            }
+        }
+        return type;
+    }
+
+    private DasMethod getMethod(String id) throws DataSourceException {
+        DasMethod method = methodCache.get(id);
+        if (method == null) {
+            method = new DasMethod(id, id, null);
+            DasMethod previous = methodCache.putIfAbsent(id, method);
+            if (previous != null) {
+                method = previous;
+            }
+        }
+        return method;
+    }
+
+    /**
+     * Turns a line of the file into a feature.
+     *
+     * @param fields   the columns of the line.
+     * @param begin    the start of the feature, from 1.
+     * @param end      the end of the feature, inclusive.
+     * @param offset   the virtual offset of the line, making up the id of the features without one.
+     */
+    private DasFeature toFeature(String[] fields, int begin, int end, long offset) throws DataSourceException {
+        String sequence = fields[index.getSequenceColumn() - 1];
+        DasType type = fixedType;
+        if (typeColumn >= 0 && typeColumn < fields.length && !GffAttributes.isMissing(fields[typeColumn])) {
+            type = getType(fields[typeColumn]);
+        }
+        DasMethod method = fixedMethod;
+        if (methodColumn >= 0 && methodColumn < fields.length && !GffAttributes.isMissing(fields[methodColumn])) {
+            method = getMethod(fields[methodColumn]);
+        }
+        Double score = null;
+        if (scoreColumn >= 0 && scoreColumn < fields.length && !GffAttributes.isMissing(fields[scoreColumn])) {
+            try {
+                score = Double.valueOf(fields[scoreColumn]);
+            } catch (NumberFormatException e) {
+                score = null;
+            }
+        }
+        String id = null;
+        String label = null;
+        DasFeatureOrientation orientation = DasFeatureOrientation.ORIENTATION_NOT_APPLICABLE;
+        DasPhase phase = DasPhase.PHASE_NOT_APPLICABLE;
+        List<String> notes = null;
+        List<String> parents = null;
+
+        if (format.equals(FORMAT_GFF)) {
+            if (fields.length > 6) {
+                orientation = GffAttributes.getOrientation(fields[6]);
+            }
+            if (fields.length > 7) {
+                phase = GffAttributes.getPhase(fields[7]);
+            }
+            GffAttributes attributes = GffAttributes.parse((fields.length > 8) ? fields[8] : null);
+            id = attributes.getId();
+            label = attributes.getLabel();
+            parents = attributes.getParents();
+            notes = attributes.getNotes();
+        } else if (format.equals(FORMAT_BED)) {
+            if (fields.length > 3 && !GffAttributes.isMissing(fields[3])) {
+                label = fields[3];
+            }
+            if (fields.length > 5) {
+                orientation = GffAttributes.getOrientation(fields[5]);
+            }
+        } else {
+            if (fields.length > 2 && !GffAttributes.isMissing(fields[2])) {
+                id = fields[2];
+            }
+            if (fields.length > 4) {
+                label = fields[3] + ">" + fields[4];
+            }
+            notes = new ArrayList<String>();
+            if (fields.length > 6) {
+                notes.add("FILTER=" + fields[6]);
+            }
+            if (fields.length > 7 && !GffAttributes.isMissing(fields[7])) {
+                for (String info : fields[7].split(";")) {
+                    notes.add(info);
+                }
+            }
+        }
+        if (id == null || id.length() == 0) {
+            id = sequence + "." + Long.toHexString(offset);
+        }
+        return new DasFeature(id, label, type, method, begin, end, score, orientation, phase, notes, null, null, parents, null);
+    }
+
+    /**
+     * Returns the end of a record, inclusive.
+     */
+    private int getEnd(String[] fields, int begin) {
+        int endColumn = index.getEndColumn();
+        if (endColumn > 0 && endColumn <= fields.length) {
+            return Integer.parseInt(fields[endColumn - 1]);
+        }
+        if (format.equals(FORMAT_VCF) && fields.length > 3) {
+            if (fields.length > 7) {
+                // Structural variants give their end in the INFO column.
+                String info = fields[7];
+                int from = info.startsWith("END=") ? 4 : info.indexOf(";END=");
+                if (from >= 0) {
+                    from = info.startsWith("END=") ? 4 : from + 5;
+                    int to = info.indexOf(';', from);
+                    return Integer.parseInt(info.substring(from, (to < 0) ? info.length() : to));
+                }
+            }
+            return begin + fields[3].length() - 1;
+        }
+        return begin;
+    }
+
+    private static int getColumn(Map<String, PropertyType> properties, String key, int defaultColumn) throws DataSourceException {
+        String value = DataSourceProperties.getProperty(properties, key);
+        if (value == null) {
+            return defaultColumn;
+        }
+        try {
+            int column = Integer.parseInt(value);
+            if (column < 1) {
+                throw new NumberFormatException("Columns start from 1");
+            }
+            return column - 1;
+        } catch (NumberFormatException e) {
+            throw new DataSourceException("The property " + key + " should be a column number from 1, found '" + value + "'", e);
+        }
+    }
+
+    /**
+     * The features of a region, read from the blocks of the file given by the index as the
+     * servlet asks for them.
+     */
+    @SuppressWarnings("serial")
+    private class TabixStreamedSegment extends DasStreamedSegment {
+
+        private final String sequence;
+
+        private final int start;
+
+        private final int stop;
+
+        private final List<long[]> chunks;
+
+        private int chunk = -1;
+
+        private BgzfReader reader;
+
+        private boolean done = false;
+
+        private TabixStreamedSegment(String segmentId, String version, int start, int stop) throws DataSourceException {
+            super(segmentId, start, stop, version, null, null);
+            this.sequence = segmentId;
+            this.start = start;
+            this.stop = stop;
+            this.chunks = index.getChunks(segmentId, start - 1, stop);
+        }
+
+        @Override
+        public DasFeature nextFeature() throws DataSourceException {
+            String line = null;
+            try {
+                while (!done) {
+                    if (reader == null || reader.getVirtualOffset() >= chunks.get(chunk)[1]) {
+                        if (!nextChunk()) {
+                            break;
+                        }
+                        continue;
+                    }
+                    long offset = reader.getVirtualOffset();
+                    line = reader.readLine();
+                    if (line == null) {
+                        break;
+                    }
+                    if (line.length() == 0 || line.charAt(0) == index.getMeta()) {
+                        continue;
+                    }
+                    String[] fields = line.split("\t");
+                    if (fields.length < index.getBeginColumn() || !fields[index.getSequenceColumn() - 1].equals(sequence)) {
+                        continue;
+                    }
+                    int begin = Integer.parseInt(fields[index.getBeginColumn() - 1]) + (zeroBased ? 1 : 0);
+                    if (begin > stop) {
+                        // The records are sorted, none of the following ones overlaps the region.
+                        break;
+                    }
+                    int end = getEnd(fields, begin);
+                    if (end < start) {
+                        continue;
+                    }
+                    return toFeature(fields, begin, end, offset);
+                }
+            } catch (IOException e) {
+                close();
+                throw new DataSourceException("The tabix file cannot be read", e);
+            } catch (NumberFormatException e) {
+                close();
+                throw new DataSourceException("Invalid coordinates in the tabix file: " + line, e);
+            }
+            close();
+            return null;
+        }
+
+        /**
+         * Moves to the start of the next chunk.
+         *
+         * @return false if there is none left.
+         */
+        private boolean nextChunk() throws IOException, DataSourceException {
+            if (++chunk >= chunks.size()) {
+                return false;
+            }
+            if (reader == null) {
+                FileChannel fileChannel;
+                synchronized (TabixAnnotationDataSource.this) {
+                    fileChannel = channel;
+                }
+                if (fileChannel == null) {
+                    throw new DataSourceException("The tabix file has been closed, " + sequence + " cannot be read");
+                }
+                reader = new BgzfReader(fileChannel);
+            }
+            reader.seek(chunks.get(chunk)[0]);
+            return true;
+        }
+
+        /**
+         * Reads all the features of the region, for the non-streamed requests.
+         */
+        private List<DasFeature> readAll() throws DataSourceException {
+            List<DasFeature> features = new ArrayList<DasFeature>();
+            try {
+                DasFeature feature;
+                while ((feature = nextFeature()) != null) {
+                    features.add(feature);
+                }
+            } finally {
+                close();
+            }
+            return features;
+        }
+
+        @Override
+        public void close() {
+            done = true;
+            if (reader != null) {
+                reader.close();
+                reader = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,360 @@
+/*
+ * Copyright 2007 Philip Jones, EMBL-European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *
+ * For further details of the mydas project, including source code,
+ * downloads and documentation, please see:
+ *
+ * http://code.google.com/p/mydas/
+ *
+ */
+
+
+package uk.ac.ebi.mydas.datasource;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A tabix index (.tbi) or coordinate-sorted index (.csi) of a bgzipped, tab separated file,
+ * giving the chunks of the file (pairs of virtual offsets) that may hold the records
+ * overlapping a region.
+ * <p/>
+ * Both formats bin the records as in samtools: a record is put in the smallest bin holding it,
+ * the bins of each level being 8 times smaller than those of the level above.  The .tbi format
+ * has 6 levels with 16 kb bins at the bottom, plus a linear index giving, for each 16 kb window,
+ * the offset of the first record overlapping it; the .csi format sets the size and number of
+ * levels in the header and records that offset for each bin instead.
+ */
+final class TabixIndex {
+
+    static final int FORMAT_GENERIC = 0;
+    static final int FORMAT_SAM = 1;
+    static final int FORMAT_VCF = 2;
+
+    /**
+     * Flag set in the format when the begin column is 0-based, as in BED files.
+     */
+    static final int FORMAT_ZERO_BASED = 0x10000;
+
+    private static final int TBI_MIN_SHIFT = 14;
+    private static final int TBI_DEPTH = 5;
+
+    private static final byte[] TBI_MAGIC = {'T', 'B', 'I', 1};
+    private static final byte[] CSI_MAGIC = {'C', 'S', 'I', 1};
+
+    private final int format;
+    private final int sequenceColumn;
+    private final int beginColumn;
+    private final int endColumn;
+    private final char meta;
+    private final int skip;
+
+    private final int minShift;
+    private final int depth;
+
+    private final List<String> names = new ArrayList<String>();
+    private final Map<String, Integer> referenceIds = new HashMap<String, Integer>();
+    private final List<Reference> references = new ArrayList<Reference>();
+
+    private TabixIndex(ByteBuffer buffer, boolean csi) throws IOException {
+        if (csi) {
+            minShift = buffer.getInt();
+            depth = buffer.getInt();
+            int auxLength = buffer.getInt();
+            if (auxLength < 28) {
+                throw new IOException("The CSI index has no tabix header, it does not index a tab separated file");
+            }
+        } else {
+            minShift = TBI_MIN_SHIFT;
+            depth = TBI_DEPTH;
+        }
+        int referenceCount = csi ? -1 : buffer.getInt();
+        format = buffer.getInt();
+        sequenceColumn = buffer.getInt();
+        beginColumn = buffer.getInt();
+        endColumn = buffer.getInt();
+        meta = (char) buffer.getInt();
+        skip = buffer.getInt();
+        byte[] nameBytes = new byte[buffer.getInt()];
+        buffer.get(nameBytes);
+        if (csi) {
+            referenceCount = buffer.getInt();
+        }
+        int start = 0;
+        for (int i = 0; i < nameBytes.length; i++) {
+            if (nameBytes[i] == 0) {
+                String name = new String(nameBytes, start, i - start, "UTF-8");
+                referenceIds.put(name, names.size());
+                names.add(name);
+                start = i + 1;
+            }
+        }
+        if (names.size() != referenceCount) {
+            throw new IOException("The index names " + names.size() + " sequences instead of " + referenceCount);
+        }
+        int pseudoBin = binFirst(depth + 1) + 1;
+        for (int r = 0; r < referenceCount; r++) {
+            Reference reference = new Reference();
+            int binCount = buffer.getInt();
+            for (int b = 0; b < binCount; b++) {
+                int bin = buffer.getInt();
+                long binOffset = csi ? buffer.getLong() : 0;
+                long[] chunks = new long[buffer.getInt() * 2];
+                for (int c = 0; c < chunks.length; c++) {
+                    chunks[c] = buffer.getLong();
+                }
+                if (bin != pseudoBin) {
+                    reference.bins.put(bin, chunks);
+                    if (csi) {
+                        reference.binOffsets.put(bin, binOffset);
+                    }
+                    reference.maxEnd = Math.max(reference.maxEnd, getBinEnd(bin));
+                }
+            }
+            if (!csi) {
+                reference.linearIndex = new long[buffer.getInt()];
+                for (int i = 0; i < reference.linearIndex.length; i++) {
+                    reference.linearIndex[i] = buffer.getLong();
+                }
+                if (reference.linearIndex.length > 0) {
+                    reference.maxEnd = Math.min(reference.maxEnd, (long) reference.linearIndex.length << TBI_MIN_SHIFT);
+                }
+            }
+            references.add(reference);
+        }
+    }
+
+    /**
+     * Reads a .tbi or .csi index, telling them apart by their magic number.
+     */
+    static TabixIndex read(File file) throws IOException {
+        FileInputStream in = new FileInputStream(file);
+        ByteArrayOutputStream inflated = new ByteArrayOutputStream((int) Math.min(file.length() * 4, Integer.MAX_VALUE));
+        try {
+            FileChannel channel = in.getChannel();
+            BgzfReader reader = new BgzfReader(channel);
+            try {
+                byte[] buffer = new byte[64 * 1024];
+                int count;
+                while ((count = reader.read(buffer, 0, buffer.length)) != -1) {
+                    inflated.write(buffer, 0, count);
+                }
+            } finally {
+                reader.close();
+            }
+        } finally {
+            in.close();
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(inflated.toByteArray()).order(ByteOrder.LITTLE_ENDIAN);
+        byte[] magic = new byte[4];
+        try {
+            buffer.get(magic);
+            if (Arrays.equals(magic, TBI_MAGIC)) {
+                return new TabixIndex(buffer, false);
+            }
+            if (Arrays.equals(magic, CSI_MAGIC)) {
+                return new TabixIndex(buffer, true);
+            }
+        } catch (BufferUnderflowException e) {
+            throw new IOException("The index " + file + " is truncated");
+        }
+        throw new IOException("The file " + file + " is not a tabix or CSI index");
+    }
+
+    int getFormat() {
+        return format;
+    }
+
+    /**
+     * @return the column of the sequence name, from 1.
+     */
+    int getSequenceColumn() {
+        return sequenceColumn;
+    }
+
+    /**
+     * @return the column of the begin coordinate, from 1.
+     */
+    int getBeginColumn() {
+        return beginColumn;
+    }
+
+    /**
+     * @return the column of the end coordinate, from 1, or 0 if there is none.
+     */
+    int getEndColumn() {
+        return endColumn;
+    }
+
+    /**
+     * @return the character starting the lines to be ignored, such as headers.
+     */
+    char getMeta() {
+        return meta;
+    }
+
+    /**
+     * @return the number of lines to be ignored at the start of the file.
+     */
+    int getSkip() {
+        return skip;
+    }
+
+    List<String> getNames() {
+        return Collections.unmodifiableList(names);
+    }
+
+    boolean contains(String name) {
+        return referenceIds.containsKey(name);
+    }
+
+    /**
+     * Returns an upper bound of the end of the records of a sequence, from the bins holding
+     * records.  Used as the length of the sequence when it is not known otherwise.
+     */
+    int getMaxEnd(String name) {
+        Integer id = referenceIds.get(name);
+        return (id == null) ? 0 : (int) Math.min(references.get(id).maxEnd, Integer.MAX_VALUE);
+    }
+
+    /**
+     * @return the end of the region covered by a bin, exclusive.
+     */
+    private long getBinEnd(int bin) {
+        int level = 0;
+        while (level < depth && bin >= binFirst(level + 1)) {
+            level++;
+        }
+        return ((long) (bin - binFirst(level)) + 1) << (minShift + 3 * (depth - level));
+    }
+
+    /**
+     * Returns the chunks of the file that may hold the records overlapping a region, sorted and
+     * merged, as pairs of begin (inclusive) and end (exclusive) virtual offsets.
+     *
+     * @param name  the sequence name.
+     * @param begin the begin of the region, from 0, inclusive.
+     * @param end   the end of the region, exclusive.
+     * @return the chunks, empty if the sequence is not indexed.
+     */
+    List<long[]> getChunks(String name, int begin, int end) {
+        Integer id = referenceIds.get(name);
+        List<long[]> chunks = new ArrayList<long[]>();
+        if (id == null || end <= begin) {
+            return chunks;
+        }
+        Reference reference = references.get(id);
+        long maxEnd = 1L << (minShift + 3 * depth);
+        long regionEnd = Math.min(end, maxEnd);
+        if (begin >= regionEnd) {
+            return chunks;
+        }
+        long minOffset = getMinOffset(reference, begin);
+        for (int level = 0, first = 0, shift = minShift + 3 * depth; level <= depth; first += 1 << (3 * level), shift -= 3, level++) {
+            long from = first + ((long) begin >> shift);
+            long to = first + ((regionEnd - 1) >> shift);
+            for (long bin = from; bin <= to; bin++) {
+                long[] binChunks = reference.bins.get((int) bin);
+                if (binChunks == null) {
+                    continue;
+                }
+                for (int c = 0; c < binChunks.length; c += 2) {
+                    if (binChunks[c + 1] > minOffset) {
+                        chunks.add(new long[]{Math.max(binChunks[c], minOffset), binChunks[c + 1]});
+                    }
+                }
+            }
+        }
+        Collections.sort(chunks, CHUNK_ORDER);
+        List<long[]> merged = new ArrayList<long[]>(chunks.size());
+        for (long[] chunk : chunks) {
+            long[] last = merged.isEmpty() ? null : merged.get(merged.size() - 1);
+            if (last != null && chunk[0] <= last[1]) {
+                last[1] = Math.max(last[1], chunk[1]);
+            } else {
+                merged.add(chunk);
+            }
+        }
+        return merged;
+    }
+
+    /**
+     * Returns the offset before which no record overlapping the region can start: from the
+     * linear index for .tbi files, and from the offset of the closest bin holding the begin of
+     * the region for .csi files, as done by htslib.
+     */
+    private long getMinOffset(Reference reference, int begin) {
+        if (reference.linearIndex != null) {
+            long[] linearIndex = reference.linearIndex;
+            if (linearIndex.length == 0) {
+                return 0;
+            }
+            int window = begin >> TBI_MIN_SHIFT;
+            return linearIndex[Math.min(window, linearIndex.length - 1)];
+        }
+        int bin = binFirst(depth) + (begin >> minShift);
+        while (bin > 0) {
+            Long offset = reference.binOffsets.get(bin);
+            if (offset != null) {
+                return offset;
+            }
+            int first = (parent(bin) << 3) + 1;
+            bin = (bin > first) ? bin - 1 : parent(bin);
+        }
+        Long offset = reference.binOffsets.get(0);
+        return (offset == null) ? 0 : offset;
+    }
+
+    /**
+     * @return the number of the first bin of a level.
+     */
+    private static int binFirst(int level) {
+        return ((1 << (3 * level)) - 1) / 7;
+    }
+
+    private static int parent(int bin) {
+        return (bin - 1) >> 3;
+    }
+
+    private static final Comparator<long[]> CHUNK_ORDER = new Comparator<long[]>() {
+        public int compare(long[] chunk1, long[] chunk2) {
+            return (chunk1[0] < chunk2[0]) ? -1 : ((chunk1[0] == chunk2[0]) ? 0 : 1);
+        }
+    };
+
+    /**
+     * The bins of a sequence.
+     */
+    private static final class Reference {
+        private final Map<Integer, long[]> bins = new HashMap<Integer, long[]>();
+        private final Map<Integer, Long> binOffsets = new HashMap<Integer, Long>();
+        private long[] linearIndex;
+        private long maxEnd = 0;
+    }
+}
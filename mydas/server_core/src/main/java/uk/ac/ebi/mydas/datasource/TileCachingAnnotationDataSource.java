@@ -0,0 +1,404 @@
+/*
+ * Copyright 2007 Philip Jones, EMBL-European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *
+ * For further details of the mydas project, including source code,
+ * downloads and documentation, please see:
+ *
+ * http://code.google.com/p/mydas/
+ *
+ */
+
+package uk.ac.ebi.mydas.datasource;
+
+import org.apache.log4j.Logger;
+import uk.ac.ebi.mydas.configuration.DataSourceConfiguration;
+import uk.ac.ebi.mydas.configuration.PropertyType;
+import uk.ac.ebi.mydas.exceptions.BadReferenceObjectException;
+import uk.ac.ebi.mydas.exceptions.CoordinateErrorException;
+import uk.ac.ebi.mydas.exceptions.DataSourceException;
+import uk.ac.ebi.mydas.exceptions.UnimplementedFeatureException;
+import uk.ac.ebi.mydas.model.DasAnnotatedSegment;
+import uk.ac.ebi.mydas.model.DasEntryPoint;
+import uk.ac.ebi.mydas.model.DasFeature;
+import uk.ac.ebi.mydas.model.DasType;
+import uk.ac.ebi.mydas.model.Range;
+
+import javax.servlet.ServletContext;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Decorates a {@link RangeHandlingAnnotationDataSource} with a cache of fixed-size tiles of
+ * features, so that overlapping range requests (e.g. a browser panning along a chromosome)
+ * only fetch from the data source the tiles that have not been loaded yet.
+ * <p/>
+ * A request for segment=chr1:1000,51000 with 10000 bp tiles is answered from tiles
+ * 1-10000, 10001-20000 ... 50001-60000: the missing ones are fetched from the data source,
+ * consecutive missing tiles in a single call, and the features of all the tiles are then
+ * restricted to the requested range with the same overlap rules as
+ * {@link DasAnnotatedSegment#getFeatures(int, int)}.
+ * <p/>
+ * The cache is switched on for a data source with the following properties in
+ * MydasServerConfig.xml:
+ * <ul>
+ * <li><b>range_tile_size</b>: size of the tiles in base pairs / residues. The cache is off
+ * unless it is greater than 0.</li>
+ * <li><b>range_tile_cache_max_features</b>: maximum number of features held in the cache,
+ * 100000 by default. The least recently used tiles are evicted first.</li>
+ * </ul>
+ * Only data sources implementing no other mydas interface than RangeHandlingAnnotationDataSource
+ * are decorated, as those interfaces would otherwise be hidden from the servlet. Requests for
+ * whole segments, paginated requests and requests with invalid coordinates go straight to the
+ * data source. Tiles are kept until they are evicted, so the data must not change while the
+ * server is running.
+ */
+public class TileCachingAnnotationDataSource implements RangeHandlingAnnotationDataSource {
+
+    private static final Logger LOGGER = Logger.getLogger(TileCachingAnnotationDataSource.class);
+
+    public static final String TILE_SIZE_PROPERTY = "range_tile_size";
+    public static final String MAX_FEATURES_PROPERTY = "range_tile_cache_max_features";
+
+    private static final long DEFAULT_MAX_FEATURES = 100000L;
+
+    /**
+     * mydas interfaces that would be hidden by the decorator.
+     */
+    private static final Class<?>[] UNSUPPORTED_INTERFACES = {
+            ReferenceDataSource.class, WritebackDataSource.class, AlignmentDataSource.class,
+            StructureDataSource.class, StreamingAnnotationDataSource.class,
+            BatchRangeAnnotationDataSource.class, FilterAwareAnnotationDataSource.class, CommandExtender.class
+    };
+
+    private final RangeHandlingAnnotationDataSource dataSource;
+
+    private final int tileSize;
+
+    private final long maxFeatures;
+
+    private long cachedFeatures = 0;
+
+    /**
+     * Cached tiles in access order, least recently used first.
+     */
+    private final LinkedHashMap<String, Tile> tiles = new LinkedHashMap<String, Tile>(16, 0.75f, true);
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    public TileCachingAnnotationDataSource(RangeHandlingAnnotationDataSource dataSource, int tileSize, long maxFeatures) {
+        this.dataSource = dataSource;
+        this.tileSize = tileSize;
+        this.maxFeatures = maxFeatures;
+    }
+
+    /**
+     * Decorates a newly created data source with a tile cache, if its configuration asks for it.
+     *
+     * @param dataSource the data source.
+     * @param properties the properties of the data source.
+     * @return the decorated data source, or the data source itself if the cache is off or
+     *         cannot be used with it.
+     */
+    public static AnnotationDataSource decorate(AnnotationDataSource dataSource, Map<String, PropertyType> properties) {
+        long tileSize = getLong(properties, TILE_SIZE_PROPERTY, 0);
+        if (tileSize <= 0) {
+            return dataSource;
+        }
+        if (!(dataSource instanceof RangeHandlingAnnotationDataSource)) {
+            LOGGER.warn("The property " + TILE_SIZE_PROPERTY + " is ignored for " + dataSource.getClass().getName()
+                    + ", which is not a RangeHandlingAnnotationDataSource.");
+            return dataSource;
+        }
+        for (Class<?> unsupported : UNSUPPORTED_INTERFACES) {
+            if (unsupported.isInstance(dataSource)) {
+                LOGGER.warn("The property " + TILE_SIZE_PROPERTY + " is ignored for " + dataSource.getClass().getName()
+                        + ", the tile cache cannot be used with a " + unsupported.getSimpleName() + ".");
+                return dataSource;
+            }
+        }
+        return new TileCachingAnnotationDataSource((RangeHandlingAnnotationDataSource) dataSource,
+                (int) Math.min(tileSize, Integer.MAX_VALUE),
+                getLong(properties, MAX_FEATURES_PROPERTY, DEFAULT_MAX_FEATURES));
+    }
+
+    /**
+     * @return the data source decorated.
+     */
+    public RangeHandlingAnnotationDataSource getDataSource() {
+        return dataSource;
+    }
+
+    /**
+     * @return the number of tiles found in the cache.
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * @return the number of tiles fetched from the data source.
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * @return the number of tiles evicted from the cache.
+     */
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    /**
+     * @return the number of features currently held in the cache.
+     */
+    public synchronized long getCachedFeatures() {
+        return cachedFeatures;
+    }
+
+    /**
+     * Empties the cache.
+     */
+    public synchronized void clear() {
+        tiles.clear();
+        cachedFeatures = 0;
+    }
+
+    public DasAnnotatedSegment getFeatures(String segmentId, int start, int stop, Integer maxbins)
+            throws BadReferenceObjectException, CoordinateErrorException, DataSourceException {
+        if (start <= 0 || start > stop) {
+            // Let the data source report the problem.
+            return dataSource.getFeatures(segmentId, start, stop, maxbins);
+        }
+        int first = getTileIndex(start);
+        int last = getTileIndex(stop);
+        Tile[] requested = new Tile[last - first + 1];
+        synchronized (this) {
+            for (int index = first; index <= last; index++) {
+                requested[index - first] = tiles.get(getKey(segmentId, maxbins, index));
+            }
+        }
+        int index = first;
+        while (index <= last) {
+            if (requested[index - first] != null) {
+                hits.incrementAndGet();
+                index++;
+                continue;
+            }
+            // Fetches consecutive missing tiles in one go.
+            int runEnd = index;
+            while (runEnd < last && requested[runEnd + 1 - first] == null) {
+                runEnd++;
+            }
+            misses.addAndGet(runEnd - index + 1);
+            int runStart = getTileStart(index);
+            int runStop = getTileStop(runEnd);
+            DasAnnotatedSegment fetched;
+            try {
+                fetched = dataSource.getFeatures(segmentId, runStart, runStop, maxbins);
+            } catch (CoordinateErrorException e) {
+                // The tiles go beyond the end of the segment, which this data source does not accept.
+                if (LOGGER.isDebugEnabled()) {
+                    LOGGER.debug("Tiles " + runStart + "," + runStop + " of " + segmentId + " rejected, fetching " + start + "," + stop + " uncached");
+                }
+                return dataSource.getFeatures(segmentId, start, stop, maxbins);
+            }
+            SegmentInfo info = new SegmentInfo(fetched, runStart, runStop);
+            if (runEnd > index) {
+                // Each tile of the run is restricted from the same features.
+                fetched.indexFeatures();
+            }
+            for (int tileIndex = index; tileIndex <= runEnd; tileIndex++) {
+                Tile tile = new Tile(new ArrayList<DasFeature>(fetched.getFeatures(getTileStart(tileIndex), getTileStop(tileIndex))), info);
+                requested[tileIndex - first] = tile;
+                put(getKey(segmentId, maxbins, tileIndex), tile);
+            }
+            index = runEnd + 1;
+        }
+
+        // A feature spanning several tiles is held by each of them, it is taken from the first one requested.
+        Collection<DasFeature> features = new ArrayList<DasFeature>();
+        for (int tileIndex = first; tileIndex <= last; tileIndex++) {
+            for (DasFeature feature : requested[tileIndex - first].features) {
+                if (tileIndex == first || getTileIndex(feature.getStartCoordinate()) >= tileIndex) {
+                    features.add(feature);
+                }
+            }
+        }
+        SegmentInfo info = requested[0].info;
+        DasAnnotatedSegment assembled = new DasAnnotatedSegment(segmentId,
+                info.echoesRange ? Integer.valueOf(start) : info.startCoordinate,
+                info.echoesRange ? Integer.valueOf(stop) : info.stopCoordinate,
+                info.version, info.segmentLabel, new ArrayList<DasFeature>(features));
+        return new DasAnnotatedSegment(segmentId, assembled.getStartCoordinate(), assembled.getStopCoordinate(),
+                info.version, info.segmentLabel, assembled.getFeatures(start, stop));
+    }
+
+    public DasAnnotatedSegment getFeatures(String segmentId, int start, int stop, Integer maxbins, Range rows)
+            throws BadReferenceObjectException, CoordinateErrorException, DataSourceException, UnimplementedFeatureException {
+        return dataSource.getFeatures(segmentId, start, stop, maxbins, rows);
+    }
+
+    public void init(ServletContext servletContext, Map<String, PropertyType> globalParameters, DataSourceConfiguration dataSourceConfig)
+            throws DataSourceException {
+        dataSource.init(servletContext, globalParameters, dataSourceConfig);
+    }
+
+    public void destroy() {
+        if (LOGGER.isInfoEnabled()) {
+            LOGGER.info("Tile cache of " + dataSource.getClass().getName() + ": " + hits.get() + " hits, "
+                    + misses.get() + " misses, " + evictions.get() + " evictions");
+        }
+        clear();
+        dataSource.destroy();
+    }
+
+    public DasAnnotatedSegment getFeatures(String segmentId, Integer maxbins) throws BadReferenceObjectException, DataSourceException {
+        return dataSource.getFeatures(segmentId, maxbins);
+    }
+
+    public Collection<DasType> getTypes() throws DataSourceException {
+        return dataSource.getTypes();
+    }
+
+    public Collection<DasAnnotatedSegment> getFeatures(Collection<String> featureIdCollection, Integer maxbins)
+            throws UnimplementedFeatureException, DataSourceException {
+        return dataSource.getFeatures(featureIdCollection, maxbins);
+    }
+
+    public Integer getTotalCountForType(DasType type) throws DataSourceException {
+        return dataSource.getTotalCountForType(type);
+    }
+
+    public URL getLinkURL(String field, String id) throws UnimplementedFeatureException, DataSourceException {
+        return dataSource.getLinkURL(field, id);
+    }
+
+    public Collection<DasEntryPoint> getEntryPoints(Integer start, Integer stop) throws UnimplementedFeatureException, DataSourceException {
+        return dataSource.getEntryPoints(start, stop);
+    }
+
+    public String getEntryPointVersion() throws UnimplementedFeatureException, DataSourceException {
+        return dataSource.getEntryPointVersion();
+    }
+
+    public int getTotalEntryPoints() throws UnimplementedFeatureException, DataSourceException {
+        return dataSource.getTotalEntryPoints();
+    }
+
+    public DasAnnotatedSegment getFeatures(String segmentId, Integer maxbins, Range rows)
+            throws BadReferenceObjectException, DataSourceException, UnimplementedFeatureException {
+        return dataSource.getFeatures(segmentId, maxbins, rows);
+    }
+
+    public Collection<DasAnnotatedSegment> getFeatures(Collection<String> featureIdCollection, Integer maxbins, Range rows)
+            throws UnimplementedFeatureException, DataSourceException {
+        return dataSource.getFeatures(featureIdCollection, maxbins, rows);
+    }
+
+    private int getTileIndex(int coordinate) {
+        return (coordinate - 1) / tileSize;
+    }
+
+    private int getTileStart(int index) {
+        return (int) ((long) index * tileSize + 1);
+    }
+
+    private int getTileStop(int index) {
+        return (int) Math.min((long) (index + 1) * tileSize, Integer.MAX_VALUE);
+    }
+
+    private static String getKey(String segmentId, Integer maxbins, int index) {
+        return segmentId + '|' + maxbins + '|' + index;
+    }
+
+    private synchronized void put(String key, Tile tile) {
+        Tile previous = tiles.put(key, tile);
+        if (previous != null) {
+            cachedFeatures -= previous.features.size();
+        }
+        cachedFeatures += tile.features.size();
+        for (Iterator<Tile> eldest = tiles.values().iterator(); cachedFeatures > maxFeatures && eldest.hasNext();) {
+            Tile evicted = eldest.next();
+            if (evicted == tile) {
+                // Always keep the tile just fetched, even if larger than the cache.
+                continue;
+            }
+            cachedFeatures -= evicted.features.size();
+            eldest.remove();
+            evictions.incrementAndGet();
+        }
+    }
+
+    private static long getLong(Map<String, PropertyType> properties, String key, long defaultValue) {
+        PropertyType property = (properties == null) ? null : properties.get(key);
+        if (property == null || property.getValue() == null) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(property.getValue().trim());
+        } catch (NumberFormatException e) {
+            LOGGER.error("The property " + key + " should be a number, found '" + property.getValue() + "'. Using " + defaultValue);
+            return defaultValue;
+        }
+    }
+
+    /**
+     * The features of a tile, i.e. those overlapping it.
+     */
+    private static class Tile {
+        private final List<DasFeature> features;
+        private final SegmentInfo info;
+
+        private Tile(List<DasFeature> features, SegmentInfo info) {
+            this.features = features;
+            this.info = info;
+        }
+    }
+
+    /**
+     * Description of the segment, as returned by the data source with the features of a tile.
+     */
+    private static class SegmentInfo {
+        private final Integer startCoordinate;
+        private final Integer stopCoordinate;
+        private final String version;
+        private final String segmentLabel;
+
+        /**
+         * True if the data source describes the segment with the coordinates requested
+         * rather than those of the whole segment.
+         */
+        private final boolean echoesRange;
+
+        private SegmentInfo(DasAnnotatedSegment segment, int requestedStart, int requestedStop) {
+            this.startCoordinate = segment.getStartCoordinate();
+            this.stopCoordinate = segment.getStopCoordinate();
+            this.version = segment.getVersion();
+            this.segmentLabel = segment.getSegmentLabel();
+            this.echoesRange = Integer.valueOf(requestedStart).equals(startCoordinate)
+                    && Integer.valueOf(requestedStop).equals(stopCoordinate);
+        }
+    }
+}
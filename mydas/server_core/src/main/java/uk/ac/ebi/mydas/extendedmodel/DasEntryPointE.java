@@ -4,6 +4,7 @@ import java.io.IOException;
 
 import org.xmlpull.v1.XmlSerializer;
 
+import uk.ac.ebi.mydas.controller.DasXmlWriter;
 import uk.ac.ebi.mydas.exceptions.DataSourceException;
 import uk.ac.ebi.mydas.model.DasEntryPoint;
 import uk.ac.ebi.mydas.model.DasEntryPointOrientation;
@@ -47,8 +48,8 @@ public class DasEntryPointE extends DasEntryPoint {
         serializer.attribute(DAS_XML_NAMESPACE, "id", this.getSegmentId());
         //start and stop are an optional group
         if ( (this.getStartCoordinate() != null) && (this.getStopCoordinate() != null) ) {
-            serializer.attribute(DAS_XML_NAMESPACE, "start", Integer.toString(this.getStartCoordinate()));
-            serializer.attribute(DAS_XML_NAMESPACE, "stop", Integer.toString(this.getStopCoordinate()));
+            DasXmlWriter.attribute(serializer, DAS_XML_NAMESPACE, "start", this.getStartCoordinate());
+            DasXmlWriter.attribute(serializer, DAS_XML_NAMESPACE, "stop", this.getStopCoordinate());
         }
         if (this.getVersion() != null && this.getVersion().length() > 0){
             serializer.attribute(DAS_XML_NAMESPACE, "version", this.getVersion());
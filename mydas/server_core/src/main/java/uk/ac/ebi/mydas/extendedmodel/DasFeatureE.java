@@ -8,6 +8,7 @@ import java.util.Map;
 import org.xmlpull.v1.XmlSerializer;
 
 import uk.ac.ebi.mydas.controller.DasFeatureRequestFilter;
+import uk.ac.ebi.mydas.controller.DasXmlWriter;
 import uk.ac.ebi.mydas.exceptions.DataSourceException;
 import uk.ac.ebi.mydas.model.DasComponentFeature;
 import uk.ac.ebi.mydas.model.DasFeature;
@@ -63,62 +64,90 @@ public class DasFeatureE extends DasFeature {
 	 */
 	public void serialize(String DAS_XML_NAMESPACE,XmlSerializer serializer,DasFeatureRequestFilter filter,boolean categorize, boolean isUseFeatureIdForFeatureLabel, boolean hasReferences, boolean hasSuperParts,boolean hasSubParts) 
 		throws IllegalArgumentException, IllegalStateException, IOException, DataSourceException {
+		serialize(DAS_XML_NAMESPACE, serializer, this, filter, categorize, isUseFeatureIdForFeatureLabel, hasReferences, hasSuperParts, hasSubParts);
+	}
+
+	/**
+	 * Generates the piece of XML describing a DasFeature, straight from the feature and the
+	 * beans it refers to: no copy of the feature nor of its type, method, links or targets is made.
+	 * @param DAS_XML_NAMESPACE XML namespace to link with the elements to create
+	 * @param serializer Object where the XML is been written 
+	 * @param feature the feature to describe
+	 * @param filter Set of the query specifications to accept/reject a feature that belongs to the segment 
+	 * @param categorize (deprecated, it has no effect since 1.6.1) indicates if the categories will be included in the type of the feature
+	 * @param isUseFeatureIdForFeatureLabel indicates if a feature should use the Id as a label in case that a label is null
+	 * @throws IOException If the XML writer have an error
+	 * @throws IllegalStateException a method has been invoked at an illegal or inappropriate time.
+	 * @throws IllegalArgumentException indicate that a method has been passed an illegal or inappropriate argument.
+	 * @throws DataSourceException indicate that there is something wrong with the data source
+	 */
+	public static void serialize(String DAS_XML_NAMESPACE,XmlSerializer serializer,DasFeature feature,DasFeatureRequestFilter filter,boolean categorize, boolean isUseFeatureIdForFeatureLabel, boolean hasReferences, boolean hasSuperParts,boolean hasSubParts) 
+		throws IllegalArgumentException, IllegalStateException, IOException, DataSourceException {
         // Check the feature passes the filter.
-        if (filter.featurePasses(this)){
+        if (filter.featurePasses(feature)){
             serializer.startTag(DAS_XML_NAMESPACE, "FEATURE");
-            serializer.attribute(DAS_XML_NAMESPACE, "id", this.getFeatureId());
-            if (this.getFeatureLabel() != null && this.getFeatureLabel().length() > 0){
-                serializer.attribute(DAS_XML_NAMESPACE, "label", this.getFeatureLabel());
+            serializer.attribute(DAS_XML_NAMESPACE, "id", feature.getFeatureId());
+            if (feature.getFeatureLabel() != null && feature.getFeatureLabel().length() > 0){
+                serializer.attribute(DAS_XML_NAMESPACE, "label", feature.getFeatureLabel());
             }
             else if (isUseFeatureIdForFeatureLabel){
-                serializer.attribute(DAS_XML_NAMESPACE, "label", this.getFeatureId());
+                serializer.attribute(DAS_XML_NAMESPACE, "label", feature.getFeatureId());
             }
 
-            // TYPE element
-        	(new DasTypeE (this.getType())).serialize(DAS_XML_NAMESPACE, serializer, null, hasReferences, hasSubParts, hasSuperParts, true);
+            // TYPE element, serialized once per type (and reference flags) and then copied
+        	int typeVariant = (hasReferences) ? 1 + (hasSubParts ? 2 : 0) + (hasSuperParts ? 4 : 0) : 0;
+        	if (!DasXmlWriter.fragment(serializer, feature.getType(), typeVariant)){
+        		DasXmlWriter.startFragment(serializer);
+        		DasTypeE.serialize(DAS_XML_NAMESPACE, serializer, feature.getType(), null, hasReferences, hasSubParts, hasSuperParts, true);
+        		DasXmlWriter.endFragment(serializer, feature.getType(), typeVariant);
+        	}
 
-            // METHOD element
-        	(new DasMethodE(this.getMethod())).serialize(DAS_XML_NAMESPACE, serializer);
+            // METHOD element, serialized once per method and then copied
+        	if (!DasXmlWriter.fragment(serializer, feature.getMethod(), 0)){
+        		DasXmlWriter.startFragment(serializer);
+        		DasMethodE.serialize(DAS_XML_NAMESPACE, serializer, feature.getMethod());
+        		DasXmlWriter.endFragment(serializer, feature.getMethod(), 0);
+        	}
 
         	//DAS1.6 START and END are optional for the cases of non positional features
             //start and stop are an optional group
-        	if ((this.getStartCoordinate() != 0) && (this.getStopCoordinate() != 0)){
+        	if ((feature.getStartCoordinate() != 0) && (feature.getStopCoordinate() != 0)){
 	            // START element
 	            serializer.startTag(DAS_XML_NAMESPACE, "START");
-	            serializer.text(Integer.toString(this.getStartCoordinate()));
+	            DasXmlWriter.text(serializer, feature.getStartCoordinate());
 	            serializer.endTag(DAS_XML_NAMESPACE, "START");
 	
 	            // END element
 	            serializer.startTag(DAS_XML_NAMESPACE, "END");
-	            serializer.text(Integer.toString(this.getStopCoordinate()));
+	            DasXmlWriter.text(serializer, feature.getStopCoordinate());
 	            serializer.endTag(DAS_XML_NAMESPACE, "END");
         	}
 
             // SCORE element
         	// DAS 1.6: The value of - is assumed if the tag is omitted entirely. therefore it is optional.
-        	if (this.getScore() != null){
+        	if (feature.getScore() != null){
 	            serializer.startTag(DAS_XML_NAMESPACE, "SCORE");
-	            serializer.text (Double.toString(this.getScore()));
+	            DasXmlWriter.text(serializer, feature.getScore());
 	            serializer.endTag(DAS_XML_NAMESPACE, "SCORE");
         	}
             // ORIENTATION element
         	// DAS 1.6: The value of 0 is assumed if the tag is omitted entirely. therefore it is optional.
-        	if ((this.getOrientation()!=null) &&(this.getOrientation()!=DasFeatureOrientation.ORIENTATION_NOT_APPLICABLE)){
+        	if ((feature.getOrientation()!=null) &&(feature.getOrientation()!=DasFeatureOrientation.ORIENTATION_NOT_APPLICABLE)){
 	            serializer.startTag(DAS_XML_NAMESPACE, "ORIENTATION");
-	            serializer.text (this.getOrientation().toString());
+	            serializer.text (feature.getOrientation().toString());
 	            serializer.endTag(DAS_XML_NAMESPACE, "ORIENTATION");
         	}
             // PHASE element
         	// DAS 1.6: The value of - is assumed if the tag is omitted entirely. therefore it is optional.
-            if ((this.getPhase()!=null) && (this.getPhase()!=DasPhase.PHASE_NOT_APPLICABLE)){
+            if ((feature.getPhase()!=null) && (feature.getPhase()!=DasPhase.PHASE_NOT_APPLICABLE)){
 	        	serializer.startTag(DAS_XML_NAMESPACE, "PHASE");
-	            serializer.text (this.getPhase().toString());
+	            serializer.text (feature.getPhase().toString());
 	            serializer.endTag(DAS_XML_NAMESPACE, "PHASE");
             }
 
             // NOTE elements
-            if (this.getNotes() != null){
-                for (String note : this.getNotes()){
+            if (feature.getNotes() != null){
+                for (String note : feature.getNotes()){
                     serializer.startTag(DAS_XML_NAMESPACE, "NOTE");
                     serializer.text (note);
                     serializer.endTag(DAS_XML_NAMESPACE, "NOTE");
@@ -126,30 +155,30 @@ public class DasFeatureE extends DasFeature {
             }
 
             // LINK elements
-            if (this.getLinks() != null){
-                for (URL url : this.getLinks().keySet()){
-                    if (url != null){
-                    	(new DasLinkE(url,this.getLinks().get(url))).serialize(DAS_XML_NAMESPACE, serializer);
+            if (feature.getLinks() != null){
+                for (Map.Entry<URL, String> link : feature.getLinks().entrySet()){
+                    if (link.getKey() != null){
+                    	DasLinkE.serialize(DAS_XML_NAMESPACE, serializer, link.getKey(), link.getValue());
                     }
                 }
             }
 
             // TARGET elements
-            if (targets != null){
-                for (DasTarget target : this.getTargets()){
-                	(new DasTargetE(target)).serialize(DAS_XML_NAMESPACE, serializer);
+            if (feature.getTargets() != null){
+                for (DasTarget target : feature.getTargets()){
+                	DasTargetE.serialize(DAS_XML_NAMESPACE, serializer, target);
                 }
             }
 
-            if (parents != null){
-                for (String parent : this.getParents()){
+            if (feature.getParents() != null){
+                for (String parent : feature.getParents()){
                     serializer.startTag(DAS_XML_NAMESPACE, "PARENT");
                     serializer.attribute(DAS_XML_NAMESPACE, "id", parent);
                     serializer.endTag(DAS_XML_NAMESPACE, "PARENT");
                 }
             }
-            if (parts != null){
-                for (String part : this.getParts()){
+            if (feature.getParts() != null){
+                for (String part : feature.getParts()){
                     serializer.startTag(DAS_XML_NAMESPACE, "PART");
                     serializer.attribute(DAS_XML_NAMESPACE, "id", part);
                     serializer.endTag(DAS_XML_NAMESPACE, "PART");
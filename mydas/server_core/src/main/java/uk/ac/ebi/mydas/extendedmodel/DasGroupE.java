@@ -64,7 +64,7 @@ public class DasGroupE extends DasGroup {
         if (this.getLinks() != null){
             for (URL url : this.getLinks().keySet()){
                 if (url != null){
-                	(new DasLinkE(url,this.getLinks().get(url))).serialize(DAS_XML_NAMESPACE, serializer);
+                	DasLinkE.serialize(DAS_XML_NAMESPACE, serializer, url, this.getLinks().get(url));
                 }
             }
         }
@@ -72,7 +72,7 @@ public class DasGroupE extends DasGroup {
         // GROUP/TARGET elements
         if (this.getTargets() != null){
             for (DasTarget target : this.getTargets()){
-            	(new DasTargetE(target)).serialize(DAS_XML_NAMESPACE, serializer);
+            	DasTargetE.serialize(DAS_XML_NAMESPACE, serializer, target);
             }
         }
 
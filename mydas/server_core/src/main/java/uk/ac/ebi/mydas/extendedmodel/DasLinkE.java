@@ -36,11 +36,24 @@ public class DasLinkE extends DasLink {
 	 * @throws IllegalArgumentException indicate that a method has been passed an illegal or inappropriate argument.
 	 */
 	public void serialize(String DAS_XML_NAMESPACE,XmlSerializer serializer) throws IllegalArgumentException, IllegalStateException, IOException {
+		serialize(DAS_XML_NAMESPACE, serializer, this.getHref(), this.getText());
+	}
+
+	/**
+	 * Generates the piece of XML into the XML serializer object to describe a link, without creating a DasLink for it 
+	 * @param DAS_XML_NAMESPACE XML namespace to link with the elements to create
+	 * @param serializer Object where the XML is been written 
+	 * @param href the URL of the link
+	 * @param text the text of the link, may be null
+	 * @throws IOException If the XML writer have an error
+	 * @throws IllegalStateException a method has been invoked at an illegal or inappropriate time.
+	 * @throws IllegalArgumentException indicate that a method has been passed an illegal or inappropriate argument.
+	 */
+	public static void serialize(String DAS_XML_NAMESPACE,XmlSerializer serializer,URL href,String text) throws IllegalArgumentException, IllegalStateException, IOException {
         serializer.startTag(DAS_XML_NAMESPACE, "LINK");
-        serializer.attribute(DAS_XML_NAMESPACE, "href", this.getHref().toString());
-        String linkText = this.getText();
-        if (linkText != null && linkText.length() > 0){
-            serializer.text(linkText);
+        serializer.attribute(DAS_XML_NAMESPACE, "href", href.toString());
+        if (text != null && text.length() > 0){
+            serializer.text(text);
         }
         serializer.endTag(DAS_XML_NAMESPACE, "LINK");
 	
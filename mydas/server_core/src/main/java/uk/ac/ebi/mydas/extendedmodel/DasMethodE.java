@@ -37,15 +37,28 @@ public class DasMethodE extends DasMethod {
 	 * @throws IllegalArgumentException indicate that a method has been passed an illegal or inappropriate argument.
 	 */
 	public void serialize(String DAS_XML_NAMESPACE,XmlSerializer serializer)throws IllegalArgumentException, IllegalStateException, IOException{
+		serialize(DAS_XML_NAMESPACE, serializer, this);
+	}
+
+	/**
+	 * Generates the piece of XML into the XML serializer object to describe a DasMethod, without making a copy of it 
+	 * @param DAS_XML_NAMESPACE XML namespace to link with the elements to create
+	 * @param serializer Object where the XML is been written 
+	 * @param method the method to describe
+	 * @throws IOException If the XML writer have an error
+	 * @throws IllegalStateException a method has been invoked at an illegal or inappropriate time.
+	 * @throws IllegalArgumentException indicate that a method has been passed an illegal or inappropriate argument.
+	 */
+	public static void serialize(String DAS_XML_NAMESPACE,XmlSerializer serializer,DasMethod method)throws IllegalArgumentException, IllegalStateException, IOException{
         serializer.startTag(DAS_XML_NAMESPACE, "METHOD");
-        if (this.getId() != null && this.getId().length() > 0){
-            serializer.attribute(DAS_XML_NAMESPACE, "id", this.getId());
+        if (method.getId() != null && method.getId().length() > 0){
+            serializer.attribute(DAS_XML_NAMESPACE, "id", method.getId());
         }
-        if (this.getCvId() != null && this.getCvId().length() > 0){
-            serializer.attribute(DAS_XML_NAMESPACE, "cvId", this.getCvId());
+        if (method.getCvId() != null && method.getCvId().length() > 0){
+            serializer.attribute(DAS_XML_NAMESPACE, "cvId", method.getCvId());
         }
-        if (this.getLabel() != null && this.getLabel().length() > 0){
-            serializer.text(this.getLabel());
+        if (method.getLabel() != null && method.getLabel().length() > 0){
+            serializer.text(method.getLabel());
         }
         serializer.endTag(DAS_XML_NAMESPACE, "METHOD");
 	}
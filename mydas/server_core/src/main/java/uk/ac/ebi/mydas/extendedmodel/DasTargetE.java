@@ -4,6 +4,7 @@ import java.io.IOException;
 
 import org.xmlpull.v1.XmlSerializer;
 
+import uk.ac.ebi.mydas.controller.DasXmlWriter;
 import uk.ac.ebi.mydas.exceptions.DataSourceException;
 import uk.ac.ebi.mydas.model.DasTarget;
 
@@ -35,12 +36,25 @@ public class DasTargetE extends DasTarget {
 	 * @throws IllegalArgumentException indicate that a method has been passed an illegal or inappropriate argument.
 	 */
 	public void serialize(String DAS_XML_NAMESPACE,XmlSerializer serializer) throws IllegalArgumentException, IllegalStateException, IOException {
+		serialize(DAS_XML_NAMESPACE, serializer, this);
+	}
+
+	/**
+	 * Generates the piece of XML into the XML serializer object to describe a DasTarget, without making a copy of it
+	 * @param DAS_XML_NAMESPACE XML namespace to link with the elements to create
+	 * @param serializer Object where the XML is been written 
+	 * @param target the target to describe
+	 * @throws IOException If the XML writer have an error
+	 * @throws IllegalStateException a method has been invoked at an illegal or inappropriate time.
+	 * @throws IllegalArgumentException indicate that a method has been passed an illegal or inappropriate argument.
+	 */
+	public static void serialize(String DAS_XML_NAMESPACE,XmlSerializer serializer,DasTarget target) throws IllegalArgumentException, IllegalStateException, IOException {
         serializer.startTag(DAS_XML_NAMESPACE, "TARGET");
-        serializer.attribute(DAS_XML_NAMESPACE, "id", this.getTargetId());
-        serializer.attribute(DAS_XML_NAMESPACE, "start", Integer.toString(this.getStartCoordinate()));
-        serializer.attribute(DAS_XML_NAMESPACE, "stop", Integer.toString(this.getStopCoordinate()));
-        if (this.getTargetName() != null && this.getTargetName().length() > 0){
-            serializer.text(this.getTargetName());
+        serializer.attribute(DAS_XML_NAMESPACE, "id", target.getTargetId());
+        DasXmlWriter.attribute(serializer, DAS_XML_NAMESPACE, "start", target.getStartCoordinate());
+        DasXmlWriter.attribute(serializer, DAS_XML_NAMESPACE, "stop", target.getStopCoordinate());
+        if (target.getTargetName() != null && target.getTargetName().length() > 0){
+            serializer.text(target.getTargetName());
         }
         serializer.endTag(DAS_XML_NAMESPACE, "TARGET");
 	}
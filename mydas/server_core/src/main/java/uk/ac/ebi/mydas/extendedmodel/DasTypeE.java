@@ -4,6 +4,7 @@ import java.io.IOException;
 
 import org.xmlpull.v1.XmlSerializer;
 
+import uk.ac.ebi.mydas.controller.DasXmlWriter;
 import uk.ac.ebi.mydas.model.DasType;
 
 @SuppressWarnings("serial")
@@ -34,11 +35,30 @@ public class DasTypeE extends DasType {
 	 */
 	public void serialize(String DAS_XML_NAMESPACE, XmlSerializer serializer, Integer count, boolean hasReferenceFeatures, boolean hasSubParts, boolean hasSuperParts, boolean featuresCommand)
 			throws IllegalArgumentException, IllegalStateException, IOException{
+		serialize(DAS_XML_NAMESPACE, serializer, this, count, hasReferenceFeatures, hasSubParts, hasSuperParts, featuresCommand);
+	}
+
+	/**
+	 * Generates the piece of XML into the XML serializer object to describe a DasType, without making a copy of it 
+	 * @param DAS_XML_NAMESPACE XML namespace to link with the elements to create
+	 * @param serializer Object where the XML is been written 
+	 * @param type the type to describe
+	 * @param count number of this type in the requested segment. null if not desirable
+	 * @param hasReferenceFeatures indicates if this type has any reference
+	 * @param hasSubParts indicates if this type has any sub part
+	 * @param hasSuperParts indicates if this type has any super part
+     * @param featuresCommand indicates whether this method was called from features command or not
+	 * @throws IOException If the XML writer have an error
+	 * @throws IllegalStateException a method has been invoked at an illegal or inappropriate time.
+	 * @throws IllegalArgumentException indicate that a method has been passed an illegal or inappropriate argument.
+	 */
+	public static void serialize(String DAS_XML_NAMESPACE, XmlSerializer serializer, DasType type, Integer count, boolean hasReferenceFeatures, boolean hasSubParts, boolean hasSuperParts, boolean featuresCommand)
+			throws IllegalArgumentException, IllegalStateException, IOException{
         //categorize indicates if the categories will be included in the type of the feature --> this parameter (right next to count) was removed since 1.6.1
 		serializer.startTag(DAS_XML_NAMESPACE, "TYPE");
-		serializer.attribute(DAS_XML_NAMESPACE, "id", this.getId());
-		if (this.getCvId() != null && this.getCvId().length() > 0){
-			serializer.attribute(DAS_XML_NAMESPACE, "cvId", this.getCvId());
+		serializer.attribute(DAS_XML_NAMESPACE, "id", type.getId());
+		if (type.getCvId() != null && type.getCvId().length() > 0){
+			serializer.attribute(DAS_XML_NAMESPACE, "cvId", type.getCvId());
 		}
 		// Handle DasReferenceFeatures.
 		if (hasReferenceFeatures){
@@ -47,24 +67,24 @@ public class DasTypeE extends DasType {
 			serializer.attribute(DAS_XML_NAMESPACE, "subparts", (hasSubParts) ? "yes" : "no");
 		}
 		//if (categorize){
-			if (this.getCategory() != null && this.getCategory().length() > 0){
-				serializer.attribute(DAS_XML_NAMESPACE, "category", this.getCategory());
+			if (type.getCategory() != null && type.getCategory().length() > 0){
+				serializer.attribute(DAS_XML_NAMESPACE, "category", type.getCategory());
 			} //else {
 				// To prevent the DAS server from dying, if no category has been set, but
 				// a category is required, spit out the type ID again as the category.
-				//serializer.attribute(DAS_XML_NAMESPACE, "category", this.getId());
+				//serializer.attribute(DAS_XML_NAMESPACE, "category", type.getId());
 			//}
 		//}
 
         if (featuresCommand) {
             //Tag content should be the label
-            if (this.getLabel() != null && this.getLabel().length() > 0){
-			    serializer.text(this.getLabel());
+            if (type.getLabel() != null && type.getLabel().length() > 0){
+			    serializer.text(type.getLabel());
             }
         } else {
             //Tag content should be the count
             if (count != null){
-                serializer.text(Integer.toString(count));
+                DasXmlWriter.text(serializer, count);
             }
         }
 		serializer.endTag(DAS_XML_NAMESPACE, "TYPE");
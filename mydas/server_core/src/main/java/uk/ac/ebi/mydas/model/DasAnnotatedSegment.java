@@ -84,6 +84,11 @@ public class DasAnnotatedSegment extends DasSegment implements Serializable {
     String type;
 
     Integer totalFeatures;
+
+    /**
+     * Index of the features by coordinates, built by indexFeatures().
+     */
+    private transient volatile FeatureIntervalIndex featureIndex;
     /**
      * Constructor for a DasAnnotatedSegment object that ensures that the object is valid.
      * See the documentation of the various getters to find out where in DAS XML these fields may be used.
@@ -159,13 +164,60 @@ public class DasAnnotatedSegment extends DasSegment implements Serializable {
      * Note: strictlyEnclosed a boolean to indicate if matching features must be strictly enclosed within the
      * requestedStart and requestedStop.  if this value is false, then an overlap is sufficient for a match
      * (since 1.6.1 it is always false so overlapping features are always returned -DAS specification 1.6, draft 6).
+     *
+     * If the segment has been indexed by indexFeatures(), the Collection returned is a read-only view of the index.
      * @return a Collection<DasFeature> of the DasFeature objects that match.
      */
     public Collection<DasFeature> getFeatures(int requestedStart, int requestedStop){
         if (logger.isDebugEnabled()){
             logger.debug("DasAnnotatedSegment.getFeatures (start, stop) called.  StrictlyEnclosed = false");
         }
-        Collection<DasFeature> allFeatures = this.getFeatures();
+        FeatureIntervalIndex index = featureIndex;
+        if (index == null || features == null || requestedStart < 1 || requestedStart > requestedStop){
+            return scanFeatures(this.getFeatures(), requestedStart, requestedStop);
+        }
+        if (index.isStale(features)){
+            featureIndex = null;
+            return scanFeatures(this.getFeatures(), requestedStart, requestedStop);
+        }
+        Collection<DasFeature> restrictedFeatures = index.getOverlapping(requestedStart, requestedStop);
+        if (selfComponent == null){
+            return restrictedFeatures;
+        }
+        // The component features are not indexed, as they may still change.
+        Collection<DasFeature> componentFeatures = new ArrayList<DasFeature>();
+        componentFeatures.add(selfComponent);
+        componentFeatures.addAll(selfComponent.getReportableSubComponents());
+        componentFeatures.addAll(selfComponent.getReportableSuperComponents());
+        Collection<DasFeature> allFeatures = new ArrayList<DasFeature>(restrictedFeatures);
+        allFeatures.addAll(scanFeatures(componentFeatures, requestedStart, requestedStop));
+        return allFeatures;
+    }
+
+    /**
+     * Indexes the features of this segment by coordinates, so that getFeatures(int, int) finds them in O(log n + k)
+     * instead of checking every feature.  Only worth it for a segment queried many times, such as the segments a
+     * data source holds in memory; segments with few features are not indexed.
+     *
+     * The index is a snapshot of the features: the Collection of features must not be changed once indexed,
+     * or indexFeatures() called again after the change.  Features added or removed without doing so are only
+     * noticed through the size of the Collection, in which case the index is dropped and the features checked
+     * one by one again; a feature replaced by another one is not noticed.
+     */
+    public void indexFeatures(){
+        featureIndex = (features == null || features.size() < FeatureIntervalIndex.MIN_SIZE)
+                ? null
+                : new FeatureIntervalIndex(features);
+    }
+
+    /**
+     * Linear scan behind getFeatures(int, int), for segments with few features or unusual requested coordinates.
+     * @param allFeatures the features to check.
+     * @param requestedStart being the start coordinate requested by the client.
+     * @param requestedStop being the stop coordinate requested by the client.
+     * @return a Collection<DasFeature> of the DasFeature objects that match.
+     */
+    private Collection<DasFeature> scanFeatures(Collection<DasFeature> allFeatures, int requestedStart, int requestedStop){
         Collection<DasFeature> restrictedFeatures = new ArrayList<DasFeature>(allFeatures.size());
         if (features != null){
             for (DasFeature feature : allFeatures){
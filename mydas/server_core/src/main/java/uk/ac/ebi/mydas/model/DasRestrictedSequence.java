@@ -59,6 +59,22 @@ public class DasRestrictedSequence extends DasSequence implements Serializable {
         super(segmentId, sequence, startCoordinate, version, label);
     }
 
+    /**
+     * Constructor for subclasses that read the restricted sequence themselves, by overriding
+     * {@link #getRestrictedSequence(int, int)} and {@link #getRestrictedSequenceString(int, int)},
+     * rather than holding it as a String.  Such subclasses implement {@link StreamableSequence}
+     * to have the sequence written out in chunks.
+     * @param segmentId being the requested segment ID.
+     * @param startCoordinate being the requested start coordinate.
+     * @param length being the length of the restricted sequence, at least 1.
+     * @param version being the sequence version.
+     * @param label being the optional human readable label of the sequence.
+     * @throws DataSourceException if the length is not positive.
+     */
+    protected DasRestrictedSequence(String segmentId, int startCoordinate, int length, String version, String label) throws DataSourceException {
+        super(segmentId, startCoordinate, length, version, label);
+    }
+
     /**
      * This method overrides the getRestrictedSequenceString method
      * on the assumption that the data source has already restricted
@@ -70,4 +86,15 @@ public class DasRestrictedSequence extends DasSequence implements Serializable {
     public String getRestrictedSequenceString(int requestedStart, int requestedStop){
         return sequenceString;
     }
+
+    /**
+     * As {@link #getRestrictedSequenceString(int, int)}, returns the whole sequence set
+     * by the data source.
+     * @param requestedStart requested start coordinate on the segment.
+     * @param requestedStop  requested stop coordinate on the segment.
+     * @return the sequence.
+     */
+    public CharSequence getRestrictedSequence(int requestedStart, int requestedStop){
+        return sequenceString;
+    }
 }
@@ -26,6 +26,7 @@ package uk.ac.ebi.mydas.model;
 import uk.ac.ebi.mydas.exceptions.CoordinateErrorException;
 import uk.ac.ebi.mydas.exceptions.DataSourceException;
 
+import java.nio.CharBuffer;
 import java.util.ArrayList;
 import java.util.List;
 import java.io.Serializable;
@@ -41,6 +42,14 @@ import java.io.Serializable;
  * information to construct a
  * /DASSEQUENCE/SEQUENCE element in response to the sequence command, or the
  * /DASDNA/SEQUENCE element in response to the dna command.
+ *
+ * The servlet reads the requested part of a DasSequence, or of a subclass
+ * implementing {@link StreamableSequence}, through
+ * {@link #getRestrictedSequence(int, int)} and writes it out in chunks, so
+ * it never copies the sequence as a whole.  Subclasses that do not hold the
+ * sequence as a String (e.g. reading it from a file on demand) use the
+ * {@link #DasSequence(String, int, int, String, String)} constructor,
+ * override getRestrictedSequence and implement StreamableSequence.
  */
 @SuppressWarnings("serial")
 public class DasSequence extends DasSegment implements Serializable {
@@ -142,16 +151,70 @@ public class DasSequence extends DasSegment implements Serializable {
         this.label=label;
     }
 
+    /**
+     * Constructor for subclasses that provide the sequence themselves, by overriding
+     * {@link #getRestrictedSequence(int, int)}, rather than as a String.
+     * @param segmentId <b>Mandatory</b> id of the segment.
+     * @param startCoordinate <b>Mandatory</b> start coordinate of the sequence.
+     * @param length <b>Mandatory</b> length of the sequence, at least 1.
+     * @param version <b>Mandatory</b> version of the sequence.
+     * @param label <b>Optional</b> human readable label of the sequence.
+     * @throws DataSourceException if the length is not positive.
+     */
+    protected DasSequence(String segmentId, int startCoordinate, int length, String version, String label)
+            throws DataSourceException {
+        super(startCoordinate, startCoordinate + length - 1, segmentId, version);
+        if (length <= 0){
+            throw new DataSourceException ("An attempt has been made to instantiate a DasSequence object that has no sequenceString");
+        }
+        this.label=label;
+    }
 
+    /**
+     * Returns the whole sequence.  For sequences not held as a String, this builds the
+     * String from {@link #getRestrictedSequence(int, int)}.
+     * @return the sequence.
+     */
     public String getSequenceString() {
-        return sequenceString;
+        if (sequenceString != null){
+            return sequenceString;
+        }
+        try {
+            return getRestrictedSequence(startCoordinate, stopCoordinate).toString();
+        } catch (CoordinateErrorException e) {
+            throw new IllegalStateException("The sequence " + segmentId + " cannot be read within its own coordinates", e);
+        }
     }
 
     public String getRestrictedSequenceString(int requestedStart, int requestedStop)
             throws CoordinateErrorException {
+        if (sequenceString == null){
+            return getRestrictedSequence(requestedStart, requestedStop).toString();
+        }
         return sequenceString.substring(requestedStart - startCoordinate, requestedStop - startCoordinate + 1);
     }
 
+    /**
+     * Returns the part of the sequence between the given coordinates, without copying it: the
+     * default implementation is a view of the sequence String.  Used by the servlet to write
+     * the sequence out in chunks, for DasSequence and the subclasses implementing
+     * {@link StreamableSequence}.
+     *
+     * Subclasses that override {@link #getRestrictedSequenceString(int, int)} must override
+     * this method as well, returning the same characters.
+     * @param requestedStart requested start coordinate on the segment.
+     * @param requestedStop requested stop coordinate on the segment.
+     * @return the characters of the sequence between the two coordinates, inclusive.
+     * @throws CoordinateErrorException if the coordinates are out of the sequence.
+     */
+    public CharSequence getRestrictedSequence(int requestedStart, int requestedStop)
+            throws CoordinateErrorException {
+        if (requestedStart < startCoordinate || requestedStop > stopCoordinate || requestedStart > requestedStop + 1){
+            throw new CoordinateErrorException(segmentId, requestedStart, requestedStop);
+        }
+        return CharBuffer.wrap(sequenceString, requestedStart - startCoordinate, requestedStop - startCoordinate + 1);
+    }
+
     /**
      * @deprecated
      */
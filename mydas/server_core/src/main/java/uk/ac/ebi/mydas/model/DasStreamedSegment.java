@@ -0,0 +1,89 @@
+/*
+ * Copyright 2007 Philip Jones, EMBL-European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *
+ * For further details of the mydas project, including source code,
+ * downloads and documentation, please see:
+ *
+ * http://code.google.com/p/mydas/
+ *
+ */
+
+package uk.ac.ebi.mydas.model;
+
+import uk.ac.ebi.mydas.exceptions.DataSourceException;
+
+/**
+ * Describes an annotated segment whose features are read one at a time, rather than being
+ * held in a Collection as in {@link DasAnnotatedSegment}.  Returned by
+ * {@link uk.ac.ebi.mydas.datasource.StreamingAnnotationDataSource#getFeatureStream(String, Integer, Integer, Integer)}.
+ *
+ * Implementations provide {@link #nextFeature()}, typically reading from an open
+ * ResultSet or file, and release whatever they hold in {@link #close()}.  The servlet
+ * reads each feature once, in the order given, and always closes the segment when done.
+ */
+@SuppressWarnings("serial")
+public abstract class DasStreamedSegment extends DasSegment {
+
+    /**
+     * The label for this segment, see {@link DasAnnotatedSegment#getSegmentLabel()}.
+     */
+    private final String segmentLabel;
+
+    /**
+     * The total number of features of the segment, if known in advance.
+     */
+    private final Integer totalFeatures;
+
+    /**
+     * @param segmentId <b>Mandatory</b> This is the identifier for the segment / sequence under query.
+     * @param startCoordinate <b>Mandatory</b> Start coordinate of the segment.
+     * @param stopCoordinate <b>Mandatory</b> Stop coordinate of the segment.
+     * @param version <b>Mandatory</b> a String indicating the version of the segment that is annotated.
+     * @param segmentLabel <b>Optional.</b> A human readable label for the segment.
+     * @param totalFeatures <b>Optional.</b> The total number of features of the segment, reported in
+     * /DASGFF/GFF/SEGMENT/@total.  Leave it null if it is not known before reading the features.
+     * @throws DataSourceException if the segment id or version are missing.
+     */
+    public DasStreamedSegment(String segmentId, Integer startCoordinate, Integer stopCoordinate, String version, String segmentLabel, Integer totalFeatures)
+            throws DataSourceException {
+        super(startCoordinate, stopCoordinate, segmentId, version);
+        this.segmentLabel = segmentLabel;
+        this.totalFeatures = totalFeatures;
+    }
+
+    /**
+     * Returns the next feature of the segment.
+     * @return the next feature, or null once all of them have been read.
+     * @throws DataSourceException to wrap any problem reading the feature, such as SQLExceptions or IOExceptions.
+     */
+    public abstract DasFeature nextFeature() throws DataSourceException;
+
+    /**
+     * Releases any resource held to read the features.  Called once the segment has been
+     * written out, or when the request fails.  Does nothing unless overridden.
+     * @throws DataSourceException to wrap any problem releasing the resources.
+     */
+    public void close() throws DataSourceException {
+    }
+
+    public String getSegmentLabel() {
+        return segmentLabel;
+    }
+
+    public Integer getTotalFeatures() {
+        return totalFeatures;
+    }
+}
@@ -0,0 +1,235 @@
+/*
+ * Copyright 2007 Philip Jones, EMBL-European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *
+ * For further details of the mydas project, including source code,
+ * downloads and documentation, please see:
+ *
+ * http://code.google.com/p/mydas/
+ *
+ */
+
+package uk.ac.ebi.mydas.model;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * Index of the features of a {@link DasAnnotatedSegment} by coordinates, answering the overlap
+ * queries of {@link DasAnnotatedSegment#getFeatures(int, int)} in O(log n + k).  The index holds a
+ * snapshot of the features, taken by {@link DasAnnotatedSegment#indexFeatures()}.
+ * <p/>
+ * The features are sorted by start coordinate and laid out as an implicit augmented interval
+ * tree: the subtree of the features between two positions is rooted at the middle one, which
+ * holds the highest stop coordinate of the subtree, so whole subtrees ending before the
+ * requested range are skipped.
+ * <p/>
+ * The overlapping features are returned in the order of the indexed Collection, through a
+ * read-only view on the index rather than a copy of the features.  Non-positional features
+ * (start and stop 0) are always returned, and features whose start is after their stop are
+ * checked one by one, with the same rules as the linear scan.
+ */
+final class FeatureIntervalIndex {
+
+    /**
+     * Below this number of features a linear scan is as fast, so no index is built.
+     */
+    static final int MIN_SIZE = 32;
+
+    private static final int[] NONE = new int[0];
+
+    /**
+     * The features, in the order of the indexed Collection.
+     */
+    private final DasFeature[] features;
+
+    /**
+     * Positions in features of the indexed features, sorted by start coordinate.
+     */
+    private final int[] sorted;
+
+    private final int[] starts;
+    private final int[] stops;
+
+    /**
+     * Highest stop coordinate of the subtree rooted at each position of sorted.
+     */
+    private final int[] maxStops;
+
+    /**
+     * Positions of the non-positional features, always returned.
+     */
+    private final int[] nonPositional;
+
+    /**
+     * Positions of the features whose start is after their stop, checked one by one.
+     */
+    private final int[] irregular;
+
+    FeatureIntervalIndex(Collection<DasFeature> collection) {
+        features = collection.toArray(new DasFeature[collection.size()]);
+        long[] keys = new long[features.length];
+        int indexed = 0;
+        int[] nonPositionalPositions = new int[features.length];
+        int nonPositionalCount = 0;
+        int[] irregularPositions = new int[features.length];
+        int irregularCount = 0;
+        for (int position = 0; position < features.length; position++) {
+            DasFeature feature = features[position];
+            if (feature == null) {
+                continue;
+            }
+            int start = feature.getStartCoordinate();
+            int stop = feature.getStopCoordinate();
+            if (start == 0 && stop == 0) {
+                nonPositionalPositions[nonPositionalCount++] = position;
+            } else if (start > stop) {
+                irregularPositions[irregularCount++] = position;
+            } else {
+                // Sorts by start, then by position.
+                keys[indexed++] = ((long) start << 32) | position;
+            }
+        }
+        Arrays.sort(keys, 0, indexed);
+        sorted = new int[indexed];
+        starts = new int[indexed];
+        stops = new int[indexed];
+        maxStops = new int[indexed];
+        for (int i = 0; i < indexed; i++) {
+            int position = (int) keys[i];
+            sorted[i] = position;
+            starts[i] = features[position].getStartCoordinate();
+            stops[i] = features[position].getStopCoordinate();
+        }
+        buildMaxStops(0, indexed);
+        nonPositional = (nonPositionalCount == 0) ? NONE : Arrays.copyOf(nonPositionalPositions, nonPositionalCount);
+        irregular = (irregularCount == 0) ? NONE : Arrays.copyOf(irregularPositions, irregularCount);
+    }
+
+    /**
+     * Tells whether features have been added to or removed from the indexed Collection since the
+     * index was built.  Only the size is compared, as the Collection is not expected to change
+     * once indexed: see {@link DasAnnotatedSegment#indexFeatures()}.
+     *
+     * @param collection the indexed Collection.
+     * @return true if the index has to be built again.
+     */
+    boolean isStale(Collection<DasFeature> collection) {
+        return collection.size() != features.length;
+    }
+
+    /**
+     * Returns the features overlapping the requested range, and the non-positional features.
+     *
+     * @param requestedStart the requested start coordinate, at least 1.
+     * @param requestedStop  the requested stop coordinate, not lower than requestedStart.
+     * @return a read-only view of the features, in the order of the indexed Collection.
+     */
+    List<DasFeature> getOverlapping(int requestedStart, int requestedStop) {
+        Hits hits = new Hits(nonPositional.length + 16);
+        for (int position : nonPositional) {
+            hits.add(position);
+        }
+        for (int position : irregular) {
+            DasFeature feature = features[position];
+            // Same rules as the linear scan in DasAnnotatedSegment, of which only this one can match.
+            if (requestedStart <= feature.getStartCoordinate() && requestedStop >= feature.getStopCoordinate()) {
+                hits.add(position);
+            }
+        }
+        search(0, sorted.length, requestedStart, requestedStop, hits);
+        return new View(features, hits.toSortedArray());
+    }
+
+    private int buildMaxStops(int from, int to) {
+        if (from >= to) {
+            return Integer.MIN_VALUE;
+        }
+        int middle = (from + to) >>> 1;
+        int max = Math.max(stops[middle], Math.max(buildMaxStops(from, middle), buildMaxStops(middle + 1, to)));
+        maxStops[middle] = max;
+        return max;
+    }
+
+    private void search(int from, int to, int requestedStart, int requestedStop, Hits hits) {
+        while (from < to) {
+            int middle = (from + to) >>> 1;
+            if (maxStops[middle] < requestedStart) {
+                // Nothing in this subtree reaches the requested range.
+                return;
+            }
+            search(from, middle, requestedStart, requestedStop, hits);
+            if (starts[middle] > requestedStop) {
+                // Neither this feature nor the following ones start before the end of the range.
+                return;
+            }
+            if (stops[middle] >= requestedStart) {
+                hits.add(sorted[middle]);
+            }
+            from = middle + 1;
+        }
+    }
+
+    /**
+     * Growable list of positions.
+     */
+    private static final class Hits {
+        private int[] positions;
+        private int size = 0;
+
+        private Hits(int capacity) {
+            positions = new int[capacity];
+        }
+
+        private void add(int position) {
+            if (size == positions.length) {
+                positions = Arrays.copyOf(positions, size * 2 + 1);
+            }
+            positions[size++] = position;
+        }
+
+        private int[] toSortedArray() {
+            int[] result = (size == positions.length) ? positions : Arrays.copyOf(positions, size);
+            Arrays.sort(result);
+            return result;
+        }
+    }
+
+    /**
+     * Read-only list of the features at the given positions.
+     */
+    private static final class View extends AbstractList<DasFeature> implements RandomAccess {
+        private final DasFeature[] features;
+        private final int[] positions;
+
+        private View(DasFeature[] features, int[] positions) {
+            this.features = features;
+            this.positions = positions;
+        }
+
+        @Override
+        public DasFeature get(int index) {
+            return features[positions[index]];
+        }
+
+        @Override
+        public int size() {
+            return positions.length;
+        }
+    }
+}
@@ -0,0 +1,301 @@
+/*
+ * Copyright 2007 Philip Jones, EMBL-European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *
+ * For further details of the mydas project, including source code,
+ * downloads and documentation, please see:
+ *
+ * http://code.google.com/p/mydas/
+ *
+ */
+
+package uk.ac.ebi.mydas.model;
+
+import uk.ac.ebi.mydas.exceptions.CoordinateErrorException;
+import uk.ac.ebi.mydas.exceptions.DataSourceException;
+
+import java.util.Arrays;
+
+/**
+ * DasSequence holding a DNA sequence at 2 bits per base, instead of the 2 bytes per base of
+ * a String, for data sources that keep whole genomes in memory.
+ *
+ * A, C, G and T are packed four to a byte. Any other character (N, IUPAC ambiguity codes...)
+ * is kept in a side table of runs of the same character, and lower case (soft-masked)
+ * regions in another table of runs, so the sequence is given back exactly as it was read.
+ * The sequence is decoded on demand, only for the requested part, both by
+ * {@link #getRestrictedSequenceString(int, int)} and when the servlet writes the sequence out.
+ *
+ * Use {@link #create(String, CharSequence, int, String, String, String)}, which falls back to
+ * a plain DasSequence for protein and RNA sequences, or for sequences that do not pack well.
+ */
+@SuppressWarnings("serial")
+public class PackedDasSequence extends DasSequence implements StreamableSequence {
+
+    /**
+     * A sequence with more runs of other characters than one per MAX_RUN_RATIO bases is not
+     * worth packing (or is not DNA).
+     */
+    private static final int MAX_RUN_RATIO = 16;
+
+    /**
+     * Number of characters decoded at a time when the sequence is read one character at a time.
+     */
+    private static final int DECODE_BLOCK_SIZE = 1024;
+
+    private static final char[] BASES = {'A', 'C', 'G', 'T'};
+
+    /**
+     * The bases, 2 bits each, the first base in the lowest bits of the first byte.
+     */
+    private final byte[] packedBases;
+
+    /**
+     * Runs of characters other than ACGT: start offset, end offset (exclusive) and upper case character.
+     */
+    private final int[] otherStarts;
+    private final int[] otherEnds;
+    private final char[] otherChars;
+
+    /**
+     * Runs of lower case characters: start offset and end offset (exclusive).
+     */
+    private final int[] maskStarts;
+    private final int[] maskEnds;
+
+    private PackedDasSequence(String segmentId, int startCoordinate, int length, String version, String label,
+                              byte[] packedBases, Runs otherRuns, Runs maskRuns) throws DataSourceException {
+        super(segmentId, startCoordinate, length, version, label);
+        this.molType = TYPE_DNA;
+        this.packedBases = packedBases;
+        this.otherStarts = otherRuns.getStarts();
+        this.otherEnds = otherRuns.getEnds();
+        this.otherChars = otherRuns.getChars();
+        this.maskStarts = maskRuns.getStarts();
+        this.maskEnds = maskRuns.getEnds();
+    }
+
+    /**
+     * Creates a DasSequence for the given sequence, packed if it is DNA.
+     * @param segmentId <b>Mandatory</b> id of the segment.
+     * @param sequence <b>Mandatory</b> the sequence.
+     * @param startCoordinate <b>Mandatory</b> start coordinate of the sequence.
+     * @param version <b>Mandatory</b> version of the sequence.
+     * @param label <b>Optional</b> human readable label of the sequence.
+     * @param molType the type of molecule, one of the DasSequence.TYPE_ constants.  Only
+     * TYPE_DNA sequences are packed.
+     * @return a PackedDasSequence, or a plain DasSequence if the sequence is not DNA or does
+     * not pack well (e.g. too many characters other than ACGT).
+     * @throws DataSourceException if the sequence is empty.
+     */
+    public static DasSequence create(String segmentId, CharSequence sequence, int startCoordinate, String version, String label, String molType)
+            throws DataSourceException {
+        if (sequence == null || sequence.length() == 0){
+            throw new DataSourceException ("An attempt has been made to instantiate a DasSequence object that has no sequenceString");
+        }
+        if (TYPE_DNA.equals(molType)){
+            int length = sequence.length();
+            byte[] packedBases = new byte[(length + 3) >>> 2];
+            Runs otherRuns = new Runs(true);
+            Runs maskRuns = new Runs(false);
+            int maxRuns = length / MAX_RUN_RATIO + 1;
+            boolean packable = true;
+            for (int i = 0; i < length && packable; i++){
+                char ch = sequence.charAt(i);
+                if (ch >= 128){
+                    packable = false;
+                    break;
+                }
+                char upper = ch;
+                if (ch >= 'a' && ch <= 'z'){
+                    upper = (char) (ch - ('a' - 'A'));
+                    maskRuns.add(i, (char) 0);
+                }
+                int code = encode(upper);
+                if (code < 0){
+                    otherRuns.add(i, upper);
+                } else {
+                    packedBases[i >>> 2] |= code << ((i & 3) << 1);
+                }
+                packable = otherRuns.size() <= maxRuns && maskRuns.size() <= maxRuns;
+            }
+            if (packable){
+                return new PackedDasSequence(segmentId, startCoordinate, length, version, label, packedBases, otherRuns, maskRuns);
+            }
+        }
+        return new DasSequence(segmentId, sequence.toString(), startCoordinate, version, label);
+    }
+
+    /**
+     * Returns a view of the requested part of the sequence, decoded as it is read.
+     */
+    public CharSequence getRestrictedSequence(int requestedStart, int requestedStop)
+            throws CoordinateErrorException {
+        if (requestedStart < startCoordinate || requestedStop > stopCoordinate || requestedStart > requestedStop + 1){
+            throw new CoordinateErrorException(segmentId, requestedStart, requestedStop);
+        }
+        return new SequenceView(requestedStart - startCoordinate, requestedStop - requestedStart + 1);
+    }
+
+    /**
+     * Decodes the bases from offset from (inclusive) to offset to (exclusive) into dest.
+     */
+    private void decode(int from, int to, char[] dest, int destPos){
+        for (int i = from; i < to; i++){
+            dest[destPos + i - from] = BASES[(packedBases[i >>> 2] >>> ((i & 3) << 1)) & 3];
+        }
+        for (int run = firstRun(otherEnds, from); run < otherStarts.length && otherStarts[run] < to; run++){
+            Arrays.fill(dest, destPos + Math.max(otherStarts[run], from) - from, destPos + Math.min(otherEnds[run], to) - from, otherChars[run]);
+        }
+        for (int run = firstRun(maskEnds, from); run < maskStarts.length && maskStarts[run] < to; run++){
+            int end = destPos + Math.min(maskEnds[run], to) - from;
+            for (int i = destPos + Math.max(maskStarts[run], from) - from; i < end; i++){
+                dest[i] = Character.toLowerCase(dest[i]);
+            }
+        }
+    }
+
+    /**
+     * Returns the index of the first run ending after the given offset.
+     */
+    private static int firstRun(int[] ends, int offset){
+        int low = 0;
+        int high = ends.length;
+        while (low < high){
+            int middle = (low + high) >>> 1;
+            if (ends[middle] <= offset){
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    private static int encode(char base){
+        switch (base){
+            case 'A': return 0;
+            case 'C': return 1;
+            case 'G': return 2;
+            case 'T': return 3;
+            default: return -1;
+        }
+    }
+
+    /**
+     * Part of the sequence, decoded DECODE_BLOCK_SIZE characters at a time when read with
+     * charAt, or all at once by toString.
+     */
+    private class SequenceView implements CharSequence {
+        private final int offset;
+        private final int viewLength;
+        private char[] block;
+        private int blockStart = -1;
+        private int blockEnd = -1;
+
+        private SequenceView(int offset, int viewLength){
+            this.offset = offset;
+            this.viewLength = viewLength;
+        }
+
+        public int length(){
+            return viewLength;
+        }
+
+        public char charAt(int index){
+            if (index < 0 || index >= viewLength){
+                throw new IndexOutOfBoundsException("index " + index + ", length " + viewLength);
+            }
+            int position = offset + index;
+            if (position < blockStart || position >= blockEnd){
+                if (block == null){
+                    block = new char[Math.min(DECODE_BLOCK_SIZE, viewLength)];
+                }
+                blockStart = position;
+                blockEnd = Math.min(position + block.length, offset + viewLength);
+                decode(blockStart, blockEnd, block, 0);
+            }
+            return block[position - blockStart];
+        }
+
+        public CharSequence subSequence(int start, int end){
+            if (start < 0 || end > viewLength || start > end){
+                throw new IndexOutOfBoundsException("start " + start + ", end " + end + ", length " + viewLength);
+            }
+            return new SequenceView(offset + start, end - start);
+        }
+
+        public String toString(){
+            char[] chars = new char[viewLength];
+            decode(offset, offset + viewLength, chars, 0);
+            return new String(chars);
+        }
+    }
+
+    /**
+     * Runs of consecutive positions, built in increasing order of position.
+     */
+    private static class Runs {
+        private final boolean withChars;
+        private int[] starts = new int[16];
+        private int[] ends = new int[16];
+        private char[] chars;
+        private int size = 0;
+
+        private Runs(boolean withChars){
+            this.withChars = withChars;
+            this.chars = withChars ? new char[16] : null;
+        }
+
+        /**
+         * Adds a position, extending the last run if it is contiguous (and has the same character).
+         */
+        private void add(int position, char ch){
+            if (size > 0 && ends[size - 1] == position && (!withChars || chars[size - 1] == ch)){
+                ends[size - 1] = position + 1;
+                return;
+            }
+            if (size == starts.length){
+                starts = Arrays.copyOf(starts, size * 2);
+                ends = Arrays.copyOf(ends, size * 2);
+                if (withChars){
+                    chars = Arrays.copyOf(chars, size * 2);
+                }
+            }
+            starts[size] = position;
+            ends[size] = position + 1;
+            if (withChars){
+                chars[size] = ch;
+            }
+            size++;
+        }
+
+        private int size(){
+            return size;
+        }
+
+        private int[] getStarts(){
+            return Arrays.copyOf(starts, size);
+        }
+
+        private int[] getEnds(){
+            return Arrays.copyOf(ends, size);
+        }
+
+        private char[] getChars(){
+            return (withChars) ? Arrays.copyOf(chars, size) : null;
+        }
+    }
+}
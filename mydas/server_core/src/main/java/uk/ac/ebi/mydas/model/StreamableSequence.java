@@ -0,0 +1,38 @@
+/*
+ * Copyright 2007 Philip Jones, EMBL-European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *
+ * For further details of the mydas project, including source code,
+ * downloads and documentation, please see:
+ *
+ * http://code.google.com/p/mydas/
+ *
+ */
+
+
+package uk.ac.ebi.mydas.model;
+
+/**
+ * Implemented by the subclasses of {@link DasSequence} whose
+ * {@link DasSequence#getRestrictedSequence(int, int)} returns the same characters as
+ * {@link DasSequence#getSequenceString()} and
+ * {@link DasSequence#getRestrictedSequenceString(int, int)}.
+ * <p/>
+ * The servlet reads the sequence of these classes through getRestrictedSequence and writes it
+ * out in chunks, without building a String of the requested part.  The sequence of any other
+ * subclass is read through the String methods.
+ */
+public interface StreamableSequence {
+}
@@ -0,0 +1,136 @@
+package uk.ac.ebi.mydas.search;
+
+import java.net.URL;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+
+import uk.ac.ebi.mydas.model.DasAnnotatedSegment;
+import uk.ac.ebi.mydas.model.DasFeature;
+import uk.ac.ebi.mydas.model.DasTarget;
+
+/**
+ * Builds the Lucene document of a feature, read back by {@link Searcher}.  Every field is
+ * stored and analysed, and the "all" field gathers the text of the feature for the queries
+ * without a field.
+ */
+final class FeatureDocuments {
+
+	private FeatureDocuments() {
+	}
+
+	static Document create(DasAnnotatedSegment segment, DasFeature feature) {
+		Document doc = new Document();
+		StringBuilder all = new StringBuilder(256);
+
+		doc.add(new Field("segmentId", segment.getSegmentId(), Field.Store.YES, Field.Index.ANALYZED));
+		doc.add(new Field(Indexer.SEGMENT_KEY_FIELD, segment.getSegmentId(), Field.Store.NO, Field.Index.NOT_ANALYZED_NO_NORMS));
+		all.append(segment.getSegmentId());
+		if (segment.getSegmentLabel()!=null) {
+			doc.add(new Field("segmentLabel", segment.getSegmentLabel(), Field.Store.YES, Field.Index.ANALYZED));
+			all.append(' ').append(segment.getSegmentLabel());
+		}
+		if (segment.getVersion()!=null) {
+			doc.add(new Field("segmentVersion", segment.getVersion(), Field.Store.YES, Field.Index.ANALYZED));
+			all.append(' ').append(segment.getVersion());
+		}
+		if (segment.getStartCoordinate()!=null) {
+			doc.add(new Field("segmentStart", Integer.toString(segment.getStartCoordinate()), Field.Store.YES, Field.Index.ANALYZED));
+			all.append(' ').append(segment.getStartCoordinate());
+		}
+		if (segment.getStopCoordinate()!=null) {
+			doc.add(new Field("segmentStop", Integer.toString(segment.getStopCoordinate()), Field.Store.YES, Field.Index.ANALYZED));
+			all.append(' ').append(segment.getStopCoordinate());
+		}
+		all.append(' ');
+
+		doc.add(new Field("featureId", feature.getFeatureId(), Field.Store.YES, Field.Index.ANALYZED));
+		doc.add(new Field(Indexer.FEATURE_KEY_FIELD, feature.getFeatureId(), Field.Store.NO, Field.Index.NOT_ANALYZED_NO_NORMS));
+		all.append(feature.getFeatureId()).append(' ');
+		if (feature.getFeatureLabel()!=null) doc.add(new Field("featureLabel", feature.getFeatureLabel(), Field.Store.YES, Field.Index.ANALYZED));
+		if (feature.getType()!=null){
+			int from = all.length();
+			addTerm(doc, all, "typeId", feature.getType().getId());
+			addTerm(doc, all, "typeCvId", feature.getType().getCvId());
+			addTerm(doc, all, "typeLabel", feature.getType().getLabel());
+			addTerm(doc, all, "typeCategory", feature.getType().getCategory());
+			doc.add(new Field("type", all.substring(from), Field.Store.NO, Field.Index.ANALYZED));
+		}
+		all.append(' ');
+		if (feature.getMethod()!=null){
+			int from = all.length();
+			// The id is always part of the method text, as it is expected to be set.
+			all.append(feature.getMethod().getId()).append(' ');
+			doc.add(new Field("methodId", feature.getMethod().getId(), Field.Store.YES, Field.Index.ANALYZED));
+			addTerm(doc, all, "methodCvId", feature.getMethod().getCvId());
+			addTerm(doc, all, "methodLabel", feature.getMethod().getLabel());
+			doc.add(new Field("method", all.substring(from), Field.Store.NO, Field.Index.ANALYZED));
+		}
+		all.append(' ');
+		doc.add(new Field("start", Integer.toString(feature.getStartCoordinate()), Field.Store.YES, Field.Index.ANALYZED));
+		doc.add(new Field("stop", Integer.toString(feature.getStopCoordinate()), Field.Store.YES, Field.Index.ANALYZED));
+
+		if (feature.getScore()!=null) doc.add(new Field("score", String.valueOf(feature.getScore()), Field.Store.YES, Field.Index.ANALYZED));
+		if (feature.getOrientation()!=null) doc.add(new Field("orientation", String.valueOf(feature.getOrientation()), Field.Store.YES, Field.Index.ANALYZED));
+		if (feature.getPhase()!=null) doc.add(new Field("phase", String.valueOf(feature.getPhase()), Field.Store.YES, Field.Index.ANALYZED));
+		if (feature.getNotes()!=null)
+			addJoined(doc, all, "notes", feature.getNotes(), " ==NOTE== ");
+		all.append(' ');
+		if (feature.getLinks()!=null) {
+			StringBuilder links = new StringBuilder();
+			String sep ="";
+			for (URL key:feature.getLinks().keySet()){
+				links.append(sep).append(feature.getLinks().get(key)).append(" _-_ ").append(key);
+				sep =" ==LINK== ";
+			}
+			addStored(doc, all, "links", links);
+		}
+		all.append(' ');
+		if (feature.getTargets()!=null) {
+			StringBuilder targets = new StringBuilder();
+			String sep="";
+			for (DasTarget target:feature.getTargets()){
+				targets.append(sep).append(target.getTargetId());
+				targets.append(" _-_ ").append(target.getStartCoordinate());
+				targets.append(" _-_ ").append(target.getStopCoordinate());
+				if (target.getTargetName()!=null) targets.append(" _-_ ").append(target.getTargetName());
+				sep=" ==TARGET== ";
+			}
+			addStored(doc, all, "targets", targets);
+		}
+		all.append(' ');
+		if (feature.getParents()!=null)
+			addJoined(doc, all, "parents", feature.getParents(), " ==PARENT== ");
+		all.append(' ');
+		if (feature.getParts()!=null)
+			addJoined(doc, all, "parts", feature.getParts(), " ==PART== ");
+		doc.add(new Field("all", all.toString(), Field.Store.NO, Field.Index.ANALYZED));
+		return doc;
+	}
+
+	/**
+	 * Adds a field of the type or of the method, and its value followed by a space to the text
+	 * of the feature.
+	 */
+	private static void addTerm(Document doc, StringBuilder all, String name, String value) {
+		if (value != null) {
+			doc.add(new Field(name, value, Field.Store.YES, Field.Index.ANALYZED));
+			all.append(value).append(' ');
+		}
+	}
+
+	private static void addJoined(Document doc, StringBuilder all, String name, Iterable<String> values, String separator) {
+		StringBuilder joined = new StringBuilder();
+		String sep = "";
+		for (String value : values) {
+			joined.append(sep).append(value);
+			sep = separator;
+		}
+		addStored(doc, all, name, joined);
+	}
+
+	private static void addStored(Document doc, StringBuilder all, String name, StringBuilder value) {
+		doc.add(new Field(name, value.toString(), Field.Store.YES, Field.Index.ANALYZED));
+		all.append(value);
+	}
+}
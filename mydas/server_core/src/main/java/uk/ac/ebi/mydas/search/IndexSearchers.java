@@ -0,0 +1,208 @@
+package uk.ac.ebi.mydas.search;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.log4j.Logger;
+import org.apache.lucene.index.CorruptIndexException;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+
+import uk.ac.ebi.mydas.exceptions.SearcherException;
+
+/**
+ * The open indexes of the data sources, shared by all the searches.
+ * <p/>
+ * One {@link IndexReader} is kept open per index and handed out, wrapped in an
+ * {@link IndexSearcher}, by {@link #acquire(String, String)}.  Every searcher acquired holds a
+ * reference on its reader and has to be given back with {@link #release(IndexSearcher)} once the
+ * search is done.  When the {@link Indexer} commits a new version of an index it calls
+ * {@link #reopen(String, String)}: the following searches get a reader on the new version, and
+ * the previous reader is closed when the last search using it releases it.  The
+ * {@link IndexUpdater} does the same after committing the changes of a writeback data source.
+ */
+public class IndexSearchers {
+	private static final Logger logger = Logger.getLogger(IndexSearchers.class);
+
+	private final ConcurrentMap<String, SharedIndex> indexes = new ConcurrentHashMap<String, SharedIndex>();
+
+	private volatile boolean closed = false;
+
+	/**
+	 * Returns a searcher on the current version of the index of the data source, opening it if
+	 * needed.  It must be given back with {@link #release(IndexSearcher)}.
+	 * @param dirPath the directory of the indexes.
+	 * @param dataSourceName the name of the data source.
+	 * @return a searcher on the index.
+	 * @throws SearcherException if the index cannot be opened.
+	 */
+	public IndexSearcher acquire(String dirPath, String dataSourceName) throws SearcherException {
+		return getIndex(dirPath, dataSourceName).acquire();
+	}
+
+	/**
+	 * Gives back a searcher returned by {@link #acquire(String, String)}.
+	 * @param searcher the searcher, ignored if null.
+	 * @throws SearcherException if the reader, no longer current, cannot be closed.
+	 */
+	public void release(IndexSearcher searcher) throws SearcherException {
+		if (searcher == null)
+			return;
+		try {
+			searcher.getIndexReader().decRef();
+		} catch (IOException e) {
+			throw new SearcherException("Error closing the index reader.", e);
+		}
+	}
+
+	/**
+	 * Switches the following searches to the version of the index just committed.  Does
+	 * nothing if the index has not been searched yet, it will then be opened by the next search.
+	 * @param dirPath the directory of the indexes.
+	 * @param dataSourceName the name of the data source.
+	 * @throws SearcherException if the new version of the index cannot be opened.
+	 */
+	public void reopen(String dirPath, String dataSourceName) throws SearcherException {
+		SharedIndex index = indexes.get(getKey(dirPath, dataSourceName));
+		if (index != null)
+			index.reopen();
+	}
+
+	/**
+	 * Closes the indexes.  The readers still in use are closed when released.
+	 */
+	public void close() {
+		closed = true;
+		for (SharedIndex index : indexes.values()) {
+			try {
+				index.close();
+			} catch (IOException e) {
+				logger.error("Error closing the index " + index.path, e);
+			}
+		}
+		indexes.clear();
+	}
+
+	private SharedIndex getIndex(String dirPath, String dataSourceName) throws SearcherException {
+		if (closed)
+			throw new SearcherException("The indexes have been closed");
+		String key = getKey(dirPath, dataSourceName);
+		SharedIndex index = indexes.get(key);
+		if (index == null) {
+			SharedIndex created = new SharedIndex(new File(key));
+			index = indexes.putIfAbsent(key, created);
+			if (index == null)
+				index = created;
+		}
+		return index;
+	}
+
+	private static String getKey(String dirPath, String dataSourceName) {
+		return new File(dirPath + "/" + dataSourceName).getAbsolutePath();
+	}
+
+	/**
+	 * The reader open on one index.  The instance holds one reference on the current reader,
+	 * and each searcher acquired one more.
+	 */
+	private static final class SharedIndex {
+		private final File path;
+
+		/**
+		 * Serialises the reopening, done out of the lock of the instance so that the searches
+		 * are not held while the new version is read.
+		 */
+		private final Object reopenLock = new Object();
+
+		private Directory directory;
+		private IndexReader reader;
+		private IndexSearcher searcher;
+		private boolean closed = false;
+
+		private SharedIndex(File path) {
+			this.path = path;
+		}
+
+		private synchronized IndexSearcher acquire() throws SearcherException {
+			if (closed)
+				throw new SearcherException("The index " + path + " has been closed");
+			if (reader == null)
+				open();
+			reader.incRef();
+			return searcher;
+		}
+
+		private void open() throws SearcherException {
+			try {
+				if (directory == null)
+					directory = FSDirectory.open(path);
+				reader = IndexReader.open(directory);
+			} catch (CorruptIndexException e) {
+				throw new SearcherException("The index file is corrupt", e);
+			} catch (IOException e) {
+				throw new SearcherException("Error trying to open the index file", e);
+			}
+			searcher = new IndexSearcher(reader);
+		}
+
+		private void reopen() throws SearcherException {
+			synchronized (reopenLock) {
+				IndexReader current;
+				synchronized (this) {
+					if (closed || reader == null)
+						return;
+					current = reader;
+					current.incRef();
+				}
+				IndexReader newReader;
+				try {
+					newReader = IndexReader.openIfChanged(current);
+				} catch (IOException e) {
+					throw new SearcherException("Error trying to reopen the index file", e);
+				} finally {
+					decRef(current);
+				}
+				if (newReader == null)
+					return;
+				IndexReader old;
+				synchronized (this) {
+					if (closed) {
+						old = newReader;
+					} else {
+						old = reader;
+						reader = newReader;
+						searcher = new IndexSearcher(newReader);
+					}
+				}
+				decRef(old);
+				if (logger.isDebugEnabled())
+					logger.debug("Reopened the index " + path);
+			}
+		}
+
+		private synchronized void close() throws IOException {
+			closed = true;
+			if (reader != null) {
+				reader.decRef();
+				reader = null;
+				searcher = null;
+			}
+			if (directory != null) {
+				directory.close();
+				directory = null;
+			}
+		}
+
+		private void decRef(IndexReader indexReader) {
+			try {
+				indexReader.decRef();
+			} catch (IOException e) {
+				logger.error("Error closing a reader of the index " + path, e);
+			}
+		}
+	}
+}
@@ -0,0 +1,152 @@
+package uk.ac.ebi.mydas.search;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.store.LockObtainFailedException;
+import org.apache.lucene.util.Version;
+
+import uk.ac.ebi.mydas.exceptions.SearcherException;
+import uk.ac.ebi.mydas.model.DasAnnotatedSegment;
+import uk.ac.ebi.mydas.model.DasFeature;
+
+/**
+ * Applies the features created, updated and deleted through a writeback data source to its
+ * index, so the searches find them without indexing the data source again.
+ * <p/>
+ * The document of a feature is replaced or deleted by its id, through the
+ * {@link Indexer#FEATURE_KEY_FIELD} field: an index written before that field was added has to
+ * be written again once with the indexer command.  Each change is committed, and the searches
+ * are switched to it through {@link IndexSearchers#reopen(String, String)}, as after an indexing.
+ * A data source that has not been indexed yet is left alone.
+ * <p/>
+ * A change arriving while the data source is being indexed cannot get the lock of the index: it
+ * is queued, and applied by {@link #replayPending(String, String)} once the indexing is done, or
+ * with the next change of the data source.
+ */
+public class IndexUpdater {
+	private static final Logger logger = Logger.getLogger(IndexUpdater.class);
+
+	private final IndexSearchers indexSearchers;
+
+	/**
+	 * The changes waiting for the lock of an index, by path of the index.
+	 */
+	private final Map<String, List<Change>> pending = new HashMap<String, List<Change>>();
+
+	/**
+	 * @param indexSearchers the open indexes, reopened after each change.
+	 */
+	public IndexUpdater(IndexSearchers indexSearchers) {
+		this.indexSearchers = indexSearchers;
+	}
+
+	/**
+	 * Indexes the features created or updated, replacing their previous documents.
+	 * @param dirPath the directory of the indexes.
+	 * @param dataSourceName the name of the data source.
+	 * @param segment the segment holding the features written.
+	 * @throws SearcherException if the index cannot be updated.
+	 */
+	public void featuresWritten(String dirPath, String dataSourceName, final DasAnnotatedSegment segment) throws SearcherException {
+		update(dirPath, dataSourceName, new Change() {
+			public void apply(IndexWriter writer) throws IOException {
+				for (DasFeature feature : segment.getFeatures()) {
+					writer.updateDocument(new Term(Indexer.FEATURE_KEY_FIELD, feature.getFeatureId()), FeatureDocuments.create(segment, feature));
+				}
+			}
+		});
+	}
+
+	/**
+	 * Removes the document of a deleted feature.
+	 * @param dirPath the directory of the indexes.
+	 * @param dataSourceName the name of the data source.
+	 * @param featureId the id of the feature deleted.
+	 * @throws SearcherException if the index cannot be updated.
+	 */
+	public void featureDeleted(String dirPath, String dataSourceName, final String featureId) throws SearcherException {
+		update(dirPath, dataSourceName, new Change() {
+			public void apply(IndexWriter writer) throws IOException {
+				writer.deleteDocuments(new Term(Indexer.FEATURE_KEY_FIELD, featureId));
+			}
+		});
+	}
+
+	/**
+	 * Applies the changes queued while the data source was being indexed.
+	 * @param dirPath the directory of the indexes.
+	 * @param dataSourceName the name of the data source.
+	 * @throws SearcherException if the index cannot be updated.
+	 */
+	public synchronized void replayPending(String dirPath, String dataSourceName) throws SearcherException {
+		List<Change> changes = pending.remove(getKey(dirPath, dataSourceName));
+		if (changes != null) {
+			logger.info("Applying " + changes.size() + " changes queued while indexing " + dataSourceName);
+			apply(dirPath, dataSourceName, changes);
+		}
+	}
+
+	private synchronized void update(String dirPath, String dataSourceName, Change change) throws SearcherException {
+		List<Change> changes = pending.remove(getKey(dirPath, dataSourceName));
+		if (changes == null)
+			changes = new ArrayList<Change>(1);
+		changes.add(change);
+		apply(dirPath, dataSourceName, changes);
+	}
+
+	private void apply(String dirPath, String dataSourceName, List<Change> changes) throws SearcherException {
+		FSDirectory dir = null;
+		IndexWriter writer = null;
+		boolean closed = false;
+		try {
+			dir = FSDirectory.open(new File(dirPath+"/"+dataSourceName));
+			if (!IndexReader.indexExists(dir)) {
+				if (logger.isDebugEnabled())
+					logger.debug("No index to update for " + dataSourceName);
+				return;
+			}
+			writer = new IndexWriter(dir, new IndexWriterConfig(Version.LUCENE_30, Indexer.createAnalyzer())
+					.setOpenMode(IndexWriterConfig.OpenMode.APPEND));
+			for (Change change : changes)
+				change.apply(writer);
+			writer.commit();
+			writer.close();
+			closed = true;
+			indexSearchers.reopen(dirPath, dataSourceName);
+		} catch (LockObtainFailedException e) {
+			logger.info("The index of " + dataSourceName + " is being written, the change will be applied once done");
+			pending.put(getKey(dirPath, dataSourceName), changes);
+		} catch (IOException e) {
+			throw new SearcherException("Error trying to update the index file ", e);
+		} finally {
+			if (writer != null && !closed) {
+				try {
+					writer.rollback();
+				} catch (IOException e) {
+					logger.error("Error closing the index writer of " + dataSourceName, e);
+				}
+			}
+			if (dir != null)
+				dir.close();
+		}
+	}
+
+	private static String getKey(String dirPath, String dataSourceName) {
+		return new File(dirPath + "/" + dataSourceName).getAbsolutePath();
+	}
+
+	private interface Change {
+		void apply(IndexWriter writer) throws IOException;
+	}
+}
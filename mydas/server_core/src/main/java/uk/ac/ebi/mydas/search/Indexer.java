@@ -2,222 +2,241 @@ package uk.ac.ebi.mydas.search;
 
 import java.io.File;
 import java.io.IOException;
-import java.net.URL;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 
 import org.apache.log4j.Logger;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.LimitTokenCountAnalyzer;
 import org.apache.lucene.analysis.standard.StandardAnalyzer;
-import org.apache.lucene.document.Document;
-import org.apache.lucene.document.Field;
-import org.apache.lucene.index.CorruptIndexException;
 import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.TieredMergePolicy;
 import org.apache.lucene.store.FSDirectory;
 import org.apache.lucene.util.Version;
 
 import uk.ac.ebi.mydas.configuration.DataSourceConfiguration;
+import uk.ac.ebi.mydas.configuration.PropertyType;
 import uk.ac.ebi.mydas.configuration.ServerConfiguration;
 import uk.ac.ebi.mydas.datasource.AnnotationDataSource;
-import uk.ac.ebi.mydas.exceptions.BadReferenceObjectException;
 import uk.ac.ebi.mydas.exceptions.DataSourceException;
 import uk.ac.ebi.mydas.exceptions.SearcherException;
 import uk.ac.ebi.mydas.exceptions.UnimplementedFeatureException;
-import uk.ac.ebi.mydas.model.DasAnnotatedSegment;
 import uk.ac.ebi.mydas.model.DasEntryPoint;
-import uk.ac.ebi.mydas.model.DasFeature;
-import uk.ac.ebi.mydas.model.DasTarget;
 
 public class Indexer {
+	/**
+	 * The segment id, not analysed, read through the FieldCache by {@link MyDasCollector}.
+	 */
+	static final String SEGMENT_KEY_FIELD = "segmentKey";
+
+	/**
+	 * The feature id, not analysed, identifying the document of a feature for {@link IndexUpdater}.
+	 */
+	static final String FEATURE_KEY_FIELD = "featureKey";
+
+	static final String FETCHERS_PROPERTY = "segment_parallelism";
+	static final String THREADS_PROPERTY = "indexer_threads";
+	static final String RAM_BUFFER_PROPERTY = "indexer_ram_buffer_mb";
+	static final String SEGMENTS_PER_TIER_PROPERTY = "indexer_segments_per_tier";
+	static final String MAX_MERGED_SEGMENT_PROPERTY = "indexer_max_merged_segment_mb";
+	static final String MAX_SEGMENTS_PROPERTY = "indexer_max_segments";
+
+	private static final double DEFAULT_RAM_BUFFER_MB = 64.0;
+
 	private String dirPath;
 	private ServerConfiguration config;
+	private final IndexSearchers indexSearchers;
 	private static final Logger logger = Logger.getLogger(Indexer.class);
 
-	public Indexer(String dirPath, ServerConfiguration config){
+	/**
+	 * @param indexSearchers the open indexes, reopened once an index is written.
+	 * @param dirPath the directory of the indexes.
+	 * @param config the configuration of the data sources to index.
+	 */
+	public Indexer(IndexSearchers indexSearchers, String dirPath, ServerConfiguration config){
+		this.indexSearchers = indexSearchers;
 		this.dirPath = dirPath;
 		this.config=config;
 	}
 
+	/**
+	 * @return the directory of the indexes.
+	 */
+	public String getDirPath() {
+		return dirPath;
+	}
+
+	/**
+	 * Indexes all the data sources with the advanced-search capability, one after the other.
+	 * @throws SearcherException if there is no data source, or one of them cannot be indexed.
+	 */
 	public void generateIndexes() throws SearcherException{
+		for (String dsn : getDsnsToIndex())
+			generateIndex(dsn, new IndexingProgress(dsn));
+	}
+
+	/**
+	 * @return the names of the data sources with the advanced-search capability.
+	 * @throws SearcherException if there is no data source.
+	 */
+	public List<String> getDsnsToIndex() throws SearcherException{
 		List<String> dsns = config.getDsnNames();
 		if (dsns == null || dsns.size() == 0){
 			logger.error("No DSNs");
 			throw new SearcherException("No datasources to query");
-		} else{
-			// At least one dsn is OK.
-			for (String dsn : dsns){
-				DataSourceConfiguration dsnConfig = config.getDataSourceConfig(dsn);
-                if (dsnConfig.isMatchedDynamic()) {
-                    continue;
-                }
-				String capabilities =dsnConfig.getCapabilities();
-				if(capabilities.contains("advanced-search")){
-					if(capabilities.contains("entry_points") && capabilities.contains("feature-by-id")){
-						try {
-							if (dsnConfig.getDataSource() instanceof AnnotationDataSource){
-								
-								// Fine - process command.
-								AnnotationDataSource refDsn = dsnConfig.getDataSource();
-								FSDirectory dir = FSDirectory.open(new File(dirPath+"/"+dsn));
-								IndexWriter writer = new IndexWriter(dir, new StandardAnalyzer(Version.LUCENE_30),true, IndexWriter.MaxFieldLength.LIMITED);
-								
-								Integer max =dsnConfig.getMaxEntryPoints();
-								int total = refDsn.getTotalEntryPoints();
-								if (max ==null)
-									max=total;
-								for (int i=0;i<=total;i+=max){
-									Collection<DasEntryPoint> entryPoints = refDsn.getEntryPoints(i+1, i+max);
-									if (entryPoints==null)
-										throw  new SearcherException("Entry points is null,The entry-point capability is not well implemented.");
-									Collection <DasEntryPoint> ignored = new ArrayList<DasEntryPoint>();
-									for (DasEntryPoint entryPoint:entryPoints){
-										try {
-											this.processEntryPoint(entryPoint,refDsn,writer);
-										} catch (BadReferenceObjectException e) {
-											ignored.add(entryPoint);
-										}
-									}
-									for (DasEntryPoint entryPoint:ignored){
-										try {
-											this.processEntryPoint(entryPoint,refDsn,writer);
-										} catch (BadReferenceObjectException e) {
-											logger.error("The entry point was ignored:"+entryPoint.getSegmentId());
-										}
-									}
-								}
-								writer.optimize();
-								writer.close();
-							}
-						} catch (DataSourceException e) {
-							throw new SearcherException("Error trying to query information of a data source",e);
-						} catch (UnimplementedFeatureException e) {
-							throw new SearcherException("The Entry-Point capability is a requirenment for the searching functions",e);
-						} catch (IOException e) {
-							throw new SearcherException("Error trying to write the index file ",e);
-//						} catch (BadReferenceObjectException e) {
-//							throw new SearcherException("A reported entry point can't be recovered",e);
-						}
-					}else{
-						throw new SearcherException("The capabilities 'entry-points' and 'feature-by-id' are required to be able to index");
-					}
+		}
+		// At least one dsn is OK.
+		List<String> indexed = new ArrayList<String>();
+		for (String dsn : dsns){
+			DataSourceConfiguration dsnConfig = config.getDataSourceConfig(dsn);
+			if (dsnConfig.isMatchedDynamic()) {
+				continue;
+			}
+			if(dsnConfig.getCapabilities().contains("advanced-search"))
+				indexed.add(dsn);
+		}
+		return indexed;
+	}
+
+	/**
+	 * Writes the index of a data source.  The new index is only committed once complete, so the
+	 * searches keep using the previous one until then, and it is discarded if the indexing fails
+	 * or the thread is interrupted.
+	 * <p/>
+	 * The segments are fetched and indexed by an {@link IndexingPipeline}, tuned with these
+	 * optional properties of the data source:
+	 * <ul>
+	 * <li><b>segment_parallelism</b>: the number of segments fetched at the same time, 1 by
+	 * default.  As for the requests, only set it for data sources that can be called from several
+	 * threads at once.  The dynamic data sources, lent to one request at a time, are not indexed.</li>
+	 * <li><b>indexer_threads</b>: the number of threads building the documents, by default the
+	 * number of processors.</li>
+	 * <li><b>indexer_ram_buffer_mb</b>: the memory used to buffer the documents before they are
+	 * flushed to a new index segment, 64 MB by default.</li>
+	 * <li><b>indexer_segments_per_tier</b> and <b>indexer_max_merged_segment_mb</b>: the
+	 * settings of the TieredMergePolicy merging the index segments in the background.</li>
+	 * <li><b>indexer_max_segments</b>: if set, the index is merged down to this number of index
+	 * segments before it is committed, as the former optimize did with 1.  Not set by default,
+	 * the background merges being enough for the searches.</li>
+	 * </ul>
+	 * @param dsn the name of the data source.
+	 * @param progress updated as the segments are indexed.
+	 * @throws SearcherException if the data source cannot be indexed.
+	 */
+	public void generateIndex(String dsn, IndexingProgress progress) throws SearcherException{
+		DataSourceConfiguration dsnConfig = config.getDataSourceConfig(dsn);
+		String capabilities =dsnConfig.getCapabilities();
+		if(!capabilities.contains("entry_points") || !capabilities.contains("feature-by-id"))
+			throw new SearcherException("The capabilities 'entry-points' and 'feature-by-id' are required to be able to index");
+		Map<String, PropertyType> properties = dsnConfig.getDataSourceProperties();
+		FSDirectory dir = null;
+		IndexWriter writer = null;
+		boolean committed = false;
+		try {
+			if (dsnConfig.getDataSource() instanceof AnnotationDataSource){
+				
+				// Fine - process command.
+				AnnotationDataSource refDsn = dsnConfig.getDataSource();
+				Integer max =dsnConfig.getMaxEntryPoints();
+				int total = refDsn.getTotalEntryPoints();
+				if (max ==null || max<1)
+					max=Math.max(total, 1);
+				List<DasEntryPoint> entryPoints = new ArrayList<DasEntryPoint>(total);
+				for (int i=0;i<=total;i+=max){
+					Collection<DasEntryPoint> page = refDsn.getEntryPoints(i+1, i+max);
+					if (page==null)
+						throw  new SearcherException("Entry points is null,The entry-point capability is not well implemented.");
+					entryPoints.addAll(page);
 				}
+				progress.start(entryPoints.size());
+
+				int builders = getProperty(properties, THREADS_PROPERTY, Runtime.getRuntime().availableProcessors());
+				dir = FSDirectory.open(new File(dirPath+"/"+dsn));
+				writer = new IndexWriter(dir, getWriterConfig(properties, builders));
+				new IndexingPipeline(dsn, refDsn, writer, progress, getProperty(properties, FETCHERS_PROPERTY, 1), builders).run(entryPoints);
+				int maxSegments = getProperty(properties, MAX_SEGMENTS_PROPERTY, 0);
+				if (maxSegments > 0)
+					writer.forceMerge(maxSegments);
+				writer.close();
+				committed = true;
 			}
+		} catch (DataSourceException e) {
+			throw new SearcherException("Error trying to query information of a data source",e);
+		} catch (UnimplementedFeatureException e) {
+			throw new SearcherException("The Entry-Point capability is a requirenment for the searching functions",e);
+		} catch (IOException e) {
+			throw new SearcherException("Error trying to write the index file ",e);
+		} finally {
+			if (writer != null && !committed)
+				rollback(dsn, writer);
+			if (dir != null)
+				dir.close();
 		}
+		if (committed)
+			indexSearchers.reopen(dirPath, dsn);
 	}
 
-	private void processEntryPoint(DasEntryPoint entryPoint, AnnotationDataSource refDsn, IndexWriter writer) throws BadReferenceObjectException, DataSourceException, CorruptIndexException, IOException {
+	private static IndexWriterConfig getWriterConfig(Map<String, PropertyType> properties, int builders) {
+		TieredMergePolicy mergePolicy = new TieredMergePolicy();
+		double segmentsPerTier = getProperty(properties, SEGMENTS_PER_TIER_PROPERTY, 0.0);
+		if (segmentsPerTier > 0)
+			mergePolicy.setSegmentsPerTier(segmentsPerTier);
+		double maxMergedSegmentMB = getProperty(properties, MAX_MERGED_SEGMENT_PROPERTY, 0.0);
+		if (maxMergedSegmentMB > 0)
+			mergePolicy.setMaxMergedSegmentMB(maxMergedSegmentMB);
+		return new IndexWriterConfig(Version.LUCENE_30, createAnalyzer())
+				.setOpenMode(IndexWriterConfig.OpenMode.CREATE)
+				.setRAMBufferSizeMB(getProperty(properties, RAM_BUFFER_PROPERTY, DEFAULT_RAM_BUFFER_MB))
+				.setMaxThreadStates(Math.max(builders, IndexWriterConfig.DEFAULT_MAX_THREAD_STATES))
+				.setMergePolicy(mergePolicy);
+	}
 
-		DasAnnotatedSegment segment;
-			segment = refDsn.getFeatures(entryPoint.getSegmentId(), null);
-		for (DasFeature feature:segment.getFeatures()){
-			Document doc = new Document();
-			String type="",method="",notes="",links="",targets="",parents="",parts="",segmentS="";
+	/**
+	 * @return the analyzer of the documents, truncating the fields as IndexWriter.MaxFieldLength.LIMITED did.
+	 */
+	static Analyzer createAnalyzer() {
+		return new LimitTokenCountAnalyzer(new StandardAnalyzer(Version.LUCENE_30), IndexWriter.DEFAULT_MAX_FIELD_LENGTH);
+	}
 
-			doc.add(new Field("segmentId", segment.getSegmentId(),																Field.Store.YES,	Field.Index.ANALYZED));
-			segmentS +=segment.getSegmentId();
-			if (segment.getSegmentLabel()!=null) {
-				doc.add(new Field("segmentLabel", segment.getSegmentLabel(),																Field.Store.YES,	Field.Index.ANALYZED));
-				segmentS += " "+segment.getSegmentLabel();
-			}
-			if (segment.getVersion()!=null) {
-				doc.add(new Field("segmentVersion", segment.getVersion(),																Field.Store.YES,	Field.Index.ANALYZED));
-				segmentS += " "+segment.getVersion();
-			}
-			if (segment.getStartCoordinate()!=null) {
-				doc.add(new Field("segmentStart", ""+segment.getStartCoordinate(),																Field.Store.YES,	Field.Index.ANALYZED));
-				segmentS += " "+segment.getStartCoordinate();
-			}
-			if (segment.getStopCoordinate()!=null) {
-				doc.add(new Field("segmentStop", ""+segment.getStopCoordinate(),																Field.Store.YES,	Field.Index.ANALYZED));
-				segmentS += " "+segment.getStopCoordinate();
-			}
+	private static int getProperty(Map<String, PropertyType> properties, String key, int defaultValue) {
+		String value = getProperty(properties, key);
+		if (value == null)
+			return defaultValue;
+		try {
+			return Integer.parseInt(value);
+		} catch (NumberFormatException e) {
+			logger.error("The property " + key + " should be a number, found '" + value + "'. Using " + defaultValue);
+			return defaultValue;
+		}
+	}
 
-			
-			doc.add(new Field("featureId", feature.getFeatureId(),		Field.Store.YES,	Field.Index.ANALYZED));
-			if (feature.getFeatureLabel()!=null) doc.add(new Field("featureLabel", feature.getFeatureLabel(), Field.Store.YES, Field.Index.ANALYZED));
-			if (feature.getType()!=null){
-				if (feature.getType().getId()!=null){ 
-					doc.add(new Field("typeId", feature.getType().getId(), Field.Store.YES, Field.Index.ANALYZED));
-					type +=feature.getType().getId()+" ";
-				}
-				if (feature.getType().getCvId()!=null){
-					doc.add(new Field("typeCvId", feature.getType().getCvId(), Field.Store.YES, Field.Index.ANALYZED));
-					type +=feature.getType().getCvId()+" ";
-				}
-				if (feature.getType().getLabel()!=null){ 
-					doc.add(new Field("typeLabel", feature.getType().getLabel(), Field.Store.YES, Field.Index.ANALYZED));
-					type +=feature.getType().getLabel()+" ";
-				}
-				if (feature.getType().getCategory()!=null){
-					doc.add(new Field("typeCategory", feature.getType().getCategory(), Field.Store.YES, Field.Index.ANALYZED));
-					type +=feature.getType().getCategory()+" ";
-				}
-				doc.add(new Field("type",type, Field.Store.NO, Field.Index.ANALYZED));
-			}
-			if (feature.getMethod()!=null){
-				method+=feature.getMethod().getId()+" ";
-				doc.add(new Field("methodId", feature.getMethod().getId(), Field.Store.YES, Field.Index.ANALYZED));
-				if (feature.getMethod().getCvId()!=null){
-					method+=feature.getMethod().getCvId()+" ";
-					doc.add(new Field("methodCvId", feature.getMethod().getCvId(), Field.Store.YES, Field.Index.ANALYZED));
-				}
-				if (feature.getMethod().getLabel()!=null){
-					method+=feature.getMethod().getLabel()+" ";
-					doc.add(new Field("methodLabel", feature.getMethod().getLabel(), Field.Store.YES, Field.Index.ANALYZED));
-				}
-				doc.add(new Field("method",method, Field.Store.NO, Field.Index.ANALYZED));
-			}
-			doc.add(new Field("start",""+feature.getStartCoordinate(), Field.Store.YES, Field.Index.ANALYZED));
-			doc.add(new Field("stop",""+feature.getStopCoordinate(), Field.Store.YES, Field.Index.ANALYZED));
-
-			if (feature.getScore()!=null) doc.add(new Field("score",""+feature.getScore(), Field.Store.YES, Field.Index.ANALYZED));
-			if (feature.getOrientation()!=null) doc.add(new Field("orientation",""+feature.getOrientation(), Field.Store.YES, Field.Index.ANALYZED));
-			if (feature.getPhase()!=null) doc.add(new Field("phase",""+feature.getPhase(), Field.Store.YES, Field.Index.ANALYZED));
-			if (feature.getNotes()!=null) {
-				String sep ="";
-				for (String note:feature.getNotes()){
-					notes+=sep+note;
-					sep =" ==NOTE== ";
-				}
-				doc.add(new Field("notes",notes, Field.Store.YES, Field.Index.ANALYZED));
-			}
-			if (feature.getLinks()!=null) {
-				String sep ="";
-				for (URL key:feature.getLinks().keySet()){
-					links+=sep+feature.getLinks().get(key) +" _-_ "+ key;
-					sep =" ==LINK== ";
-				}
-				doc.add(new Field("links",links, Field.Store.YES, Field.Index.ANALYZED));
-			}
-			if (feature.getTargets()!=null) {
-				String sep="";
-				for (DasTarget target:feature.getTargets()){
-					targets += sep+target.getTargetId();
-					targets += " _-_ "+target.getStartCoordinate();
-					targets += " _-_ "+target.getStopCoordinate();
-					if (target.getTargetName()!=null )targets += " _-_ "+target.getTargetName();
-					sep=" ==TARGET== ";
-				}
-				doc.add(new Field("targets",targets, Field.Store.YES, Field.Index.ANALYZED));
-			}
-			if (feature.getParents()!=null) {
-				String sep="";
-				for(String parent:feature.getParents()){
-					parents+=sep+parent;
-					sep=" ==PARENT== ";
-				}
-				doc.add(new Field("parents",parents, Field.Store.YES, Field.Index.ANALYZED));
-			}
-			if (feature.getParts()!=null) {
-				String sep="";
-				for(String part:feature.getParts()){
-					parts+=sep+part;
-					sep=" ==PART== ";
-				}
-				doc.add(new Field("parts",parts, Field.Store.YES, Field.Index.ANALYZED));
-			}
-			doc.add(new Field("all",segmentS+" "+feature.getFeatureId()+" "+type+" "+method+" "+notes+" "+links+" "+targets+" "+parents+" "+parts, Field.Store.NO, Field.Index.ANALYZED));
-			writer.addDocument(doc);
-		}		
+	private static double getProperty(Map<String, PropertyType> properties, String key, double defaultValue) {
+		String value = getProperty(properties, key);
+		if (value == null)
+			return defaultValue;
+		try {
+			return Double.parseDouble(value);
+		} catch (NumberFormatException e) {
+			logger.error("The property " + key + " should be a number, found '" + value + "'. Using " + defaultValue);
+			return defaultValue;
+		}
+	}
+
+	private static String getProperty(Map<String, PropertyType> properties, String key) {
+		PropertyType property = (properties == null) ? null : properties.get(key);
+		if (property == null || property.getValue() == null || property.getValue().trim().length() == 0)
+			return null;
+		return property.getValue().trim();
+	}
+
+	private static void rollback(String dsn, IndexWriter writer) {
+		try {
+			writer.rollback();
+		} catch (IOException e) {
+			logger.error("Error discarding the incomplete index of " + dsn, e);
+		}
 	}
 }
@@ -0,0 +1,138 @@
+package uk.ac.ebi.mydas.search;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Logger;
+
+import uk.ac.ebi.mydas.exceptions.SearcherException;
+
+/**
+ * Runs the indexing of the data sources in the background, on a low priority thread, so the
+ * indexer command returns at once.  The data sources are indexed one after the other, and a
+ * data source already queued or being indexed is not queued again.
+ * <p/>
+ * The searches keep using the previous index of a data source until its new index is
+ * committed, the {@link Indexer} then switches them to it.  The writeback changes queued by the
+ * {@link IndexUpdater} while a data source is indexed are applied once the indexing is done.
+ */
+public class IndexerJobs {
+	private static final Logger logger = Logger.getLogger(IndexerJobs.class);
+
+	/**
+	 * The idle indexing thread is stopped after this many seconds.
+	 */
+	private static final long KEEP_ALIVE_SECONDS = 60L;
+
+	/**
+	 * The last indexing of each data source, in the order they were submitted.
+	 */
+	private final Map<String, IndexingProgress> jobs = new LinkedHashMap<String, IndexingProgress>();
+
+	private final IndexUpdater indexUpdater;
+
+	private ThreadPoolExecutor executor;
+
+	private boolean shutdown = false;
+
+	/**
+	 * @param indexUpdater applies the changes queued during an indexing once it is done.
+	 */
+	public IndexerJobs(IndexUpdater indexUpdater) {
+		this.indexUpdater = indexUpdater;
+	}
+
+	/**
+	 * Queues the indexing of a data source, unless it is already queued or running.
+	 * @param indexer the indexer to run.
+	 * @param dataSourceName the name of the data source to index.
+	 * @return the progress of the indexing, queued by this call or earlier.
+	 * @throws SearcherException if the jobs have been shut down.
+	 */
+	public synchronized IndexingProgress submit(final Indexer indexer, final String dataSourceName) throws SearcherException {
+		if (shutdown)
+			throw new SearcherException("The indexer has been shut down");
+		IndexingProgress current = jobs.get(dataSourceName);
+		if (current != null && !current.isDone())
+			return current;
+		final IndexingProgress progress = new IndexingProgress(dataSourceName);
+		jobs.remove(dataSourceName);
+		jobs.put(dataSourceName, progress);
+		getExecutor().execute(new Runnable() {
+			public void run() {
+				try {
+					indexer.generateIndex(dataSourceName, progress);
+					progress.finished();
+					logger.info("Indexed " + progress.getFeaturesIndexed() + " features of " + dataSourceName
+							+ " in " + progress.getElapsedMillis() / 1000 + " s");
+				} catch (SearcherException e) {
+					logger.error("Error indexing " + dataSourceName, e);
+					progress.failed(e);
+				} catch (RuntimeException e) {
+					logger.error("Error indexing " + dataSourceName, e);
+					progress.failed(e);
+				} finally {
+					// An Error goes on to the thread, but the job must not stay running.
+					if (!progress.isDone())
+						progress.failed(new SearcherException("The indexing of " + dataSourceName + " stopped unexpectedly"));
+					replayPending(indexer, dataSourceName);
+				}
+			}
+		});
+		return progress;
+	}
+
+	private void replayPending(Indexer indexer, String dataSourceName) {
+		try {
+			indexUpdater.replayPending(indexer.getDirPath(), dataSourceName);
+		} catch (SearcherException e) {
+			logger.error("Error applying the changes queued while indexing " + dataSourceName, e);
+		}
+	}
+
+	/**
+	 * @return the progress of the last indexing of each data source.
+	 */
+	public synchronized List<IndexingProgress> getProgress() {
+		return new ArrayList<IndexingProgress>(jobs.values());
+	}
+
+	/**
+	 * Stops the indexing thread.  The indexing in progress is interrupted and rolled back.
+	 */
+	public void shutdown() {
+		ThreadPoolExecutor pool;
+		synchronized (this) {
+			shutdown = true;
+			pool = executor;
+			executor = null;
+		}
+		if (pool != null)
+			pool.shutdownNow();
+	}
+
+	private ThreadPoolExecutor getExecutor() {
+		if (executor == null) {
+			executor = new ThreadPoolExecutor(1, 1, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+					new ThreadFactory() {
+						private final AtomicInteger count = new AtomicInteger();
+
+						public Thread newThread(Runnable runnable) {
+							Thread thread = new Thread(runnable, "mydas-indexer-" + count.incrementAndGet());
+							thread.setDaemon(true);
+							thread.setPriority(Thread.MIN_PRIORITY);
+							return thread;
+						}
+					});
+			executor.allowCoreThreadTimeOut(true);
+		}
+		return executor;
+	}
+}
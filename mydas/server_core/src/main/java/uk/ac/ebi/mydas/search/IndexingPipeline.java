@@ -0,0 +1,170 @@
+package uk.ac.ebi.mydas.search;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Logger;
+import org.apache.lucene.index.IndexWriter;
+
+import uk.ac.ebi.mydas.datasource.AnnotationDataSource;
+import uk.ac.ebi.mydas.exceptions.BadReferenceObjectException;
+import uk.ac.ebi.mydas.exceptions.DataSourceException;
+import uk.ac.ebi.mydas.exceptions.SearcherException;
+import uk.ac.ebi.mydas.model.DasAnnotatedSegment;
+import uk.ac.ebi.mydas.model.DasEntryPoint;
+import uk.ac.ebi.mydas.model.DasFeature;
+
+/**
+ * Indexes the segments of a data source with two pools of threads: the fetchers get the
+ * features of the segments from the data source, and hand them over through a bounded queue to
+ * the builders, which add the documents of the features to the shared IndexWriter.
+ * <p/>
+ * The segments the data source cannot find are tried again once, one after the other, when
+ * all the others are indexed.  The first error stops all the threads.
+ */
+final class IndexingPipeline {
+	private static final Logger logger = Logger.getLogger(IndexingPipeline.class);
+
+	/**
+	 * How long a builder waits for a segment before checking whether the fetchers are done.
+	 */
+	private static final long POLL_MILLIS = 100L;
+
+	private final String dsn;
+	private final AnnotationDataSource refDsn;
+	private final IndexWriter writer;
+	private final IndexingProgress progress;
+	private final int fetchers;
+	private final int builders;
+
+	IndexingPipeline(String dsn, AnnotationDataSource refDsn, IndexWriter writer, IndexingProgress progress, int fetchers, int builders) {
+		this.dsn = dsn;
+		this.refDsn = refDsn;
+		this.writer = writer;
+		this.progress = progress;
+		this.fetchers = Math.max(fetchers, 1);
+		this.builders = Math.max(builders, 1);
+	}
+
+	void run(Collection<DasEntryPoint> entryPoints) throws SearcherException {
+		final Queue<DasEntryPoint> pending = new ConcurrentLinkedQueue<DasEntryPoint>(entryPoints);
+		final Queue<DasEntryPoint> ignored = new ConcurrentLinkedQueue<DasEntryPoint>();
+		final BlockingQueue<DasAnnotatedSegment> fetched = new ArrayBlockingQueue<DasAnnotatedSegment>(builders * 2);
+		final CountDownLatch fetching = new CountDownLatch(fetchers);
+
+		ExecutorService pool = Executors.newFixedThreadPool(fetchers + builders, new ThreadFactory() {
+			private final AtomicInteger count = new AtomicInteger();
+
+			public Thread newThread(Runnable runnable) {
+				// Created by the indexing thread, so with its priority.
+				Thread thread = new Thread(runnable, "mydas-indexer-" + dsn + "-" + count.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		CompletionService<Void> completion = new ExecutorCompletionService<Void>(pool);
+		try {
+			for (int i = 0; i < fetchers; i++) {
+				completion.submit(new Callable<Void>() {
+					public Void call() throws Exception {
+						try {
+							DasEntryPoint entryPoint;
+							while ((entryPoint = pending.poll()) != null) {
+								checkInterrupted();
+								try {
+									fetched.put(refDsn.getFeatures(entryPoint.getSegmentId(), null));
+								} catch (BadReferenceObjectException e) {
+									ignored.add(entryPoint);
+								}
+							}
+						} finally {
+							fetching.countDown();
+						}
+						return null;
+					}
+				});
+			}
+			for (int i = 0; i < builders; i++) {
+				completion.submit(new Callable<Void>() {
+					public Void call() throws Exception {
+						while (true) {
+							DasAnnotatedSegment segment = fetched.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+							if (segment != null) {
+								progress.segmentIndexed(addDocuments(segment));
+							} else if (fetching.getCount() == 0 && fetched.isEmpty()) {
+								return null;
+							}
+						}
+					}
+				});
+			}
+			for (int i = 0; i < fetchers + builders; i++) {
+				completion.take().get();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new SearcherException("The indexing of " + dsn + " has been interrupted");
+		} catch (ExecutionException e) {
+			throw getSearcherException(e.getCause());
+		} finally {
+			pool.shutdownNow();
+		}
+
+		for (DasEntryPoint entryPoint : ignored) {
+			checkInterrupted();
+			try {
+				progress.segmentIndexed(addDocuments(refDsn.getFeatures(entryPoint.getSegmentId(), null)));
+			} catch (BadReferenceObjectException e) {
+				progress.segmentIndexed(0);
+				logger.error("The entry point was ignored:"+entryPoint.getSegmentId());
+			} catch (DataSourceException e) {
+				throw getSearcherException(e);
+			} catch (IOException e) {
+				throw getSearcherException(e);
+			}
+		}
+	}
+
+	private int addDocuments(DasAnnotatedSegment segment) throws IOException {
+		Collection<DasFeature> features = segment.getFeatures();
+		for (DasFeature feature : features) {
+			writer.addDocument(FeatureDocuments.create(segment, feature));
+		}
+		return features.size();
+	}
+
+	private void checkInterrupted() throws SearcherException {
+		if (Thread.currentThread().isInterrupted())
+			throw new SearcherException("The indexing of " + dsn + " has been interrupted");
+	}
+
+	private SearcherException getSearcherException(Throwable cause) {
+		if (cause instanceof SearcherException)
+			return (SearcherException) cause;
+		if (cause instanceof DataSourceException)
+			return new SearcherException("Error trying to query information of a data source", cause);
+		if (cause instanceof IOException)
+			return new SearcherException("Error trying to write the index file ", cause);
+		if (cause instanceof InterruptedException)
+			return new SearcherException("The indexing of " + dsn + " has been interrupted", cause);
+		if (cause instanceof RuntimeException)
+			throw (RuntimeException) cause;
+		if (cause instanceof Error)
+			throw (Error) cause;
+		return new SearcherException("Error indexing " + dsn, cause);
+	}
+}
@@ -0,0 +1,115 @@
+package uk.ac.ebi.mydas.search;
+
+/**
+ * The progress of the indexing of one data source, updated by the {@link Indexer} and read
+ * by the indexer_status command.
+ */
+public class IndexingProgress {
+	public enum State { QUEUED, RUNNING, FINISHED, FAILED }
+
+	private final String dataSourceName;
+	private final long submitted = System.currentTimeMillis();
+
+	private volatile State state = State.QUEUED;
+	private volatile long started;
+	private volatile long ended;
+	private volatile int totalSegments;
+	private volatile int segmentsDone;
+	private volatile long featuresIndexed;
+	private volatile String error;
+
+	public IndexingProgress(String dataSourceName) {
+		this.dataSourceName = dataSourceName;
+	}
+
+	void start(int totalSegments) {
+		this.totalSegments = totalSegments;
+		started = System.currentTimeMillis();
+		state = State.RUNNING;
+	}
+
+	synchronized void segmentIndexed(int features) {
+		segmentsDone++;
+		featuresIndexed += features;
+	}
+
+	void finished() {
+		ended = System.currentTimeMillis();
+		state = State.FINISHED;
+	}
+
+	void failed(Throwable cause) {
+		ended = System.currentTimeMillis();
+		error = cause.getMessage();
+		state = State.FAILED;
+	}
+
+	public String getDataSourceName() {
+		return dataSourceName;
+	}
+
+	public State getState() {
+		return state;
+	}
+
+	/**
+	 * @return true once the indexing has finished or failed.
+	 */
+	public boolean isDone() {
+		return state == State.FINISHED || state == State.FAILED;
+	}
+
+	public long getSubmitted() {
+		return submitted;
+	}
+
+	public int getTotalSegments() {
+		return totalSegments;
+	}
+
+	public int getSegmentsDone() {
+		return segmentsDone;
+	}
+
+	public long getFeaturesIndexed() {
+		return featuresIndexed;
+	}
+
+	/**
+	 * @return the message of the error that stopped the indexing, or null.
+	 */
+	public String getError() {
+		return error;
+	}
+
+	/**
+	 * @return the number of milliseconds spent indexing so far, 0 if not started.
+	 */
+	public long getElapsedMillis() {
+		if (state == State.QUEUED)
+			return 0;
+		long end = isDone() ? ended : System.currentTimeMillis();
+		return Math.max(end - started, 0);
+	}
+
+	/**
+	 * @return the number of features indexed per second.
+	 */
+	public double getFeaturesPerSecond() {
+		long elapsed = getElapsedMillis();
+		return (elapsed == 0) ? 0 : featuresIndexed * 1000.0 / elapsed;
+	}
+
+	/**
+	 * Estimates the time left from the rate at which the segments have been indexed so far.
+	 * @return the number of seconds left, or -1 if it cannot be estimated yet.
+	 */
+	public long getEstimatedSecondsLeft() {
+		if (isDone())
+			return 0;
+		int done = segmentsDone;
+		if (state != State.RUNNING || done == 0)
+			return -1;
+		return getElapsedMillis() * Math.max(totalSegments - done, 0) / done / 1000;
+	}
+}
@@ -4,6 +4,7 @@ import java.util.HashMap;
 import java.util.Map;
 
 import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.search.FieldCache;
 import org.apache.lucene.search.IndexSearcher;
 import org.apache.lucene.search.Scorer;
 import org.apache.lucene.search.TopDocs;
@@ -22,11 +23,18 @@ import org.apache.lucene.search.ScoreDoc;
  * {Float#NEGATIVE_INFINITY} are not valid scores.  This
  * collector will not properly collect hits with such
  * scores.
+ *
+ * <p>The hits are also counted by segment, all of them and not only the top-scoring
+ * ones.  The segment of a hit is read from the {@link FieldCache} of the
+ * {@link Indexer#SEGMENT_KEY_FIELD} field rather than from its stored document.  An
+ * instance collects the hits of one search, so concurrent searches each create
+ * their own.
  */
 public abstract class MyDasCollector extends TopDocsCollector<ScoreDoc> {
 
-	private static Map<String,Integer> hitsPerSegment;
-	private static IndexSearcher searcher;
+	private final Map<String,int[]> hitsPerSegment = new HashMap<String,int[]>();
+	private IndexReader reader;
+	private String[] segmentIds;
 	// Assumes docs are scored in order.
 	private static class InOrderTopScoreDocCollector extends MyDasCollector {
 		private InOrderTopScoreDocCollector(int numHits) {
@@ -35,6 +43,7 @@ public abstract class MyDasCollector extends TopDocsCollector<ScoreDoc> {
 
 		@Override
 		public void collect(int doc) throws IOException {
+			countSegment(doc);
 			float score = scorer.score();
 
 			// This collector cannot handle these scores:
@@ -51,12 +60,6 @@ public abstract class MyDasCollector extends TopDocsCollector<ScoreDoc> {
 			pqTop.doc = doc + docBase;
 			pqTop.score = score;
 			pqTop = pq.updateTop();
-			String segmentId=searcher.doc(doc).get("segmentId");
-			Integer current=hitsPerSegment.get(segmentId);
-			if(null==current)
-				hitsPerSegment.put(segmentId, 1);
-			else
-				hitsPerSegment.put(segmentId, current+1);
 		}
 
 		@Override
@@ -73,6 +76,7 @@ public abstract class MyDasCollector extends TopDocsCollector<ScoreDoc> {
 
 		@Override
 		public void collect(int doc) throws IOException {
+			countSegment(doc);
 			float score = scorer.score();
 
 			// This collector cannot handle NaN
@@ -86,12 +90,6 @@ public abstract class MyDasCollector extends TopDocsCollector<ScoreDoc> {
 			pqTop.doc = doc;
 			pqTop.score = score;
 			pqTop = pq.updateTop();
-			String segmentId=searcher.doc(doc).get("segmentId");
-			Integer current=hitsPerSegment.get(segmentId);
-			if(null==current)
-				hitsPerSegment.put(segmentId, 1);
-			else
-				hitsPerSegment.put(segmentId, current+1);
 		}
 
 		@Override
@@ -109,11 +107,8 @@ public abstract class MyDasCollector extends TopDocsCollector<ScoreDoc> {
 	 * pre-allocate a full array of length
 	 * <code>numHits</code>, and fill the array with sentinel
 	 * objects.
-	 * @param searcher 
 	 */
-	public static MyDasCollector create(int numHits, boolean docsScoredInOrder, IndexSearcher indexSearcher) {
-		hitsPerSegment = new HashMap<String,Integer>();
-		searcher=indexSearcher;
+	public static MyDasCollector create(int numHits, boolean docsScoredInOrder) {
 		if (docsScoredInOrder) {
 			return new InOrderTopScoreDocCollector(numHits);
 		} else {
@@ -156,8 +151,10 @@ public abstract class MyDasCollector extends TopDocsCollector<ScoreDoc> {
 	}
 
 	@Override
-	public void setNextReader(IndexReader reader, int base) {
+	public void setNextReader(IndexReader reader, int base) throws IOException {
 		docBase = base;
+		this.reader = reader;
+		segmentIds = FieldCache.DEFAULT.getStrings(reader, Indexer.SEGMENT_KEY_FIELD);
 	}
 
 	@Override
@@ -166,7 +163,21 @@ public abstract class MyDasCollector extends TopDocsCollector<ScoreDoc> {
 	}
 	
 	public Integer getSizePerSegment(String segmentId){
-		return hitsPerSegment.get(segmentId);
+		int[] count = hitsPerSegment.get(segmentId);
+		return (count == null) ? null : count[0];
+	}
+
+	final void countSegment(int doc) throws IOException {
+		String segmentId = segmentIds[doc];
+		if (segmentId == null) {
+			// Indexes written before the segment key field was added.
+			segmentId = reader.document(doc).get("segmentId");
+		}
+		int[] count = hitsPerSegment.get(segmentId);
+		if (count == null)
+			hitsPerSegment.put(segmentId, new int[]{1});
+		else
+			count[0]++;
 	}
 	
 }
@@ -1,6 +1,5 @@
 package uk.ac.ebi.mydas.search;
 
-import java.io.File;
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.net.MalformedURLException;
@@ -22,8 +21,6 @@ import org.apache.lucene.search.IndexSearcher;
 import org.apache.lucene.search.Query;
 import org.apache.lucene.search.ScoreDoc;
 import org.apache.lucene.search.TopScoreDocCollector;
-import org.apache.lucene.store.Directory;
-import org.apache.lucene.store.FSDirectory;
 import org.apache.lucene.util.Version;
 
 import uk.ac.ebi.mydas.controller.DasFeatureRequestFilter;
@@ -42,10 +39,21 @@ import uk.ac.ebi.mydas.model.DasType;
 
 public class Searcher {
 	private static final Logger logger = Logger.getLogger(Searcher.class);
+	/**
+	 * The most hits returned when no rows are requested.
+	 */
+	private static final int MAX_HITS = 100000;
+	private final IndexSearchers indexSearchers;
 	private String dirPath, dataSourceName;
 	private DasFeatureRequestFilter filter=null;
 	
-	public Searcher(String dirPath, String dataSourceName){
+	/**
+	 * @param indexSearchers the open indexes, shared by the searches.
+	 * @param dirPath the directory of the indexes.
+	 * @param dataSourceName the name of the data source to search.
+	 */
+	public Searcher(IndexSearchers indexSearchers, String dirPath, String dataSourceName){
+		this.indexSearchers = indexSearchers;
 		this.dirPath = dirPath;
 		this.dataSourceName = dataSourceName;
 	}
@@ -66,22 +74,6 @@ public class Searcher {
 		
 		StandardAnalyzer analyzer = new StandardAnalyzer(Version.LUCENE_30);
 
-		Directory fsDir=null;
-		try {
-			fsDir = FSDirectory.open(new File(dirPath+"/"+dataSourceName));
-		} catch (IOException e) {
-			throw new SearcherException("Error trying to open the index file",e);
-		}
-		IndexSearcher searcher=null;
-		try {
-			searcher = new IndexSearcher(fsDir);
-		} catch (CorruptIndexException e) {
-			throw new SearcherException("The index file is corrupt",e);
-		} catch (IOException e) {
-			throw new SearcherException("Error trying to open the index file.",e);
-		}
-
-
 		Query q=null;
 		try {
 			q = new QueryParser(Version.LUCENE_30, "title", analyzer).parse(query);
@@ -89,38 +81,42 @@ public class Searcher {
 			throw new SearcherException("Error parsing the query.",e);
 		}
 
-		int hitsPerPage = 100000;
-		MyDasCollector collector = MyDasCollector.create(hitsPerPage, true,searcher);
+		IndexSearcher searcher = indexSearchers.acquire(dirPath, dataSourceName);
+		try {
+			return search(searcher, q, query, from, to);
+		} finally {
+			indexSearchers.release(searcher);
+		}
+	}
+
+	private Collection<DasAnnotatedSegment> search(IndexSearcher searcher, Query q, String query, Integer from, Integer to) throws SearcherException{
+		if ((from==null)||(from<1))  
+			from=1;
+		if ((to==null)||(to>MAX_HITS))
+			to=MAX_HITS;
+		// Only the hits up to the last row requested are ranked, and only those in the rows are loaded.
+		int numHits = Math.max(1, Math.min(to, searcher.getIndexReader().maxDoc()));
+		MyDasCollector collector = MyDasCollector.create(numHits, true);
 		try {
 			searcher.search(q, collector);
 		} catch (IOException e) {
 			throw new SearcherException("Error in I/O operations while searching.",e);
 		}
-		ScoreDoc[] hits;
-//		if (from==null)
-			hits= collector.topDocs().scoreDocs;
-//		else
-//			hits= collector.topDocs(from,to-from).scoreDocs;
+		ScoreDoc[] hits = collector.topDocs(from-1, to-from+1).scoreDocs;
 		filter.setPaginated(true);
 		filter.setTotalFeatures(collector.getTotalHits());
 		Collection<DasAnnotatedSegment> segments= new ArrayList<DasAnnotatedSegment>();
-		if (hits.length==0)
+		if (collector.getTotalHits()==0)
 			try {
 				segments.add(new DasUnknownFeatureSegment(query));
 			} catch (DataSourceException e1) {
 				throw new SearcherException("The resultset was empty but was impossible to generete the XML",e1);
 			}
-			
 
-		if ((to==null)||(to>hits.length)) 
-			to=hits.length;
-		if ((from==null)||(from<1))  
-			from=1;
-		for(int i=from;i<=to;++i) {
-			int docId = hits[i-1].doc;
+		for (ScoreDoc hit : hits) {
 			try {
-				DasAnnotatedSegment segment = getSegmentFromDoc(searcher.doc(docId));
-				segment.setTotalFeatures(collector.getSizePerSegment(searcher.doc(docId).get("segmentId")));
+				DasAnnotatedSegment segment = getSegmentFromDoc(searcher.doc(hit.doc));
+				segment.setTotalFeatures(collector.getSizePerSegment(segment.getSegmentId()));
 				addSegment2Collection(segments,segment);
 			} catch (CorruptIndexException e) {
 				throw new SearcherException("Error recovering one of the result docs.",e);
@@ -129,12 +125,6 @@ public class Searcher {
 			}
 		}
 
-		try {
-			searcher.close();
-		} catch (IOException e) {
-			throw new SearcherException("Error closing the searcher.",e);
-		}
-
 		return segments;
 	}
 
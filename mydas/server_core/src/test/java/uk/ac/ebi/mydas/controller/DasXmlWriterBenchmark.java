@@ -0,0 +1,125 @@
+/*
+ * Copyright 2007 Philip Jones, EMBL-European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *
+ * For further details of the mydas project, including source code,
+ * downloads and documentation, please see:
+ *
+ * http://code.google.com/p/mydas/
+ *
+ */
+
+package uk.ac.ebi.mydas.controller;
+
+import org.xmlpull.v1.XmlPullParserFactory;
+import org.xmlpull.v1.XmlSerializer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Arrays;
+
+/**
+ * Compares the time taken by the xpp3 serializer and by {@link DasXmlWriter} to write
+ * a DASGFF document, checking first that both write exactly the same bytes.
+ * <p/>
+ * Not run as part of the tests; run it with
+ * <pre>mvn test-compile exec:java -Dexec.classpathScope=test
+ *     -Dexec.mainClass=uk.ac.ebi.mydas.controller.DasXmlWriterBenchmark [-Dexec.args="features rounds"]</pre>
+ */
+public class DasXmlWriterBenchmark {
+
+    private static final String DAS_XML_NAMESPACE = null;
+
+    public static void main(String[] args) throws Exception {
+        int features = (args.length > 0) ? Integer.parseInt(args[0]) : 100000;
+        int rounds = (args.length > 1) ? Integer.parseInt(args[1]) : 10;
+        XmlPullParserFactory factory = XmlPullParserFactory.newInstance(System.getProperty(XmlPullParserFactory.PROPERTY_NAME), null);
+        factory.setNamespaceAware(true);
+
+        byte[] expected = write(factory.newSerializer(), features);
+        byte[] actual = write(new DasXmlWriter(), features);
+        if (!Arrays.equals(expected, actual)) {
+            throw new IllegalStateException("DasXmlWriter output differs from the xpp3 serializer output");
+        }
+        System.out.println("Identical output, " + expected.length + " bytes for " + features + " features");
+
+        for (int round = 0; round < rounds; round++) {
+            long xpp3 = time(factory.newSerializer(), features);
+            long writer = time(new DasXmlWriter(), features);
+            System.out.println("Round " + (round + 1) + ": xpp3 " + xpp3 + " ms, DasXmlWriter " + writer + " ms ("
+                    + (features * 1000L / Math.max(writer, 1)) + " features/s)");
+        }
+    }
+
+    private static long time(XmlSerializer serializer, int features) throws Exception {
+        long start = System.currentTimeMillis();
+        write(serializer, features);
+        return System.currentTimeMillis() - start;
+    }
+
+    private static byte[] write(XmlSerializer serializer, int features) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(features * 400);
+        Writer out = new OutputStreamWriter(bytes, "UTF-8");
+        serializer.setOutput(out);
+        serializer.startDocument(null, false);
+        serializer.text("\n");
+        serializer.docdecl(" DASGFF SYSTEM \"http://www.biodas.org/dtd/dasgff.dtd\"");
+        serializer.text("\n");
+        serializer.startTag(DAS_XML_NAMESPACE, "DASGFF");
+        serializer.startTag(DAS_XML_NAMESPACE, "GFF");
+        serializer.attribute(DAS_XML_NAMESPACE, "href", "http://localhost/das/benchmark/features?segment=1:1,100000000&type=exon");
+        serializer.startTag(DAS_XML_NAMESPACE, "SEGMENT");
+        serializer.attribute(DAS_XML_NAMESPACE, "id", "1");
+        DasXmlWriter.attribute(serializer, DAS_XML_NAMESPACE, "start", 1);
+        DasXmlWriter.attribute(serializer, DAS_XML_NAMESPACE, "stop", 100000000);
+        serializer.attribute(DAS_XML_NAMESPACE, "version", "GRCh37");
+        for (int i = 0; i < features; i++) {
+            serializer.startTag(DAS_XML_NAMESPACE, "FEATURE");
+            serializer.attribute(DAS_XML_NAMESPACE, "id", "feature_" + i);
+            serializer.attribute(DAS_XML_NAMESPACE, "label", "Exon \"" + i + "\" of <gene> & co");
+            serializer.startTag(DAS_XML_NAMESPACE, "TYPE");
+            serializer.attribute(DAS_XML_NAMESPACE, "id", "SO:0000147");
+            serializer.attribute(DAS_XML_NAMESPACE, "category", "transcription");
+            serializer.text("exon");
+            serializer.endTag(DAS_XML_NAMESPACE, "TYPE");
+            serializer.startTag(DAS_XML_NAMESPACE, "METHOD");
+            serializer.attribute(DAS_XML_NAMESPACE, "id", "ensembl");
+            serializer.endTag(DAS_XML_NAMESPACE, "METHOD");
+            serializer.startTag(DAS_XML_NAMESPACE, "START");
+            DasXmlWriter.text(serializer, i * 100 + 1);
+            serializer.endTag(DAS_XML_NAMESPACE, "START");
+            serializer.startTag(DAS_XML_NAMESPACE, "END");
+            DasXmlWriter.text(serializer, i * 100 + 75);
+            serializer.endTag(DAS_XML_NAMESPACE, "END");
+            serializer.startTag(DAS_XML_NAMESPACE, "SCORE");
+            DasXmlWriter.text(serializer, (i % 3 == 0) ? i : i / 7.0);
+            serializer.endTag(DAS_XML_NAMESPACE, "SCORE");
+            serializer.startTag(DAS_XML_NAMESPACE, "ORIENTATION");
+            serializer.text((i % 2 == 0) ? "+" : "-");
+            serializer.endTag(DAS_XML_NAMESPACE, "ORIENTATION");
+            serializer.startTag(DAS_XML_NAMESPACE, "NOTE");
+            serializer.text("Note with ]]> and <markup> & a\ttab");
+            serializer.endTag(DAS_XML_NAMESPACE, "NOTE");
+            serializer.endTag(DAS_XML_NAMESPACE, "FEATURE");
+        }
+        serializer.endTag(DAS_XML_NAMESPACE, "SEGMENT");
+        serializer.endTag(DAS_XML_NAMESPACE, "GFF");
+        serializer.endTag(DAS_XML_NAMESPACE, "DASGFF");
+        serializer.flush();
+        out.close();
+        return bytes.toByteArray();
+    }
+}
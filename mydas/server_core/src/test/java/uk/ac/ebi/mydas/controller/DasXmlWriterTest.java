@@ -0,0 +1,260 @@
+/*
+ * Copyright 2007 Philip Jones, EMBL-European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *
+ * For further details of the mydas project, including source code,
+ * downloads and documentation, please see:
+ *
+ * http://code.google.com/p/mydas/
+ *
+ */
+
+package uk.ac.ebi.mydas.controller;
+
+import junit.framework.TestCase;
+import org.xmlpull.v1.XmlPullParserFactory;
+import org.xmlpull.v1.XmlSerializer;
+import uk.ac.ebi.mydas.extendedmodel.DasTypeE;
+import uk.ac.ebi.mydas.model.DasAnnotatedSegment;
+import uk.ac.ebi.mydas.model.DasFeature;
+import uk.ac.ebi.mydas.model.DasFeatureOrientation;
+import uk.ac.ebi.mydas.model.DasMethod;
+import uk.ac.ebi.mydas.model.DasPhase;
+import uk.ac.ebi.mydas.model.DasSequence;
+import uk.ac.ebi.mydas.model.DasTarget;
+import uk.ac.ebi.mydas.model.DasType;
+
+import java.io.StringWriter;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Checks that {@link DasXmlWriter} writes exactly the same features, types and sequence
+ * documents as the xpp3 serializer it replaces, with and without indentation.  The types and
+ * methods are shared between the features, so most of their markup is copied from the
+ * fragments recorded by DasXmlWriter.
+ */
+public class DasXmlWriterTest extends TestCase {
+
+    private static final String DAS_XML_NAMESPACE = null;
+
+    private static final String INDENTATION_PROPERTY = "http://xmlpull.org/v1/doc/properties.html#serializer-indentation";
+
+    private static final String XPP3_SERIALIZER = "org.xmlpull.mxp1_serializer.MXSerializer";
+
+    /**
+     * Values with the characters escaped in attributes and text, and non-ASCII characters
+     * (Latin-1, CJK and a surrogate pair), which are written as they are.
+     */
+    private static final String[] ESCAPED_VALUES = {
+            "a < b", "AT&T", "say \"hi\"", "&amp; already escaped", "<tag attr=\"v\">&</tag>",
+            "caf\u00e9 \u00f1 \u65e5\u672c \ud834\udd1e", "'single' > quotes", "]]> in text", "\u00e9<&\"\u00e9"
+    };
+
+    private static final Pattern SEGMENT_PATTERN = Pattern.compile("^segment=([^:\\s]*)(:([-]?(\\d+)),([-]?(\\d+)))?$");
+
+    private XmlPullParserFactory factory;
+
+    private List<DasAnnotatedSegment> segments;
+
+    private List<DasType> types;
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        factory = XmlPullParserFactory.newInstance(System.getProperty(XmlPullParserFactory.PROPERTY_NAME), null);
+        factory.setNamespaceAware(true);
+        assertEquals(XPP3_SERIALIZER, factory.newSerializer().getClass().getName());
+
+        types = Arrays.asList(
+                new DasType("SO:0000147", "transcription", "SO:0000147", "exon"),
+                new DasType("SO:0000316", null, null, "CDS & <UTR>"),
+                new DasType("variant", "variation", null, null),
+                new DasType("odd", "\"quoted\" category", null, "ends with ]]"));
+        List<DasMethod> methods = Arrays.asList(
+                new DasMethod("ensembl", "Ensembl \"genebuild\"", "ECO:0000000"),
+                new DasMethod("manual", null, null));
+
+        segments = new ArrayList<DasAnnotatedSegment>();
+        for (int segment = 1; segment <= 2; segment++) {
+            List<DasFeature> features = new ArrayList<DasFeature>();
+            for (int i = 0; i < 60; i++) {
+                features.add(createFeature(segment + "_" + i, i, types.get(i % types.size()), methods.get(i % methods.size())));
+            }
+            features.add(new DasFeature("non_positional_" + segment, null, types.get(0), methods.get(0), 0, 0,
+                    null, null, null, null, null, null, null, null));
+            segments.add(new DasAnnotatedSegment(Integer.toString(segment), 1, 100000, "GRCh37", "Chromosome " + segment, features));
+        }
+    }
+
+    private static DasFeature createFeature(String id, int i, DasType type, DasMethod method) throws Exception {
+        Map<URL, String> links = new LinkedHashMap<URL, String>();
+        links.put(new URL("http://www.example.org/feature?id=" + id + "&format=html"), "Feature <" + id + ">");
+        List<DasTarget> targets = (i % 5 == 0)
+                ? Collections.singletonList(new DasTarget("target_" + i, i + 1, i + 50, (i % 10 == 0) ? "Target & co" : null))
+                : null;
+        return new DasFeature(
+                id,
+                (i % 7 == 0) ? null : "Exon \"" + i + "\" of <gene> & co",
+                type,
+                method,
+                i * 100 + 1,
+                i * 100 + 75,
+                (i % 4 == 0) ? null : (i % 3 == 0) ? (double) i : -i / 7.0,
+                (i % 2 == 0) ? DasFeatureOrientation.ORIENTATION_SENSE_STRAND : DasFeatureOrientation.ORIENTATION_ANTISENSE_STRAND,
+                (i % 3 == 0) ? DasPhase.PHASE_READING_FRAME_0 : null,
+                Arrays.asList("Note with ]]> and <markup> & a\ttab", "Second note é"),
+                links,
+                targets,
+                (i % 6 == 0) ? Collections.singletonList("parent_" + i) : null,
+                (i % 6 == 1) ? Arrays.asList("part_a_" + i, "part_b_" + i) : null);
+    }
+
+    public void testFeatures() throws Exception {
+        assertSameOutput(new Document() {
+            public void write(XmlSerializer serializer) throws Exception {
+                serializer.startTag(DAS_XML_NAMESPACE, "DASGFF");
+                serializer.startTag(DAS_XML_NAMESPACE, "GFF");
+                serializer.attribute(DAS_XML_NAMESPACE, "href", "http://localhost/das/test/features?segment=1;segment=2:1001,3000");
+                new FoundFeaturesReporter(segments.get(0)).serialize(DAS_XML_NAMESPACE, serializer,
+                        new DasFeatureRequestFilter(), false, false, true);
+                new FoundFeaturesReporter(segments.get(1), getSegmentQuery("segment=2:1001,3000")).serialize(DAS_XML_NAMESPACE, serializer,
+                        new DasFeatureRequestFilter(), false, false, false);
+                serializer.endTag(DAS_XML_NAMESPACE, "GFF");
+                serializer.endTag(DAS_XML_NAMESPACE, "DASGFF");
+            }
+        });
+    }
+
+    public void testTypes() throws Exception {
+        assertSameOutput(new Document() {
+            public void write(XmlSerializer serializer) throws Exception {
+                serializer.startTag(DAS_XML_NAMESPACE, "DASTYPES");
+                serializer.startTag(DAS_XML_NAMESPACE, "GFF");
+                serializer.attribute(DAS_XML_NAMESPACE, "version", "1.0");
+                serializer.attribute(DAS_XML_NAMESPACE, "href", "http://localhost/das/test/types");
+                serializer.startTag(DAS_XML_NAMESPACE, "SEGMENT");
+                serializer.attribute(DAS_XML_NAMESPACE, "label", "Complete datasource summary");
+                int count = 0;
+                for (DasType type : types) {
+                    DasTypeE.serialize(DAS_XML_NAMESPACE, serializer, type, count++ * 1000, false, false, false, false);
+                }
+                serializer.endTag(DAS_XML_NAMESPACE, "SEGMENT");
+                serializer.endTag(DAS_XML_NAMESPACE, "GFF");
+                serializer.endTag(DAS_XML_NAMESPACE, "DASTYPES");
+            }
+        });
+    }
+
+    public void testSequence() throws Exception {
+        StringBuilder bases = new StringBuilder();
+        for (int i = 0; i < 20000; i++) {
+            bases.append("ACGTN".charAt((i * 7) % 5));
+        }
+        final DasSequence sequence = new DasSequence("1", bases.toString(), 1, "GRCh37", "Chromosome 1");
+        assertSameOutput(new Document() {
+            public void write(XmlSerializer serializer) throws Exception {
+                serializer.startTag(DAS_XML_NAMESPACE, "DASSEQUENCE");
+                new FoundSequenceReporter(sequence, getSegmentQuery("segment=1")).serialize(DAS_XML_NAMESPACE, serializer);
+                new FoundSequenceReporter(sequence, getSegmentQuery("segment=1:101,9000")).serialize(DAS_XML_NAMESPACE, serializer);
+                serializer.endTag(DAS_XML_NAMESPACE, "DASSEQUENCE");
+            }
+        });
+        assertSameOutput(new Document() {
+            public void write(XmlSerializer serializer) throws Exception {
+                serializer.docdecl(" DASDNA SYSTEM \"http://www.biodas.org/dtd/dasdna.dtd\"");
+                serializer.text("\n");
+                serializer.startTag(DAS_XML_NAMESPACE, "DASDNA");
+                new FoundSequenceReporter(sequence, getSegmentQuery("segment=1:5,30000")).serialize(DAS_XML_NAMESPACE, serializer, true);
+                serializer.endTag(DAS_XML_NAMESPACE, "DASDNA");
+            }
+        });
+    }
+
+    public void testEscaping() throws Exception {
+        assertSameOutput(new Document() {
+            public void write(XmlSerializer serializer) throws Exception {
+                serializer.startTag(DAS_XML_NAMESPACE, "VALUES");
+                for (String value : ESCAPED_VALUES) {
+                    serializer.startTag(DAS_XML_NAMESPACE, "VALUE");
+                    serializer.attribute(DAS_XML_NAMESPACE, "value", value);
+                    serializer.text(value);
+                    serializer.endTag(DAS_XML_NAMESPACE, "VALUE");
+                    // As FoundSequenceReporter writes text, from a part of a larger array.
+                    char[] chars = ("[" + value + "]").toCharArray();
+                    serializer.startTag(DAS_XML_NAMESPACE, "CHARS");
+                    serializer.text(chars, 1, chars.length - 2);
+                    serializer.endTag(DAS_XML_NAMESPACE, "CHARS");
+                }
+                serializer.endTag(DAS_XML_NAMESPACE, "VALUES");
+            }
+        });
+    }
+
+    public void testEscapedCharacters() throws Exception {
+        for (XmlSerializer serializer : new XmlSerializer[]{factory.newSerializer(), new DasXmlWriter()}) {
+            String name = serializer.getClass().getName();
+            StringWriter out = new StringWriter();
+            serializer.setOutput(out);
+            serializer.startTag(DAS_XML_NAMESPACE, "VALUE");
+            serializer.attribute(DAS_XML_NAMESPACE, "value", "<a & \"b\" \u00e9>");
+            serializer.text("<a & \"b\" \u00e9>");
+            serializer.endTag(DAS_XML_NAMESPACE, "VALUE");
+            serializer.flush();
+            assertEquals(name, "<VALUE value=\"&lt;a &amp; &quot;b&quot; \u00e9>\">&lt;a &amp; \"b\" \u00e9></VALUE>", out.toString());
+        }
+    }
+
+    private static SegmentQuery getSegmentQuery(String segment) {
+        Matcher matcher = SEGMENT_PATTERN.matcher(segment);
+        assertTrue(matcher.find());
+        return new SegmentQuery(matcher);
+    }
+
+    /**
+     * Writes the document with the xpp3 serializer and with DasXmlWriter, indented as by
+     * default and not indented as with xml_indentation set to false, and compares the output.
+     */
+    private void assertSameOutput(Document document) throws Exception {
+        for (boolean indented : new boolean[]{true, false}) {
+            String expected = write(factory.newSerializer(), document, indented);
+            String actual = write(new DasXmlWriter(), document, indented);
+            assertEquals((indented ? "indented" : "not indented"), expected, actual);
+        }
+    }
+
+    private static String write(XmlSerializer serializer, Document document, boolean indented) throws Exception {
+        StringWriter out = new StringWriter();
+        serializer.setOutput(out);
+        if (indented) {
+            serializer.setProperty(INDENTATION_PROPERTY, "  ");
+        }
+        serializer.startDocument(null, false);
+        serializer.text("\n");
+        document.write(serializer);
+        serializer.flush();
+        return out.toString();
+    }
+
+    private interface Document {
+        void write(XmlSerializer serializer) throws Exception;
+    }
+}
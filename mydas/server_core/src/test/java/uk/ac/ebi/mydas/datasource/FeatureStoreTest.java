@@ -0,0 +1,316 @@
+/*
+ * Copyright 2007 Philip Jones, EMBL-European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *
+ * For further details of the mydas project, including source code,
+ * downloads and documentation, please see:
+ *
+ * http://code.google.com/p/mydas/
+ *
+ */
+
+
+package uk.ac.ebi.mydas.datasource;
+
+import junit.framework.TestCase;
+import uk.ac.ebi.mydas.model.DasFeature;
+import uk.ac.ebi.mydas.model.DasFeatureOrientation;
+import uk.ac.ebi.mydas.model.DasMethod;
+import uk.ac.ebi.mydas.model.DasPhase;
+import uk.ac.ebi.mydas.model.DasTarget;
+import uk.ac.ebi.mydas.model.DasType;
+
+import java.io.File;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes a few hundred features on several segments with a {@link FeatureStoreWriter}, then
+ * checks that the reopened {@link FeatureStore} returns them as they were added.
+ */
+public class FeatureStoreTest extends TestCase {
+
+    private static final int CHR1_LENGTH = 1000000;
+
+    private static final DasType[] TYPES = {
+            new DasType("exon", "transcription", "SO:0000147", "Exon"),
+            new DasType("gene", null, "SO:0000704", null),
+            new DasType("SNP", "variation", null, null)
+    };
+
+    private File directory;
+
+    private File file;
+
+    /**
+     * The features written, by segment, in the order they were added.
+     */
+    private Map<String, List<DasFeature>> written;
+
+    private FeatureStore store;
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        directory = File.createTempFile("feature-store-", "");
+        assertTrue(directory.delete() && directory.mkdir());
+        file = new File(directory, "features.mdfs");
+        written = new LinkedHashMap<String, List<DasFeature>>();
+        DasMethod method = new DasMethod("test", "Test method", null);
+
+        FeatureStoreWriter writer = new FeatureStoreWriter(file);
+        writer.setSegment("chr1", 1, CHR1_LENGTH);
+        writer.setSegment("empty", 1, 5000);
+        // chr1: a feature every 2011 bp, every ninth one covering 50 kb, added from the last one
+        // so that the writer has to sort them.  That is more than 128 features per 16 kb window
+        // for the long ones, and several blocks in all.
+        List<DasFeature> chr1 = new ArrayList<DasFeature>();
+        for (int i = 399; i >= 0; i--) {
+            int start = 1 + i * 2011;
+            int length = (i % 9 == 0) ? 50000 : 100 + i % 50;
+            chr1.add(createFeature("c1_" + i, i, method, start, start + length - 1));
+        }
+        // Features starting at the same base, and a feature id also used on chr2.
+        for (int i = 0; i < 5; i++) {
+            chr1.add(createFeature("same_" + i, i, method, 16385, 16385 + i * 10));
+        }
+        chr1.add(createFeature("shared", 1, method, 700000, 700010));
+        // chr2 is not declared, it ends with its last feature.
+        List<DasFeature> chr2 = new ArrayList<DasFeature>();
+        for (int i = 0; i < 150; i++) {
+            int start = 1 + (i * 7919) % 300000;
+            chr2.add(createFeature("c2_" + i, i + 1, method, start, start + 20));
+        }
+        chr2.add(createFeature("shared", 2, method, 123, 456));
+        add(writer, "chr1", chr1);
+        add(writer, "chr2", chr2);
+        writer.close();
+
+        store = FeatureStore.open(file);
+    }
+
+    protected void tearDown() throws Exception {
+        store = null;
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                f.delete();
+            }
+        }
+        directory.delete();
+        super.tearDown();
+    }
+
+    /**
+     * Creates a feature, the optional fields depending on n.
+     */
+    private static DasFeature createFeature(String id, int n, DasMethod method, int start, int stop) throws Exception {
+        String label = (n % 3 == 0) ? null : (n % 3 == 1) ? id : "Label é " + n;
+        Double score = (n % 4 == 0) ? null : n * 0.5;
+        List<String> notes = (n % 5 == 0) ? null : Arrays.asList("Note " + n, "<second> & note");
+        Map<URL, String> links = null;
+        if (n % 6 == 1) {
+            links = new LinkedHashMap<URL, String>();
+            links.put(new URL("http://www.example.org/feature/" + id), "Feature " + id);
+            links.put(new URL("http://www.example.org/other?id=" + n), "Other");
+        }
+        List<DasTarget> targets = null;
+        if (n % 7 == 2) {
+            targets = Arrays.asList(new DasTarget("target_" + n, n, n + 100, "Target " + n),
+                    new DasTarget("reverse", 500, 400, null));
+        }
+        List<String> parents = (n % 8 == 3) ? Collections.singletonList("parent_" + n) : null;
+        List<String> parts = (n % 8 == 4) ? Arrays.asList("part_a" + n, "part_b" + n) : null;
+        return new DasFeature(id, label, TYPES[n % TYPES.length], method, start, stop, score,
+                DasFeatureOrientation.values()[n % 3], DasPhase.values()[n % 4],
+                notes, links, targets, parents, parts);
+    }
+
+    private void add(FeatureStoreWriter writer, String segmentId, List<DasFeature> features) throws Exception {
+        for (DasFeature feature : features) {
+            writer.add(segmentId, feature);
+        }
+        written.put(segmentId, features);
+    }
+
+    public void testSegments() throws Exception {
+        assertEquals(557, store.getFeatureCount());
+        assertEquals(3, store.getSegments().size());
+        assertSegment("chr1", 1, CHR1_LENGTH, 406);
+        assertSegment("empty", 1, 5000, 0);
+        int chr2Stop = 0;
+        for (DasFeature feature : written.get("chr2")) {
+            chr2Stop = Math.max(chr2Stop, feature.getStopCoordinate());
+        }
+        assertSegment("chr2", 1, chr2Stop, 151);
+        assertNull(store.getSegment("chr3"));
+    }
+
+    private void assertSegment(String name, int start, int stop, long featureCount) {
+        FeatureStore.Segment segment = store.getSegment(name);
+        assertEquals(name, segment.getName());
+        assertEquals(start, segment.getStart());
+        assertEquals(stop, segment.getStop());
+        assertEquals(featureCount, segment.getFeatureCount());
+    }
+
+    public void testRangeQueries() throws Exception {
+        int[][] regions = {
+                {1, CHR1_LENGTH}, {1, 1}, {16384, 16384}, {16385, 16385}, {16384, 16385}, {16386, 32768},
+                {32768, 32769}, {49152, 65536}, {100000, 150000}, {402000, 402000}, {700000, 700000},
+                {804000, CHR1_LENGTH}, {900000, 950000}, {0, 10}, {-100, 2000000}
+        };
+        for (int[] region : regions) {
+            assertRange("chr1", region[0], region[1]);
+        }
+        int[][] chr2Regions = {{1, 300021}, {100, 200}, {7919, 7939}, {150000, 160000}, {299990, 300021}};
+        for (int[] region : chr2Regions) {
+            assertRange("chr2", region[0], region[1]);
+        }
+        assertTrue(store.getFeatures(store.getSegment("empty"), 1, 5000).isEmpty());
+        assertTrue(store.getFeatures(store.getSegment("chr1"), 500, 400).isEmpty());
+    }
+
+    /**
+     * Compares the features returned for a region with the features written that overlap it.
+     */
+    private void assertRange(String segmentId, int start, int stop) throws Exception {
+        List<DasFeature> features = store.getFeatures(store.getSegment(segmentId), start, stop);
+        Map<String, DasFeature> expected = new HashMap<String, DasFeature>();
+        for (DasFeature feature : written.get(segmentId)) {
+            if (feature.getStartCoordinate() <= stop && feature.getStopCoordinate() >= start) {
+                expected.put(feature.getFeatureId(), feature);
+            }
+        }
+        String region = segmentId + ":" + start + "-" + stop;
+        assertEquals(region, expected.size(), features.size());
+        int previousStart = Integer.MIN_VALUE;
+        for (DasFeature feature : features) {
+            assertTrue(region, feature.getStartCoordinate() >= previousStart);
+            previousStart = feature.getStartCoordinate();
+            DasFeature expectedFeature = expected.remove(feature.getFeatureId());
+            assertNotNull(region + " " + feature.getFeatureId(), expectedFeature);
+            assertFeature(expectedFeature, feature);
+        }
+    }
+
+    public void testFeatureIdLookup() throws Exception {
+        for (Map.Entry<String, List<DasFeature>> segment : written.entrySet()) {
+            for (DasFeature feature : segment.getValue()) {
+                if (feature.getFeatureId().equals("shared")) {
+                    continue;
+                }
+                List<FeatureStore.Located> found = store.getFeatures(feature.getFeatureId());
+                assertEquals(feature.getFeatureId(), 1, found.size());
+                assertEquals(segment.getKey(), found.get(0).getSegment().getName());
+                assertFeature(feature, found.get(0).getFeature());
+            }
+        }
+        List<FeatureStore.Located> shared = store.getFeatures("shared");
+        assertEquals(2, shared.size());
+        List<String> segments = new ArrayList<String>();
+        for (FeatureStore.Located located : shared) {
+            segments.add(located.getSegment().getName());
+            assertEquals("shared", located.getFeature().getFeatureId());
+        }
+        Collections.sort(segments);
+        assertEquals(Arrays.asList("chr1", "chr2"), segments);
+    }
+
+    public void testFeatureIdMisses() throws Exception {
+        String[] missing = {"missing", "c1_400", "c1_", "c2_150", "C1_1", "", "shared "};
+        for (String featureId : missing) {
+            assertTrue(featureId, store.getFeatures(featureId).isEmpty());
+        }
+    }
+
+    public void testTypeCounts() throws Exception {
+        Map<DasType, Long> expected = new HashMap<DasType, Long>();
+        for (List<DasFeature> features : written.values()) {
+            for (DasFeature feature : features) {
+                Long count = expected.get(feature.getType());
+                expected.put(feature.getType(), (count == null) ? 1L : count + 1);
+            }
+        }
+        Map<DasType, Long> typeCounts = store.getTypeCounts();
+        assertEquals(expected, typeCounts);
+        for (DasType type : typeCounts.keySet()) {
+            DasType original = TYPES[Arrays.asList(TYPES).indexOf(type)];
+            assertEquals(original.getCategory(), type.getCategory());
+            assertEquals(original.getCvId(), type.getCvId());
+            assertEquals(original.getLabel(), type.getLabel());
+        }
+    }
+
+    /**
+     * Compares two features field by field: DasTarget has no equals(), URL.equals() resolves host
+     * names, and the notes may come back in another kind of collection.
+     */
+    private static void assertFeature(DasFeature expected, DasFeature actual) {
+        String id = expected.getFeatureId();
+        assertEquals(id, expected.getFeatureId(), actual.getFeatureId());
+        assertEquals(id, expected.getFeatureLabel(), actual.getFeatureLabel());
+        assertEquals(id, expected.getType(), actual.getType());
+        assertEquals(id, expected.getMethod().getId(), actual.getMethod().getId());
+        assertEquals(id, expected.getMethod().getLabel(), actual.getMethod().getLabel());
+        assertEquals(id, expected.getStartCoordinate(), actual.getStartCoordinate());
+        assertEquals(id, expected.getStopCoordinate(), actual.getStopCoordinate());
+        assertEquals(id, expected.getScore(), actual.getScore());
+        assertEquals(id, expected.getOrientation(), actual.getOrientation());
+        assertEquals(id, expected.getPhase(), actual.getPhase());
+        assertStrings(id, expected.getNotes(), actual.getNotes());
+        assertStrings(id, expected.getParents(), actual.getParents());
+        assertStrings(id, expected.getParts(), actual.getParts());
+        if (expected.getLinks() == null) {
+            assertNull(id, actual.getLinks());
+        } else {
+            assertEquals(id, expected.getLinks().size(), actual.getLinks().size());
+            Iterator<Map.Entry<URL, String>> links = actual.getLinks().entrySet().iterator();
+            for (Map.Entry<URL, String> link : expected.getLinks().entrySet()) {
+                Map.Entry<URL, String> actualLink = links.next();
+                assertEquals(id, link.getKey().toString(), actualLink.getKey().toString());
+                assertEquals(id, link.getValue(), actualLink.getValue());
+            }
+        }
+        if (expected.getTargets() == null) {
+            assertNull(id, actual.getTargets());
+        } else {
+            assertEquals(id, expected.getTargets().size(), actual.getTargets().size());
+            Iterator<DasTarget> targets = actual.getTargets().iterator();
+            for (DasTarget target : expected.getTargets()) {
+                DasTarget actualTarget = targets.next();
+                assertEquals(id, target.getTargetId(), actualTarget.getTargetId());
+                assertEquals(id, target.getStartCoordinate(), actualTarget.getStartCoordinate());
+                assertEquals(id, target.getStopCoordinate(), actualTarget.getStopCoordinate());
+                assertEquals(id, target.getTargetName(), actualTarget.getTargetName());
+            }
+        }
+    }
+
+    private static void assertStrings(String id, Collection<String> expected, Collection<String> actual) {
+        if (expected == null) {
+            assertNull(id, actual);
+        } else {
+            assertEquals(id, new ArrayList<String>(expected), new ArrayList<String>(actual));
+        }
+    }
+}
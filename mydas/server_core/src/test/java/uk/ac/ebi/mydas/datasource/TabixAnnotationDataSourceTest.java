@@ -0,0 +1,307 @@
+/*
+ * Copyright 2007 Philip Jones, EMBL-European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *
+ * For further details of the mydas project, including source code,
+ * downloads and documentation, please see:
+ *
+ * http://code.google.com/p/mydas/
+ *
+ */
+
+
+package uk.ac.ebi.mydas.datasource;
+
+import junit.framework.TestCase;
+import uk.ac.ebi.mydas.configuration.DataSourceConfiguration;
+import uk.ac.ebi.mydas.configuration.Mydasserver;
+import uk.ac.ebi.mydas.configuration.PropertyType;
+import uk.ac.ebi.mydas.model.DasAnnotatedSegment;
+import uk.ac.ebi.mydas.model.DasFeature;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStreamReader;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Checks the features read through the tabix and CSI indexes against those found by reading
+ * the whole file, for regions starting and ending on the edges of the 16 kb windows and of the
+ * bins of each level.
+ * <p/>
+ * The fixtures in src/test/resources/tabix hold the same positions as GFF, BED and VCF: short
+ * features every 173 bp, single bases and three base features on each edge, and features
+ * spanning them.  The bgzipped files and .tbi indexes were written with htsjdk, the .csi ones
+ * as tabix -C does, with -m 12 for the GFF file (7 levels) and -m 14 for the VCF file (6 levels).
+ */
+public class TabixAnnotationDataSourceTest extends TestCase {
+
+    private static final int[] EDGES = {16384, 16385, 32768, 32769, 131072, 131073, 262144, 262145, 1048576, 1048577};
+
+    private static final int CHR1_LENGTH = 1200000;
+
+    private static final int CHR2_LENGTH = 50000;
+
+    private final List<TabixAnnotationDataSource> dataSources = new ArrayList<TabixAnnotationDataSource>();
+
+    protected void tearDown() throws Exception {
+        for (TabixAnnotationDataSource dataSource : dataSources) {
+            dataSource.destroy();
+        }
+        super.tearDown();
+    }
+
+    public void testGffTabixIndex() throws Exception {
+        checkRegions("features.gff.gz", null);
+    }
+
+    public void testGffCsiIndex() throws Exception {
+        checkRegions("features.gff.gz", "features.gff.gz.csi");
+    }
+
+    public void testBedTabixIndex() throws Exception {
+        checkRegions("regions.bed.gz", null);
+    }
+
+    public void testVcfTabixIndex() throws Exception {
+        checkRegions("variants.vcf.gz", null);
+    }
+
+    public void testVcfCsiIndex() throws Exception {
+        checkRegions("variants.vcf.gz", "variants.vcf.gz.csi");
+    }
+
+    /**
+     * BED begins are 0-based: the line 16383-16384 is the single base 16384.
+     */
+    public void testBedBeginShifted() throws Exception {
+        TabixAnnotationDataSource dataSource = open("regions.bed.gz", null);
+        String name = findName("regions.bed.gz", 16384, 16384);
+        assertTrue(getKeys(dataSource, "regions.bed.gz", "chr1", 16384, 16384).contains(name + ":16384-16384"));
+        for (String key : getKeys(dataSource, "regions.bed.gz", "chr1", 16385, 16385)) {
+            assertFalse(key, key.endsWith(":16384-16384"));
+        }
+    }
+
+    /**
+     * A VCF record ends with its END info field if it has one, otherwise with its reference allele.
+     */
+    public void testVcfEnd() throws Exception {
+        TabixAnnotationDataSource dataSource = open("variants.vcf.gz", null);
+        Set<String> keys = getKeys(dataSource, "variants.vcf.gz", "chr1", 16900, 16950);
+        assertTrue(keys.toString(), keys.contains(findName("variants.vcf.gz", 16000, 17000) + ":16000-17000"));
+        keys = getKeys(dataSource, "variants.vcf.gz", "chr1", 1099999, 1100001);
+        assertTrue(keys.toString(), keys.contains("v2:100-1100000"));
+        keys = getKeys(dataSource, "variants.vcf.gz", "chr1", 16385, 16385);
+        assertTrue(keys.toString(), keys.contains(findName("variants.vcf.gz", 16383, 16385) + ":16383-16385"));
+    }
+
+    public void testSequenceLengths() throws Exception {
+        TabixAnnotationDataSource dataSource = open("features.gff.gz", null);
+        DasAnnotatedSegment segment = dataSource.getFeatures("chr2", null);
+        assertEquals(Integer.valueOf(CHR2_LENGTH), segment.getStopCoordinate());
+        assertEquals(3, segment.getFeatures().size());
+        segment = dataSource.getFeatures("chr1", CHR1_LENGTH - 10, CHR1_LENGTH + 10, null);
+        assertEquals(Integer.valueOf(CHR1_LENGTH), segment.getStopCoordinate());
+        assertEquals(0, segment.getFeatures().size());
+    }
+
+    /**
+     * Reads every line of a file through its virtual offset, across the BGZF blocks.
+     */
+    public void testBgzfVirtualOffsets() throws Exception {
+        FileInputStream in = new FileInputStream(getResource("features.gff.gz"));
+        try {
+            FileChannel channel = in.getChannel();
+            BgzfReader reader = new BgzfReader(channel);
+            List<Long> offsets = new ArrayList<Long>();
+            List<String> lines = new ArrayList<String>();
+            String line;
+            while (true) {
+                long offset = reader.getVirtualOffset();
+                if ((line = reader.readLine()) == null) {
+                    break;
+                }
+                offsets.add(offset);
+                lines.add(line);
+            }
+            reader.close();
+            assertEquals(readLines("features.gff.gz"), lines);
+            assertTrue("The fixture should span several BGZF blocks", offsets.get(offsets.size() - 1) >>> 16 > 0);
+
+            reader = new BgzfReader(channel);
+            for (int i = lines.size() - 1; i >= 0; i -= 7) {
+                reader.seek(offsets.get(i));
+                assertEquals(offsets.get(i).longValue(), reader.getVirtualOffset());
+                assertEquals(lines.get(i), reader.readLine());
+            }
+            reader.close();
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Compares the features of the data source with those of the whole file, for regions on
+     * each side of the edges.
+     */
+    private void checkRegions(String fileName, String indexName) throws Exception {
+        TabixAnnotationDataSource dataSource = open(fileName, indexName);
+        List<String[]> records = readRecords(fileName);
+        List<int[]> regions = new ArrayList<int[]>();
+        for (int edge : EDGES) {
+            regions.add(new int[]{edge - 1, edge - 1});
+            regions.add(new int[]{edge, edge});
+            regions.add(new int[]{edge + 1, edge + 1});
+            regions.add(new int[]{edge - 1, edge});
+            regions.add(new int[]{edge, edge + 1});
+            regions.add(new int[]{1, edge});
+            regions.add(new int[]{edge, edge + 20000});
+            regions.add(new int[]{Math.max(1, edge - 16384), edge - 1});
+        }
+        regions.add(new int[]{1, CHR1_LENGTH});
+        for (int[] region : regions) {
+            assertEquals(fileName + " chr1:" + region[0] + "," + region[1],
+                    getExpectedKeys(records, "chr1", region[0], region[1]),
+                    getKeys(dataSource, fileName, "chr1", region[0], region[1]));
+        }
+        int[][] chr2Regions = {{1, CHR2_LENGTH}, {16384, 16384}, {16385, 16385}, {20, 20}, {21, 16383}, {16385, 40000}};
+        for (int[] region : chr2Regions) {
+            assertEquals(fileName + " chr2:" + region[0] + "," + region[1],
+                    getExpectedKeys(records, "chr2", region[0], region[1]),
+                    getKeys(dataSource, fileName, "chr2", region[0], region[1]));
+        }
+    }
+
+    private TabixAnnotationDataSource open(String fileName, String indexName) throws Exception {
+        Mydasserver.Datasources.Datasource.Version version = new Mydasserver.Datasources.Datasource.Version();
+        version.setUri(fileName);
+        version.setCreated("2013-01-01");
+        version.getProperty().add(createProperty(TabixAnnotationDataSource.FILE_PROPERTY, getResource(fileName).getPath()));
+        if (indexName != null) {
+            version.getProperty().add(createProperty(TabixAnnotationDataSource.INDEX_FILE_PROPERTY, getResource(indexName).getPath()));
+        }
+        Mydasserver.Datasources.Datasource config = new Mydasserver.Datasources.Datasource();
+        config.setTitle(fileName);
+        config.setDnaCommandEnabled(new Mydasserver.Datasources.Datasource.DnaCommandEnabled());
+        config.setUseFeatureIdForFeatureLabel(new Mydasserver.Datasources.Datasource.UseFeatureIdForFeatureLabel());
+        config.setIncludeTypesWithZeroCount(new Mydasserver.Datasources.Datasource.IncludeTypesWithZeroCount());
+        config.getVersion().add(version);
+        TabixAnnotationDataSource dataSource = new TabixAnnotationDataSource();
+        dataSource.init(null, null, new DataSourceConfiguration(config, 0));
+        dataSources.add(dataSource);
+        return dataSource;
+    }
+
+    private static PropertyType createProperty(String key, String value) {
+        PropertyType property = new PropertyType();
+        property.setKey(key);
+        property.setValue(value);
+        return property;
+    }
+
+    private File getResource(String name) throws Exception {
+        return new File(getClass().getResource("/tabix/" + name).toURI());
+    }
+
+    /**
+     * @return the features of a region, as name:start-stop.
+     */
+    private static Set<String> getKeys(TabixAnnotationDataSource dataSource, String fileName, String segmentId, int start, int stop)
+            throws Exception {
+        Set<String> keys = new TreeSet<String>();
+        for (DasFeature feature : dataSource.getFeatures(segmentId, start, stop, null).getFeatures()) {
+            String name = fileName.endsWith(".bed.gz") ? feature.getFeatureLabel() : feature.getFeatureId();
+            assertTrue("Duplicate feature " + name, keys.add(name + ":" + feature.getStartCoordinate() + "-" + feature.getStopCoordinate()));
+        }
+        return keys;
+    }
+
+    /**
+     * @return the records of the file overlapping a region, as name:start-stop.
+     */
+    private static Set<String> getExpectedKeys(List<String[]> records, String sequence, int start, int stop) {
+        Set<String> keys = new TreeSet<String>();
+        for (String[] record : records) {
+            if (record[0].equals(sequence) && Integer.parseInt(record[2]) <= stop && Integer.parseInt(record[3]) >= start) {
+                keys.add(record[1] + ":" + record[2] + "-" + record[3]);
+            }
+        }
+        return keys;
+    }
+
+    /**
+     * Reads the whole file, giving the sequence, name, start (from 1) and end (inclusive) of
+     * each record.
+     */
+    private List<String[]> readRecords(String fileName) throws Exception {
+        List<String[]> records = new ArrayList<String[]>();
+        for (String line : readLines(fileName)) {
+            if (line.startsWith("#")) {
+                continue;
+            }
+            String[] fields = line.split("\t");
+            if (fileName.endsWith(".gff.gz")) {
+                String id = fields[8].substring(3, fields[8].indexOf(';'));
+                records.add(new String[]{fields[0], id, fields[3], fields[4]});
+            } else if (fileName.endsWith(".bed.gz")) {
+                records.add(new String[]{fields[0], fields[3], Integer.toString(Integer.parseInt(fields[1]) + 1), fields[2]});
+            } else {
+                int begin = Integer.parseInt(fields[1]);
+                int end = begin + fields[3].length() - 1;
+                for (String info : fields[7].split(";")) {
+                    if (info.startsWith("END=")) {
+                        end = Integer.parseInt(info.substring(4));
+                    }
+                }
+                records.add(new String[]{fields[0], fields[2], fields[1], Integer.toString(end)});
+            }
+        }
+        return records;
+    }
+
+    /**
+     * @return the name of the record of chr1 with the given coordinates, from 1.
+     */
+    private String findName(String fileName, int start, int stop) throws Exception {
+        for (String[] record : readRecords(fileName)) {
+            if (record[0].equals("chr1") && record[2].equals(Integer.toString(start)) && record[3].equals(Integer.toString(stop))) {
+                return record[1];
+            }
+        }
+        fail("No record " + start + "-" + stop + " in " + fileName);
+        return null;
+    }
+
+    private List<String> readLines(String fileName) throws Exception {
+        List<String> lines = new ArrayList<String>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new GZIPInputStream(new FileInputStream(getResource(fileName))), "UTF-8"));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lines.add(line);
+            }
+        } finally {
+            reader.close();
+        }
+        return lines;
+    }
+}
@@ -0,0 +1,256 @@
+/*
+ * Copyright 2007 Philip Jones, EMBL-European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *
+ * For further details of the mydas project, including source code,
+ * downloads and documentation, please see:
+ *
+ * http://code.google.com/p/mydas/
+ *
+ */
+
+
+package uk.ac.ebi.mydas.datasource;
+
+import junit.framework.TestCase;
+import uk.ac.ebi.mydas.configuration.DataSourceConfiguration;
+import uk.ac.ebi.mydas.configuration.PropertyType;
+import uk.ac.ebi.mydas.exceptions.BadReferenceObjectException;
+import uk.ac.ebi.mydas.exceptions.CoordinateErrorException;
+import uk.ac.ebi.mydas.exceptions.DataSourceException;
+import uk.ac.ebi.mydas.exceptions.UnimplementedFeatureException;
+import uk.ac.ebi.mydas.model.DasAnnotatedSegment;
+import uk.ac.ebi.mydas.model.DasEntryPoint;
+import uk.ac.ebi.mydas.model.DasFeature;
+import uk.ac.ebi.mydas.model.DasMethod;
+import uk.ac.ebi.mydas.model.DasType;
+import uk.ac.ebi.mydas.model.Range;
+
+import javax.servlet.ServletContext;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Checks that the tile cache answers range requests with the features the data source itself
+ * returns, fetching each run of missing tiles in a single call.
+ */
+public class TileCachingAnnotationDataSourceTest extends TestCase {
+
+    private static final int TILE_SIZE = 1000;
+
+    private static final int SEGMENT_LENGTH = 10000;
+
+    private RecordingDataSource dataSource;
+
+    private TileCachingAnnotationDataSource cache;
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        dataSource = new RecordingDataSource(createFeatures());
+        cache = new TileCachingAnnotationDataSource(dataSource, TILE_SIZE, 100000L);
+    }
+
+    /**
+     * Short features every 25 bp, enough for the fetched segments to be indexed, and one feature
+     * spanning four tiles.  They have no score, so DasFeature.hashCode() cannot be used on them.
+     */
+    private static List<DasFeature> createFeatures() throws DataSourceException {
+        DasType type = new DasType("exon", null, null, null);
+        DasMethod method = new DasMethod("test", null, null);
+        List<DasFeature> features = new ArrayList<DasFeature>();
+        for (int start = 1; start < SEGMENT_LENGTH; start += 25) {
+            features.add(new DasFeature("f" + start, null, type, method, start, start + 40,
+                    null, null, null, null, null, null, null, null));
+        }
+        features.add(new DasFeature("spanning", null, type, method, 900, 4100,
+                null, null, null, null, null, null, null, null));
+        return features;
+    }
+
+    public void testRunOfMissingTiles() throws Exception {
+        assertSameFeatures(1500, 3500);
+        assertEquals(1, dataSource.calls.size());
+        assertCall(0, 1001, 4000);
+        assertEquals(3, cache.getMisses());
+        assertEquals(0, cache.getHits());
+    }
+
+    public void testCacheHit() throws Exception {
+        assertSameFeatures(1500, 3500);
+        assertSameFeatures(1200, 2200);
+        assertSameFeatures(3000, 3000);
+        assertEquals(1, dataSource.calls.size());
+        assertEquals(3, cache.getHits());
+    }
+
+    public void testMissingTilesAroundCachedOnes() throws Exception {
+        assertSameFeatures(1500, 3500);
+        assertSameFeatures(500, 5500);
+        assertEquals(3, dataSource.calls.size());
+        assertCall(1, 1, 1000);
+        assertCall(2, 4001, 6000);
+        assertEquals(3, cache.getHits());
+        assertEquals(6, cache.getMisses());
+    }
+
+    public void testSpanningFeatureReturnedOnce() throws Exception {
+        Collection<DasFeature> features = cache.getFeatures("chr1", 1, 5000, null).getFeatures();
+        int count = 0;
+        for (DasFeature feature : features) {
+            if ("spanning".equals(feature.getFeatureId())) {
+                count++;
+            }
+        }
+        assertEquals(1, count);
+        assertEquals(getIds(features).size(), features.size());
+    }
+
+    public void testCoordinateErrorFallback() throws Exception {
+        dataSource.strict = true;
+        dataSource.length = 9500;
+        assertSameFeatures(8500, 9500);
+        assertEquals(2, dataSource.calls.size());
+        assertCall(0, 8001, 10000);
+        assertCall(1, 8500, 9500);
+        // Nothing was cached, the next request goes to the data source again.
+        assertSameFeatures(8500, 9500);
+        assertEquals(4, dataSource.calls.size());
+        assertEquals(0, cache.getCachedFeatures());
+    }
+
+    public void testInvalidCoordinatesNotCached() throws Exception {
+        try {
+            cache.getFeatures("chr1", 0, 100, null);
+            fail("The data source should have rejected the coordinates");
+        } catch (CoordinateErrorException e) {
+            // Expected, reported by the data source.
+        }
+        assertEquals(0, cache.getMisses());
+    }
+
+    /**
+     * Asserts that the cache returns the same features, in any order, as the data source.
+     */
+    private void assertSameFeatures(int start, int stop) throws Exception {
+        int calls = dataSource.calls.size();
+        Collection<DasFeature> expected = dataSource.getFeatures("chr1", start, stop, null).getFeatures();
+        dataSource.calls.remove(calls);
+        DasAnnotatedSegment segment = cache.getFeatures("chr1", start, stop, null);
+        assertEquals("chr1", segment.getSegmentId());
+        assertEquals(Integer.valueOf(start), segment.getStartCoordinate());
+        assertEquals(Integer.valueOf(stop), segment.getStopCoordinate());
+        assertEquals(expected.size(), segment.getFeatures().size());
+        assertEquals(getIds(expected), getIds(segment.getFeatures()));
+    }
+
+    private static Set<String> getIds(Collection<DasFeature> features) {
+        Set<String> ids = new HashSet<String>();
+        for (DasFeature feature : features) {
+            ids.add(feature.getFeatureId());
+        }
+        return ids;
+    }
+
+    private void assertCall(int index, int start, int stop) {
+        assertEquals(start, dataSource.calls.get(index)[0]);
+        assertEquals(stop, dataSource.calls.get(index)[1]);
+    }
+
+    /**
+     * A single segment held in memory, recording the ranges requested.  When strict, it rejects
+     * the ranges going beyond the end of the segment.
+     */
+    private static class RecordingDataSource implements RangeHandlingAnnotationDataSource {
+        private final DasAnnotatedSegment segment;
+        private final List<int[]> calls = new ArrayList<int[]>();
+        private boolean strict = false;
+        private int length = SEGMENT_LENGTH;
+
+        private RecordingDataSource(List<DasFeature> features) throws DataSourceException {
+            segment = new DasAnnotatedSegment("chr1", 1, SEGMENT_LENGTH, "1", "chr1", features);
+        }
+
+        public DasAnnotatedSegment getFeatures(String segmentId, int start, int stop, Integer maxbins)
+                throws BadReferenceObjectException, CoordinateErrorException, DataSourceException {
+            calls.add(new int[]{start, stop});
+            if (!"chr1".equals(segmentId)) {
+                throw new BadReferenceObjectException(segmentId, "Unknown segment");
+            }
+            if (start < 1 || start > stop || (strict && stop > length)) {
+                throw new CoordinateErrorException(segmentId, start, stop);
+            }
+            return new DasAnnotatedSegment(segmentId, start, stop, "1", "chr1",
+                    new ArrayList<DasFeature>(segment.getFeatures(start, stop)));
+        }
+
+        public DasAnnotatedSegment getFeatures(String segmentId, int start, int stop, Integer maxbins, Range rows)
+                throws UnimplementedFeatureException {
+            throw new UnimplementedFeatureException("Not used by the test");
+        }
+
+        public void init(ServletContext servletContext, Map<String, PropertyType> globalParameters, DataSourceConfiguration dataSourceConfig) {
+        }
+
+        public void destroy() {
+        }
+
+        public DasAnnotatedSegment getFeatures(String segmentId, Integer maxbins) {
+            return segment;
+        }
+
+        public Collection<DasType> getTypes() {
+            return new ArrayList<DasType>();
+        }
+
+        public Collection<DasAnnotatedSegment> getFeatures(Collection<String> featureIdCollection, Integer maxbins)
+                throws UnimplementedFeatureException {
+            throw new UnimplementedFeatureException("Not used by the test");
+        }
+
+        public Integer getTotalCountForType(DasType type) {
+            return null;
+        }
+
+        public URL getLinkURL(String field, String id) throws UnimplementedFeatureException {
+            throw new UnimplementedFeatureException("Not used by the test");
+        }
+
+        public Collection<DasEntryPoint> getEntryPoints(Integer start, Integer stop) throws UnimplementedFeatureException {
+            throw new UnimplementedFeatureException("Not used by the test");
+        }
+
+        public String getEntryPointVersion() throws UnimplementedFeatureException {
+            throw new UnimplementedFeatureException("Not used by the test");
+        }
+
+        public int getTotalEntryPoints() throws UnimplementedFeatureException {
+            throw new UnimplementedFeatureException("Not used by the test");
+        }
+
+        public DasAnnotatedSegment getFeatures(String segmentId, Integer maxbins, Range rows) throws UnimplementedFeatureException {
+            throw new UnimplementedFeatureException("Not used by the test");
+        }
+
+        public Collection<DasAnnotatedSegment> getFeatures(Collection<String> featureIdCollection, Integer maxbins, Range rows)
+                throws UnimplementedFeatureException {
+            throw new UnimplementedFeatureException("Not used by the test");
+        }
+    }
+}
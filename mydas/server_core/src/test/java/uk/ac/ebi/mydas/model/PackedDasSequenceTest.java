@@ -0,0 +1,177 @@
+/*
+ * Copyright 2007 Philip Jones, EMBL-European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *
+ * For further details of the mydas project, including source code,
+ * downloads and documentation, please see:
+ *
+ * http://code.google.com/p/mydas/
+ *
+ */
+
+package uk.ac.ebi.mydas.model;
+
+import junit.framework.TestCase;
+import uk.ac.ebi.mydas.exceptions.CoordinateErrorException;
+
+import java.util.Random;
+
+/**
+ * Checks that PackedDasSequence gives back the sequence exactly as it was read, N runs, ambiguity
+ * codes and soft-masked regions included, whichever way it is read.
+ */
+public class PackedDasSequenceTest extends TestCase {
+
+    /**
+     * Longer than several decoding blocks of the sequence views.
+     */
+    private static final int LENGTH = 5000;
+
+    private String sequence;
+
+    private DasSequence packed;
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        sequence = createSequence(new Random(42L));
+        packed = PackedDasSequence.create("chr1", sequence, 1, "1", "label", DasSequence.TYPE_DNA);
+    }
+
+    /**
+     * Random bases, with an N run at each end and one across the boundary of the first two
+     * decoding blocks, an ambiguity code, and lower case runs, one of them over an N run.
+     */
+    private static String createSequence(Random random) {
+        StringBuilder builder = new StringBuilder(LENGTH);
+        for (int i = 0; i < LENGTH; i++) {
+            builder.append("ACGT".charAt(random.nextInt(4)));
+        }
+        fill(builder, 0, 10, 'N');
+        fill(builder, 1000, 1050, 'N');
+        fill(builder, LENGTH - 7, LENGTH, 'N');
+        builder.setCharAt(2500, 'R');
+        lowerCase(builder, 1020, 1100);
+        lowerCase(builder, 2040, 2060);
+        lowerCase(builder, LENGTH - 3, LENGTH);
+        return builder.toString();
+    }
+
+    private static void fill(StringBuilder builder, int from, int to, char ch) {
+        for (int i = from; i < to; i++) {
+            builder.setCharAt(i, ch);
+        }
+    }
+
+    private static void lowerCase(StringBuilder builder, int from, int to) {
+        for (int i = from; i < to; i++) {
+            builder.setCharAt(i, Character.toLowerCase(builder.charAt(i)));
+        }
+    }
+
+    public void testPacked() {
+        assertTrue(packed instanceof PackedDasSequence);
+        assertEquals(1, packed.getStartCoordinate().intValue());
+        assertEquals(LENGTH, packed.getStopCoordinate().intValue());
+        assertEquals(DasSequence.TYPE_DNA, packed.getMolType());
+        assertEquals("label", packed.getLabel());
+    }
+
+    public void testWholeSequence() throws Exception {
+        assertEquals(sequence, packed.getSequenceString());
+        assertEquals(sequence, packed.getRestrictedSequence(1, LENGTH).toString());
+    }
+
+    public void testRestrictedSequenceString() throws Exception {
+        Random random = new Random(7L);
+        for (int i = 0; i < 200; i++) {
+            int start = random.nextInt(LENGTH) + 1;
+            int stop = start + random.nextInt(LENGTH - start + 1);
+            assertEquals(start + "-" + stop, sequence.substring(start - 1, stop), packed.getRestrictedSequenceString(start, stop));
+        }
+        assertEquals("NNNNNNNNNN", packed.getRestrictedSequenceString(1, 10));
+        assertEquals(sequence.substring(1015, 1055), packed.getRestrictedSequenceString(1016, 1055));
+        assertEquals("nnn", packed.getRestrictedSequenceString(LENGTH - 2, LENGTH));
+        assertEquals("R", packed.getRestrictedSequenceString(2501, 2501));
+    }
+
+    public void testCharAtAcrossBlocks() throws Exception {
+        CharSequence view = packed.getRestrictedSequence(3, LENGTH - 1);
+        assertEquals(LENGTH - 3, view.length());
+        for (int i = 0; i < view.length(); i++) {
+            assertEquals("at " + i, sequence.charAt(i + 2), view.charAt(i));
+        }
+        // Backwards, so that each block is decoded again from a different position.
+        for (int i = view.length() - 1; i >= 0; i -= 3) {
+            assertEquals("at " + i, sequence.charAt(i + 2), view.charAt(i));
+        }
+    }
+
+    public void testSubSequenceAcrossBlocks() throws Exception {
+        CharSequence view = packed.getRestrictedSequence(900, 3200);
+        CharSequence sub = view.subSequence(100, 2200);
+        assertEquals(sequence.substring(999, 3099), sub.toString());
+        CharSequence subSub = sub.subSequence(1020, 1050);
+        assertEquals(sequence.substring(2019, 2049), subSub.toString());
+        for (int i = 0; i < sub.length(); i++) {
+            assertEquals("at " + i, sequence.charAt(999 + i), sub.charAt(i));
+        }
+        assertEquals(0, view.subSequence(5, 5).length());
+    }
+
+    public void testStartCoordinate() throws Exception {
+        DasSequence shifted = PackedDasSequence.create("chr1", sequence, 101, "1", null, DasSequence.TYPE_DNA);
+        assertEquals(101, shifted.getStartCoordinate().intValue());
+        assertEquals(LENGTH + 100, shifted.getStopCoordinate().intValue());
+        assertEquals(sequence.substring(0, 50), shifted.getRestrictedSequenceString(101, 150));
+    }
+
+    public void testOutOfRange() {
+        try {
+            packed.getRestrictedSequence(0, 10);
+            fail("start before the sequence");
+        } catch (CoordinateErrorException e) {
+            // Expected.
+        }
+        try {
+            packed.getRestrictedSequence(1, LENGTH + 1);
+            fail("stop after the sequence");
+        } catch (CoordinateErrorException e) {
+            // Expected.
+        }
+        try {
+            packed.getRestrictedSequence(10, 20).charAt(11);
+            fail("index after the view");
+        } catch (IndexOutOfBoundsException e) {
+            // Expected.
+        } catch (CoordinateErrorException e) {
+            fail(e.getMessage());
+        }
+    }
+
+    public void testNotPacked() throws Exception {
+        String protein = "MKVLAAGIVGLLLAGQWPEEHRSTYF";
+        DasSequence proteinSequence = PackedDasSequence.create("P1", protein, 1, "1", null, DasSequence.TYPE_PROTEIN);
+        assertFalse(proteinSequence instanceof PackedDasSequence);
+        assertEquals(protein, proteinSequence.getSequenceString());
+
+        StringBuilder ambiguous = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            ambiguous.append("ACRY");
+        }
+        DasSequence notPacked = PackedDasSequence.create("chr2", ambiguous, 1, "1", null, DasSequence.TYPE_DNA);
+        assertFalse(notPacked instanceof PackedDasSequence);
+        assertEquals(ambiguous.toString(), notPacked.getSequenceString());
+    }
+}